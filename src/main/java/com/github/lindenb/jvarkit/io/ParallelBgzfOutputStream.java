@@ -0,0 +1,244 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * BGZF output stream deflating the blocks in a pool of threads.
+ *
+ * The blocks are cut and deflated like htsjdk's BlockCompressedOutputStream does,
+ * so the output is the same as the serial stream. Blocks are written in order and
+ * the number of blocks waiting to be written is bounded.
+ */
+public class ParallelBgzfOutputStream extends OutputStream
+	{
+	/** size of an uncompressed block, same as htsjdk */
+	private static final int UNCOMPRESSED_BLOCK_SIZE = BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+	private final OutputStream delegate;
+	private final int compressionLevel;
+	private final ExecutorService executorService;
+	/** blocks being deflated, in order */
+	private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+	/** max number of blocks being deflated */
+	private final int maxPendingBlocks;
+	private final ThreadLocal<Deflater> threadDeflater;
+	private final ThreadLocal<Deflater> threadNoCompressionDeflater;
+	private byte[] uncompressedBuffer = new byte[UNCOMPRESSED_BLOCK_SIZE];
+	private int numUncompressedBytes = 0;
+	private boolean closed = false;
+
+	public ParallelBgzfOutputStream(final OutputStream delegate,final int compressionLevel,final int nThreads)
+		{
+		if(nThreads<1) throw new IllegalArgumentException("bad number of threads "+nThreads);
+		this.delegate = delegate;
+		this.compressionLevel = compressionLevel;
+		this.maxPendingBlocks = nThreads*4;
+		this.threadDeflater = ThreadLocal.withInitial(()->new Deflater(this.compressionLevel, true));
+		this.threadNoCompressionDeflater = ThreadLocal.withInitial(()->new Deflater(Deflater.NO_COMPRESSION, true));
+		this.executorService = Executors.newFixedThreadPool(nThreads,R->{
+			final Thread t = new Thread(R,"bgzf-deflater");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+
+	@Override
+	public void write(final int b) throws IOException
+		{
+		final byte array[]={(byte)b};
+		write(array,0,1);
+		}
+
+	@Override
+	public void write(final byte[] bytes, int startIndex, int numBytes) throws IOException
+		{
+		if(this.closed) throw new IOException("stream closed");
+		while(numBytes>0)
+			{
+			final int bytesToWrite = Math.min(this.uncompressedBuffer.length - this.numUncompressedBytes, numBytes);
+			System.arraycopy(bytes, startIndex, this.uncompressedBuffer, this.numUncompressedBytes, bytesToWrite);
+			this.numUncompressedBytes += bytesToWrite;
+			startIndex += bytesToWrite;
+			numBytes -= bytesToWrite;
+			if(this.numUncompressedBytes == this.uncompressedBuffer.length)
+				{
+				submitBlock();
+				}
+			}
+		}
+
+	/** send the current uncompressed buffer to the deflaters */
+	private void submitBlock() throws IOException
+		{
+		if(this.numUncompressedBytes==0) return;
+		final byte[] block = this.numUncompressedBytes==this.uncompressedBuffer.length?
+				this.uncompressedBuffer:
+				Arrays.copyOf(this.uncompressedBuffer,this.numUncompressedBytes)
+				;
+		this.pendingBlocks.add(this.executorService.submit(()->deflateBlock(block)));
+		this.uncompressedBuffer = new byte[UNCOMPRESSED_BLOCK_SIZE];
+		this.numUncompressedBytes = 0;
+		/* write the blocks that are ready, wait if there are too many blocks */
+		while(!this.pendingBlocks.isEmpty() &&
+			(this.pendingBlocks.size()>this.maxPendingBlocks || this.pendingBlocks.peekFirst().isDone()))
+			{
+			writeFirstPendingBlock();
+			}
+		}
+
+	private void writeFirstPendingBlock() throws IOException
+		{
+		final Future<byte[]> future = this.pendingBlocks.pollFirst();
+		try {
+			this.delegate.write(future.get());
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err)
+			{
+			throw new IOException(err.getCause());
+			}
+		}
+
+	/** deflate one block. Runs in the executor */
+	private byte[] deflateBlock(final byte[] uncompressed)
+		{
+		final byte[] compressedBuffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+		final CRC32 crc32 = new CRC32();
+		crc32.update(uncompressed, 0, uncompressed.length);
+
+		Deflater deflater = this.threadDeflater.get();
+		deflater.reset();
+		deflater.setInput(uncompressed, 0, uncompressed.length);
+		deflater.finish();
+		int compressedSize = deflater.deflate(compressedBuffer, 0, compressedBuffer.length);
+		if(!deflater.finished())
+			{
+			/* same as htsjdk: the data doesn't compress, store it */
+			deflater = this.threadNoCompressionDeflater.get();
+			deflater.reset();
+			deflater.setInput(uncompressed, 0, uncompressed.length);
+			deflater.finish();
+			compressedSize = deflater.deflate(compressedBuffer, 0, compressedBuffer.length);
+			if(!deflater.finished())
+				{
+				throw new IllegalStateException("unpossible");
+				}
+			}
+		final int totalBlockSize = compressedSize + BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final byte[] block = new byte[totalBlockSize];
+		int n=0;
+		/* gzip header with the BGZF extra field */
+		block[n++] = (byte)31;//ID1
+		block[n++] = (byte)139;//ID2
+		block[n++] = (byte)8;//CM deflate
+		block[n++] = (byte)4;//FLG extra
+		n = writeInt(block,n,0);//MTIME
+		block[n++] = (byte)0;//XFL
+		block[n++] = (byte)255;//OS unknown
+		n = writeShort(block,n,6);//XLEN
+		block[n++] = (byte)'B';
+		block[n++] = (byte)'C';
+		n = writeShort(block,n,2);//SLEN
+		n = writeShort(block,n,totalBlockSize - 1);
+		System.arraycopy(compressedBuffer, 0, block, n, compressedSize);
+		n += compressedSize;
+		n = writeInt(block,n,(int)crc32.getValue());
+		n = writeInt(block,n,uncompressed.length);
+		return block;
+		}
+
+	/** little endian short */
+	private static int writeShort(final byte[] array,int n,final int v)
+		{
+		array[n++] = (byte)(v & 0xFF);
+		array[n++] = (byte)((v >> 8) & 0xFF);
+		return n;
+		}
+	/** little endian int */
+	private static int writeInt(final byte[] array,int n,final int v)
+		{
+		n = writeShort(array,n,v & 0xFFFF);
+		n = writeShort(array,n,(v >> 16) & 0xFFFF);
+		return n;
+		}
+
+	/** like htsjdk, flush writes the current partial block */
+	@Override
+	public void flush() throws IOException
+		{
+		if(this.closed) return;
+		submitBlock();
+		while(!this.pendingBlocks.isEmpty())
+			{
+			writeFirstPendingBlock();
+			}
+		this.delegate.flush();
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		try
+			{
+			flush();
+			this.delegate.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+			this.delegate.close();
+			}
+		finally
+			{
+			this.closed = true;
+			this.pendingBlocks.clear();
+			this.executorService.shutdownNow();
+			}
+		}
+
+	@Override
+	public String toString()
+		{
+		return "ParallelBgzfOutputStream";
+		}
+	}
@@ -0,0 +1,297 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * gzip input stream decompressing in other threads.
+ *
+ * If the input is BGZF, the size of each block is known from its header. The
+ * calling thread only reads the compressed blocks, and a pool of threads inflates them.
+ * Any other gzip (e.g. multi-member gzip from 'gzip' or 'pigz') cannot be split without
+ * inflating it, so it is inflated by one background thread, ahead of the reader.
+ * In both cases the blocks are returned in order and the number of pending blocks is bounded.
+ */
+public class ParallelGzipInputStream extends InputStream
+	{
+	private static final byte[] EMPTY_BLOCK = new byte[0];
+	/** size of the chunks read from a non-BGZF gzip */
+	private static final int SERIAL_CHUNK_SIZE = 1_000_000;
+	private final InputStream delegate;
+	/** not null if the input is not BGZF */
+	private final GZIPInputStream serialInflater;
+	private final ExecutorService executorService;
+	/** blocks being inflated, in order */
+	private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+	/** max number of blocks being inflated */
+	private final int maxPendingBlocks;
+	private final ThreadLocal<Inflater> threadInflater = ThreadLocal.withInitial(()->new Inflater(true));
+	private final byte[] blockHeader = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+	private byte[] currentBlock = EMPTY_BLOCK;
+	private int offset = 0;
+	/** no more block to submit */
+	private boolean inputExhausted = false;
+	private boolean closed = false;
+
+	public ParallelGzipInputStream(final InputStream compressed,final int nThreads) throws IOException
+		{
+		if(nThreads<1) throw new IllegalArgumentException("bad number of threads "+nThreads);
+		this.delegate = (compressed instanceof BufferedInputStream ? compressed : new BufferedInputStream(compressed,BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE));
+		final boolean bgzf = isBgzf(this.delegate);
+		this.serialInflater = (bgzf ? null : new GZIPInputStream(this.delegate,BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE));
+		final int poolSize = (bgzf ? nThreads : 1);
+		this.maxPendingBlocks = poolSize*4;
+		this.executorService = Executors.newFixedThreadPool(poolSize,R->{
+			final Thread t = new Thread(R,"gzip-inflater");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+
+	/** peek the header of the first block */
+	private static boolean isBgzf(final InputStream in) throws IOException
+		{
+		final byte header[] = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+		in.mark(header.length);
+		int n = 0;
+		while(n< header.length)
+			{
+			final int c = in.read(header, n, header.length-n);
+			if(c==-1) break;
+			n+=c;
+			}
+		in.reset();
+		return n==header.length &&
+			header[0]==BlockCompressedStreamConstants.GZIP_ID1 &&
+			header[1]==(byte)BlockCompressedStreamConstants.GZIP_ID2 &&
+			(header[3] & BlockCompressedStreamConstants.GZIP_FLG)!=0 &&
+			header[12]==BlockCompressedStreamConstants.BGZF_ID1 &&
+			header[13]==BlockCompressedStreamConstants.BGZF_ID2;
+		}
+
+	/** @return false if the end of the input was reached */
+	private boolean readFully(final byte[] array,final int len) throws IOException
+		{
+		int n = 0;
+		while(n< len)
+			{
+			final int c = this.delegate.read(array, n, len-n);
+			if(c==-1)
+				{
+				if(n==0) return false;
+				throw new EOFException("truncated BGZF block");
+				}
+			n+=c;
+			}
+		return true;
+		}
+
+	/** read the next compressed BGZF block in the calling thread. Returns null at EOF */
+	private byte[] readCompressedBlock() throws IOException
+		{
+		if(!readFully(this.blockHeader, this.blockHeader.length)) return null;
+		if(this.blockHeader[0]!=BlockCompressedStreamConstants.GZIP_ID1 ||
+			this.blockHeader[1]!=(byte)BlockCompressedStreamConstants.GZIP_ID2 ||
+			this.blockHeader[12]!=BlockCompressedStreamConstants.BGZF_ID1 ||
+			this.blockHeader[13]!=BlockCompressedStreamConstants.BGZF_ID2 ||
+			readShort(this.blockHeader,10)!=BlockCompressedStreamConstants.GZIP_XLEN)
+			{
+			throw new IOException("not a BGZF block header");
+			}
+		final int blockSize = readShort(this.blockHeader,16)+1;
+		final byte[] block = new byte[blockSize - this.blockHeader.length];
+		if(!readFully(block, block.length)) throw new EOFException("truncated BGZF block");
+		return block;
+		}
+
+	/** inflate one block (deflated data + CRC + ISIZE). Runs in the executor */
+	private byte[] inflateBlock(final byte[] block) throws IOException
+		{
+		final int footer = block.length - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final int expectCrc = readInt(block,footer);
+		final int uncompressedSize = readInt(block,footer+4);
+		if(uncompressedSize==0) return EMPTY_BLOCK;
+		final byte[] uncompressed = new byte[uncompressedSize];
+		final Inflater inflater = this.threadInflater.get();
+		inflater.reset();
+		inflater.setInput(block, 0, footer);
+		try {
+			int n = 0;
+			while(n< uncompressedSize && !inflater.finished())
+				{
+				final int c = inflater.inflate(uncompressed, n, uncompressedSize-n);
+				if(c==0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				n+=c;
+				}
+			if(n!=uncompressedSize) throw new IOException("Did not inflate expected amount of data: "+n+"/"+uncompressedSize);
+			}
+		catch(final DataFormatException err)
+			{
+			throw new IOException(err);
+			}
+		final CRC32 crc32 = new CRC32();
+		crc32.update(uncompressed, 0, uncompressed.length);
+		if((int)crc32.getValue()!=expectCrc) throw new IOException("CRC mismatch in BGZF block");
+		return uncompressed;
+		}
+
+	/** read the next chunk of a non-BGZF gzip. Runs in the single thread of the executor, so the chunks are read in order */
+	private byte[] readSerialChunk() throws IOException
+		{
+		final byte[] chunk = new byte[SERIAL_CHUNK_SIZE];
+		int n = 0;
+		while(n< chunk.length)
+			{
+			final int c = this.serialInflater.read(chunk, n, chunk.length-n);
+			if(c==-1) break;
+			n+=c;
+			}
+		if(n==0) return EMPTY_BLOCK;
+		return n==chunk.length ? chunk : Arrays.copyOf(chunk, n);
+		}
+
+	/** send new blocks to the executor until the queue is full */
+	private void submitBlocks() throws IOException
+		{
+		while(!this.inputExhausted && this.pendingBlocks.size()< this.maxPendingBlocks)
+			{
+			if(this.serialInflater!=null)
+				{
+				this.pendingBlocks.add(this.executorService.submit(()->readSerialChunk()));
+				}
+			else
+				{
+				final byte[] block = readCompressedBlock();
+				if(block==null)
+					{
+					this.inputExhausted = true;
+					break;
+					}
+				this.pendingBlocks.add(this.executorService.submit(()->inflateBlock(block)));
+				}
+			}
+		}
+
+	/** @return false at EOF */
+	private boolean fill() throws IOException
+		{
+		if(this.closed) throw new IOException("stream closed");
+		while(this.offset>=this.currentBlock.length)
+			{
+			submitBlocks();
+			final Future<byte[]> future = this.pendingBlocks.pollFirst();
+			if(future==null) return false;
+			try {
+				this.currentBlock = future.get();
+				}
+			catch(final InterruptedException err)
+				{
+				Thread.currentThread().interrupt();
+				throw new IOException(err);
+				}
+			catch(final ExecutionException err)
+				{
+				throw (err.getCause() instanceof IOException ? (IOException)err.getCause() : new IOException(err.getCause()));
+				}
+			this.offset = 0;
+			/* end of a non-BGZF gzip, the chunks still pending are empty */
+			if(this.serialInflater!=null && this.currentBlock.length==0) this.inputExhausted = true;
+			}
+		return true;
+		}
+
+	@Override
+	public int read() throws IOException
+		{
+		if(!fill()) return -1;
+		return this.currentBlock[this.offset++] & 0xFF;
+		}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+		if(len==0) return 0;
+		if(!fill()) return -1;
+		final int n = Math.min(len, this.currentBlock.length - this.offset);
+		System.arraycopy(this.currentBlock, this.offset, b, off, n);
+		this.offset+=n;
+		return n;
+		}
+
+	@Override
+	public int available() throws IOException
+		{
+		return this.closed ? 0 : this.currentBlock.length - this.offset;
+		}
+
+	/** little endian unsigned short */
+	private static int readShort(final byte[] array,final int n)
+		{
+		return (array[n] & 0xFF) | ((array[n+1] & 0xFF) << 8);
+		}
+	/** little endian int */
+	private static int readInt(final byte[] array,final int n)
+		{
+		return readShort(array,n) | (readShort(array,n+2) << 16);
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		this.closed = true;
+		this.executorService.shutdownNow();
+		this.pendingBlocks.clear();
+		this.currentBlock = EMPTY_BLOCK;
+		this.delegate.close();
+		}
+
+	@Override
+	public String toString()
+		{
+		return "ParallelGzipInputStream";
+		}
+	}
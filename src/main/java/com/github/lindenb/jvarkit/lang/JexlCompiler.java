@@ -0,0 +1,625 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.lang;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+/**
+ * Translates a JEXL (commons-jexl2) expression into java and compiles it with
+ * {@link InMemoryCompiler}.
+ *
+ * Only a subset of JEXL is supported: literals, variables declared with {@link #addVariable},
+ * method calls and bean properties that can be resolved at compile time,
+ * the boolean, comparison and arithmetic operators. An
+ * {@link UnsupportedExpressionException} is thrown for anything else
+ * (regular expressions, ternary operator, functions, arrays, undeclared variables...)
+ * and the caller should use the JEXL interpreter.
+ *
+ * Comparisons between primitive values are compiled as java comparisons, everything else
+ * (comparisons involving objects, +-* / %) is delegated to the strict JexlArithmetic
+ * used by the interpreter, so the compiled expression has the same semantics.
+ */
+public class JexlCompiler<T>
+	{
+	private static final Logger LOG = Logger.build(JexlCompiler.class).make();
+	/** JVM property: if 'true', the tools try to compile their JEXL expressions */
+	public static final String COMPILE_PROPERTY = "jvarkit.jexl.compile";
+	/** name of the record in the generated code */
+	public static final String RECORD = "__rec";
+	/** name of the variable name in the code of the dynamic variables */
+	public static final String VARIABLE_NAME = "__name";
+
+	private static final AtomicLong ID_GENERATOR = new AtomicLong(0L);
+	/** compiled classes, key is the generated code */
+	private static final Map<String,Class<?>> CACHE = new ConcurrentHashMap<>();
+	private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+			"or","and","not","eq","ne","lt","gt","le","ge","div","mod",
+			"true","false","null","empty","size","new","if","else","for","foreach","while","var","return"
+			));
+
+	/** thrown when the JEXL expression cannot be translated to java */
+	public static class UnsupportedExpressionException extends Exception
+		{
+		private static final long serialVersionUID = 1L;
+		public UnsupportedExpressionException(final String msg) {
+			super(msg);
+			}
+		}
+
+	/** thrown by the compiled code of dynamic variables when a variable is undefined */
+	public static class MissingVariableException extends RuntimeException
+		{
+		private static final long serialVersionUID = 1L;
+		public MissingVariableException(final String name) {
+			super("undefined variable "+name);
+			}
+		}
+
+	/** a fragment of java code and its static type */
+	private static class Code
+		{
+		final String java;
+		final Class<?> type;
+		Code(final String java,final Class<?> type) {
+			this.java = java;
+			this.type = type;
+			}
+		boolean isBoolean() { return type==boolean.class;}
+		boolean isFloating() { return type==float.class || type==double.class;}
+		boolean isIntegral() { return type==int.class || type==long.class || type==short.class || type==byte.class || type==char.class;}
+		boolean isNumber() { return isFloating() || isIntegral();}
+		}
+
+	private final Class<T> recordClass;
+	private final Map<String,Code> variables = new HashMap<>();
+	private String dynamicVariablesCode = null;
+
+	public JexlCompiler(final Class<T> recordClass)
+		{
+		this.recordClass = Objects.requireNonNull(recordClass);
+		}
+
+	/** declare a variable. The java code uses {@link #RECORD} to access the current record */
+	public JexlCompiler<T> addVariable(final String name,final Class<?> type,final String javaCode)
+		{
+		this.variables.put(name, new Code("("+javaCode+")", type));
+		return this;
+		}
+
+	/** body of a method <code>Object f(T __rec,String __name)</code> returning the value of an undeclared variable,
+	 * it must throw a {@link MissingVariableException} if the variable is undefined.
+	 * In that case the compiled predicate returns false. If this code is null, undeclared
+	 * variables are not supported.
+	 */
+	public JexlCompiler<T> setDynamicVariables(final String javaCode)
+		{
+		this.dynamicVariablesCode = javaCode;
+		return this;
+		}
+
+	/** returns true if the JVM property {@link #COMPILE_PROPERTY} is set to true */
+	public static boolean isCompilationEnabled()
+		{
+		return Boolean.getBoolean(COMPILE_PROPERTY);
+		}
+
+	/** translate the expression to a java expression */
+	public String translate(final String expr,final boolean requireBoolean) throws UnsupportedExpressionException
+		{
+		final Code code = new Parser(expr).parse();
+		if(requireBoolean && !code.isBoolean()) throw new UnsupportedExpressionException("expression doesn't return a boolean "+expr);
+		return code.java;
+		}
+
+	private String generateClass(final String className,final String iface,final String method,final String body)
+		{
+		final String T = this.recordClass.getCanonicalName();
+		final StringBuilder sb = new StringBuilder();
+		sb.append("public class ").append(className).append(" implements ").append(iface).append(" {\n");
+		sb.append("private static final org.apache.commons.jexl2.JexlArithmetic ARITH = new org.apache.commons.jexl2.JexlArithmetic(false);\n");
+		if(this.dynamicVariablesCode!=null)
+			{
+			sb.append("private static Object __var(final ").append(T).append(" ").append(RECORD).append(",final String ").append(VARIABLE_NAME).append(") {\n");
+			sb.append(this.dynamicVariablesCode).append("\n}\n");
+			}
+		sb.append("@Override public ").append(method).append("(final ").append(T).append(" ").append(RECORD).append(") {\n");
+		sb.append(body);
+		sb.append("}\n}\n");
+		return sb.toString();
+		}
+
+	private Object newInstance(final String className,final String javaCode)
+		{
+		/* the class name is the only difference between two identical expressions */
+		final String key = javaCode.replace(className, "__JEXL__");
+		final Class<?> c = CACHE.computeIfAbsent(key, K->{
+			LOG.debug("compiling "+className+"\n"+InMemoryCompiler.beautifyCode(javaCode));
+			return new InMemoryCompiler().compileClass(className, javaCode);
+			});
+		try
+			{
+			return c.newInstance();
+			}
+		catch(final Exception err)
+			{
+			throw new RuntimeException("Cannot instantiate "+className,err);
+			}
+		}
+
+	/** compile a JEXL expression returning a boolean */
+	@SuppressWarnings("unchecked")
+	public Predicate<T> compilePredicate(final String expr) throws UnsupportedExpressionException
+		{
+		final String javaExpr = translate(expr,true);
+		final String className = "JexlPredicate"+ID_GENERATOR.incrementAndGet();
+		final String body;
+		if(this.dynamicVariablesCode!=null)
+			{
+			body = "try { return "+javaExpr+";}\n catch(final "+MissingVariableException.class.getCanonicalName()+" err) { return false;}\n";
+			}
+		else
+			{
+			body = "return "+javaExpr+";\n";
+			}
+		final String code = generateClass(className,
+				"java.util.function.Predicate<"+this.recordClass.getCanonicalName()+">",
+				"boolean test",body);
+		final Predicate<T> delegate = (Predicate<T>)newInstance(className, code);
+		return new Predicate<T>() {
+			@Override
+			public boolean test(final T t) {
+				return delegate.test(t);
+				}
+			@Override
+			public String toString() {
+				return "compiled("+expr+")";
+				}
+			};
+		}
+
+	/** compile a JEXL expression returning any object */
+	@SuppressWarnings("unchecked")
+	public Function<T,Object> compileFunction(final String expr) throws UnsupportedExpressionException
+		{
+		if(this.dynamicVariablesCode!=null) throw new UnsupportedExpressionException("dynamic variables are only supported for predicates");
+		final String javaExpr = translate(expr,false);
+		final String className = "JexlFunction"+ID_GENERATOR.incrementAndGet();
+		final String code = generateClass(className,
+				"java.util.function.Function<"+this.recordClass.getCanonicalName()+",Object>",
+				"Object apply","return "+javaExpr+";\n");
+		return (Function<T,Object>)newInstance(className, code);
+		}
+
+	/** recursive descent parser for the supported subset of JEXL */
+	private class Parser
+		{
+		private final String expr;
+		private final List<String> tokens = new ArrayList<>();
+		private int index = 0;
+
+		Parser(final String expr) throws UnsupportedExpressionException {
+			this.expr = expr;
+			tokenize();
+			}
+
+		private UnsupportedExpressionException unsupported(final String msg) {
+			return new UnsupportedExpressionException(msg+" in \""+this.expr+"\"");
+			}
+
+		private void tokenize() throws UnsupportedExpressionException {
+			final String s = this.expr;
+			int i=0;
+			while(i< s.length())
+				{
+				final char c = s.charAt(i);
+				if(Character.isWhitespace(c)) { i++; continue;}
+				if(Character.isJavaIdentifierStart(c))
+					{
+					int j=i+1;
+					while(j< s.length() && Character.isJavaIdentifierPart(s.charAt(j))) j++;
+					this.tokens.add(s.substring(i,j));
+					i=j;
+					}
+				else if(Character.isDigit(c))
+					{
+					int j=i+1;
+					while(j< s.length() && (Character.isLetterOrDigit(s.charAt(j)) || s.charAt(j)=='.' ||
+						((s.charAt(j)=='-' || s.charAt(j)=='+') && (s.charAt(j-1)=='e' || s.charAt(j-1)=='E') && !s.startsWith("0x",i)))) j++;
+					this.tokens.add(s.substring(i,j));
+					i=j;
+					}
+				else if(c=='\'' || c=='\"')
+					{
+					final StringBuilder sb = new StringBuilder();
+					int j=i+1;
+					for(;;) {
+						if(j>=s.length()) throw unsupported("unterminated string");
+						final char c2 = s.charAt(j);
+						if(c2==c) break;
+						if(c2=='\\') {
+							if(j+1>=s.length()) throw unsupported("bad escape");
+							final char c3 = s.charAt(j+1);
+							switch(c3) {
+								case '\\': case '\'': case '\"': sb.append(c3);break;
+								default: throw unsupported("escape \\"+c3);
+								}
+							j+=2;
+							}
+						else
+							{
+							sb.append(c2);
+							j++;
+							}
+						}
+					/* quote as a token, then the unescaped value */
+					this.tokens.add("\""+sb.toString());
+					i=j+1;
+					}
+				else
+					{
+					final String two = i+1< s.length()?s.substring(i,i+2):"";
+					if(two.equals("||") || two.equals("&&") || two.equals("==") || two.equals("!=") ||
+						two.equals("<=") || two.equals(">=") || two.equals("=~") || two.equals("!~"))
+						{
+						this.tokens.add(two);
+						i+=2;
+						}
+					else
+						{
+						this.tokens.add(String.valueOf(c));
+						i++;
+						}
+					}
+				}
+			}
+
+		private String peek() {
+			return this.index< this.tokens.size()?this.tokens.get(this.index):null;
+			}
+
+		private boolean consume(final String...ops) {
+			final String t = peek();
+			if(t==null) return false;
+			for(final String op:ops) {
+				if(t.equals(op)) {
+					this.index++;
+					return true;
+					}
+				}
+			return false;
+			}
+
+		private void expect(final String s) throws UnsupportedExpressionException {
+			if(!consume(s)) throw unsupported("expected '"+s+"' got '"+peek()+"'");
+			}
+
+		Code parse() throws UnsupportedExpressionException {
+			final Code c = parseOr();
+			if(peek()!=null) throw unsupported("unexpected token '"+peek()+"'");
+			return c;
+			}
+
+		/** java expression evaluated as a boolean by JEXL */
+		private String asBoolean(final Code c) {
+			if(c.isBoolean()) return c.java;
+			return "ARITH.toBoolean("+c.java+")";
+			}
+
+		private Code parseOr() throws UnsupportedExpressionException {
+			Code left = parseAnd();
+			while(consume("||","or")) {
+				final Code right = parseAnd();
+				left = new Code("("+asBoolean(left)+" || "+asBoolean(right)+")", boolean.class);
+				}
+			return left;
+			}
+
+		private Code parseAnd() throws UnsupportedExpressionException {
+			Code left = parseEquality();
+			while(consume("&&","and")) {
+				final Code right = parseEquality();
+				left = new Code("("+asBoolean(left)+" && "+asBoolean(right)+")", boolean.class);
+				}
+			return left;
+			}
+
+		private Code parseEquality() throws UnsupportedExpressionException {
+			Code left = parseRelational();
+			for(;;) {
+				final boolean eq;
+				if(consume("==","eq")) eq=true;
+				else if(consume("!=","ne")) eq=false;
+				else if(consume("=~","!~")) throw unsupported("regular expressions are not supported");
+				else break;
+				final Code right = parseRelational();
+				if((left.isBoolean() && right.isBoolean()) || (left.isIntegral() && right.isIntegral())) {
+					left = new Code("("+left.java+(eq?" == ":" != ")+right.java+")", boolean.class);
+					}
+				else if(left.isNumber() && right.isNumber()) {
+					left = new Code("((double)("+left.java+")"+(eq?" == ":" != ")+"(double)("+right.java+"))", boolean.class);
+					}
+				else
+					{
+					left = new Code("("+(eq?"":"!")+"ARITH.equals("+left.java+","+right.java+"))", boolean.class);
+					}
+				}
+			return left;
+			}
+
+		private Code parseRelational() throws UnsupportedExpressionException {
+			Code left = parseAdditive();
+			for(;;) {
+				final String op;
+				final String method;
+				if(consume("<","lt")) { op="<"; method="lessThan";}
+				else if(consume("<=","le")) { op="<="; method="lessThanOrEqual";}
+				else if(consume(">","gt")) { op=">"; method="greaterThan";}
+				else if(consume(">=","ge")) { op=">="; method="greaterThanOrEqual";}
+				else break;
+				final Code right = parseAdditive();
+				if(left.isIntegral() && right.isIntegral()) {
+					left = new Code("((long)("+left.java+") "+op+" (long)("+right.java+"))", boolean.class);
+					}
+				else if(left.isNumber() && right.isNumber()) {
+					left = new Code("((double)("+left.java+") "+op+" (double)("+right.java+"))", boolean.class);
+					}
+				else
+					{
+					left = new Code("ARITH."+method+"("+left.java+","+right.java+")", boolean.class);
+					}
+				}
+			return left;
+			}
+
+		private Code parseAdditive() throws UnsupportedExpressionException {
+			Code left = parseMultiplicative();
+			for(;;) {
+				final String method;
+				if(consume("+")) method="add";
+				else if(consume("-")) method="subtract";
+				else break;
+				final Code right = parseMultiplicative();
+				left = new Code("ARITH."+method+"("+left.java+","+right.java+")", Object.class);
+				}
+			return left;
+			}
+
+		private Code parseMultiplicative() throws UnsupportedExpressionException {
+			Code left = parseUnary();
+			for(;;) {
+				final String method;
+				if(consume("*")) method="multiply";
+				else if(consume("/","div")) method="divide";
+				else if(consume("%","mod")) method="mod";
+				else break;
+				final Code right = parseUnary();
+				left = new Code("ARITH."+method+"("+left.java+","+right.java+")", Object.class);
+				}
+			return left;
+			}
+
+		private Code parseUnary() throws UnsupportedExpressionException {
+			if(consume("!","not")) {
+				final Code c = parseUnary();
+				return new Code("(!"+asBoolean(c)+")", boolean.class);
+				}
+			if(consume("-")) {
+				final String t = peek();
+				if(t!=null && Character.isDigit(t.charAt(0))) {
+					this.index++;
+					return parseNumber("-"+t);
+					}
+				final Code c = parseUnary();
+				return new Code("ARITH.negate("+c.java+")", Object.class);
+				}
+			return parsePostfix();
+			}
+
+		private Code parsePostfix() throws UnsupportedExpressionException {
+			Code c = parsePrimary();
+			while(consume(".")) {
+				final String name = peek();
+				if(name==null || !Character.isJavaIdentifierStart(name.charAt(0)) || KEYWORDS.contains(name)) throw unsupported("bad property "+name);
+				this.index++;
+				if(consume("(")) {
+					final List<Code> args = new ArrayList<>();
+					if(!consume(")")) {
+						for(;;) {
+							args.add(parseOr());
+							if(consume(")")) break;
+							expect(",");
+							}
+						}
+					c = invoke(c,name,args);
+					}
+				else
+					{
+					c = property(c,name);
+					}
+				}
+			return c;
+			}
+
+		private Code parsePrimary() throws UnsupportedExpressionException {
+			final String t = peek();
+			if(t==null) throw unsupported("unexpected end of expression");
+			this.index++;
+			if(t.equals("(")) {
+				final Code c = parseOr();
+				expect(")");
+				return new Code("("+c.java+")",c.type);
+				}
+			if(t.startsWith("\"")) {
+				return new Code(quote(t.substring(1)), String.class);
+				}
+			if(Character.isDigit(t.charAt(0))) {
+				return parseNumber(t);
+				}
+			if(t.equals("true") || t.equals("false")) {
+				return new Code(t, boolean.class);
+				}
+			if(t.equals("null")) {
+				return new Code("null", Object.class);
+				}
+			if(!Character.isJavaIdentifierStart(t.charAt(0)) || KEYWORDS.contains(t)) {
+				throw unsupported("unsupported token '"+t+"'");
+				}
+			if("(".equals(peek())) throw unsupported("functions are not supported");
+			final Code v = JexlCompiler.this.variables.get(t);
+			if(v!=null) return v;
+			if(JexlCompiler.this.dynamicVariablesCode!=null && !t.startsWith("__")) {
+				return new Code("__var("+RECORD+","+quote(t)+")", Object.class);
+				}
+			throw unsupported("undefined variable "+t);
+			}
+
+		/** number literals follow the JEXL conventions: int (or long), float unless suffixed by 'd' */
+		private Code parseNumber(final String t) throws UnsupportedExpressionException {
+			try {
+				final char last = Character.toLowerCase(t.charAt(t.length()-1));
+				if(t.contains(".") || ((t.contains("e") || t.contains("E")) && !t.toLowerCase().contains("0x"))) {
+					if(last=='d') {
+						return new Code("("+Double.parseDouble(t.substring(0,t.length()-1))+")", double.class);
+						}
+					if(last=='b' || last=='h') throw unsupported("big numbers are not supported");
+					final float f = Float.parseFloat(last=='f'?t.substring(0,t.length()-1):t);
+					if(Float.isInfinite(f)) throw unsupported("bad float "+t);
+					return new Code("("+Float.toString(f)+"f)", float.class);
+					}
+				if(!t.matches("-?[0-9]+")) throw unsupported("unsupported number "+t);
+				final long n = Long.parseLong(t);
+				if(n>=Integer.MIN_VALUE && n<=Integer.MAX_VALUE) {
+					return new Code("("+n+")", int.class);
+					}
+				return new Code("("+n+"L)", long.class);
+				}
+			catch(final NumberFormatException err) {
+				throw unsupported("bad number "+t);
+				}
+			}
+
+		private String quote(final String s) {
+			final StringBuilder sb = new StringBuilder("\"");
+			for(int i=0;i< s.length();i++) {
+				final char c = s.charAt(i);
+				switch(c) {
+					case '\"': sb.append("\\\"");break;
+					case '\\': sb.append("\\\\");break;
+					case '\n': sb.append("\\n");break;
+					case '\r': sb.append("\\r");break;
+					case '\t': sb.append("\\t");break;
+					default: if(c<32 || c>126) sb.append(String.format("\\u%04x", (int)c)); else sb.append(c);break;
+					}
+				}
+			return sb.append("\"").toString();
+			}
+
+		/** can a value of type 'argType' be passed to a parameter of type 'paramType' */
+		private boolean isCompatible(final Class<?> paramType,final Code arg) {
+			final Class<?> argType = arg.type;
+			if(arg.java.equals("null")) return false;
+			if(argType==Object.class) return paramType==Object.class;
+			if(argType.isPrimitive()) {
+				if(paramType==argType) return true;
+				if(paramType.isPrimitive()) return false;
+				return paramType==Object.class ||
+					(argType==boolean.class && paramType==Boolean.class) ||
+					(argType==int.class && (paramType==Integer.class || paramType==Number.class)) ||
+					(argType==long.class && (paramType==Long.class || paramType==Number.class)) ||
+					(argType==float.class && (paramType==Float.class || paramType==Number.class)) ||
+					(argType==double.class && (paramType==Double.class || paramType==Number.class));
+				}
+			return !paramType.isPrimitive() && paramType.isAssignableFrom(argType);
+			}
+
+		private Code invoke(final Code receiver,final String name,final List<Code> args) throws UnsupportedExpressionException {
+			if(receiver.type.isPrimitive() || receiver.type==Object.class || receiver.java.equals("null")) {
+				throw unsupported("cannot resolve method "+name+" on "+receiver.type);
+				}
+			final List<Method> candidates = Arrays.stream(receiver.type.getMethods()).
+				filter(M->M.getName().equals(name)).
+				filter(M->!M.isBridge() && !M.isSynthetic() && !M.isVarArgs()).
+				filter(M->!Modifier.isStatic(M.getModifiers())).
+				filter(M->Modifier.isPublic(M.getDeclaringClass().getModifiers())).
+				filter(M->M.getParameterCount()==args.size()).
+				filter(M->{
+					for(int i=0;i< args.size();i++) {
+						if(!isCompatible(M.getParameterTypes()[i],args.get(i))) return false;
+						}
+					return true;
+					}).
+				collect(Collectors.toList());
+			if(candidates.size()!=1) throw unsupported("cannot resolve a unique method "+name+" for "+receiver.type.getName()+" (found "+candidates.size()+")");
+			final Method m = candidates.get(0);
+			if(m.getReturnType()==void.class) throw unsupported("method "+name+" returns void");
+			return new Code(
+				receiver.java+"."+name+"("+args.stream().map(A->A.java).collect(Collectors.joining(","))+")",
+				publicType(m.getReturnType())
+				);
+			}
+
+		/** bean property 'x.name' is x.getName() or x.isName() */
+		private Code property(final Code receiver,final String name) throws UnsupportedExpressionException {
+			final String suffix = Character.toUpperCase(name.charAt(0))+name.substring(1);
+			for(final String prefix: new String[]{"get","is"}) {
+				try {
+					return invoke(receiver,prefix+suffix,new ArrayList<>());
+					}
+				catch(final UnsupportedExpressionException err) {
+					//ignore
+					}
+				}
+			throw unsupported("cannot resolve property "+name+" for "+receiver.type.getName());
+			}
+
+		/** the declared type of a returned value; a non public class cannot be used in the generated code */
+		private Class<?> publicType(final Class<?> c) {
+			if(c.isPrimitive()) return c;
+			if(c.isArray()) return Object.class;
+			if(!Modifier.isPublic(c.getModifiers())) return Object.class;
+			return c;
+			}
+		}
+	}
@@ -0,0 +1,224 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.math;
+
+import java.util.Arrays;
+
+/**
+ * Eigenvalues of a real symmetric matrix: Householder reduction to a tridiagonal
+ * matrix followed by the QL algorithm with implicit shifts.
+ * Adapted from the public domain JAMA library (tred2/tql2), the eigenvectors are not computed.
+ */
+public class SymmetricEigenvalues {
+	private SymmetricEigenvalues() {
+		}
+	
+	/** returns the eigenvalues of the symmetric matrix, sorted in ascending order. The matrix is not modified */
+	public static double[] compute(final double matrix[][]) {
+		final int n = matrix.length;
+		if(n==0) return new double[0];
+		final double V[][] = new double[n][];
+		for(int i=0;i< n;i++) {
+			if(matrix[i].length!=n) throw new IllegalArgumentException("matrix is not square");
+			V[i] = Arrays.copyOf(matrix[i], n);
+			}
+		final double d[] = new double[n];
+		final double e[] = new double[n];
+		tred2(V, d, e);
+		tql2(d, e);
+		Arrays.sort(d);
+		return d;
+		}
+
+	/** Symmetric Householder reduction to tridiagonal form: d=diagonal, e=sub-diagonal */
+	private static void tred2(final double V[][],final double d[],final double e[]) {
+		final int n = d.length;
+		for (int j = 0; j < n; j++) {
+			d[j] = V[n-1][j];
+			}
+		for (int i = n-1; i > 0; i--) {
+			// Scale to avoid under/overflow.
+			double scale = 0.0;
+			double h = 0.0;
+			for (int k = 0; k < i; k++) {
+				scale = scale + Math.abs(d[k]);
+				}
+			if (scale == 0.0) {
+				e[i] = d[i-1];
+				for (int j = 0; j < i; j++) {
+					d[j] = V[i-1][j];
+					V[i][j] = 0.0;
+					V[j][i] = 0.0;
+					}
+				}
+			else
+				{
+				// Generate Householder vector.
+				for (int k = 0; k < i; k++) {
+					d[k] /= scale;
+					h += d[k] * d[k];
+					}
+				double f = d[i-1];
+				double g = Math.sqrt(h);
+				if (f > 0) g = -g;
+				e[i] = scale * g;
+				h = h - f * g;
+				d[i-1] = f - g;
+				for (int j = 0; j < i; j++) {
+					e[j] = 0.0;
+					}
+				// Apply similarity transformation to remaining columns.
+				for (int j = 0; j < i; j++) {
+					f = d[j];
+					V[j][i] = f;
+					g = e[j] + V[j][j] * f;
+					for (int k = j+1; k <= i-1; k++) {
+						g += V[k][j] * d[k];
+						e[k] += V[k][j] * f;
+						}
+					e[j] = g;
+					}
+				f = 0.0;
+				for (int j = 0; j < i; j++) {
+					e[j] /= h;
+					f += e[j] * d[j];
+					}
+				final double hh = f / (h + h);
+				for (int j = 0; j < i; j++) {
+					e[j] -= hh * d[j];
+					}
+				for (int j = 0; j < i; j++) {
+					f = d[j];
+					g = e[j];
+					for (int k = j; k <= i-1; k++) {
+						V[k][j] -= (f * e[k] + g * d[k]);
+						}
+					d[j] = V[i-1][j];
+					V[i][j] = 0.0;
+					}
+				}
+			d[i] = h;
+			}
+		// Accumulate transformations.
+		for (int i = 0; i < n-1; i++) {
+			V[n-1][i] = V[i][i];
+			V[i][i] = 1.0;
+			final double h = d[i+1];
+			if (h != 0.0) {
+				for (int k = 0; k <= i; k++) {
+					d[k] = V[k][i+1] / h;
+					}
+				for (int j = 0; j <= i; j++) {
+					double g = 0.0;
+					for (int k = 0; k <= i; k++) {
+						g += V[k][i+1] * V[k][j];
+						}
+					for (int k = 0; k <= i; k++) {
+						V[k][j] -= g * d[k];
+						}
+					}
+				}
+			for (int k = 0; k <= i; k++) {
+				V[k][i+1] = 0.0;
+				}
+			}
+		for (int j = 0; j < n; j++) {
+			d[j] = V[n-1][j];
+			}
+		e[0] = 0.0;
+		}
+
+	/** Symmetric tridiagonal QL algorithm */
+	private static void tql2(final double d[],final double e[]) {
+		final int n = d.length;
+		for (int i = 1; i < n; i++) {
+			e[i-1] = e[i];
+			}
+		e[n-1] = 0.0;
+		double f = 0.0;
+		double tst1 = 0.0;
+		final double eps = Math.pow(2.0,-52.0);
+		for (int l = 0; l < n; l++) {
+			// Find small subdiagonal element
+			tst1 = Math.max(tst1,Math.abs(d[l]) + Math.abs(e[l]));
+			int m = l;
+			while (m < n) {
+				if (Math.abs(e[m]) <= eps*tst1) break;
+				m++;
+				}
+			// If m == l, d[l] is an eigenvalue, otherwise, iterate.
+			if (m > l) {
+				int iter = 0;
+				do {
+					if(++iter > 1_000) throw new ArithmeticException("eigenvalues: no convergence");
+					// Compute implicit shift
+					double g = d[l];
+					double p = (d[l+1] - g) / (2.0 * e[l]);
+					double r = Math.hypot(p,1.0);
+					if (p < 0) r = -r;
+					d[l] = e[l] / (p + r);
+					d[l+1] = e[l] * (p + r);
+					final double dl1 = d[l+1];
+					double h = g - d[l];
+					for (int i = l+2; i < n; i++) {
+						d[i] -= h;
+						}
+					f = f + h;
+					// Implicit QL transformation.
+					p = d[m];
+					double c = 1.0;
+					double c2 = c;
+					double c3 = c;
+					final double el1 = e[l+1];
+					double s = 0.0;
+					double s2 = 0.0;
+					for (int i = m-1; i >= l; i--) {
+						c3 = c2;
+						c2 = c;
+						s2 = s;
+						g = c * e[i];
+						h = c * p;
+						r = Math.hypot(p,e[i]);
+						e[i+1] = s * r;
+						s = e[i] / r;
+						c = p / r;
+						p = c * d[i] - s * g;
+						d[i+1] = h + s * (c * g + s * d[i]);
+						}
+					p = -s * s2 * c3 * el1 * e[l] / dl1;
+					e[l] = s * p;
+					d[l] = c * p;
+					// Check for convergence.
+					} while (Math.abs(e[l]) > eps*tst1);
+				}
+			d[l] = d[l] + f;
+			e[l] = 0.0;
+			}
+		}
+	}
@@ -0,0 +1,167 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.math.stats;
+
+/**
+ * Chi-squared distribution: density, upper tail (central or not) and quantile.
+ * Only static methods, so they can be used from any thread.
+ */
+public class ChiSquared {
+	private static final double EPSILON = 1E-15;
+	private static final double FPMIN = Double.MIN_VALUE/EPSILON;
+	private static final double LANCZOS[]={
+		0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+		771.32342877765313, -176.61502916214059, 12.507343278686905,
+		-0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7
+		};
+	
+	private ChiSquared() {
+		}
+	
+	/** logarithm of the gamma function (Lanczos approximation) */
+	public static double logGamma(double x) {
+		if(x < 0.5) {
+			return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1.0 - x);
+			}
+		x -= 1.0;
+		double a = LANCZOS[0];
+		final double t = x + 7.5;
+		for(int i=1;i< LANCZOS.length;i++) {
+			a += LANCZOS[i]/(x+i);
+			}
+		return 0.5*Math.log(2*Math.PI) + (x+0.5)*Math.log(t) - t + Math.log(a);
+		}
+	
+	/** regularized gamma P(a,x) evaluated by its series representation, x &lt; a+1 */
+	private static double gammaSeries(final double a,final double x) {
+		double ap = a;
+		double del = 1.0/a;
+		double sum = del;
+		for(int n=0;n< 10_000;++n) {
+			ap++;
+			del *= x/ap;
+			sum += del;
+			if(Math.abs(del) < Math.abs(sum)*EPSILON) break;
+			}
+		return sum * Math.exp(-x + a*Math.log(x) - logGamma(a));
+		}
+	
+	/** regularized gamma Q(a,x) evaluated by its continued fraction, x &gt;= a+1 */
+	private static double gammaContinuedFraction(final double a,final double x) {
+		double b = x + 1.0 - a;
+		double c = 1.0/FPMIN;
+		double d = 1.0/b;
+		double h = d;
+		for(int i=1;i< 10_000;++i) {
+			final double an = -i*(i-a);
+			b += 2.0;
+			d = an*d + b;
+			if(Math.abs(d) < FPMIN) d = FPMIN;
+			c = b + an/c;
+			if(Math.abs(c) < FPMIN) c = FPMIN;
+			d = 1.0/d;
+			final double del = d*c;
+			h *= del;
+			if(Math.abs(del-1.0) < EPSILON) break;
+			}
+		return Math.exp(-x + a*Math.log(x) - logGamma(a)) * h;
+		}
+	
+	/** upper regularized gamma function Q(a,x) */
+	public static double regularizedGammaQ(final double a,final double x) {
+		if(a <= 0) throw new IllegalArgumentException("a<=0 : "+a);
+		if(x <= 0) return 1.0;
+		if(Double.isInfinite(x)) return 0.0;
+		if(x < a+1.0) return 1.0 - gammaSeries(a, x);
+		return gammaContinuedFraction(a, x);
+		}
+	
+	/** density of the chi-squared distribution */
+	public static double density(final double x,final double df) {
+		if(x < 0) return 0.0;
+		if(x == 0) {
+			if(df < 2) return Double.POSITIVE_INFINITY;
+			return df == 2 ? 0.5 : 0.0;
+			}
+		final double k = df/2.0;
+		return Math.exp((k-1.0)*Math.log(x) - x/2.0 - k*Math.log(2.0) - logGamma(k));
+		}
+	
+	/** P(X &gt; x) for X following a central chi-squared distribution with 'df' degrees of freedom */
+	public static double upperTail(final double x,final double df) {
+		return regularizedGammaQ(df/2.0, x/2.0);
+		}
+	
+	/** P(X &gt; x) for X following a non-central chi-squared distribution: a Poisson mixture of central distributions */
+	public static double upperTail(final double x,final double df,final double ncp) {
+		if(ncp < 0) throw new IllegalArgumentException("ncp<0 : "+ncp);
+		if(ncp == 0) return upperTail(x, df);
+		final double mu = ncp/2.0;
+		final int mode = (int)Math.floor(mu);
+		double sum = 0.0;
+		double sumWeights = 0.0;
+		/* from the mode of the Poisson to the left, then to the right */
+		for(int i=mode; i>=0; --i) {
+			final double w = Math.exp(-mu + i*Math.log(mu) - logGamma(i+1.0));
+			sum += w * upperTail(x, df+2.0*i);
+			sumWeights += w;
+			if(w < EPSILON * sumWeights) break;
+			}
+		for(int i=mode+1; ; ++i) {
+			final double w = Math.exp(-mu + i*Math.log(mu) - logGamma(i+1.0));
+			sum += w * upperTail(x, df+2.0*i);
+			sumWeights += w;
+			if(w < EPSILON * sumWeights) break;
+			}
+		return Math.min(1.0, sum);
+		}
+	
+	/** returns x so that P(X &gt; x) = p for X following a central chi-squared distribution */
+	public static double upperTailQuantile(final double p,final double df) {
+		if(p <= 0.0) return Double.POSITIVE_INFINITY;
+		if(p >= 1.0) return 0.0;
+		double lo = 0.0;
+		double hi = Math.max(1.0, df);
+		while(upperTail(hi, df) > p) {
+			lo = hi;
+			hi *= 2.0;
+			}
+		for(int i=0;i< 1_000 && (hi-lo) > EPSILON*hi; ++i) {
+			final double mid = (lo+hi)/2.0;
+			if(upperTail(mid, df) > p) {
+				lo = mid;
+				}
+			else
+				{
+				hi = mid;
+				}
+			}
+		return (lo+hi)/2.0;
+		}
+	}
@@ -0,0 +1,480 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.math.stats;
+
+import java.util.Arrays;
+
+/**
+ * Distribution function of a linear combination of non-central chi-squared random variables.
+ * 
+ * Java port of the algorithm AS 155 of R.B. Davies (1980) "The distribution of a linear
+ * combination of chi-squared random variables", as used by the R packages SKAT and CompQuadForm.
+ * The C global variables are fields of an instance, so the computation is thread-safe.
+ */
+public class DaviesQuadraticForm {
+	private static final double LOG28 = .0866;  /*  log(2.0) / 8.0  */
+	private static final int RATS[]={1,2,4,8};
+	private static final double DIVIS[]={2.0,1.4,1.2,1.1};
+
+	/** thrown when the number of iterations exceeds the limit */
+	@SuppressWarnings("serial")
+	private static class TooManyIterations extends RuntimeException {
+		TooManyIterations() { super(null, null, false, false); }
+		}
+
+	/** result of the computation */
+	public static class Result {
+		private final double qfval;
+		private final int ifault;
+		private final double trace[];
+		private Result(final double qfval,final int ifault,final double trace[]) {
+			this.qfval = qfval;
+			this.ifault = ifault;
+			this.trace = trace;
+			}
+		/** P(Q &lt; c) */
+		public double getCdf() {
+			return this.qfval;
+			}
+		/** 1 - P(Q &lt; c) */
+		public double getUpperTail() {
+			return 1.0 - this.qfval;
+			}
+		/** 0: OK; 1: required accuracy NOT achieved; 2: round-off error possibly significant; 3: invalid parameters; 4: unable to locate integration parameters */
+		public int getFault() {
+			return this.ifault;
+			}
+		public double[] getTrace() {
+			return Arrays.copyOf(this.trace,this.trace.length);
+			}
+		@Override
+		public String toString() {
+			return "qf="+this.qfval+" ifault="+this.ifault;
+			}
+		}
+
+	private double sigsq, lmax, lmin, mean, c;
+	private double intl, ersm;
+	private int count, r, lim;
+	private boolean ndtsrt, fail;
+	private int n[], th[];
+	private double lb[], nc[];
+
+	private DaviesQuadraticForm() {
+		}
+
+	/** P(Q &gt; q) where Q = sum(lambda[i]*X[i]) and X[i] are independent central chi-squared variables with one degree of freedom */
+	public static Result upperTail(final double lambda[],final double q,final double acc) {
+		final int df[] = new int[lambda.length];
+		Arrays.fill(df, 1);
+		return compute(lambda, new double[lambda.length], df, 0.0, q, 10_000, acc);
+		}
+
+	/**
+	 * distribution function of a linear combination of non-central chi-squared random variables.
+	 * @param lb coefficient of j-th chi-squared variable
+	 * @param nc non-centrality parameter
+	 * @param n degrees of freedom
+	 * @param sigma coefficient of standard normal variable
+	 * @param c point at which df is to be evaluated
+	 * @param lim maximum number of terms in integration
+	 * @param acc maximum error
+	 */
+	public static Result compute(final double lb[],final double nc[],final int n[],final double sigma,final double c,final int lim,final double acc) {
+		if(lb.length!=nc.length || lb.length!=n.length) throw new IllegalArgumentException("arrays must have the same length");
+		return new DaviesQuadraticForm().qfc(lb, nc, n, sigma, c, lim, acc);
+		}
+
+	private static double exp1(final double x) {
+		return x < -50.0 ? 0.0 : Math.exp(x);
+		}
+
+	private void counter() {
+		this.count++;
+		if(this.count > this.lim) throw new TooManyIterations();
+		}
+
+	private static double square(final double x) {
+		return x*x;
+		}
+
+	private static double cube(final double x) {
+		return x*x*x;
+		}
+
+	/** if (first) log(1 + x) ; else  log(1 + x) - x */
+	private static double log1(final double x,final boolean first) {
+		if (Math.abs(x) > 0.1) {
+			return (first ? Math.log(1.0 + x) : (Math.log(1.0 + x) - x));
+			}
+		double y = x / (2.0 + x);
+		double term = 2.0 * cube(y);
+		double k = 3.0;
+		double s = (first ? 2.0 : - x) * y;
+		y = square(y);
+		for (double s1 = s + term / k; s1 != s; s1 = s + term / k) {
+			k = k + 2.0;
+			term = term * y;
+			s = s1;
+			}
+		return s;
+		}
+
+	/** find order of absolute values of lb */
+	private void order() {
+		for (int j=0; j<r; j++ ) {
+			final double lj = Math.abs(lb[j]);
+			int k;
+			for (k = j-1; k>=0; k--) {
+				if ( lj > Math.abs(lb[th[k]]) ) {
+					th[k + 1] = th[k];
+					}
+				else
+					{
+					break;
+					}
+				}
+			th[k + 1] = j;
+			}
+		ndtsrt = false;
+		}
+
+	/** find bound on tail probability using mgf, cutoff point returned to cx[0] */
+	private double errbd(double u,final double cx[]) {
+		counter();
+		double xconst = u * sigsq;
+		double sum1 = u * xconst;
+		u = 2.0 * u;
+		for (int j=r-1; j>=0; j--) {
+			final int nj = n[j];
+			final double lj = lb[j];
+			final double ncj = nc[j];
+			final double x = u * lj;
+			final double y = 1.0 - x;
+			xconst = xconst + lj * (ncj / y + nj) / y;
+			sum1 = sum1 + ncj * square(x / y) + nj * (square(x) / y + log1(-x, false ));
+			}
+		cx[0] = xconst;
+		return exp1(-0.5 * sum1);
+		}
+
+	/** find ctff so that p(qf &gt; ctff) &lt; accx if (upn &gt; 0), p(qf &lt; ctff) &lt; accx otherwise */
+	private double ctff(final double accx,final double upn[]) {
+		double u2 = upn[0];
+		double u1 = 0.0;
+		double c1 = mean;
+		final double c2[] = {0};
+		final double xconst[] = {0};
+		final double rb = 2.0 * ((u2 > 0.0) ? lmax : lmin);
+		for (double u = u2 / (1.0 + u2 * rb); errbd(u, c2) > accx; u = u2 / (1.0 + u2 * rb)) {
+			u1 = u2;
+			c1 = c2[0];
+			u2 = 2.0 * u2;
+			}
+		for (double u = (c1 - mean) / (c2[0] - mean); u < 0.9; u = (c1 - mean) / (c2[0] - mean)) {
+			u = (u1 + u2) / 2.0;
+			if (errbd(u / (1.0 + u * rb), xconst) > accx) {
+				u1 = u;
+				c1 = xconst[0];
+				}
+			else
+				{
+				u2 = u;
+				c2[0] = xconst[0];
+				}
+			}
+		upn[0] = u2;
+		return c2[0];
+		}
+
+	/** bound integration error due to truncation at u */
+	private double truncation(double u,final double tausq) {
+		counter();
+		double sum1  = 0.0;
+		double prod2 = 0.0;
+		double prod3 = 0.0;
+		int s = 0;
+		final double sum2 = (sigsq + tausq) * square(u);
+		double prod1 = 2.0 * sum2;
+		u = 2.0 * u;
+		for (int j=0; j<r; j++ ) {
+			final double lj = lb[j];
+			final double ncj = nc[j];
+			final int nj = n[j];
+			final double x = square(u * lj);
+			sum1 = sum1 + ncj * x / (1.0 + x);
+			if (x > 1.0) {
+				prod2 = prod2 + nj * Math.log(x);
+				prod3 = prod3 + nj * log1(x, true );
+				s = s + nj;
+				}
+			else
+				{
+				prod1 = prod1 + nj * log1(x, true );
+				}
+			}
+		sum1 = 0.5 * sum1;
+		prod2 = prod1 + prod2;
+		prod3 = prod1 + prod3;
+		double x = exp1(-sum1 - 0.25 * prod2) / Math.PI;
+		final double y = exp1(-sum1 - 0.25 * prod3) / Math.PI;
+		double err1 =  ( s  ==  0 )  ? 1.0 : x * 2.0 / s;
+		double err2 =  ( prod3 > 1.0 )  ? 2.5 * y : 1.0;
+		if (err2 < err1) err1 = err2;
+		x = 0.5 * sum2;
+		err2 =  ( x  <=  y )  ? 1.0  : y / x;
+		return  ( err1 < err2 )  ? err1  :  err2;
+		}
+
+	/** find u such that truncation(u) &lt; accx and truncation(u / 1.2) &gt; accx */
+	private void findu(final double utx[],final double accx) {
+		double ut = utx[0];
+		double u = ut / 4.0;
+		if ( truncation(u, 0.0) > accx ) {
+			for ( u = ut; truncation(u, 0.0) > accx; u = ut) ut = ut * 4.0;
+			}
+		else
+			{
+			ut = u;
+			for ( u = u / 4.0; truncation(u, 0.0) <=  accx; u = u / 4.0 ) ut = u;
+			}
+		for (int i=0;i<4;i++) {
+			u = ut/DIVIS[i];
+			if ( truncation(u, 0.0)  <=  accx )  ut = u;
+			}
+		utx[0] = ut;
+		}
+
+	/** carry out integration with nterm terms, at stepsize interv. if (! mainx) multiply integrand by 1.0-exp(-0.5*tausq*u^2) */
+	private void integrate(final int nterm,final double interv,final double tausq,final boolean mainx) {
+		final double inpi = interv / Math.PI;
+		for (int k = nterm; k>=0; k--) {
+			final double u = (k + 0.5) * interv;
+			double sum1 = - 2.0 * u * c;
+			double sum2 = Math.abs(sum1);
+			double sum3 = - 0.5 * sigsq * square(u);
+			for (int j = r-1; j>=0; j--) {
+				final int nj = n[j];
+				final double x = 2.0 * lb[j] * u;
+				double y = square(x);
+				sum3 = sum3 - 0.25 * nj * log1(y, true );
+				y = nc[j] * x / (1.0 + y);
+				final double z = nj * Math.atan(x) + y;
+				sum1 = sum1 + z;
+				sum2 = sum2 + Math.abs(z);
+				sum3 = sum3 - 0.5 * x * y;
+				}
+			double x = inpi * exp1(sum3) / u;
+			if ( !  mainx ) x = x * (1.0 - exp1(-0.5 * tausq * square(u)));
+			sum1 = Math.sin(0.5 * sum1) * x;
+			sum2 = 0.5 * sum2 * x;
+			intl = intl + sum1;
+			ersm = ersm + sum2;
+			}
+		}
+
+	/** coef of tausq in error when convergence factor of exp1(-0.5*tausq*u^2) is used when df is evaluated at x */
+	private double cfe(final double x) {
+		counter();
+		if (ndtsrt) order();
+		double axl = Math.abs(x);
+		final double sxl = (x>0.0) ? 1.0 : -1.0;
+		double sum1 = 0.0;
+		for (int j = r-1; j>=0; j-- ) {
+			final int t = th[j];
+			if ( lb[t] * sxl > 0.0 ) {
+				final double lj = Math.abs(lb[t]);
+				final double axl1 = axl - lj * (n[t] + nc[t]);
+				final double axl2 = lj / LOG28;
+				if ( axl1 > axl2 ) {
+					axl = axl1;
+					}
+				else
+					{
+					if ( axl > axl2 )  axl = axl2;
+					sum1 = (axl - axl1) / lj;
+					for (int k = j-1; k>=0; k--) sum1 = sum1 + (n[th[k]] + nc[th[k]]);
+					break;
+					}
+				}
+			}
+		if (sum1 > 100.0) {
+			fail = true;
+			return 1.0;
+			}
+		return Math.pow(2.0,(sum1 / 4.0)) / (Math.PI * square(axl));
+		}
+
+	private Result qfc(final double lb1[],final double nc1[],final int n1[],final double sigma,final double c1,final int lim1,final double acc) {
+		final double trace[] = new double[7];
+		int ifault = 0;
+		double qfval = -1.0;
+		try {
+			r = lb1.length;
+			lim = lim1;
+			c = c1;
+			n = n1;
+			lb = lb1;
+			nc = nc1;
+			count = 0;
+			intl = 0.0;
+			ersm = 0.0;
+			double acc1 = acc;
+			ndtsrt = true;
+			fail = false;
+			double xlim = lim;
+			th = new int[r];
+
+			/* find mean, sd, max and min of lb, check that parameter values are valid */
+			sigsq = square(sigma);
+			double sd = sigsq;
+			lmax = 0.0;
+			lmin = 0.0;
+			mean = 0.0;
+			for (int j=0; j<r; j++ ) {
+				final int nj = n[j];
+				final double lj = lb[j];
+				final double ncj = nc[j];
+				if ( nj < 0  ||  ncj < 0.0 ) {
+					return new Result(qfval, 3, trace);
+					}
+				sd  = sd  + square(lj) * (2 * nj + 4.0 * ncj);
+				mean = mean + lj * (nj + ncj);
+				if (lmax < lj) {
+					lmax = lj ;
+					}
+				else if (lmin > lj) {
+					lmin = lj;
+					}
+				}
+			if ( sd == 0.0  ) {
+				return new Result((c > 0.0) ? 1.0 : 0.0, 0, trace);
+				}
+			if ( (lmin == 0.0) && (lmax == 0.0) && (sigma == 0.0) ) {
+				return new Result(qfval, 3, trace);
+				}
+			sd = Math.sqrt(sd);
+			final double almx = (lmax < - lmin) ? - lmin : lmax;
+
+			/* starting values for findu, ctff */
+			final double utx[] = {16.0 / sd};
+			final double up[] = {4.5 / sd};
+			final double un[] = {-up[0]};
+			/* truncation point with no convergence factor */
+			findu(utx, .5 * acc1);
+			/* does convergence factor help */
+			if (c != 0.0  && (almx > 0.07 * sd)) {
+				final double tausq = .25 * acc1 / cfe(c);
+				if (fail) {
+					fail = false;
+					}
+				else if (truncation(utx[0], tausq) < .2 * acc1) {
+					sigsq = sigsq + tausq;
+					findu(utx, .25 * acc1);
+					trace[5] = Math.sqrt(tausq);
+					}
+				}
+			trace[4] = utx[0];
+			acc1 = 0.5 * acc1;
+
+			double intv;
+			double xnt;
+			for(;;) {
+				/* find RANGE of distribution, quit if outside this */
+				final double d1 = ctff(acc1, up) - c;
+				if (d1 < 0.0) {
+					qfval = 1.0;
+					return new Result(qfval, ifault, trace);
+					}
+				final double d2 = c - ctff(acc1, un);
+				if (d2 < 0.0) {
+					qfval = 0.0;
+					return new Result(qfval, ifault, trace);
+					}
+				/* find integration interval */
+				intv = 2.0 * Math.PI / ((d1 > d2) ? d1 : d2);
+				/* calculate number of terms required for main and auxillary integrations */
+				xnt = utx[0] / intv;
+				final double xntm = 3.0 / Math.sqrt(acc1);
+				if (xnt > xntm * 1.5) {
+					/* parameters for auxillary integration */
+					if (xntm > xlim) {
+						return new Result(qfval, 1, trace);
+						}
+					final int ntm = (int)Math.floor(xntm+0.5);
+					final double intv1 = utx[0] / ntm;
+					final double x = 2.0 * Math.PI / intv1;
+					if (x <= Math.abs(c)) break;
+					/* calculate convergence factor */
+					final double tausq = .33 * acc1 / (1.1 * (cfe(c - x) + cfe(c + x)));
+					if (fail) break;
+					acc1 = .67 * acc1;
+					/* auxillary integration */
+					integrate(ntm, intv1, tausq, false );
+					xlim = xlim - xntm;
+					sigsq = sigsq + tausq;
+					trace[2] = trace[2] + 1;
+					trace[1] = trace[1] + ntm + 1;
+					/* find truncation point with new convergence factor */
+					findu(utx, .25 * acc1);
+					acc1 = 0.75 * acc1;
+					continue;
+					}
+				break;
+				}
+
+			/* main integration */
+			trace[3] = intv;
+			if (xnt > xlim) {
+				return new Result(qfval, 1, trace);
+				}
+			final int nt = (int)Math.floor(xnt+0.5);
+			integrate(nt, intv, 0.0, true );
+			trace[2] = trace[2] + 1;
+			trace[1] = trace[1] + nt + 1;
+			qfval = 0.5 - intl;
+			trace[0] = ersm;
+
+			/* test whether round-off error could be significant allow for radix 8 or 16 machines */
+			final double up2 = ersm;
+			final double x = up2 + acc / 10.0;
+			for (int j=0;j<4;j++) {
+				if (RATS[j] * x == RATS[j] * up2) ifault = 2;
+				}
+			return new Result(qfval, ifault, trace);
+			}
+		catch(final TooManyIterations err) {
+			return new Result(qfval, 4, trace);
+			}
+		finally
+			{
+			trace[6] = count;
+			}
+		}
+	}
@@ -28,13 +28,22 @@ package com.github.lindenb.jvarkit.tools.bam2wig;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.function.Predicate;
+import java.util.OptionalInt;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.CigarOperator;
@@ -64,7 +73,6 @@ import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.stats.Percentile;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
@@ -87,7 +95,7 @@ About BedGraph: [https://genome.ucsc.edu/goldenpath/help/bedgraph.html](https://
 
 ## Memory
 
-warning: the program is memory consuming, it allocates on array of integer of the size of your longest contig.
+The coverage is computed on the fly, in a sliding buffer following the sorted reads: the memory depends on the length of the reads and of the window, not on the size of the contigs.
 
 ## History:
 
@@ -142,7 +150,7 @@ fixedStep chrom=ref2 start=1 step=3 span=1
 END_DOC
  */
 @Program(name="bam2wig",
-description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth. Memory intensive: must alloc sizeof(int)*size(chrom)",
+description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth.",
 keywords={"bam","wig","wiggle","bed"}
 )
 public class Bam2Wig extends Launcher
@@ -177,6 +185,8 @@ public class Bam2Wig extends Launcher
 	private String region_str=null;
 	@Parameter(names={"--pedigree","-ped"},description="Pedigree file for CASE_CTRL. " + Pedigree.OPT_DESCRIPTION )
 	private File pedigreeFile=null;
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, the genome is split into chunks processed in parallel. Requires indexed BAM files, the output is the same than the serial mode.")
+	private int nThreads=1;
 
 
 	public Bam2Wig()
@@ -184,36 +194,133 @@ public class Bam2Wig extends Launcher
 		
 		}
 	
+	/** sliding buffer of primitive counters over a region of a contig, for coordinate-sorted reads.
+	 * Positions are 0-based, positions outside [first0,end0) are ignored. There are 'width' counters per position (e.g: one per sample),
+	 * when a position is 'sealed' its counters are reduced to one integer value.
+	 * The memory depends on the length of the reads and of the window, not on the size of the contig.
+	 */
+	private static class CoverageRingBuffer
+		{
+		private final int width;
+		private final int first0;
+		private final int end0;
+		private int capacity;
+		private int counts[];
+		private int values[];
+		/** first position in the buffer */
+		private int begin0;
+		/** positions lower than sealed0 have been reduced and cannot be modified anymore */
+		private int sealed0;
+		/** number of increments ignored because the position was already sealed */
+		private long dropped = 0L;
+		
+		CoverageRingBuffer(final int width,final int first0,final int end0)
+			{
+			this.width = width;
+			this.first0 = first0;
+			this.end0 = end0;
+			this.begin0 = first0;
+			this.sealed0 = first0;
+			this.capacity = Math.max(1, Math.min(end0-first0, 1_000));
+			this.counts = new int[this.capacity*this.width];
+			this.values = new int[this.capacity];
+			}
+		
+		private int slot(final int pos0)
+			{
+			return pos0 % this.capacity;
+			}
+		
+		private void ensureCapacity(final int pos0)
+			{
+			if(pos0 < this.begin0 + this.capacity) return;
+			final int newCapacity = Math.max(this.capacity*2, pos0 - this.begin0 + 1);
+			final int newCounts[] = new int[newCapacity*this.width];
+			final int newValues[] = new int[newCapacity];
+			for(int p=this.begin0;p< this.begin0+this.capacity;++p)
+				{
+				final int o = p % this.capacity;
+				final int n = p % newCapacity;
+				System.arraycopy(this.counts, o*this.width, newCounts, n*this.width, this.width);
+				newValues[n] = this.values[o];
+				}
+			this.capacity = newCapacity;
+			this.counts = newCounts;
+			this.values = newValues;
+			}
+		
+		void incr(final int pos0,final int index)
+			{
+			if(pos0<this.first0 || pos0>=this.end0) return;
+			if(pos0 < this.sealed0)
+				{
+				this.dropped++;
+				return;
+				}
+			ensureCapacity(pos0);
+			this.counts[slot(pos0)*this.width+index]++;
+			}
+		
+		/** reduce the counters of the positions lower than 'end0'. */
+		void seal(final int end0,final Aggregator aggregator)
+			{
+			if(end0<=this.sealed0) return;
+			ensureCapacity(end0-1);
+			for(int p=this.sealed0;p<end0;++p)
+				{
+				final int offset = slot(p)*this.width;
+				this.values[slot(p)] = aggregator.reduce(this.counts, offset);
+				Arrays.fill(this.counts, offset, offset+this.width, 0);
+				}
+			this.sealed0 = end0;
+			}
+		
+		/** the positions lower than 'pos0' won't be used anymore */
+		void release(final int pos0)
+			{
+			this.begin0 = Math.max(this.begin0, Math.min(pos0, this.sealed0));
+			}
+		
+		int getValue(final int pos0)
+			{
+			return this.values[slot(pos0)];
+			}
+		}
+	
 	private static abstract class Aggregator
 		{
-		abstract void visit(final int array[],final SAMRecord rec);
-		void finish(final int array[]) {}
-		protected void incr(final int array[],int pos1,int length)
+		/** number of counters per position */
+		int getWidth() { return 1;}
+		/** reduce the 'width' counters of one position */
+		int reduce(final int counts[],final int offset) { return counts[offset];}
+		/** all the positions lower than this 0-based position won't be modified by this read and the next reads */
+		int getLowestPosition0(final SAMRecord rec) { return rec.getAlignmentStart()-1;}
+		/** extend the queries of the chunks by this number of bases */
+		int getQueryMargin() { return 0;}
+		abstract void visit(final CoverageRingBuffer buffer,final SAMRecord rec);
+		protected void incr(final CoverageRingBuffer buffer,int pos1,int length)
+			{
+			incr(buffer,pos1,length,0);
+			}
+		protected void incr(final CoverageRingBuffer buffer,int pos1,int length,int index)
 			{
 			for(int i=0;i< length ;++i)
 				{
-				final int array_index= pos1+i-1;
-				if(array_index>0 && array_index<array.length)
-					{
-					array[array_index]++;
-					}
+				buffer.incr(pos1+i-1, index);
 				}
 			}
 		}
 	
 	private static class CoverageAggregator extends Aggregator
 		{
-		private final Predicate<SAMRecord> internalFilter;
-		CoverageAggregator() {
-			this(R->true);
-			}
-		protected CoverageAggregator(final Predicate<SAMRecord> predicate) {
-			this.internalFilter = predicate;
-			}
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final CoverageRingBuffer buffer,final SAMRecord rec)
+			{
+			visitAligned(buffer,rec,0);
+			}
+		/** increment the aligned bases of the read */
+		protected void visitAligned(final CoverageRingBuffer buffer,final SAMRecord rec,final int index)
 			{
-			if(!this.internalFilter.test(rec)) return ;
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
     		int refpos1=rec.getAlignmentStart();
@@ -224,7 +331,7 @@ public class Bam2Wig extends Launcher
     				{
     				if(op.consumesReadBases())
     					{
-    					incr(array,refpos1,ce.getLength());
+    					incr(buffer,refpos1,ce.getLength(),index);
     					}
     				refpos1+=ce.getLength();
     				}    				
@@ -235,7 +342,7 @@ public class Bam2Wig extends Launcher
 	private static class DeletionAggregator extends Aggregator
 		{
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final CoverageRingBuffer buffer,final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -246,7 +353,7 @@ public class Bam2Wig extends Launcher
 				switch(op)
 					{
 					case D:
-					case N:incr(array,refpos1,ce.getLength());
+					case N:incr(buffer,refpos1,ce.getLength());
 					default: break;
 					}
 				if(op.consumesReferenceBases())
@@ -259,7 +366,7 @@ public class Bam2Wig extends Launcher
 	private static class InsertionAggregator extends Aggregator
 		{
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final CoverageRingBuffer buffer,final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -269,7 +376,7 @@ public class Bam2Wig extends Launcher
 				final CigarOperator op = ce.getOperator();
 				switch(op)
 					{
-					case I: incr(array,refpos1,1);
+					case I: incr(buffer,refpos1,1);
 					default: break;
 					}
 				if(op.consumesReferenceBases())
@@ -283,8 +390,19 @@ public class Bam2Wig extends Launcher
 	
 	private static class ClipAggregator extends Aggregator
 		{
+		/** the reads are sorted on alignment start, not on unclipped start: keep a margin */
+		private int lookBack = 1_000;
+		@Override
+		int getLowestPosition0(final SAMRecord rec) {
+			this.lookBack = Math.max(this.lookBack, rec.getAlignmentStart()-rec.getUnclippedStart());
+			return rec.getAlignmentStart()-1-this.lookBack;
+			}
+		@Override
+		int getQueryMargin() {
+			return this.lookBack;
+			}
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final CoverageRingBuffer buffer,final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -294,7 +412,7 @@ public class Bam2Wig extends Launcher
 				final CigarOperator op = ce.getOperator();
 				if(op.isClipping())
 					{
-					incr(array,refpos1,ce.getLength());
+					incr(buffer,refpos1,ce.getLength());
 					refpos1+=ce.getLength();
 					}
 				else if(op.consumesReferenceBases())
@@ -304,85 +422,48 @@ public class Bam2Wig extends Launcher
 				}
 			}
 		}
-	private static abstract class BufferedAggregator extends Aggregator
+	
+	/** coverage with one counter per partition (sample, group...) */
+	private static abstract class PartitionAggregator extends CoverageAggregator
 		{
-		private final List<SAMRecord> buffer= new ArrayList<>();
-		private int last_start=1;
-		protected abstract void dump(final List<SAMRecord> records,int start1,int end1,final int array[]);
+		private final Map<String,Integer> partition2index = new HashMap<>();
+		
+		protected PartitionAggregator(final Collection<String> partitions) {
+			for(final String p: partitions) {
+				if(StringUtil.isBlank(p) || this.partition2index.containsKey(p)) continue;
+				this.partition2index.put(p, this.partition2index.size());
+				}
+			}
 		
 		protected abstract String partition(SAMRecord rec);
 		
-		protected Map<Integer,Counter<String>> fillPositions(final List<SAMRecord> records,final int begin1,final int end1)
-			{
-			final Map<Integer,Counter<String>> pos2sample2depth = new HashMap<>();
-			for(final SAMRecord rec:records) {
-				final Cigar cigar = rec.getCigar();
-				if(cigar==null) continue;
-				final String sample = partition(rec);
-				if(StringUtil.isBlank(sample)) continue;
-				
-				int pos1= rec.getAlignmentStart();
-				for(final CigarElement ce:cigar) {
-					if(pos1>=end1) break;
-					final CigarOperator op= ce.getOperator();
-					if(op.consumesReferenceBases())
-						{
-						final int L=ce.getLength();
-						if(op.consumesReadBases())
-							{
-							for(int i=0;i< L && pos1+i<end1;++i)
-								{
-								final int nx = pos1 + i;
-								if(nx>=begin1 && nx< end1)
-									{
-									Counter<String> sample2coverage = pos2sample2depth.get(nx);
-									if(sample2coverage==null) {
-										sample2coverage = new Counter<String>();
-										pos2sample2depth.put(nx, sample2coverage);
-										}
-									sample2coverage.incr(sample);
-									}
-								}
-							}
-						pos1+=L;
-						}
-					}
-				
-				}
-			return pos2sample2depth;
+		protected int indexOf(final String partition) {
+			final Integer index = this.partition2index.get(partition);
+			return index==null?-1:index.intValue();
 			}
 		
 		@Override
-		void visit(final int array[],final SAMRecord rec)
-			{
-			if(rec.getAlignmentStart() < this.last_start)
-				{
-				throw new IllegalStateException("got read "+rec+" after last_start="+last_start);
-				}
-			this.buffer.removeIf(R->R.getEnd()< this.last_start);
-			final List<SAMRecord> toDump= buffer.stream().
-					filter(R->R.getEnd()< R.getAlignmentEnd()).
-					collect(Collectors.toList());
-			
-			if(!toDump.isEmpty()) {
-				dump(toDump,this.last_start,rec.getAlignmentStart(),array);
-				this.last_start = rec.getAlignmentStart();
-				}
-			this.buffer.add(rec);
+		int getWidth() {
+			return Math.max(1,this.partition2index.size());
 			}
+		
 		@Override
-		void finish(final int array[]) {
-			dump(this.buffer,this.last_start,array.length+1,array);
-			buffer.clear();
-			this.last_start=1;
+		void visit(final CoverageRingBuffer buffer,final SAMRecord rec)
+			{
+			final String sample = partition(rec);
+			if(StringUtil.isBlank(sample)) return;
+			final int index = indexOf(sample);
+			if(index<0) return;
+			visitAligned(buffer,rec,index);
 			}
 		}
 	
-	private static class NumberOfSamplesCoveredX extends BufferedAggregator
+	private static class NumberOfSamplesCoveredX extends PartitionAggregator
 		{
 		private final int minDepth;
-		private SAMRecordPartition samRecordPartition;
-		NumberOfSamplesCoveredX(int minDepth, final SAMRecordPartition samRecordPartition) {
+		private final SAMRecordPartition samRecordPartition;
+		NumberOfSamplesCoveredX(final SAMFileHeader header,int minDepth, final SAMRecordPartition samRecordPartition) {
+			super(samRecordPartition.getPartitions(header));
 			this.minDepth = minDepth;
 			this.samRecordPartition = samRecordPartition;
 			}
@@ -393,129 +474,465 @@ public class Bam2Wig extends Launcher
 			}
 		
 		@Override
-		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final int array[]) {
-			final Map<Integer,Counter<String>> pos2sample2depth= fillPositions(records,begin1,end1);
-			for(int start1 = begin1;start1<end1;++start1)
-				{
-				final Counter<String> sample2coverage = pos2sample2depth.get(start1);
-				if(sample2coverage==null) continue;
-				
-				final int num_samples= (int)sample2coverage.stream().
-						mapToInt(E->E.getValue().intValue()).
-						filter(D->D>=this.minDepth).
-						count()
-						;				
-				if(start1>0 && start1<=array.length)
-					{
-					array[start1-1]=num_samples;
-					}
-				
+		int reduce(final int counts[],final int offset) {
+			int num_samples=0;
+			for(int i=0;i< getWidth();i++) {
+				final int depth = counts[offset+i];
+				if(depth>0 && depth>=this.minDepth) num_samples++;
 				}
+			return num_samples;
 			}
 		}
 	
-	private static class CaseControlAggregator extends BufferedAggregator
+	private static class CaseControlAggregator extends PartitionAggregator
 		{
-		private final Map<String,Pedigree.Person> case2person;
-		private final Map<String,Pedigree.Person> ctrl2person;
-		CaseControlAggregator(final File pedigreeFile) {
-			final Pedigree pedigree ;
-			IOUtil.assertFileIsReadable(pedigreeFile);
-			try {
-				pedigree = Pedigree.newParser().parse(pedigreeFile);
-				}
-			catch(final IOException err)
-				{
-				throw new RuntimeIOException(err);
-				}
-			this.case2person=pedigree.getPersons().stream().
+		private final int case_indexes[];
+		private final int ctrl_indexes[];
+		private final double case_depths[];
+		private final double ctrl_depths[];
+		CaseControlAggregator(final Pedigree pedigree) {
+			super(pedigree.getPersons().stream().
+					filter(P->P.isAffected() || P.isUnaffected()).
+					map(P->P.getId()).
+					collect(Collectors.toList()));
+			this.case_indexes = pedigree.getPersons().stream().
 						filter(P->P.isAffected()).
-						collect(Collectors.toMap(P->P.getId(), P->P))
-						;
-			this.ctrl2person=pedigree.getPersons().stream().
-					filter(P->P.isUnaffected()).
-					collect(Collectors.toMap(P->P.getId(), P->P))
-					;
+						mapToInt(P->indexOf(P.getId())).
+						distinct().
+						toArray();
+			this.ctrl_indexes = pedigree.getPersons().stream().
+						filter(P->P.isUnaffected()).
+						mapToInt(P->indexOf(P.getId())).
+						distinct().
+						toArray();
+			this.case_depths = new double[this.case_indexes.length];
+			this.ctrl_depths = new double[this.ctrl_indexes.length];
 			}
+		
 		@Override
-		void visit(int[] array, SAMRecord rec) {
-			if(this.case2person.isEmpty()) return;
-			if(this.ctrl2person.isEmpty()) return;
-			if(StringUtil.isBlank(partition(rec))) return;
-			super.visit(array, rec);
+		void visit(final CoverageRingBuffer buffer,final SAMRecord rec) {
+			if(this.case_indexes.length==0) return;
+			if(this.ctrl_indexes.length==0) return;
+			super.visit(buffer, rec);
 			}
 		
 		@Override
 		protected String partition(final SAMRecord rec) {
-
 			final SAMReadGroupRecord rg = rec.getReadGroup();
 			if(rg==null) return null;
-			final String sample= rg.getSample();			
-			if(!(this.ctrl2person.containsKey(sample)|| this.case2person.containsKey(sample))) return null;
-			return null;
+			return rg.getSample();
+			}
+		
+		private static double median(final double array[])
+			{
+			Arrays.sort(array);
+			final int mid_x= array.length/2;
+			if(array.length%2==0)
+		        {
+				return (array[mid_x-1]+array[mid_x])/2.0;
+		        }
+			else
+		        {
+		        return array[mid_x];
+		        }
 			}
 		
 		@Override
-		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final int array[]) {
-			if(this.case2person.isEmpty()) return;
-			if(this.ctrl2person.isEmpty()) return;
-			final Map<Integer,Counter<String>> pos2sample2depth= fillPositions(records,begin1,end1);
-				
-					
-			for(int start1 = begin1;start1<end1;++start1)
-				{
-				
-				final Counter<String> sample2coverage = pos2sample2depth.get(start1);
-				if(sample2coverage==null) continue;
-				
-				final double median_cases = Percentile.median().evaluate(this.case2person.keySet().
-						stream().
-						mapToDouble(ID->sample2coverage.count(ID))
-						);
-				final double median_ctrl = Percentile.median().evaluate(this.ctrl2person.keySet().
-						stream().
-						mapToDouble(ID->sample2coverage.count(ID))
-						);
+		int reduce(final int counts[],final int offset) {
+			if(this.case_indexes.length==0) return 0;
+			if(this.ctrl_indexes.length==0) return 0;
+			boolean covered = false;
+			for(int i=0;i< this.case_indexes.length;i++) {
+				this.case_depths[i] = counts[offset+this.case_indexes[i]];
+				if(this.case_depths[i]>0) covered=true;
+				}
+			for(int i=0;i< this.ctrl_indexes.length;i++) {
+				this.ctrl_depths[i] = counts[offset+this.ctrl_indexes[i]];
+				if(this.ctrl_depths[i]>0) covered=true;
+				}
+			if(!covered) return 0;
+			final double ratio = median(this.case_depths) / median(this.ctrl_depths);
+			return (int)(ratio * 1000.0);
+			}
+		}
 
-				final double ratio = median_cases / median_ctrl;
+	/** prints the windows of one contig as soon as their positions are sealed.
+	 * Only the windows starting in [start0,windowEnd0) are printed */
+	private class ContigWriter
+		{
+		private final PrintWriter pw;
+		private final SAMSequenceRecord ssr;
+		private final Aggregator aggregator;
+		private final Interval interval;
+		private final Percentile percentile;
+		private final CoverageRingBuffer buffer;
+		private final int window_values[];
+		/** start of the next window */
+		private int start0;
+		/** end of the window starts */
+		private final int windowEnd0;
+		/** end of the positions used by the windows */
+		private final int limit0;
+		/** start of the first printed window or -1 */
+		private int firstWindow0 = -1;
+		private boolean header_printed;
+		private boolean done=false;
+		
+		ContigWriter(
+				final PrintWriter pw,
+				final SAMSequenceRecord ssr,
+				final Aggregator aggregator,
+				final Percentile percentile,
+				final Interval interval // may be null
+				) {
+			this(pw,ssr,aggregator,percentile,interval,
+				(interval==null?0:interval.getStart()),
+				ssr.getSequenceLength(),
+				true
+				);
+			}
+		
+		ContigWriter(
+				final PrintWriter pw,
+				final SAMSequenceRecord ssr,
+				final Aggregator aggregator,
+				final Percentile percentile,
+				final Interval interval, // may be null
+				final int start0,
+				final int windowEnd0,
+				final boolean printHeader
+				) {
+			this.pw = pw;
+			this.ssr = ssr;
+			this.aggregator = aggregator;
+			this.percentile = percentile;
+			this.interval = interval;
+			this.start0 = start0;
+			this.windowEnd0 = Math.min(windowEnd0, ssr.getSequenceLength());
+			this.limit0 = (int)Math.min((long)ssr.getSequenceLength(), (long)this.windowEnd0 - 1L + window_span);
+			this.header_printed = !printHeader;
+			this.buffer = new CoverageRingBuffer(aggregator.getWidth(),start0,Math.max(start0, this.limit0));
+			this.window_values = new int[window_span];
+			}
+		
+		void visit(final SAMRecord rec) {
+			advance(this.aggregator.getLowestPosition0(rec));
+			this.aggregator.visit(this.buffer, rec);
+			}
+		
+		/** all the positions before 'pos0' are final */
+		private void advance(final int pos0) {
+			if(this.done) return;
+			final int target = Math.min(pos0, this.limit0);
+			while(this.buffer.sealed0 < target)
+				{
+				/* fill the buffer without growing it, unless it is full because a window needs more positions */
+				int limit = this.buffer.begin0 + this.buffer.capacity;
+				if(limit <= this.buffer.sealed0) limit = this.buffer.sealed0 + this.buffer.capacity;
+				this.buffer.seal(Math.min(target, limit), this.aggregator);
+				printWindows();
+				}
+			}
+		
+		void finish() {
+			advance(this.limit0);
+			printWindows();
+			if(this.buffer.dropped>0L) {
+				LOG.warn(this.ssr.getSequenceName()+": "+this.buffer.dropped+" bases were ignored because the reads are not sorted on that criteria.");
+				}
+			}
+		
+		private void printWindows() {
+			final int contigLength = this.ssr.getSequenceLength();
+			while(!this.done)
+				{
+				if(this.start0 >= this.windowEnd0) { this.done=true; break;}
+				if(this.interval!=null)
+					{
+					if(!this.interval.getContig().equals(this.ssr.getSequenceName())) { this.done=true; break;}
+					if(this.start0> this.interval.getEnd()) { this.done=true; break;}
+					
+					if(this.start0+window_span < this.interval.getStart())
+						{
+						this.start0+=win_shift;
+						continue;
+						}
+					}
+				final int length = Math.min(window_span,contigLength-this.start0);
+				/* wait for the values of this window */
+				if(this.buffer.sealed0 < this.start0 + length) break;
 				
-				if(start1>0 && start1<=array.length)
+				if(!this.header_printed)
+					{
+					printFixedStepHeader(this.pw, this.ssr, this.start0);
+					this.header_printed=true;
+					}
+				if(this.firstWindow0<0) this.firstWindow0 = this.start0;
+				/* 
+				 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
+				   Wiggle track data values can be integer or real, positive or negative values.
+				   Chromosome positions are specified as 1-relative.
+				   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
+				 */
+				for(int i=0;i< length;i++)
+					{
+					this.window_values[i] = this.buffer.getValue(this.start0+i);
+					}
+				final double percentile_value = this.percentile.evaluate(this.window_values,0,length);
+				if(bedGraph)
 					{
-					array[start1-1]= (int)(ratio * 1000.0);
+					this.pw.print(this.ssr.getSequenceName());
+					this.pw.print('\t');
+					this.pw.print(this.start0);
+					this.pw.print('\t');
+					this.pw.print(this.start0+window_span);
+					this.pw.print('\t');
 					}
 				
+				this.pw.printf(printfFormat,percentile_value);
+				this.pw.print('\n');
+ 				
+ 				if(this.pw.checkError()) { this.done=true; break;}
+ 				this.start0 += win_shift;
 				}
+			this.buffer.release(this.done?Integer.MAX_VALUE:this.start0);
 			}
 		}
-
 	
+	private void printFixedStepHeader(final PrintWriter pw,final SAMSequenceRecord ssr,final int start0)
+		{
+		if(this.bedGraph) return;
+		pw.println(
+				"fixedStep chrom="+ssr.getSequenceName()+
+				" start="+(start0+1)+
+				" step="+this.win_shift +" span="+ this.window_span
+				);
+		}
 	
-	private void run(
-			final PrintWriter pw,
-			final CloseableIterator<SAMRecord> iter,
-			final SAMSequenceDictionary dict,
-			final Interval interval // may be null
-			)
+	private Aggregator createAggregator(final SAMFileHeader header)
 		{
-		final Aggregator aggregator;
 		switch(this.whatDisplay)
 			{
-			case COVERAGE: aggregator = new CoverageAggregator();break;
-			case CLIPPING : aggregator = new ClipAggregator(); break;
-			case INSERTION : aggregator = new InsertionAggregator();break;
-			case DELETION : aggregator = new DeletionAggregator();break;
-			case READ_GROUPS: aggregator = new NumberOfSamplesCoveredX(this.min_depth, this.partition);break;
+			case COVERAGE: return new CoverageAggregator();
+			case CLIPPING : return new ClipAggregator();
+			case INSERTION : return new InsertionAggregator();
+			case DELETION : return new DeletionAggregator();
+			case READ_GROUPS: return new NumberOfSamplesCoveredX(header,this.min_depth, this.partition);
 			case CASE_CTRL : 
 				if(this.pedigreeFile==null) {
 					throw new JvarkitException.UserError("undefined pedigree");
 				}
-				aggregator = new CaseControlAggregator(this.pedigreeFile); break;
+				IOUtil.assertFileIsReadable(this.pedigreeFile);
+				try {
+					return new CaseControlAggregator(Pedigree.newParser().parse(this.pedigreeFile));
+					}
+				catch(final IOException err)
+					{
+					throw new RuntimeIOException(err);
+					}
 			default: throw new IllegalStateException(this.whatDisplay.name());
 			}
-		
+		}
+	
+	/** a set of consecutive windows, processed by one thread */
+	private static class Chunk
+		{
+		final SAMSequenceRecord ssr;
+		/** start of the first window */
+		final int start0;
+		/** end of the window starts */
+		final int end0;
+		Chunk(final SAMSequenceRecord ssr,final int start0,final int end0) {
+			this.ssr = ssr;
+			this.start0 = start0;
+			this.end0 = end0;
+			}
+		}
+	
+	private static class ChunkResult
+		{
+		final Chunk chunk;
+		final String text;
+		/** true if at least one read was visited */
+		final boolean hasReads;
+		/** start of the first printed window or -1 */
+		final int firstWindow0;
+		ChunkResult(final Chunk chunk,final String text,final boolean hasReads,final int firstWindow0) {
+			this.chunk = chunk;
+			this.text = text;
+			this.hasReads = hasReads;
+			this.firstWindow0 = firstWindow0;
+			}
+		}
+	
+	/** split the genome into chunks of windows. The size of a chunk is a multiple of the 16kb bins of the BAM linear index */
+	private List<Chunk> createChunks(final SAMSequenceDictionary dict,final Interval interval)
+		{
+		final int chunkLength = 64 * 16_384;
+		final int windowsPerChunk = Math.max(1, chunkLength/this.win_shift);
+		final List<Chunk> chunks = new ArrayList<>();
+		for(final SAMSequenceRecord ssr: dict.getSequences())
+			{
+			if(interval!=null && !interval.getContig().equals(ssr.getSequenceName())) continue;
+			final int first0 = (interval==null?0:interval.getStart());
+			final long end0 = (interval==null?ssr.getSequenceLength():Math.min(ssr.getSequenceLength(),interval.getEnd()+1L));
+			for(long start0=first0;start0< end0; start0 += (long)windowsPerChunk*this.win_shift)
+				{
+				chunks.add(new Chunk(ssr,(int)start0,(int)Math.min(end0, start0 + (long)windowsPerChunk*this.win_shift)));
+				}
+			}
+		return chunks;
+		}
+	
+	/** process one chunk, the readers are owned by the current thread */
+	private ChunkResult processChunk(
+			final Chunk chunk,
+			final List<SamReader> samReaders,
+			final SAMFileHeader header,
+			final Interval interval
+			)
+		{
+		final Aggregator aggregator = createAggregator(header);
+		final StringWriter sw = new StringWriter();
+		final PrintWriter pw = new PrintWriter(sw);
+		final ContigWriter contigWriter = new ContigWriter(
+				pw, chunk.ssr, aggregator,
+				Percentile.of(this.percentilType),
+				interval,chunk.start0,chunk.end0,false
+				);
+		/* reads spanning the boundaries of the chunk are fetched by the query */
+		final int margin = aggregator.getQueryMargin();
+		final int queryStart = Math.max(1, chunk.start0 - margin);
+		final int queryEnd = (int)Math.min((long)chunk.ssr.getSequenceLength(), (long)contigWriter.limit0 + margin);
+		final Map<SamReader,CloseableIterator<SAMRecord>> reader2iter= new HashMap<>(samReaders.size());
+		CloseableIterator<SAMRecord> iter = null;
+		boolean hasReads = false;
+		try {
+			for(final SamReader sr: samReaders)
+				{
+				reader2iter.put(sr,sr.query(chunk.ssr.getSequenceName(), queryStart, queryEnd, false));
+				}
+			if(samReaders.size()==1)
+				{
+				iter = reader2iter.get(samReaders.get(0));
+				}
+			else
+				{
+				final SamFileHeaderMerger mergedheader = new SamFileHeaderMerger(
+						SAMFileHeader.SortOrder.coordinate,
+						samReaders.stream().map(SR->SR.getFileHeader()).collect(Collectors.toList()),
+						false
+						);
+				iter = new MergingSamRecordIterator(mergedheader, reader2iter, true);
+				}
+			while(iter.hasNext())
+				{
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				if(this.samRecordFilter.filterOut(rec)) continue;
+				if(interval!=null && !interval.overlaps(rec)) continue;
+				hasReads = true;
+				contigWriter.visit(rec);
+				}
+			contigWriter.finish();
+			pw.flush();
+			return new ChunkResult(chunk, sw.toString(), hasReads, contigWriter.firstWindow0);
+			}
+		finally
+			{
+			CloserUtil.close(iter);
+			CloserUtil.close(reader2iter.values());
+			}
+		}
+	
+	/** process the chunks in parallel, the results are printed in order.
+	 * Like the serial mode, a contig is printed only if it contains at least one read */
+	private void runParallel(
+			final PrintWriter pw,
+			final List<File> samFiles,
+			final SAMFileHeader header,
+			final Interval interval // may be null
+			) throws Exception
+		{
+		final SamReaderFactory srf=SamReaderFactory.makeDefault().validationStringency(htsjdk.samtools.ValidationStringency.LENIENT);
+		final List<SamReader> allReaders = Collections.synchronizedList(new ArrayList<>());
+		/* SamReader are not thread-safe: one set of readers per thread */
+		final ThreadLocal<List<SamReader>> threadReaders = ThreadLocal.withInitial(()->{
+			final List<SamReader> L = samFiles.stream().map(F->srf.open(F)).collect(Collectors.toList());
+			allReaders.addAll(L);
+			return L;
+			});
+		final List<Chunk> chunks = createChunks(header.getSequenceDictionary(),interval);
+		LOG.info("processing "+chunks.size()+" chunks using "+this.nThreads+" threads");
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		try {
+			if(this.custom_track)
+				{
+				pw.println(
+					UCSC_HEADER.replace("track_type", 
+						this.bedGraph?"bedGraph":"wiggle_0")
+						);
+				}
+			final Deque<Future<ChunkResult>> futures = new ArrayDeque<>();
+			/* results of the current contig waiting for a chunk having reads */
+			final List<ChunkResult> waiting = new ArrayList<>();
+			SAMSequenceRecord currentContig = null;
+			boolean contigPrinted = false;
+			int nextChunk = 0;
+			while(nextChunk < chunks.size() || !futures.isEmpty())
+				{
+				while(nextChunk < chunks.size() && futures.size() < this.nThreads*4)
+					{
+					final Chunk chunk = chunks.get(nextChunk++);
+					futures.add(executorService.submit(()->processChunk(chunk,threadReaders.get(),header,interval)));
+					}
+				final ChunkResult result = futures.poll().get();
+				if(currentContig==null || currentContig!=result.chunk.ssr)
+					{
+					currentContig = result.chunk.ssr;
+					contigPrinted = false;
+					waiting.clear();
+					}
+				if(contigPrinted)
+					{
+					pw.print(result.text);
+					}
+				else if(result.hasReads)
+					{
+					waiting.add(result);
+					final OptionalInt firstWindow0 = waiting.stream().mapToInt(R->R.firstWindow0).filter(I->I>=0).findFirst();
+					if(firstWindow0.isPresent()) printFixedStepHeader(pw,currentContig,firstWindow0.getAsInt());
+					for(final ChunkResult r:waiting) pw.print(r.text);
+					waiting.clear();
+					contigPrinted = true;
+					}
+				else
+					{
+					waiting.add(result);
+					}
+				if(pw.checkError()) break;
+				}
+			pw.flush();
+			}
+		finally
+			{
+			executorService.shutdownNow();
+			executorService.awaitTermination(1L, TimeUnit.MINUTES);
+			CloserUtil.close(allReaders);
+			}
+		}
+	
+	private void run(
+			final PrintWriter pw,
+			final CloseableIterator<SAMRecord> iter,
+			final SAMFileHeader header,
+			final Interval interval // may be null
+			)
+		{
+		final SAMSequenceDictionary dict = header.getSequenceDictionary();
+		final Aggregator aggregator = createAggregator(header);
 		final Percentile percentile = Percentile.of(this.percentilType);
-		SAMSequenceRecord ssr = null;
-		int array[]=null;
+		ContigWriter contigWriter = null;
 		final SAMSequenceDictionaryProgress progess=new SAMSequenceDictionaryProgress(dict);
 		if(this.custom_track)
 			{
@@ -541,87 +958,23 @@ public class Bam2Wig extends Launcher
 				}
 			
 			if(		rec==null ||
-					(ssr!=null && ssr.getSequenceIndex()!=rec.getReferenceIndex()))
+					(contigWriter!=null && contigWriter.ssr.getSequenceIndex()!=rec.getReferenceIndex()))
 				{
-				if(ssr!=null)
+				if(contigWriter!=null)
 					{
-					aggregator.finish(array);
-					// dump data
-					int start0=(interval==null?0:interval.getStart());
-					boolean header_printed=false;
-					
-					
-					while(start0 < array.length)
-						{
-						if(interval!=null)
-							{
-							if(!interval.getContig().equals(ssr.getSequenceName())) break;//
-							if(start0> interval.getEnd()) break;
-							
-							if(start0+window_span < interval.getStart())
-								{
-								start0+=win_shift;
-								continue;
-								}
-							}
-						
-						if(!this.bedGraph && !header_printed)
-							{
-							pw.println(
-			 						"fixedStep chrom="+ssr.getSequenceName()+
-			 						" start="+(start0+1)+
-			 						" step="+this.win_shift +" span="+ this.window_span
-			 						);
-							header_printed=true;
-							}
-						/* 
-						 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
-						   Wiggle track data values can be integer or real, positive or negative values.
-						   Chromosome positions are specified as 1-relative.
-						   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
-						 */
-		 				
-						final double percentile_value = 
-							percentile.evaluate(
-									array,
-									start0,
-									Math.min(this.window_span,array.length-start0)
-									);
-						if(this.bedGraph)
-							{
-							pw.print(ssr.getSequenceName());
-							pw.print('\t');
-							pw.print(start0);
-							pw.print('\t');
-							pw.print(start0+this.window_span);
-							pw.print('\t');
-							}
-						
-						pw.printf(this.printfFormat,percentile_value);
-	 					pw.print('\n');
-		 				
-		 				if(pw.checkError()) break;
-		 				start0 += this.win_shift;
-						}
-					array = null;
-					System.gc();
-					ssr = null;
+					contigWriter.finish();
+					contigWriter = null;
 					}
 				if(rec==null) break;
 				if(pw.checkError()) break;
 				}
-			if(ssr==null)
+			if(contigWriter==null)
 				{
-				System.gc();
-				ssr=dict.getSequence(rec.getReferenceIndex());
+				final SAMSequenceRecord ssr=dict.getSequence(rec.getReferenceIndex());
 				Objects.requireNonNull(ssr);
-				LOG.info("Allocating int["+ssr.getSequenceLength()+"]");
-				array=new int[ssr.getSequenceLength()];
-				LOG.info("Allocating : Done.");
-				Arrays.fill(array, 0);
+				contigWriter = new ContigWriter(pw, ssr, aggregator, percentile, interval);
 				}
-			aggregator.visit(array, rec);
-			
+			contigWriter.visit(rec);
 			}
 		progess.finish();
 		iter.close();
@@ -638,7 +991,12 @@ public class Bam2Wig extends Launcher
 				LOG.error("window size<=0");
 				return -1;
 			}
+			if(this.nThreads<1) {
+				LOG.error("threads<1");
+				return -1;
+			}
 			final Interval interval;
+			final SAMFileHeader samHeader;
 			PrintWriter pw = null;
 			CloseableIterator<SAMRecord> samRecordIterator = null;
 			final List<SamReader> samReaders = new ArrayList<>();
@@ -656,10 +1014,12 @@ public class Bam2Wig extends Launcher
 					interval = null;
 					samReaders.add( srf.open(SamInputResource.of(stdin())));
 					samRecordIterator = samReaders.get(0).iterator();
+					samHeader = samReaders.get(0).getFileHeader();
 					}
 				else if(args.size()==1 && !args.get(0).endsWith(".list"))
 					{
 					samReaders.add( srf.open(SamInputResource.of(new File(args.get(0)))));
+					samHeader = samReaders.get(0).getFileHeader();
 					if(StringUtil.isBlank(this.region_str))
 						{
 						samRecordIterator = samReaders.get(0).iterator();
@@ -749,6 +1109,7 @@ public class Bam2Wig extends Launcher
 									));
 							}
 						}
+					samHeader = mergedheader.getMergedHeader();
 					merginIterators.addAll(reader2iter.values());
 					samRecordIterator = new MergingSamRecordIterator(mergedheader, reader2iter, true);
 					}
@@ -760,12 +1121,46 @@ public class Bam2Wig extends Launcher
 						return -1;
 						}
 					}
+				if(this.nThreads>1)
+					{
+					if(args.isEmpty()) {
+						LOG.error("option --threads cannot be used with stdin");
+						return -1;
+						}
+					for(final SamReader sr:samReaders)
+						{
+						if(!sr.hasIndex()) {
+							LOG.error("option --threads requires indexed BAM files.");
+							return -1;
+							}
+						}
+					final List<File> samFiles;
+					if(args.size()==1 && args.get(0).endsWith(".list"))
+						{
+						samFiles = IOUtils.unrollFile(new File(args.get(0)));
+						}
+					else
+						{
+						samFiles = args.stream().map(S->new File(S)).collect(Collectors.toList());
+						}
+					/* each thread opens its own readers */
+					samRecordIterator.close();
+					samRecordIterator=null;
+					CloserUtil.close(merginIterators);
+					merginIterators.clear();
+					CloserUtil.close(samReaders);
+					samReaders.clear();
+					pw = openFileOrStdoutAsPrintWriter(this.outputFile);
+					runParallel(pw, samFiles, samHeader, interval);
+					pw.flush();
+					return RETURN_OK;
+					}
 				pw = openFileOrStdoutAsPrintWriter(this.outputFile);
 				
 				run(
 					pw,
 					samRecordIterator,
-					samReaders.get(0).getFileHeader().getSequenceDictionary(),
+					samHeader,
 					interval
 					);
 				samRecordIterator.close();
@@ -35,11 +35,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
 
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.SAMFileHeader.SortOrder;
@@ -49,7 +51,6 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.samtools.util.SortingCollection;
 
 /**
 BEGIN_DOC
@@ -130,17 +131,19 @@ public class BamIndexReadNames
 			
 			NameIndexDef indexDef=new NameIndexDef();
 
-			SortingCollection<NameAndPos> sorting=null;
+			ParallelSortingCollection<NameAndPos> sorting=null;
 			LOG.info("Opening "+bamFile);
 			SamReader sfr=SamReaderFactory.makeDefault().
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
-			sorting=SortingCollection.newInstance(
+			sorting=new ParallelSortingCollection<>(
 					NameAndPos.class,
 					new NameAndPosCodec() ,
 					new NameAndPosComparator(),
 					maxRecordsInRAM,
-					bamFile.getParentFile().toPath()
+					Collections.singletonList(bamFile.getParentFile().toPath()),
+					1,
+					true
 					);
 			sorting.setDestructiveIteration(true);
 			if(sfr.getFileHeader().getSortOrder()!=SortOrder.coordinate)
@@ -25,17 +25,28 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.bamstats04;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalInt;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
@@ -53,6 +64,7 @@ import com.github.lindenb.jvarkit.util.samtools.SAMRecordPartition;
 import com.github.lindenb.jvarkit.util.samtools.SamRecordJEXLFilter;
 
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.samtools.Cigar;
@@ -75,6 +87,7 @@ Input is one or more indexed BAM files.
 
 ## History
 
+* 2018-06: option --threads
 * 2018-01-30: now using a jexl parser
 * 2018-01-30: allow multiple values for '-cov'
 * 2018-01-29: fixed bug from previous release (no data produced if no read). Added BioDas Resource.
@@ -116,6 +129,12 @@ public class BamStats04 extends Launcher
 	private String faidxUri = null;
 	@Parameter(names={"-partition","--partition"},description="[20171120]"+SAMRecordPartition.OPT_DESC)
 	private SAMRecordPartition partition = SAMRecordPartition.sample;
+	@Parameter(names={"--threads"},description="Number of threads. The BED records are processed in parallel, each thread has its own BAM readers. The output keeps the order of the BED file.")
+	private int nThreads = 1;
+	
+	private static final String NO_PARTITION="N/A";
+	/** number of BED records processed by a thread at once */
+	private static final int BED_BATCH_SIZE = 100;
 	
 	
 	
@@ -153,6 +172,153 @@ public class BamStats04 extends Launcher
 		
 		}
 	
+	/** computes the statistics for some BED records. Each thread has its own instance because SamReader is not thread-safe */
+	private class BedLineProcessor implements Closeable
+		{
+		private final List<SamReader> samReaders;
+		private final ReferenceGenome referenceGenome;
+		private final Set<String> all_partitions;
+		private ReferenceContig referenceContig = null;
+		
+		BedLineProcessor(final List<SamReader> samReaders,final ReferenceGenome referenceGenome,final Set<String> all_partitions)
+			{
+			this.samReaders = samReaders;
+			this.referenceGenome = referenceGenome;
+			this.all_partitions = all_partitions;
+			}
+		
+		String process(final List<BedLine> bedLines)
+			{
+			final StringWriter sw = new StringWriter();
+			final PrintWriter pw = new PrintWriter(sw);
+			for(final BedLine bedLine: bedLines)
+				{
+				process(pw,bedLine);
+				}
+			pw.flush();
+			return sw.toString();
+			}
+		
+		private void process(final PrintWriter pw,final BedLine bedLine)
+			{
+			if(this.referenceGenome!=null && (this.referenceContig==null || !this.referenceContig.hasName(bedLine.getContig()))) {
+				this.referenceContig = this.referenceGenome.getContig(bedLine.getContig());
+				}
+			
+			final Map<String, IntervalStat> sample2stats= new HashMap<>(this.all_partitions.size());
+			for(final String rgId:this.all_partitions) {
+				sample2stats.put(rgId, new IntervalStat(bedLine));
+				}
+			
+			for(final SamReader samReader:this.samReaders) 
+				{
+				/**
+				 *     start - 1-based, inclusive start of interval of interest. Zero implies start of the reference sequence.
+	    		*	   end - 1-based, inclusive end of interval of interest. Zero implies end of the reference sequence. 
+				 */
+				final SAMRecordIterator r=samReader.queryOverlapping(
+						bedLine.getContig(),
+						bedLine.getStart(),
+						bedLine.getEnd()
+						);
+				while(r.hasNext())
+					{
+					final SAMRecord rec=r.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(filter.filterOut(rec)) continue;
+					if(!rec.getReferenceName().equals(bedLine.getContig())) continue;
+					
+					
+					final String partition;
+					final SAMReadGroupRecord group = rec.getReadGroup();
+					if(group==null)
+						{
+						partition=NO_PARTITION;
+						}
+					else
+						{
+						final String name = BamStats04.this.partition.apply(group);
+						partition = (StringUtil.isBlank(name)?NO_PARTITION:name);
+						}
+					
+					IntervalStat stat= sample2stats.get(partition);
+					if(stat==null) 
+						{
+						stat = new IntervalStat(bedLine);
+						sample2stats.put(partition,stat);
+						}
+					stat.visit(rec);
+					}
+				
+				r.close();
+				} // end of loop over sam Readers
+			
+			final OptionalInt gcPercentInt = (this.referenceContig==null?
+				OptionalInt.empty():
+				this.referenceContig.getGCPercent(bedLine.getStart()-1,bedLine.getEnd()).getGCPercentAsInteger()
+				);
+			
+			
+			for(final String partitionName : sample2stats.keySet()) {
+				final IntervalStat stat = sample2stats.get(partitionName);
+				Arrays.sort(stat.counts);
+				
+				pw.print(
+						bedLine.getContig()+"\t"+
+						(bedLine.getStart()-1)+"\t"+
+						(bedLine.getEnd())+"\t"+
+						stat.counts.length+"\t"+
+						partitionName
+						);
+				if(this.referenceGenome!=null) {
+					pw.print("\t");
+					if(gcPercentInt.isPresent()) pw.print(gcPercentInt.getAsInt());
+					
+					}
+				pw.print(
+					"\t"+
+					stat.counts[0]+"\t"+
+					stat.counts[stat.counts.length-1]
+					);
+				
+				for(final int MIN_COVERAGE:minCoverages)
+					{
+					/** map depth to 0 if depth <= MIN_COVERAGE */
+					final IntUnaryOperator depthAdjuster = (D)->(D<=MIN_COVERAGE?0:D);
+	
+					
+					final int count_no_coverage=(int)Arrays.stream(stat.counts).
+							filter(D-> depthAdjuster.applyAsInt(D)<=0).
+							count()
+							;
+					
+					final double mean= Percentile.average().evaluate(Arrays.stream(stat.counts).
+							map(depthAdjuster)
+							);
+					
+	                final double median_depth = Percentile.median().evaluate(Arrays.stream(stat.counts).
+							map(depthAdjuster)
+							);
+	                
+					
+					pw.print("\t"+
+							mean+"\t"+
+							median_depth+"\t"+
+							count_no_coverage+"\t"+
+							(int)(((stat.counts.length-count_no_coverage)/(double)stat.counts.length)*100.0)
+							);
+					}
+				pw.println();
+				}
+			}
+		
+		@Override
+		public void close() {
+			CloserUtil.close(this.samReaders);
+			CloserUtil.close(this.referenceGenome);
+			}
+		}
+	
 	@Override
 		public int doWork(final List<String> args) {
 			if(this.bedFile==null || !this.bedFile.exists()) {
@@ -163,26 +329,31 @@ public class BamStats04 extends Launcher
 				LOG.error("Bam files missing");
 				return -1;
 				}
+			if(this.nThreads<1)  {
+				LOG.error("bad number of threads");
+				return -1;
+				}
 			
 			if(this.minCoverages.isEmpty())
 				{
 				this.minCoverages.add(0);
 				}
 			
-			final String NO_PARTITION="N/A";
 			BufferedReader bedIn=null;
 			final List<SamReader> samReaders = new ArrayList<>(args.size());
 			PrintWriter pw = null;
 			ReferenceGenome referenceGenome = null;
-			ReferenceContig referenceContig = null;
+			ExecutorService executorService = null;
+			final List<BedLineProcessor> processors = Collections.synchronizedList(new ArrayList<>());
 			try
 				{
 				final BedLineCodec codec= new BedLineCodec();
 				final Set<String> all_partitions = new TreeSet<>();
 				bedIn=IOUtils.openFileForBufferedReading(this.bedFile);
 				SAMSequenceDictionary dict = null;
+				final List<String> bamPaths = IOUtils.unrollFiles(args);
 				
-				for(final String filename: IOUtils.unrollFiles(args)) {
+				for(final String filename: bamPaths) {
 					LOG.info(filename);
 					final SamReader samReader = super.openSamReader(filename);
 					if(!samReader.hasIndex()) {
@@ -236,7 +407,7 @@ public class BamStats04 extends Launcher
 				
 				
 				if(!StringUtil.isBlank(this.faidxUri)) {
-					referenceGenome = new ReferenceGenomeFactory().open(this.faidxUri);
+					referenceGenome = openReferenceGenome();
 				}
 				pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
 				pw.print(
@@ -259,6 +430,31 @@ public class BamStats04 extends Launcher
 				pw.println();
 	
 			
+				final BedLineProcessor mainProcessor = new BedLineProcessor(samReaders, referenceGenome, all_partitions);
+				/* one processor per thread, each one opens its own readers */
+				final ThreadLocal<BedLineProcessor> threadProcessor;
+				if(this.nThreads>1)
+					{
+					final List<String> filenames = new ArrayList<>(bamPaths);
+					executorService = Executors.newFixedThreadPool(this.nThreads);
+					threadProcessor = ThreadLocal.withInitial(()->{
+						final List<SamReader> readers = filenames.stream().map(F->super.openSamReader(F)).collect(Collectors.toList());
+						final BedLineProcessor processor = new BedLineProcessor(
+							readers,
+							StringUtil.isBlank(this.faidxUri)?null:openReferenceGenome(),
+							all_partitions
+							);
+						processors.add(processor);
+						return processor;
+						});
+					}
+				else
+					{
+					threadProcessor = null;
+					}
+				/* results of the batches, in the order of the BED file */
+				final Deque<Future<String>> futures = new ArrayDeque<>();
+				List<BedLine> batch = new ArrayList<>(BED_BATCH_SIZE);
 				String line=null;
 				while((line=bedIn.readLine())!=null)
 					{
@@ -276,116 +472,18 @@ public class BamStats04 extends Launcher
 						LOG.info("ignoring "+bedLine);
 						continue;
 						}
-					if(referenceGenome!=null && (referenceContig==null || !referenceContig.hasName(bedLine.getContig()))) {
-						referenceContig = referenceGenome.getContig(bedLine.getContig());
-						}
-					
-					final Map<String, IntervalStat> sample2stats= new HashMap<>(all_partitions.size());
-					for(final String rgId:all_partitions) {
-						sample2stats.put(rgId, new IntervalStat(bedLine));
-						}
-					
-					for(final SamReader samReader:samReaders) 
-						{
-						/**
-						 *     start - 1-based, inclusive start of interval of interest. Zero implies start of the reference sequence.
-			    		*	   end - 1-based, inclusive end of interval of interest. Zero implies end of the reference sequence. 
-						 */
-						final SAMRecordIterator r=samReader.queryOverlapping(
-								bedLine.getContig(),
-								bedLine.getStart(),
-								bedLine.getEnd()
-								);
-						while(r.hasNext())
-							{
-							final SAMRecord rec=r.next();
-							if(rec.getReadUnmappedFlag()) continue;
-							if(this.filter.filterOut(rec)) continue;
-							if(!rec.getReferenceName().equals(bedLine.getContig())) continue;
-							
-							
-							final String partition;
-							final SAMReadGroupRecord group = rec.getReadGroup();
-							if(group==null)
-								{
-								partition=NO_PARTITION;
-								}
-							else
-								{
-								final String name = this.partition.apply(group);
-								partition = (StringUtil.isBlank(name)?NO_PARTITION:name);
-								}
-							
-							IntervalStat stat= sample2stats.get(partition);
-							if(stat==null) 
-								{
-								stat = new IntervalStat(bedLine);
-								sample2stats.put(partition,stat);
-								}
-							stat.visit(rec);
-							}
-						
-						r.close();
-						} // end of loop over sam Readers
-					
-					final OptionalInt gcPercentInt = (referenceContig==null?
-						OptionalInt.empty():
-						referenceContig.getGCPercent(bedLine.getStart()-1,bedLine.getEnd()).getGCPercentAsInteger()
-						);
-					
-					
-					for(final String partitionName : sample2stats.keySet()) {
-						final IntervalStat stat = sample2stats.get(partitionName);
-						Arrays.sort(stat.counts);
-						
-						pw.print(
-								bedLine.getContig()+"\t"+
-								(bedLine.getStart()-1)+"\t"+
-								(bedLine.getEnd())+"\t"+
-								stat.counts.length+"\t"+
-								partitionName
-								);
-						if(referenceGenome!=null) {
-							pw.print("\t");
-							if(gcPercentInt.isPresent()) pw.print(gcPercentInt.getAsInt());
-							
-							}
-						pw.print(
-							"\t"+
-							stat.counts[0]+"\t"+
-							stat.counts[stat.counts.length-1]
-							);
-						
-						for(final int MIN_COVERAGE:this.minCoverages)
-							{
-							/** map depth to 0 if depth <= MIN_COVERAGE */
-							final IntUnaryOperator depthAdjuster = (D)->(D<=MIN_COVERAGE?0:D);
-	
-							
-							final int count_no_coverage=(int)Arrays.stream(stat.counts).
-									filter(D-> depthAdjuster.applyAsInt(D)<=0).
-									count()
-									;
-							
-							final double mean= Percentile.average().evaluate(Arrays.stream(stat.counts).
-									map(depthAdjuster)
-									);
-							
-			                final double median_depth = Percentile.median().evaluate(Arrays.stream(stat.counts).
-									map(depthAdjuster)
-									);
-			                
-							
-							pw.print("\t"+
-									mean+"\t"+
-									median_depth+"\t"+
-									count_no_coverage+"\t"+
-									(int)(((stat.counts.length-count_no_coverage)/(double)stat.counts.length)*100.0)
-									);
-							}
-						pw.println();
+					batch.add(bedLine);
+					if(batch.size()>=BED_BATCH_SIZE) {
+						submit(pw,batch,mainProcessor,executorService,threadProcessor,futures);
+						batch = new ArrayList<>(BED_BATCH_SIZE);
+						if(pw.checkError()) break;
 						}
 					}
+				submit(pw,batch,mainProcessor,executorService,threadProcessor,futures);
+				while(!futures.isEmpty())
+					{
+					pw.print(futures.poll().get());
+					}
 				pw.flush();
 				pw.close();pw=null;
 				LOG.info("done");
@@ -398,6 +496,8 @@ public class BamStats04 extends Launcher
 			}
 		finally
 			{
+			if(executorService!=null) executorService.shutdownNow();
+			CloserUtil.close(processors);
 			CloserUtil.close(referenceGenome);
 			CloserUtil.close(pw);
 			CloserUtil.close(bedIn);
@@ -405,6 +505,39 @@ public class BamStats04 extends Launcher
 			}
 		}
 	
+	private ReferenceGenome openReferenceGenome() {
+		try {
+			return new ReferenceGenomeFactory().open(this.faidxUri);
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+	
+	/** process a batch of BED records in the current thread or in the executor */
+	private void submit(
+			final PrintWriter pw,
+			final List<BedLine> batch,
+			final BedLineProcessor mainProcessor,
+			final ExecutorService executorService,
+			final ThreadLocal<BedLineProcessor> threadProcessor,
+			final Deque<Future<String>> futures
+			) throws InterruptedException, ExecutionException
+		{
+		if(batch.isEmpty()) return;
+		if(executorService==null)
+			{
+			pw.print(mainProcessor.process(batch));
+			return;
+			}
+		futures.add(executorService.submit(()->threadProcessor.get().process(batch)));
+		/* bounded number of pending batches */
+		while(futures.size() >= this.nThreads*4 || (!futures.isEmpty() && futures.peek().isDone()))
+			{
+			pw.print(futures.poll().get());
+			}
+		}
+	
 	public static void main(final String[] args) throws Exception
 		{
 		new BamStats04().instanceMainWithExit(args);
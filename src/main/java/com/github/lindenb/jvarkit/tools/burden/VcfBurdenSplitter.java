@@ -42,6 +42,7 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 import htsjdk.samtools.util.CloseableIterator;
@@ -440,6 +441,7 @@ public class VcfBurdenSplitter
 	
 	private abstract class AbstractSoVepSplitter extends VepSplitter {
 		final Set<SequenceOntologyTree.Term> acns;
+		final Predicate<SequenceOntologyTree.Term> acnsFilter;
 		AbstractSoVepSplitter(final String acn_list[])
 			{
 			final SequenceOntologyTree soTree = SequenceOntologyTree.getInstance();
@@ -453,12 +455,13 @@ public class VcfBurdenSplitter
 					}
 				acns.addAll(tacn.getAllDescendants());
 				}
+			this.acnsFilter = soTree.createTermFilter(this.acns, false);
 			}
 		@Override
 		public boolean accept(final VepPrediction pred,final VariantContext origin) {
 			for(final SequenceOntologyTree.Term so:pred.getSOTerms())
 				{
-				if(acns.contains(so))
+				if(this.acnsFilter.test(so))
 					{
 					if(isDebuggingVariant(origin)) {
 						LOG.info("accepting variant "+shortName(origin)+" because SO-TERM "+so+" is in "+this.acns);
@@ -64,6 +64,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.vcf.IndexedVcfSource;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 import com.github.lindenb.jvarkit.util.vcf.predictions.AnnPredictionParser;
@@ -79,7 +80,6 @@ import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
-import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
 
@@ -328,7 +328,7 @@ public class VcfLoopOverGenes extends Launcher {
 	@Override
 	public int doWork(final List<String> args) {
 		PrintWriter pw=null;
-		VCFFileReader vcfFileReader=null;
+		IndexedVcfSource vcfFileReader=null;
 		CloseableIterator<VariantContext> iter=null;
 		CloseableIterator<GeneLoc> iter2=null;
 		BufferedReader br=null;
@@ -337,7 +337,7 @@ public class VcfLoopOverGenes extends Launcher {
 			
 			
 			final File vcf =new File(oneAndOnlyOneFile(args));
-			vcfFileReader = new VCFFileReader(vcf,(this.geneFile!=null || !StringUtil.isBlank(this.regionStr)));
+			vcfFileReader = IndexedVcfSource.open(vcf,(this.geneFile!=null || !StringUtil.isBlank(this.regionStr)));
 			this.dictionary = vcfFileReader.getFileHeader().getSequenceDictionary();
 			if(this.dictionary==null)
 				{
@@ -0,0 +1,104 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.burden;
+
+import java.io.File;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeCacheWriter;
+import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
+
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+BEGIN_DOC
+
+Converts a sorted VCF into a binary genotype cache that can be read, scanned and queried
+much faster than a VCF by the burden/association tools (vcfburdenfisherh, vcfburdenmaf, vcfskat, vcfloopovergenes, vcfgeneepistasis...):
+the tools detect the cache using its suffix `.gtcache`.
+
+Only the GT, DP, GQ and FT fields of the genotypes are kept. The genotypes of the
+diploid unphased bi-allelic sites without any filtered genotype are stored as 2-bit codes, the other sites are stored as text.
+
+The cache is indexed, so it can be used when the tools require an indexed VCF.
+
+## Example
+
+```
+$ java -jar dist/vcf2gtcache.jar -o input.gtcache input.vcf.gz
+$ java -jar dist/vcfloopovergenes.jar -p KARAKA input.gtcache > genes.bed
+```
+
+END_DOC
+*/
+@Program(name="vcf2gtcache",
+	description="Converts a VCF to a binary genotype cache for the burden tools",
+	keywords={"vcf","burden","genotype","cache"}
+	)
+public class VcfToGenotypeCache extends Launcher
+	{
+	private static final Logger LOG = Logger.build(VcfToGenotypeCache.class).make();
+
+	@Parameter(names={"-o","--output"},description="Output genotype cache. Must end with '"+GenotypeCacheWriter.FILE_SUFFIX+"'",required=true)
+	private File outputFile = null;
+
+	@Override
+	public int doWork(final List<String> args) {
+		if(!GenotypeCacheWriter.isGenotypeCache(this.outputFile.getName())) {
+			LOG.error("output file must end with "+GenotypeCacheWriter.FILE_SUFFIX);
+			return -1;
+			}
+		VcfIterator iter = null;
+		try {
+			iter = openVcfIterator(oneFileOrNull(args));
+			GenotypeCacheWriter.build(iter, this.outputFile);
+			iter.close();
+			iter = null;
+			return 0;
+			}
+		catch(final Exception err) {
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(iter);
+			}
+		}
+
+	public static void main(final String[] args)
+		{
+		new VcfToGenotypeCache().instanceMainWithExit(args);
+		}
+	}
@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -44,6 +45,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.liftover.LiftOver;
@@ -54,7 +56,6 @@ import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
-import htsjdk.samtools.util.SortingCollection;
 
 /**
  BEGIN_DOC
@@ -381,7 +382,7 @@ public class CompareBamAndBuild  extends Launcher
     @Override
     public int doWork(final List<String> args) {
     	PrintWriter out = null;
-		SortingCollection<Match> database = null;
+		ParallelSortingCollection<Match> database = null;
 		if(this.chainFile==null) {
 			LOG.error("Chain file is not defined Option");
 			return -1;
@@ -397,12 +398,14 @@ public class CompareBamAndBuild  extends Launcher
 				{
 				LOG.info("load chain file");
 				this.liftOver=new LiftOver(this.chainFile);
-				database = SortingCollection.newInstance(
+				database = new ParallelSortingCollection<>(
 						Match.class,
 						new MatchCodec(),
 						new MatchOrdererInSortingCollection(),
 						this.maxRecordsInRam,
-						this.tmpDir.toPath()
+						Collections.singletonList(this.tmpDir.toPath()),
+						1,
+						true
 						);
 				
 				database.setDestructiveIteration(true);
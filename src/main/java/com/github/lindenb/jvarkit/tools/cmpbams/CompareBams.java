@@ -47,6 +47,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.util.Interval;
@@ -58,7 +59,6 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 /*
 BEGIN_DOC
 
@@ -506,7 +506,7 @@ public class CompareBams  extends Launcher
     @Override
     public int doWork(final List<String> args) {
     	this.IN.addAll(args.stream().map(S->new File(S)).collect(Collectors.toList()));
-   		SortingCollection<Match> database = null;
+   		ParallelSortingCollection<Match> database = null;
 		SamReader samFileReader=null;
 		CloseableIterator<Match> iter=null;
 		try
@@ -517,12 +517,10 @@ public class CompareBams  extends Launcher
 				return -1;
 				}
 			
-			database = SortingCollection.newInstance(
+			database = this.writingSortingCollection.make(
 					Match.class,
 					new MatchCodec(),
-					new MatchOrderer(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
+					new MatchOrderer()
 					);
 			this.samSequenceDictAreTheSame=true;
 			database.setDestructiveIteration(true);
@@ -28,15 +28,10 @@ package com.github.lindenb.jvarkit.tools.epistasis;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -60,7 +55,9 @@ import htsjdk.variant.vcf.VCFHeaderLine;
 /**
 BEGIN_DOC
 
-
+The genotypes of each ALT allele are encoded as bitsets (cases/controls having one, two or more copies of the allele)
+and scored with popcounts. The score of a pair of alleles is the sum of the scores of the two alleles, so the best pair
+is made of the best alleles of the two best variants: it is found in linear time, without scanning all the pairs.
 
 END_DOC
  */
@@ -73,7 +70,7 @@ public class VcfEpistatis01 extends Launcher {
 	private File pedigreeFile = null;
 	@Parameter(names={"--memory"},description="Load all variants in memory")
 	private  boolean load_variants_in_memory=false;
-	@Parameter(names={"-j","--jobs"},description="Number of parallel jobs.")
+	@Parameter(names={"-j","--jobs"},description="Deprecated and ignored: the best pair is found in linear time.",hidden=true)
 	private  int number_of_jobs =1;
 	@Parameter(names={"-start","--start"},description="Specify start index in variant list. (for parallelisation)")
 	private  int start_index_at=0;
@@ -83,20 +80,69 @@ public class VcfEpistatis01 extends Launcher {
 	private boolean output_score = false;
 	
 	
-	private static final Function<Long,Integer> CTRLS_nAlt2score=(N)->{switch(N.intValue()){
-		case 0: return 0;
-		case 1 : return -10;
-		case 2: //cont
-		default: return -30;
-		}};
-	private static final Function<Long,Integer> CASES_nAlt2score=(N)->{switch(N.intValue()){
-		case 0: return 0;
-		case 1 : return 10;
-		case 2: //cont
-		default: return 30;
-		}};
+	/** score of the genotypes of the controls having one / two or more copies of the ALT allele */
+	private static final int CTRLS_SCORE_ONE = -10;
+	private static final int CTRLS_SCORE_TWO = -30;
+	/** score of the genotypes of the cases having one / two or more copies of the ALT allele */
+	private static final int CASES_SCORE_ONE = 10;
+	private static final int CASES_SCORE_TWO = 30;
 	
-		
+	/** one ALT allele of a variant, with its genotypes packed as bitsets */
+	private static class PackedAllele
+		{
+		final int variantIndex;
+		final int alleleIndex;
+		final int score;
+		PackedAllele(final int variantIndex,final int alleleIndex,
+				final long caseOne[],final long caseTwo[],
+				final long ctrlOne[],final long ctrlTwo[])
+			{
+			this.variantIndex = variantIndex;
+			this.alleleIndex = alleleIndex;
+			this.score = 
+				CASES_SCORE_ONE * popcount(caseOne) + CASES_SCORE_TWO * popcount(caseTwo) +
+				CTRLS_SCORE_ONE * popcount(ctrlOne) + CTRLS_SCORE_TWO * popcount(ctrlTwo);
+			}
+		private static int popcount(final long words[]) {
+			int n=0;
+			for(final long w:words) n+= Long.bitCount(w);
+			return n;
+			}
+		}
+	
+	/** genotypes of a group of samples for one ALT allele: one bit per sample */
+	private static class GenotypeEncoder
+		{
+		final int sampleIndexes[];
+		GenotypeEncoder(final int sampleIndexes[]) {
+			this.sampleIndexes = sampleIndexes;
+			}
+		/** fill 'one' and 'two' with the samples having exactly one, two or more copies of 'alt' */
+		void encode(final VariantContext ctx,final Allele alt,final long one[],final long two[]) {
+			Arrays.fill(one, 0L);
+			Arrays.fill(two, 0L);
+			for(int i=0;i< this.sampleIndexes.length;i++) {
+				final Genotype g = ctx.getGenotype(this.sampleIndexes[i]);
+				if(g==null || g.isFiltered()) continue;
+				int count = 0;
+				for(final Allele a: g.getAlleles()) {
+					if(a.equals(alt)) count++;
+					}
+				if(count==0) continue;
+				final long bit = 1L << (i & 63);
+				if(count==1) {
+					one[i >> 6] |= bit;
+					}
+				else
+					{
+					two[i >> 6] |= bit;
+					}
+				}
+			}
+		long[] newBitSet() {
+			return new long[(this.sampleIndexes.length+63)/64];
+			}
+		}
 		
 	private static class Result
 		{
@@ -129,87 +175,29 @@ public class VcfEpistatis01 extends Launcher {
 			}
 		}
 	
-	
-	private static  class Runner implements Callable<Result>
-		{
-		private final List<VariantContext> variants;
-		private final int caseIndexes[];
-		private final int ctrlIndexes[];
-		private final int startIndex;
-		private Result result = null;
-		private long duration=0L;
-		Runner(
-				final List<VariantContext> variants,
-				final int startIndex,
-				final int[] caseIndexes,
-				final int[] ctrlIndexes
-				)
-			{
-			this.variants = variants;
-			this.startIndex = startIndex;
-			this.caseIndexes = caseIndexes;
-			this.ctrlIndexes = ctrlIndexes;
+	/**
+	 * find the best pair of alleles of two distinct variants. The score of a pair is the sum of the scores
+	 * of its alleles, so the best pair is made of the best alleles of the two best variants.
+	 * Ties are resolved like a scan over (variant1, variant2, allele1, allele2).
+	 * @param bestAlleles the first allele having the highest score of each variant, sorted on variant index
+	 * @return the two alleles or null if there are less than two variants
+	 */
+	private static PackedAllele[] selectBestPair(final List<PackedAllele> bestAlleles) {
+		final int n = bestAlleles.size();
+		if(n<2) return null;
+		/* suffixMax[i]: highest score of the variants after 'i' */
+		final int suffixMax[] = new int[n];
+		suffixMax[n-1] = Integer.MIN_VALUE;
+		for(int i=n-2;i>=0;--i) {
+			suffixMax[i] = Math.max(bestAlleles.get(i+1).score, suffixMax[i+1]);
 			}
-		
-		private double score(
-				final VariantContext ctx,
-				final Allele alt,
-				final int samples_indexes[],
-				final Function<Long,Integer> nAlt2score
-				) 
-			{
-			double score_a1 = 0;
-			
-			for(final int  idx : samples_indexes) {
-				final Genotype g = ctx.getGenotype(idx);
-				if(g==null || g.isFiltered()) continue;
-				score_a1 +=nAlt2score.apply( g.getAlleles().stream().filter(A->A.equals(alt)).count());
-				}
-			return score_a1;
-			}
-		@Override
-		public Result call() throws Exception {
-			final VariantContext ctx1 = this.variants.get(this.startIndex);
-			final long startup = System.currentTimeMillis();
-
-			int i = this.startIndex + 1;
-			
-			while(i< this.variants.size())
-				{
-				final VariantContext ctx2 = this.variants.get(i);
-				for(final Allele a1 : ctx1.getAlleles())//faster then getAlternateAlleles
-					{
-					if(a1.isReference()) continue;
-					double score_a1 = 0;
-					score_a1 += score(ctx1,a1,this.ctrlIndexes,CTRLS_nAlt2score);
-					score_a1 += score(ctx1,a1,this.caseIndexes,CASES_nAlt2score);
-					
-					for(final Allele a2 : ctx2.getAlleles())//faster then getAlternateAlleles
-						{
-						if(a2.isReference()) continue;
-						double score_a2 = score_a1;
-						score_a2 += score(ctx2,a2,this.ctrlIndexes,CTRLS_nAlt2score);
-						score_a2 += score(ctx2,a2,this.caseIndexes,CASES_nAlt2score);
-						if(this.result == null || this.result.score< score_a2)
-							{
-							final Result nr = new Result(ctx1,a1,this.startIndex,ctx2,a2,i,score_a2);
-							
-							
-							this.result = nr;
-							}
-						
-						}
-					}
-				i++;
-				}
-			if(this.variants instanceof VcfList)
-				{
-				CloserUtil.close(VcfList.class.cast(this.variants));
-				}
-			this.duration = System.currentTimeMillis() - startup;
-			LOG.info("index ["+startIndex+"] That took "+(duration/1000f)+" seconds.");
-			return this.result;
+		int i1 = 0;
+		for(int i=1;i+1< n;++i) {
+			if(bestAlleles.get(i).score + suffixMax[i] > bestAlleles.get(i1).score + suffixMax[i1]) i1 = i;
 			}
+		int i2 = i1+1;
+		while(bestAlleles.get(i2).score != suffixMax[i1]) i2++;
+		return new PackedAllele[] {bestAlleles.get(i1),bestAlleles.get(i2)};
 		}
 	
 	public VcfEpistatis01()
@@ -219,13 +207,9 @@ public class VcfEpistatis01 extends Launcher {
 	
 	@Override
 	public int doWork(final List<String> args) {
-		if(this.number_of_jobs<1) {
-			LOG.error("bad number of jobs");
-			return -1;
-			}
+		VcfList vcfList = null;
 		try
 			{
-			final int variantsCount;
 			final List<VariantContext> inMemoryVariants;
 			final File vcfFile = new File(oneAndOnlyOneFile(args));
 			final File tmpIndexFile;
@@ -285,8 +269,8 @@ public class VcfEpistatis01 extends Launcher {
 						filter(V->V.getGenotypes().stream().filter(G->G.isCalled()).count()>0).//should fix https://github.com/samtools/htsjdk/issues/1026 ?
 						collect(Collectors.toList())
 						);
-				variantsCount = inMemoryVariants.size();
 				iter2.close();
+				vcfList = VcfList.from(header, inMemoryVariants);
 				}
 			else
 				{
@@ -296,94 +280,72 @@ public class VcfEpistatis01 extends Launcher {
 					setLogger(LOG).
 					setPredicate(variantFilter).
 					indexVcfFile(vcfFile,tmpIndexFile);
-				final VcfList tmpList = VcfList.fromFile(vcfFile, tmpIndexFile);
-				variantsCount = tmpList.size();
-				tmpList.close();
-				inMemoryVariants = null;
+				vcfList = VcfList.fromFile(vcfFile, tmpIndexFile);
 				}
-			
-
-			
 			vcfFileReader.close();
+			final int variantsCount = vcfList.size();
 			LOG.info("Number of variants: "+variantsCount);
 			
+			/* encode the genotypes of each ALT allele as bitsets and score them */
+			final GenotypeEncoder caseEncoder = new GenotypeEncoder(caseIndexes);
+			final GenotypeEncoder ctrlEncoder = new GenotypeEncoder(ctrlIndexes);
+			final long caseOne[] = caseEncoder.newBitSet();
+			final long caseTwo[] = caseEncoder.newBitSet();
+			final long ctrlOne[] = ctrlEncoder.newBitSet();
+			final long ctrlTwo[] = ctrlEncoder.newBitSet();
+			/* only the first allele having the highest score of each variant can be part of the best pair */
+			final List<PackedAllele> bestAlleles = new ArrayList<>(variantsCount);
+			final long startup = System.currentTimeMillis();
+			for(int x = Math.max(0, this.start_index_at); x < variantsCount; ++x) {
+				final VariantContext ctx = vcfList.get(x);
+				final List<Allele> alleles = ctx.getAlleles();
+				PackedAllele best = null;
+				for(int a=0;a< alleles.size();++a) {
+					final Allele alt = alleles.get(a);
+					if(alt.isReference()) continue;
+					caseEncoder.encode(ctx, alt, caseOne, caseTwo);
+					ctrlEncoder.encode(ctx, alt, ctrlOne, ctrlTwo);
+					final PackedAllele packed = new PackedAllele(x, a, caseOne, caseTwo, ctrlOne, ctrlTwo);
+					if(best==null || packed.score > best.score) best = packed;
+					}
+				if(best!=null) bestAlleles.add(best);
+				}
 			
-			Result bestResult =null;
-			int x= this.start_index_at;
-			while(x+1 < variantsCount)
+			final PackedAllele bestPair[] = selectBestPair(bestAlleles);
+			if(bestPair!=null)
 				{
-				final List<Runner> runners = new Vector<>(this.number_of_jobs);
-				while(x+1 < variantsCount && runners.size() < this.number_of_jobs)
-					{
-					LOG.info("starting "+x+"/"+variantsCount);
-					runners.add(new Runner(
-							inMemoryVariants == null? 
-									VcfList.fromFile(vcfFile,tmpIndexFile):
-									new Vector<>(inMemoryVariants)
-							,x,
-							caseIndexes,
-							ctrlIndexes
-							)
-							);
-					++x;
-					}
-				final ExecutorService execSvc;
-				if(this.number_of_jobs==1)
-					{
-					execSvc = null;
-					}
-				else
-					{
-					execSvc = Executors.newFixedThreadPool(this.number_of_jobs);;
-					}
-
-				if(this.number_of_jobs==1)
-					{
-					runners.get(0).call();
+				final PackedAllele p1 = bestPair[0];
+				final PackedAllele p2 = bestPair[1];
+				final VariantContext ctx1 = vcfList.get(p1.variantIndex);
+				final VariantContext ctx2 = vcfList.get(p2.variantIndex);
+				final Result bestResult = new Result(
+						ctx1, ctx1.getAlleles().get(p1.alleleIndex), p1.variantIndex,
+						ctx2, ctx2.getAlleles().get(p2.alleleIndex), p2.variantIndex,
+						p1.score + p2.score
+						);
+				
+				if(this.output_score) {
+					final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+					pw.println(bestResult.score+ "\t"+bestResult.toString());
+					pw.flush();
+					pw.close();
 					}
 				else
 					{
-					execSvc.invokeAll(runners);
-					}
-					
-				if(execSvc!=null) {
-					execSvc.shutdown();
-					execSvc.awaitTermination(10000L, TimeUnit.DAYS);
-					execSvc.shutdownNow();
-				}
-				runners.stream().mapToLong(R->R.duration).min().ifPresent(D->{
-					LOG.info("That took "+ (D/1000f)+" seconds.");
-					});
-				
-				
-				for(final Runner r: runners)
-					{
-					final Result rez=r.result;
-					if(rez==null) continue;
-					if(bestResult==null || bestResult.score<rez.score)
-						{
-						bestResult =rez;
-						
-						if(this.output_score) {
-							final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
-							pw.println(bestResult.score+ "\t"+bestResult.toString());
-							pw.flush();
-							pw.close();
-							}
-						else
-							{
-							final VariantContextWriter w = openVariantContextWriter(this.outputFile);
-							final VCFHeader header2= new VCFHeader(header);
-							header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),bestResult.toString()));
-							w.writeHeader(header2);
-							w.add(bestResult.ctx1);
-							w.add(bestResult.ctx2);
-							w.close();
-							}
-						}
+					final VariantContextWriter w = openVariantContextWriter(this.outputFile);
+					final VCFHeader header2= new VCFHeader(header);
+					header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),bestResult.toString()));
+					w.writeHeader(header2);
+					w.add(bestResult.ctx1);
+					w.add(bestResult.ctx2);
+					w.close();
 					}
 				LOG.info("best: "+bestResult);
 				}
+			
+			LOG.info("That took "+ ((System.currentTimeMillis()-startup)/1000f)+" seconds.");
+			vcfList.close();
+			vcfList = null;
 			if(tmpIndexFile!=null) tmpIndexFile.delete();
 			
 			return 0;
@@ -396,6 +358,7 @@ public class VcfEpistatis01 extends Launcher {
 			}
 		finally
 			{
+			CloserUtil.close(vcfList);
 			}
 		}
 	 	
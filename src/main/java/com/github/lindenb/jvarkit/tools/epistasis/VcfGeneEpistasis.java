@@ -48,7 +48,6 @@ import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
-import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
 import com.beust.jcommander.Parameter;
@@ -62,6 +61,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.vcf.IndexedVcfSource;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 /**
 
@@ -97,7 +97,7 @@ public class VcfGeneEpistasis
 	private SkatFactory skatFactory = new SkatFactory();
 	
 
-	private VCFFileReader vcfFileReader = null;
+	private IndexedVcfSource vcfFileReader = null;
 	private VcfTools vcfTools = null;
 	private final Map<String,Pedigree.Person> id2samples = new HashMap<>();
 	
@@ -160,7 +160,7 @@ public class VcfGeneEpistasis
 		try
 			{
 			final File vcfFile = new File(oneAndOnlyOneFile(args));
-			this.vcfFileReader = new VCFFileReader(vcfFile,true);
+			this.vcfFileReader = IndexedVcfSource.open(vcfFile,true);
 			final VCFHeader header = this.vcfFileReader.getFileHeader();
 			final Pedigree pedigree;
 			if(this.pedigreeFile!=null)
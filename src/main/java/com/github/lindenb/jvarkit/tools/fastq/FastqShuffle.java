@@ -47,7 +47,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.NioFastqReader;
 
 /**
 
@@ -356,7 +356,7 @@ public class FastqShuffle extends Launcher
 			if(args.isEmpty())
 				{
 				LOG.info("Reading from stdin");
-				r1=new FourLinesFastqReader(stdin());
+				r1=new NioFastqReader(stdin());
 				if(interleaved_input)
 					{
 					runPaired(r1, null,w);
@@ -368,7 +368,7 @@ public class FastqShuffle extends Launcher
 				}
 			else if(args.size()==1)
 				{
-				r1=new FourLinesFastqReader(new File(args.get(0)));
+				r1=new NioFastqReader(new File(args.get(0)));
 
 				if(interleaved_input)
 					{
@@ -382,8 +382,8 @@ public class FastqShuffle extends Launcher
 				}
 			else if(args.size()==2)
 				{
-				r1=new FourLinesFastqReader(new File(args.get(0)));
-				r2=new FourLinesFastqReader(new File(args.get(1)));
+				r1=new NioFastqReader(new File(args.get(0)));
+				r2=new NioFastqReader(new File(args.get(1)));
 				runPaired(r1, r2,w);
 				}
 			else
@@ -0,0 +1,261 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.gnomad;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * Merge-join over a coordinate-sorted VCF. The lines are read forward only:
+ * the contig and the position are compared on the raw text,
+ * only the lines at the position of the query are decoded and only
+ * the requested INFO fields are kept. The genotypes are never decoded.
+ */
+class SortedVcfLineJoiner implements Closeable
+	{
+	private final String uri;
+	private BufferedReader reader;
+	private final SAMSequenceDictionary dict;
+	/** INFO keys to be decoded */
+	private final Set<String> infoKeys;
+	/** next line not consumed, or null at EOF */
+	private String nextLine = null;
+	private int nextTid = -1;
+	private int nextPos = 0;
+	/** lines at the last queried position, split on tabs, up to INFO */
+	private final List<String[]> equalRange = new ArrayList<>();
+	private int rangeTid = -1;
+	private int rangePos = 0;
+	/* cache the tid of the last contig */
+	private String lastContig = null;
+	private int lastTid = -1;
+
+	SortedVcfLineJoiner(final String uri,final Collection<String> infoKeys) throws IOException
+		{
+		this.uri = uri;
+		this.infoKeys = new HashSet<>(infoKeys);
+		this.reader = IOUtils.openURIForBufferedReading(uri);
+		final List<String> headerLines = VCFUtils.parseHeaderLines(this.reader);
+		final VCFHeader header = VCFUtils.parseHeader(headerLines).header;
+		this.dict = header.getSequenceDictionary();
+		if(this.dict==null || this.dict.isEmpty()) throw new JvarkitException.VcfDictionaryMissing(uri);
+		readNextLine();
+		}
+
+	private int contigToTid(final String contig)
+		{
+		if(!contig.equals(this.lastContig))
+			{
+			final SAMSequenceRecord ssr = this.dict.getSequence(contig);
+			this.lastContig = contig;
+			this.lastTid = (ssr==null?-1:ssr.getSequenceIndex());
+			}
+		return this.lastTid;
+		}
+
+	/** read the next line and extract contig/pos without splitting the whole line */
+	private void readNextLine() throws IOException
+		{
+		if(this.reader==null) {
+			this.nextLine = null;
+			return;
+			}
+		final String line = this.reader.readLine();
+		if(line==null)
+			{
+			close();
+			this.nextLine = null;
+			return;
+			}
+		final int tab1 = line.indexOf('\t');
+		final int tab2 = (tab1==-1?-1:line.indexOf('\t',tab1+1));
+		if(tab2==-1) throw new JvarkitException.FileFormatError("bad VCF line in "+this.uri+" : "+line);
+		final int tid = contigToTid(line.substring(0, tab1));
+		if(tid==-1) throw new JvarkitException.ContigNotFoundInDictionary(line.substring(0, tab1), this.dict);
+		int pos = 0;
+		for(int i=tab1+1;i<tab2;i++)
+			{
+			pos = pos*10 + (line.charAt(i)-'0');
+			}
+		if(this.nextLine!=null && (tid< this.nextTid || (tid==this.nextTid && pos< this.nextPos)))
+			{
+			throw new JvarkitException.FileFormatError("Bad order in "+this.uri+": got "+line.substring(0, tab2)+" after "+this.nextLine.substring(0,this.nextLine.indexOf('\t',this.nextLine.indexOf('\t')+1)));
+			}
+		this.nextLine = line;
+		this.nextTid = tid;
+		this.nextPos = pos;
+		}
+
+	/** @return the raw lines at the given position. The queries must be sorted like the VCF */
+	private List<String[]> advanceTo(final String contig,final int pos) throws IOException
+		{
+		final SAMSequenceRecord ssr = this.dict.getSequence(contig);
+		if(ssr==null) return Collections.emptyList();
+		final int tid = ssr.getSequenceIndex();
+		if(tid==this.rangeTid && pos==this.rangePos) return this.equalRange;
+		if(tid< this.rangeTid || (tid==this.rangeTid && pos< this.rangePos))
+			{
+			throw new JvarkitException.UserError("Variant "+contig+":"+pos+" is not sorted like "+this.uri);
+			}
+		this.equalRange.clear();
+		this.rangeTid = tid;
+		this.rangePos = pos;
+		while(this.nextLine!=null)
+			{
+			if(this.nextTid < tid || (this.nextTid==tid && this.nextPos < pos))
+				{
+				readNextLine();
+				continue;
+				}
+			if(this.nextTid==tid && this.nextPos==pos)
+				{
+				/* CHROM POS ID REF ALT QUAL FILTER INFO : ignore the genotypes */
+				this.equalRange.add(this.nextLine.split("[\t]",9));
+				readNextLine();
+				continue;
+				}
+			break;
+			}
+		return this.equalRange;
+		}
+
+	/** find the first variant with the same contig/pos/REF as the user's variant. Returns null if not found. */
+	VariantContext findMatching(final VariantContext userCtx,final boolean skipFiltered,final boolean skipMultiAlt)
+		{
+		try
+			{
+			for(final String tokens[]: advanceTo(userCtx.getContig(), userCtx.getStart()))
+				{
+				if(!userCtx.getReference().getBaseString().equalsIgnoreCase(tokens[3])) continue;
+				final String filters = tokens[6];
+				final boolean filtered = !(filters.equals(VCFConstants.PASSES_FILTERS_v4) || filters.equals(VCFConstants.UNFILTERED));
+				if(skipFiltered && filtered) continue;
+				if(skipMultiAlt && tokens[4].indexOf(',')!=-1) continue;
+				return decode(tokens);
+				}
+			return null;
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		}
+
+	/** build a light VariantContext: no genotype, only the requested INFO fields */
+	private VariantContext decode(final String tokens[])
+		{
+		final List<Allele> alleles = new ArrayList<>();
+		final Allele ref = Allele.create(tokens[3], true);
+		alleles.add(ref);
+		for(final String alt: tokens[4].split("[,]"))
+			{
+			alleles.add(Allele.create(alt, false));
+			}
+		final int start = this.rangePos;
+		final VariantContextBuilder vcb = new VariantContextBuilder(
+				this.uri,
+				tokens[0],
+				start,
+				start+ref.length()-1,
+				alleles
+				);
+		if(tokens[6].equals(VCFConstants.PASSES_FILTERS_v4))
+			{
+			vcb.passFilters();
+			}
+		else if(!tokens[6].equals(VCFConstants.UNFILTERED))
+			{
+			vcb.filters(new HashSet<>(Arrays.asList(tokens[6].split("[;]"))));
+			}
+		final Map<String,Object> atts = new HashMap<>();
+		final String info = tokens.length>7?tokens[7]:VCFConstants.EMPTY_INFO_FIELD;
+		int i=0;
+		while(i< info.length() && atts.size()< this.infoKeys.size())
+			{
+			int semicolon = info.indexOf(';',i);
+			if(semicolon==-1) semicolon = info.length();
+			final int eq = info.indexOf('=', i);
+			if(eq!=-1 && eq< semicolon)
+				{
+				final String key = info.substring(i, eq);
+				if(this.infoKeys.contains(key))
+					{
+					final String value = info.substring(eq+1, semicolon);
+					if(value.equals(VCFConstants.MISSING_VALUE_v4))
+						{
+						atts.put(key, VCFConstants.MISSING_VALUE_v4);
+						}
+					else
+						{
+						atts.put(key, value.indexOf(',')==-1?value:Arrays.asList(value.split("[,]")));
+						}
+					}
+				}
+			i = semicolon+1;
+			}
+		vcb.attributes(atts);
+		return vcb.make();
+		}
+
+	@Override
+	public void close()
+		{
+		CloserUtil.close(this.reader);
+		this.reader = null;
+		}
+
+	@Override
+	public String toString() {
+		return "SortedVcfLineJoiner("+this.uri+")";
+		}
+	}
@@ -31,7 +31,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -50,7 +50,6 @@ import javax.xml.bind.annotation.XmlType;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
-import com.github.lindenb.jvarkit.tools.vcfcmp.EqualRangeVcfIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -58,11 +57,9 @@ import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.ContigPosRef;
 import com.github.lindenb.jvarkit.util.vcf.DelegateVariantContextWriter;
 import com.github.lindenb.jvarkit.util.vcf.TabixVcfFileReader;
-import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
-import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
@@ -194,7 +191,7 @@ public class VcfGnomad extends Launcher{
 		private int gnomadBufferSize=100000;
 		
 		@XmlElement(name="streaming")
-		@Parameter(names={"--streaming"},description="[20170707] Don't use tabix random-access (which are ok for small inputs) but you a streaming process (better to annotate a large WGS file). Assume dictionaries are sorted the same way.")
+		@Parameter(names={"--streaming"},description="[20170707] Don't use tabix random-access (which are ok for small inputs) but you a streaming process (better to annotate a large WGS file). Assume dictionaries are sorted the same way. [20180701] One forward pass over each gnomad file: only the lines having the same CHROM/POS than the user's variants are decoded.")
 		private boolean streaming=false;
 		
 		@XmlElement(name="gtfilter")
@@ -296,31 +293,26 @@ public class VcfGnomad extends Launcher{
 			/** when using Tabix reader */
 			TabixVcfFileReader gnomad_tabix=null;
 			/** when using vcf streaming */
-			VcfIterator gnomad_vcf_iterator = null;
-			EqualRangeVcfIterator gnomad_equal_range=null;
+			SortedVcfLineJoiner gnomad_joiner = null;
 			
 			int buffferChromEnd=0;
 			final Map<ContigPosRef,VariantContext> buffer=new HashMap<>();
 			@Override
 			public void close() {
 				CloserUtil.close(gnomad_tabix);
-				CloserUtil.close(gnomad_equal_range);
-				CloserUtil.close(gnomad_vcf_iterator);
+				CloserUtil.close(gnomad_joiner);
 				this.buffer.clear();
 				this.buffferChromEnd=0;
 				this.gnomad_tabix=null;
-				this.gnomad_vcf_iterator=null;
+				this.gnomad_joiner=null;
 				}
-			public void open()
+			/** @param infoKeys the INFO fields that will be extracted from gnomad */
+			public void open(final Set<String> infoKeys)
 				{
 				try {
 					if(CtxWriterFactory.this.streaming)
 						{
-						this.gnomad_vcf_iterator = VCFUtils.createVcfIterator(this.uri);
-						final SAMSequenceDictionary dict = this.gnomad_vcf_iterator.getHeader().getSequenceDictionary();
-						if(dict==null || dict.isEmpty()) throw new JvarkitException.VcfDictionaryMissing(this.uri);
-						final Comparator<VariantContext> cmp = VCFUtils.createTidPosComparator(dict);
-						this.gnomad_equal_range = new EqualRangeVcfIterator(this.gnomad_vcf_iterator, cmp);
+						this.gnomad_joiner = new SortedVcfLineJoiner(this.uri, infoKeys);
 						}
 					else
 						{
@@ -340,23 +332,12 @@ public class VcfGnomad extends Launcher{
 				{
 				
 				if( CtxWriterFactory.this.streaming) {
-					try {
-						final List<VariantContext> found = this.gnomad_equal_range.next(
-								userVariantCtx
-								);
-						for(final VariantContext ctx:found)
-							{
-							if( !ctx.getReference().equals(userVariantCtx.getReference())) continue;
-							if( CtxWriterFactory.this.filteredGnomad && ctx.isFiltered()) continue;
-							if( CtxWriterFactory.this.noMultiAltGnomad && ctx.getAlternateAlleles().size()>1) continue;
-							return ctx;
-							}
-						return null;
-						}
-					catch(final IOException err)
-						{
-						throw new RuntimeIOException(err);
-						}
+					/* merge-join: no random access, the gnomad lines are decoded only if CHROM/POS match */
+					return this.gnomad_joiner.findMatching(
+						userVariantCtx,
+						CtxWriterFactory.this.filteredGnomad,
+						CtxWriterFactory.this.noMultiAltGnomad
+						);
 					}
 				else
 					{
@@ -487,7 +468,10 @@ public class VcfGnomad extends Launcher{
 							if(prevEntry!=null) prevEntry.close();
 							this.ome2manifest[ome.ordinal()]=newEntry;
 							LOG.info("opening "+newEntry.uri);
-							newEntry.open();
+							newEntry.open(this.infoFields.stream().
+								filter(F->F.ome==ome).
+								map(F->F.tag).
+								collect(Collectors.toSet()));
 							}
 						}
 					}
@@ -682,6 +666,11 @@ public class VcfGnomad extends Launcher{
 	
 	
 	
+	@Override
+	protected boolean isRawGenotypesPassthrough() {
+		return true;
+		}
+	
 	@Override
 	protected int doVcfToVcf(
 			final String inputName,
@@ -24,13 +24,19 @@ package com.github.lindenb.jvarkit.tools.gvcf;
 
 import java.io.Closeable;
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -61,7 +67,13 @@ import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
 import htsjdk.variant.vcf.VCFStandardHeaderLines;
 
+/**
+ 
+The gVCFs are read as a k-way merge on (contig,start): each gVCF only keeps
+the records overlapping the current site in a small window, the reference blocks
+are stored in a compact form and the VCF lines are decoded ahead in a thread pool.
 
+ */
 @Program(name="fastgenotypegvcfs",
 	description="Fast Genotype Gvcfs",
 	generate_doc=false
@@ -69,10 +81,61 @@ import htsjdk.variant.vcf.VCFStandardHeaderLines;
 public class FastGenotypeGVCFs extends Launcher {
 	
 	private static final Logger LOG = Logger.build(FastGenotypeGVCFs.class).make();
+	/** number of records decoded ahead for each gVCF */
+	private static final int BATCH_SIZE = 100;
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile = null;
+	@Parameter(names={"--threads"},description="Number of threads decoding the gVCFs. The output is the same than the serial mode.")
+	private int nThreads = 1;
 
 	
+	/** genotype of a reference block, without the sample name */
+	private static class RefBlockGenotype
+		{
+		/** 0: REF, otherwise 1+index in RefBlock.otherAlleles */
+		byte[] alleles;
+		int dp = -1;
+		int gq = -1;
+		int[] ad = null;
+		int[] pl = null;
+		}
+	
+	/** a record of a gVCF: a variant or a reference block */
+	private static class GVCFRecord
+		{
+		final int tid;
+		final int start;
+		final int end;
+		/** the variant without NON_REF with its genotypes decoded, or null for a reference block */
+		final VariantContext variant;
+		final ContigPosRef contigPosRef;
+		/** reference block: distinct non-REF alleles of the genotypes (NON_REF, no-call...) */
+		final Allele[] otherAlleles;
+		/** reference block: one genotype per sample of the gVCF */
+		final RefBlockGenotype[] genotypes;
+		
+		GVCFRecord(final int tid,final VariantContext variant) {
+			this.tid = tid;
+			this.start = variant.getStart();
+			this.end = variant.getEnd();
+			this.variant = variant;
+			this.contigPosRef = new ContigPosRef(variant);
+			this.otherAlleles = null;
+			this.genotypes = null;
+			}
+		GVCFRecord(final int tid,final int start,final int end,final Allele[] otherAlleles,final RefBlockGenotype[] genotypes) {
+			this.tid = tid;
+			this.start = start;
+			this.end = end;
+			this.variant = null;
+			this.contigPosRef = null;
+			this.otherAlleles = otherAlleles;
+			this.genotypes = genotypes;
+			}
+		boolean isVariant() {
+			return this.variant!=null;
+			}
+		}
 	
 	private class GVCFVariantIterator
 		implements Closeable
@@ -80,171 +143,246 @@ public class FastGenotypeGVCFs extends Launcher {
 		private final File gvcfFile;
 		private final VCFFileReader vcfFileReader;
 		private final CloseableIterator<VariantContext> iter;
-		private final List<VariantContext> buffer = new ArrayList<>();
 		private final List<String> samples;
+		/** shared missing genotypes */
+		private final List<Genotype> noCalls;
+		/** records read and not consumed, in the order of the gVCF: the ring buffer only holds the records around the current site */
+		private final ArrayDeque<GVCFRecord> window = new ArrayDeque<>();
+		/** first variant in the window, or null */
+		private GVCFRecord firstVariant = null;
+		/** records decoded ahead */
+		private List<GVCFRecord> batch = Collections.emptyList();
+		private int batchIndex = 0;
+		private Future<List<GVCFRecord>> nextBatch = null;
+		/** ID of the last variant returned by next() or null */
+		private String id = null;
 		GVCFVariantIterator(final File vcf) {
 			this.gvcfFile = vcf;
 			this.vcfFileReader = new VCFFileReader(vcf,false);
 			this.iter = this.vcfFileReader.iterator();
 			this.samples = this.vcfFileReader.getFileHeader().getSampleNamesInOrder();
+			this.noCalls = Collections.unmodifiableList(this.samples.stream().
+				map(S->GenotypeBuilder.createMissing(S, 2)).
+				collect(Collectors.toList()));
 			}
 		
 		String getSource() {
 			return this.gvcfFile.getPath();
-		}
+			}
 		
 		@Override
 		public void close() {
+			/* wait for the worker before closing the reader */
+			if(this.nextBatch!=null) {
+				try { this.nextBatch.get();} catch(final Exception err) {}
+				this.nextBatch = null;
+				}
 			CloserUtil.close(this.iter);
 			CloserUtil.close(this.vcfFileReader);
 			}
 		
-		private VariantContext cleanup(final VariantContext ctx) {
-			return ctx;
-			}
-		
 		private boolean isVariant(final VariantContext ctx) {
 			if(ctx.getNAlleles()==2 && ctx.getAlleles().get(1).equals(Allele.NON_REF_ALLELE)) return false;
 			return true;
 			}
 		
-		ContigPosRef lookup() {
-			for(int i=0;i< this.buffer.size();++i)
+		/** called in the worker thread: the reader is only used by one task at a time */
+		private List<GVCFRecord> readBatch() {
+			final List<GVCFRecord> L = new ArrayList<>(BATCH_SIZE);
+			while(L.size() < BATCH_SIZE && this.iter.hasNext())
 				{
-				final VariantContext vc = this.buffer.get(i);
-				if(!isVariant(vc)) continue;
-				return new ContigPosRef(vc);
+				L.add(compact(this.iter.next()));
 				}
-			while(this.iter.hasNext())
+			return L;
+			}
+		
+		/** convert a VariantContext to a record. The genotypes are decoded here */
+		private GVCFRecord compact(final VariantContext vc) {
+			final int tid = FastGenotypeGVCFs.this.dictionary.getSequenceIndex(vc.getContig());
+			if(tid<0) throw new JvarkitException.ContigNotFoundInDictionary(vc.getContig(), FastGenotypeGVCFs.this.dictionary);
+			if(isVariant(vc)) {
+				//https://gatkforums.broadinstitute.org/gatk/discussion/4216/non-ref-in-gvcf
+				final VariantContextBuilder vcb = new VariantContextBuilder(vc);
+				vcb.alleles(vc.getAlleles().
+						stream().
+						filter(A->!A.equals(Allele.NON_REF_ALLELE)).
+						collect(Collectors.toList())
+						);
+				vcb.genotypes(
+						vc.getGenotypes().stream().
+						map(G->G.getAlleles().contains(Allele.NON_REF_ALLELE)?
+								GenotypeBuilder.createMissing(G.getSampleName(),2):
+								G).
+						collect(Collectors.toList())
+						)
+						;
+				return new GVCFRecord(tid, vcb.make());
+				}
+			final List<Allele> otherAlleles = new ArrayList<>(2);
+			final RefBlockGenotype[] genotypes = new RefBlockGenotype[vc.getNSamples()];
+			int i=0;
+			for(final Genotype gt:vc.getGenotypes())
 				{
-				final VariantContext vc =  this.iter.next();
-				this.buffer.add(cleanup(vc));
-				if(isVariant(vc)) return new ContigPosRef(vc);
+				final RefBlockGenotype rbg = new RefBlockGenotype();
+				final List<Allele> gtAlleles = gt.getAlleles();
+				rbg.alleles = new byte[gtAlleles.size()];
+				for(int j=0;j< gtAlleles.size();++j) {
+					final Allele A = gtAlleles.get(j);
+					if(A.isReference()) continue;
+					int k = otherAlleles.indexOf(A);
+					if(k==-1) {
+						k = otherAlleles.size();
+						otherAlleles.add(A);
+						}
+					rbg.alleles[j] = (byte)(1+k);
+					}
+				if(gt.hasAD()) rbg.ad = gt.getAD();
+				if(gt.hasDP()) rbg.dp = gt.getDP();
+				if(gt.hasGQ()) rbg.gq = gt.getGQ();
+				if(gt.hasPL()) rbg.pl = gt.getPL();
+				genotypes[i++] = rbg;
 				}
-			return null;
+			return new GVCFRecord(tid, vc.getStart(), vc.getEnd(),
+				otherAlleles.toArray(new Allele[otherAlleles.size()]),
+				genotypes
+				);
 			}
 		
-		private VariantContext makeNoCall(final ContigPosRef lookedUp) {
-			final VariantContextBuilder vcb = new VariantContextBuilder(
-					getSource(),
-					lookedUp.getContig(), 
-					lookedUp.getStart(),
-					lookedUp.getEnd(), 
-					Collections.singletonList(lookedUp.getReference())
-					);
-			vcb.genotypes(this.samples.stream().
-				map(S->GenotypeBuilder.createMissing(S, 2)).
-				collect(Collectors.toList()));
-			return vcb.make();
+		/** start decoding the first records */
+		void start() {
+			this.nextBatch = FastGenotypeGVCFs.this.executorService.submit(this::readBatch);
 			}
 		
+		/** @return the next record not read, or null at EOF */
+		GVCFRecord peek() {
+			while(this.batchIndex >= this.batch.size()) {
+				if(this.nextBatch==null) return null;
+				try {
+					this.batch = this.nextBatch.get();
+					}
+				catch(final InterruptedException|ExecutionException err) {
+					throw new RuntimeException("Cannot read "+getSource(),err);
+					}
+				this.batchIndex = 0;
+				/* decode the next records while this batch is consumed */
+				this.nextBatch = (this.batch.size() < BATCH_SIZE ? null :
+					FastGenotypeGVCFs.this.executorService.submit(this::readBatch));
+				}
+			return this.batch.get(this.batchIndex);
+			}
 		
-		VariantContext next(final ContigPosRef lookedUp) {
-			int i=0;
-			while(i< buffer.size())
+		/** move the next record to the window */
+		void pop() {
+			final GVCFRecord rec = peek();
+			this.batch.set(this.batchIndex, null);
+			this.batchIndex++;
+			this.window.add(rec);
+			if(this.firstVariant==null && rec.isVariant()) this.firstVariant = rec;
+			}
+		
+		private List<Genotype> makeRefGenotypes(final GVCFRecord rec,final ContigPosRef lookedUp) {
+			final List<Genotype> genotypes= new ArrayList<>(this.samples.size());
+			for(int i=0;i< rec.genotypes.length;++i)
+				{
+				final RefBlockGenotype rbg = rec.genotypes[i];
+				final List<Allele> gtAlleles = new ArrayList<>(rbg.alleles.length);
+				for(int j=0;j< rbg.alleles.length;++j)
+					{
+					if(rbg.alleles[j]==0) {
+						gtAlleles.add(lookedUp.getReference());
+						continue;
+						}
+					final Allele A = rec.otherAlleles[rbg.alleles[j]-1];
+					/* same validation than VariantContextBuilder.make() */
+					if(A.isCalled()) throw new IllegalStateException("Allele in genotype " + A + " not in the variant context");
+					gtAlleles.add(A);
+					}
+				final GenotypeBuilder gb = new GenotypeBuilder(this.samples.get(i),gtAlleles);
+				if(rbg.ad!=null) gb.AD(rbg.ad);
+				if(rbg.dp!=-1) gb.DP(rbg.dp);
+				if(rbg.gq!=-1) gb.GQ(rbg.gq);
+				if(rbg.pl!=null) gb.PL(rbg.pl);
+				genotypes.add(gb.make());
+				}
+			return genotypes;
+			}
+		
+		/** first variant of the window, or null */
+		private void resetFirstVariant() {
+			this.firstVariant = null;
+			for(final GVCFRecord rec:this.window) {
+				if(rec.isVariant()) {
+					this.firstVariant = rec;
+					break;
+					}
+				}
+			}
+		
+		/** the smallest variant (contig/pos/REF) of the window starting at the position of the first variant, or null.
+		 * The records at the same position are not sorted on REF in a gVCF */
+		GVCFRecord minVariant() {
+			if(this.firstVariant==null) return null;
+			GVCFRecord best = null;
+			for(final GVCFRecord rec:this.window) {
+				if(!rec.isVariant() || rec.tid!=this.firstVariant.tid || rec.start!=this.firstVariant.start) continue;
+				if(best==null || FastGenotypeGVCFs.this.contigPosRefComparator.compare(rec.contigPosRef, best.contigPosRef)<0) {
+					best = rec;
+					}
+				}
+			return best;
+			}
+		
+		/** the window must contain all the records starting before lookedUp.getEnd() */
+		List<Genotype> next(final int lookedUpTid,final ContigPosRef lookedUp) {
+			this.id = null;
+			final Iterator<GVCFRecord> it = this.window.iterator();
+			while(it.hasNext())
 				{
-				final VariantContext vc = this.buffer.get(i);
-				int diff = FastGenotypeGVCFs.this.contigComparator.compare(vc.getContig(), lookedUp.getContig());
-				if(diff < 0) {
-					//LOG.debug("remove "+vc+" for "+lookedUp);
-					this.buffer.remove(i);
+				final GVCFRecord rec = it.next();
+				if(rec.tid < lookedUpTid) {
+					it.remove();
+					if(rec==this.firstVariant) resetFirstVariant();
 					continue;
 					}
-				else if(diff>0)
+				else if(rec.tid > lookedUpTid)
 					{
-					//LOG.debug("return nocall for "+lookedUp);
-					return makeNoCall(lookedUp);
+					return this.noCalls;
 					}
 				
-				if(vc.getEnd()<lookedUp.getStart())
+				if(rec.end < lookedUp.getStart())
 					{
-					//LOG.debug("remove2 "+vc+" for "+lookedUp);
-					this.buffer.remove(i);
+					it.remove();
+					if(rec==this.firstVariant) resetFirstVariant();
 					continue;
 					}
 				
-				if(!isVariant(vc)) {
-					if(vc.getStart()>lookedUp.getEnd())
-						{
-						//LOG.debug("return2 nocall for "+lookedUp);
-						return makeNoCall(lookedUp);
-						}
-					if(vc.getStart()<=lookedUp.getPos() &&
-						lookedUp.getPos() <= vc.getEnd())
-						{
-						//LOG.debug("return overlapping:\t "+vc+"\n\t(NOT_VARIANT) for "+lookedUp);
-						final VariantContextBuilder vcb = new VariantContextBuilder(
-								getSource(),
-								lookedUp.getContig(), 
-								lookedUp.getStart(),
-								lookedUp.getEnd(), 
-								Collections.singletonList(lookedUp.getReference())
-								);
-						final List<Genotype> genotypes= new ArrayList<>(this.samples.size());
-						for(final Genotype gt:vc.getGenotypes())
-							{
-							
-							final GenotypeBuilder gb = new GenotypeBuilder(gt.getSampleName(),
-									gt.getAlleles().stream().map(A->A.isReference()?lookedUp.getReference():A).collect(Collectors.toList())
-									);
-							if(gt.hasAD()) gb.AD(gt.getAD());
-							if(gt.hasDP()) gb.DP(gt.getDP());
-							if(gt.hasGQ()) gb.GQ(gt.getGQ());
-							if(gt.hasPL()) gb.PL(gt.getPL());
-							genotypes.add(gb.make());
-							}
-						
-						vcb.genotypes(genotypes);
-						return vcb.make();
-						}
-					else
-						{
-						//LOG.warn("unknown case :"+lookedUp+" "+vc);
-						return makeNoCall(lookedUp);
-						}
+				if(rec.start > lookedUp.getEnd())
+					{
+					return this.noCalls;
 					}
-				else
-					{					
-					if(vc.getStart()>lookedUp.getEnd())
-						{
-						//LOG.debug("return3 nocall "+vc+" for "+lookedUp);
-						return makeNoCall(lookedUp);
-						}
-					if(!vc.getReference().equals(lookedUp.getReference()))
+				
+				if(!rec.isVariant()) {
+					if(rec.start <= lookedUp.getPos() && lookedUp.getPos() <= rec.end)
 						{
-						//LOG.debug("skip "+vc+" for "+lookedUp);
-						i++;
-						continue;
+						return makeRefGenotypes(rec,lookedUp);
 						}
-					if(vc.getStart()!=lookedUp.getPos())
-						{	
-						//LOG.warn("boom :"+lookedUp+" "+vc);
-						return makeNoCall(lookedUp);
-						}
-					//https://gatkforums.broadinstitute.org/gatk/discussion/4216/non-ref-in-gvcf
-					/* if(vc.getGenotypes().stream().anyMatch(G->G.getAlleles().contains(Allele.NON_REF_ALLELE))) {
-						throw new RuntimeException("Boum "+vc+" "+lookedUp+" "+getSource());
-						}*/
-					
-					final VariantContextBuilder vcb = new VariantContextBuilder(vc);
-					vcb.alleles(vc.getAlleles().
-							stream().
-							filter(A->!A.equals(Allele.NON_REF_ALLELE)).
-							collect(Collectors.toList())
-							);
-					vcb.genotypes(
-							vc.getGenotypes().stream().
-							map(G->G.getAlleles().contains(Allele.NON_REF_ALLELE)?
-									GenotypeBuilder.createMissing(G.getSampleName(),2):
-									G).
-							collect(Collectors.toList())
-							)
-							;
-					this.buffer.remove(i);
-					return vcb.make();
+					return this.noCalls;
 					}
+				/* another REF: keep it for a next site, a variant with the same REF may follow at this position */
+				if(!rec.variant.getReference().equals(lookedUp.getReference()))
+					{
+					continue;
+					}
+				if(rec.start!=lookedUp.getPos())
+					{
+					return this.noCalls;
+					}
+				it.remove();
+				resetFirstVariant();
+				if(rec.variant.hasID()) this.id = rec.variant.getID();
+				return rec.variant.getGenotypes();
 				}
-			return makeNoCall(lookedUp);
+			return this.noCalls;
 			}
 		}
 	
@@ -253,6 +391,8 @@ public class FastGenotypeGVCFs extends Launcher {
 	
 	private Comparator<String> contigComparator = null;
 	
+	private ExecutorService executorService = null;
+	
 	private final Comparator<ContigPosRef> contigPosRefComparator = (S1,S2) ->{
 		int i= 	contigComparator.compare(S1.getContig(), S2.getContig());
 		if(i!=0) return i;
@@ -260,20 +400,44 @@ public class FastGenotypeGVCFs extends Launcher {
 		if(i!=0) return i;
 		return S1.getReference().compareTo(S2.getReference());
 		};
-
+	
+	/** compare the next record of two gVCFs on tid/start */
+	private static int compareHeads(final GVCFVariantIterator S1,final GVCFVariantIterator S2) {
+		final GVCFRecord r1 = S1.peek();
+		final GVCFRecord r2 = S2.peek();
+		int i = Integer.compare(r1.tid, r2.tid);
+		if(i!=0) return i;
+		return Integer.compare(r1.start, r2.start);
+		}
+	
+	/** move to the windows all the records starting before tid:pos */
+	private static void popUntil(final PriorityQueue<GVCFVariantIterator> queue,final int tid,final int pos) {
+		while(!queue.isEmpty())
+			{
+			final GVCFVariantIterator src = queue.peek();
+			final GVCFRecord rec = src.peek();
+			if(rec.tid > tid || (rec.tid==tid && rec.start > pos)) break;
+			queue.poll();
+			src.pop();
+			if(src.peek()!=null) queue.add(src);
+			}
+		}
 		
 	
 	@Override
 	public int doWork(final List<String> args) {
 		VariantContextWriter w=null;
-		
+		final List<GVCFVariantIterator> gvcfSources = new ArrayList<>();
+		if(this.nThreads<1) {
+			LOG.error("bad number of threads");
+			return -1;
+			}
 		try {
-			final List<GVCFVariantIterator> gvcfSources =  
-					IOUtil.unrollFiles(args.stream().map(F->new File(F)).collect(Collectors.toSet()),".g.vcf",".g.vcf.gz" ).
-					stream().
-					map(F->new GVCFVariantIterator(F)).
-					collect(Collectors.toList())
-					;
+			/* add the sources one by one: if one cannot be opened, the previous ones are closed in 'finally' */
+			for(final File gvcfFile: IOUtil.unrollFiles(args.stream().map(F->new File(F)).collect(Collectors.toSet()),".g.vcf",".g.vcf.gz" ))
+				{
+				gvcfSources.add(new GVCFVariantIterator(gvcfFile));
+				}
 			if(args.isEmpty())
 				{
 				LOG.error("No gvcf file was given");
@@ -323,47 +487,86 @@ public class FastGenotypeGVCFs extends Launcher {
 			final VariantAttributesRecalculator attCalc = new VariantAttributesRecalculator();
 			attCalc.setHeader(header);
 			
+			this.executorService = Executors.newFixedThreadPool(this.nThreads,R->{
+				final Thread t = new Thread(R,"gvcf-decoder");
+				t.setDaemon(true);
+				return t;
+				});
+			
+			/* gVCFs sorted on their next record */
+			final PriorityQueue<GVCFVariantIterator> queue = new PriorityQueue<>(
+					Math.max(1, gvcfSources.size()),
+					FastGenotypeGVCFs::compareHeads
+					);
+			for(final GVCFVariantIterator src:gvcfSources)
+				{
+				src.start();
+				}
+			for(final GVCFVariantIterator src:gvcfSources)
+				{
+				if(src.peek()!=null) queue.add(src);
+				}
+			
 			w= super.openVariantContextWriter(outputFile);
 			w.writeHeader(header);
 			
 			for(;;)
 				{
 				String id = null;
-				ContigPosRef next = null;
-				for(GVCFVariantIterator it:gvcfSources)
+				GVCFRecord next = null;
+				for(final GVCFVariantIterator it:gvcfSources)
+					{
+					final GVCFRecord rec = it.minVariant();
+					if(rec==null) continue;
+					if(next==null || contigPosRefComparator.compare(rec.contigPosRef, next.contigPosRef)<0)
+						{
+						next = rec;
+						}
+					}
+				/* read the records until the smallest variant is known */
+				while(!queue.isEmpty())
 					{
-					ContigPosRef cpr = it.lookup();
-					if(cpr==null) continue;
-					if(next==null || contigPosRefComparator.compare(cpr, next)<0)
+					final GVCFVariantIterator src = queue.peek();
+					final GVCFRecord rec = src.peek();
+					if(next!=null && (rec.tid > next.tid || (rec.tid==next.tid && rec.start > next.start))) break;
+					queue.poll();
+					src.pop();
+					if(src.peek()!=null) queue.add(src);
+					/* a variant after the first variant of its gVCF is never smaller than this first variant */
+					if(rec.isVariant() &&
+						(next==null || contigPosRefComparator.compare(rec.contigPosRef, next.contigPosRef)<0))
 						{
-						next = cpr;
+						next = rec;
 						}
 					}
 				if(next==null) break;
+				final ContigPosRef lookedUp = next.contigPosRef;
+				/* the windows must contain all the records overlapping the site */
+				popUntil(queue, next.tid, lookedUp.getEnd());
+				
 				final Set<Allele> alleles = new HashSet<>();
 				final List<Genotype> genotypes = new ArrayList<>();
-				alleles.add(next.getReference());
+				alleles.add(lookedUp.getReference());
 				for(final GVCFVariantIterator it:gvcfSources)
 					{
-					final VariantContext vc = it.next(next);
-					if(vc.hasID()) id=vc.getID();
-					Objects.requireNonNull(vc, "vc is null");
-					alleles.addAll(
-							vc.getGenotypes().
-								stream().
-								flatMap(G->G.getAlleles().stream()).
-								filter(A->A.isCalled()).
-								collect(Collectors.toSet())
-								);
-					genotypes.addAll(vc.getGenotypes());
+					final List<Genotype> gts = it.next(next.tid,lookedUp);
+					if(it.id!=null) id = it.id;
+					for(final Genotype G:gts)
+						{
+						for(final Allele A:G.getAlleles())
+							{
+							if(A.isCalled()) alleles.add(A);
+							}
+						}
+					genotypes.addAll(gts);
 					}
 				if(alleles.size()<2) continue;
 				
 				final VariantContextBuilder vcb = new VariantContextBuilder(
 						null,
-						next.getContig(), 
-						next.getStart(),
-						next.getEnd(), 
+						lookedUp.getContig(), 
+						lookedUp.getStart(),
+						lookedUp.getEnd(), 
 						alleles
 						);
 				if(id!=null) vcb.id(id);
@@ -371,9 +574,6 @@ public class FastGenotypeGVCFs extends Launcher {
 				w.add(attCalc.apply(vcb.make()));
 				}
 			
-			
-			
-			for(final GVCFVariantIterator src:gvcfSources) src.close();
 			return 0;
 			}
 		catch(Exception err)
@@ -383,7 +583,9 @@ public class FastGenotypeGVCFs extends Launcher {
 			}	
 		finally
 			{
-			
+			for(final GVCFVariantIterator src:gvcfSources) src.close();
+			if(this.executorService!=null) this.executorService.shutdownNow();
+			this.executorService = null;
 			CloserUtil.close(w);
 			}
 		}
@@ -23,51 +23,59 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.lumpysv;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.math.stats.Percentile;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
+import com.github.lindenb.jvarkit.util.iterator.PrefetchIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.vcf.JexlVariantPredicate;
-import com.sleepycat.bind.tuple.TupleBinding;
-import com.sleepycat.bind.tuple.TupleInput;
-import com.sleepycat.bind.tuple.TupleOutput;
-import com.sleepycat.je.Cursor;
-import com.sleepycat.je.Database;
-import com.sleepycat.je.DatabaseConfig;
-import com.sleepycat.je.DatabaseEntry;
-import com.sleepycat.je.Environment;
-import com.sleepycat.je.EnvironmentConfig;
-import com.sleepycat.je.LockMode;
-import com.sleepycat.je.OperationStatus;
-import com.sleepycat.je.Transaction;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
-import htsjdk.tribble.readers.LineIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
@@ -93,12 +101,20 @@ BEGIN_DOC
 
 input is a set of VCF file or a file ending with '.list' and containing one line per VCF path.
 
+## How it works
+
+Each variant is written once, as a VCF line, in a temporary 'spill' file. Only a small
+record (SV type, contigs, intervals extended with CIPOS/CIEND, genotyped samples and the offset
+of the line in the spill file) is sorted on disk. The variants are then clustered in one sweep
+over the sorted records: the first record of a cluster collects the next records overlapping it,
+the VCF lines are only decoded when the clusters are merged. With `--threads`, the clusters are
+merged in parallel, the output is the same than the serial mode.
+
 ## Example
 
 ```
 $ find DIR -name "*.vcf" > vcf.list
-$ mkdir -p BDB
-$ java -jar dist/lumpysort.jar --bdb BDB/  vcf.list > merged.ved
+$ java -jar dist/lumpysort.jar --tmpDir TMP/  vcf.list > merged.vcf
 ```
 
 END_DOC
@@ -108,10 +124,12 @@ description="sort and merge a set of Lumpy-SV VCF files.",
 keywords={"lumpy","vcf","sort"},
 generate_doc=false
 )
-public class LumpySort 
+public class LumpySort
 	 extends Launcher {
-	
+
 	private static final Logger LOG = Logger.build(LumpySort.class).make();
+	/** number of records in a batch of clusters sent to the thread pool */
+	private static final int BATCH_SIZE = 1_000;
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile = null;
 	@Parameter(names={"-f","--fraction"},description="Required Overlap fraction between two intervals.")
@@ -128,50 +146,92 @@ public class LumpySort
 	private boolean do_genotype = false;
 	@Parameter(names={"-B","--bed"},description="restrict to variants overlapping this BED file.")
 	private File bedFile = null;
-	@Parameter(names={"-bdb","--bdb"},description="Berkeley DB working directory. It must exists and must be writeable.",required=true)
+	@Parameter(names={"-bdb","--bdb"},description="Deprecated and ignored: BerkeleyDB is not used anymore, the variants are sorted in '--tmpDir'.",hidden=true)
 	private File bdbHomeDir = null;
-	
+	@Parameter(names={"--prefetch"},description="Decode each VCF in a background thread, keeping about 'x' variants in memory. 0: disable.")
+	private int prefetchBufferSize = 0;
+	@Parameter(names={"--threads"},description="Number of threads. The clusters of variants are decoded and merged in parallel. The output is the same than the serial mode.")
+	private int nThreads = 1;
+	@ParametersDelegate
+	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
+
 	/** encoder for VariantCtx -> line */
 	private VCFEncoder vcfEncoder = null;
-	/** encoder for line -> VariantCtx */
-	private final VCFCodec vcfCodec = new VCFCodec();
-	
-	
-	
-	/** berkeleyDB LumpyVar encoder */
-	private  class LumpyVarBinding extends TupleBinding<LumpyVar>
-		{
-		@Override
-		public LumpyVar entryToObject(final TupleInput in) {
-			long id=in.readLong();
-			int L=in.readInt();
-			byte array[]=new byte[L];
-			in.readFast(array);
-			final LumpyVar v= new LumpyVar(linetoVariantContext(new String(array)),id);
-			return v;
-			}
-		@Override
-		public void objectToEntry(final LumpyVar v,final TupleOutput out) {
-			out.writeLong(v.id);
-			final String line = variantContextToLine(v.ctx);
-			final byte array[]=line.getBytes();
-			out.writeInt(array.length);
-			out.write(array);
-			}
-		}
-	
-	
+	/** header used to decode the lines of the spill file */
+	private VCFHeader outHeader = null;
+	/** one decoder per thread for line -> VariantCtx */
+	private final ThreadLocal<VCFCodec> vcfCodecs = ThreadLocal.withInitial(()->{
+		final VCFHeaderVersion versions[]=VCFHeaderVersion.values();
+		final VCFCodec codec = new VCFCodec();
+		codec.setVCFHeader(this.outHeader, versions[versions.length-1]);
+		return codec;
+		});
+	/** spill file, read with positional reads, can be shared by the threads */
+	private FileChannel spillChannel = null;
+	/** all samples, sorted */
+	private final List<String> sampleNames = new ArrayList<>();
+	private List<Allele> ALLELES_NO_CALLS = null;
+	private String nSampleAttribute = null;
 
-	/** berkeley DB 'key' object */
-	private static class KeySorter
+	/** compact variant: sort key, what's needed to find the clusters and the location of the VCF line in the spill file */
+	private class LumpyVar
 		{
 		StructuralVariantType st;
+		/* normalized contig, used for sorting */
 		String contig1;
 		String contig2;/* for BnD  variant */
+		/* interval extended with CIPOS/CIEND and slop */
+		String contig;
 		int start;
 		int end;
+		/* BND interval, for BND variants only */
+		String bndContig;
+		int bndStart;
+		int bndEnd;
+		/* ctx.getStart() and ctx.getEnd() */
+		int ctxStart;
+		int ctxEnd;
+		/* sorted indexes of the samples having SU>0 */
+		int genotyped[];
 		long id;
-		public int compare1(final KeySorter o) {
+		/* VCF line in the spill file */
+		long offset;
+		int length;
+
+		LumpyVar() {
+			}
+
+		LumpyVar(final VariantContext ctx,final long id,final Map<String,Integer> sample2index)
+			{
+			final Function<String,String> normalize=C->C.startsWith("chr")?C.substring(3):C;
+			final Interval rgn = getInterval(ctx) ;
+			this.st = ctx.getStructuralVariantType();
+			this.contig = rgn.getContig();
+			this.start = rgn.getStart();
+			this.end = rgn.getEnd();
+			this.contig1 = normalize.apply(this.contig);
+			if(this.st.equals(StructuralVariantType.BND)) {
+				this.contig2 = normalize.apply(LumpyConstants.getBnDContig(ctx.getAlternateAllele(0).getDisplayString()));
+				final Interval bnd = getBndInterval(ctx);
+				this.bndContig = bnd.getContig();
+				this.bndStart = bnd.getStart();
+				this.bndEnd = bnd.getEnd();
+				}
+			else
+				{
+				this.contig2 = this.contig1;
+				}
+			this.ctxStart = ctx.getStart();
+			this.ctxEnd = ctx.getEnd();
+			this.genotyped = ctx.getGenotypes().stream().
+					filter(G->isAvailableGenotype(G)).
+					mapToInt(G->sample2index.get(G.getSampleName())).
+					sorted().
+					toArray();
+			this.id=id;
+			}
+
+		public int compare1(final LumpyVar o) {
 			int i= st.compareTo(o.st);
 			if(i!=0) return i;
 			//
@@ -184,7 +244,7 @@ public class LumpySort
 				}
 			return 0;
 			}
-		public int compare2(final KeySorter o) {
+		public int compare2(final LumpyVar o) {
 			int i= compare1(o);
 			if(i!=0) return i;
 			//
@@ -195,187 +255,185 @@ public class LumpySort
 			if(i!=0) return i;
 			return Long.compare(id, o.id);
 			}
-		}
-	
-	/** berkeley DB 'key' comparator */
-	public static class KeySorterComparator implements Comparator<byte[]>
-		{
-		private final KeySorterBinding binding = new KeySorterBinding();
-		private KeySorter make(final byte[] o1)
-			{
-			final TupleInput in = new TupleInput(o1);
-			final KeySorter ks = this.binding.entryToObject(in);
-			try{in.close();}catch(Exception err) {}
-			return ks;
-			}
-		@Override
-		public int compare(final byte[] o1, final byte[] o2) {
-			return make(o1).compare2(make(o2));
-			}
-		}
-	
-	/** berkeley DB 'key' bdinding -> DataEntry */
-	private static class KeySorterBinding extends TupleBinding<KeySorter>
-		{
-		private final StructuralVariantType sttypes[]=StructuralVariantType.values();
-		@Override
-		public void objectToEntry(final KeySorter key, final TupleOutput out) {
-			out.writeByte((byte)key.st.ordinal());
-			out.writeString(key.contig1);
-			if(key.st.equals(StructuralVariantType.BND)) {
-				out.writeString(key.contig2);
-				}
-			out.writeInt(key.start);
-			out.writeInt(key.end);
-			out.writeLong(key.id);
-			}
-		@Override
-		public KeySorter entryToObject(final TupleInput in) {
-			final KeySorter ks= new KeySorter();
-			ks.st = this.sttypes[(int)in.readByte()];
-			ks.contig1= in.readString();
-			if(ks.st.equals(StructuralVariantType.BND)) {
-				ks.contig2= in.readString();
-				}
-			else
-				{
-				ks.contig2= ks.contig1;
-				}
-			ks.start = in.readInt();
-			ks.end = in.readInt();
-			ks.id = in.readLong();
-			return ks;
-			}	
-		}
-	
-	
-	/** VariantContext wrapper */
-	private class LumpyVar
-		{
-		private final VariantContext ctx;
-		private final long id;
-		private Interval _interval=null;
-		private Interval _bndinterval=null;
-		private KeySorter _sortKey = null;
-		
-		LumpyVar(final VariantContext ctx,final long id)
-			{
-			this.ctx = ctx;
-			this.id=id;
-			}
-		private Set<String> getGenotypedSamples() {
-			return ctx.getGenotypes().stream().
-					filter(G->isAvailableGenotype(G)).
-					map(G->G.getSampleName()).
-					collect(Collectors.toSet());
-			}	
-		
-		private KeySorter getSortKey() {
-			if(_sortKey==null) {
-				final Function<String,String> normalize=C->C.startsWith("chr")?C.substring(3):C;
-				final Interval rgn = getInterval() ;
-				_sortKey = new KeySorter();
-				_sortKey.st = this.ctx.getStructuralVariantType();
-				_sortKey.contig1 = normalize.apply(rgn.getContig());
-				if(_sortKey.st.equals(StructuralVariantType.BND)) {
-					_sortKey.contig2 = normalize.apply(LumpyConstants.getBnDContig(this.ctx.getAlternateAllele(0).getDisplayString()));
-					}
-				else
-					{
-					_sortKey.contig2 = _sortKey.contig1;
-					}
-				_sortKey.start = rgn.getStart();
-				_sortKey.end = rgn.getEnd();
-				_sortKey.id=this.id;
-				}
-			return _sortKey;
-			}
-		
+
 		private Interval getInterval() {
-			if(this._interval==null) {
-				if(!ctx.hasAttribute("CIPOS")) throw new IllegalArgumentException("No CIPOS in "+ctx);
-				final List<Integer> ciposL= ctx.getAttributeAsIntList("CIPOS",0);
-				if(ciposL.size()!=2) throw new IllegalArgumentException("len(CIPOS)!=2 in "+ctx);
-				if(!ctx.hasAttribute("CIEND")) throw new IllegalArgumentException("No CIEND in "+ctx);
-				final List<Integer> ciendL= ctx.getAttributeAsIntList("CIEND",0);
-				if(ciendL.size()!=2) throw new IllegalArgumentException("len(CIEND)!=2 in "+ctx);
-	
-				this._interval =  new Interval(
-					ctx.getContig(),
-					Math.max(0,ctx.getStart() + ciposL.get(0) - LumpySort.this.slop_size),
-					ctx.getEnd() + ciendL.get(1) + LumpySort.this.slop_size
-					);
-				}
-			return this._interval;
+			return new Interval(this.contig,this.start,this.end);
 			}
+
 		private Interval getBndInterval() {
-			if(this._bndinterval==null) {
-				if(!ctx.hasAttribute("CIPOS")) throw new IllegalArgumentException("No CIPOS in "+ctx);
-				final List<Integer> ciposL= ctx.getAttributeAsIntList("CIPOS",0);
-				if(ciposL.size()!=2) throw new IllegalArgumentException("len(CIPOS)!=2 in "+ctx);
-				if(!ctx.hasAttribute("CIEND")) throw new IllegalArgumentException("No CIEND in "+ctx);
-				final List<Integer> ciendL= ctx.getAttributeAsIntList("CIEND",0);
-				if(ciendL.size()!=2) throw new IllegalArgumentException("len(CIEND)!=2 in "+ctx);
-				
-				String cL;
-				int pL;
-				if(ctx.getStructuralVariantType()==StructuralVariantType.BND) {
-					final  Map.Entry<String,Integer> entry = LumpyConstants.getBnDContigAndPos(ctx.getAlternateAllele(0).getDisplayString());
-					cL = entry.getKey();
-					pL = entry.getValue();
-					} 
-				else
-					{
-					cL = ctx.getContig();
-					pL = ctx.getEnd();
-					}
-			
-				this._bndinterval =  new Interval(
-					cL,
-					Math.max(0,pL+ciposL.get(0) - LumpySort.this.slop_size),
-					pL+ciendL.get(1) + LumpySort.this.slop_size
-					);
+			return new Interval(this.bndContig,this.bndStart,this.bndEnd);
+			}
+
+		/** we cannot have common available variants between two ctx */
+		private boolean hasCommonGenotypedSamples(final LumpyVar o) {
+			int i=0,j=0;
+			while(i< this.genotyped.length && j< o.genotyped.length) {
+				final int d = this.genotyped[i] - o.genotyped[j];
+				if(d==0) return true;
+				if(d<0) i++; else j++;
 				}
-			return this._bndinterval;
+			return false;
 			}
-		
+
 		boolean canMerge(final LumpyVar o)
 			{
-			// we cannot have common available variants between two ctx
-			final Set<String> commonSamples= new HashSet<String>(this.getGenotypedSamples());
-			commonSamples.retainAll(o.getGenotypedSamples());
-			
-			
-			if(!commonSamples.isEmpty()) {
+			if(hasCommonGenotypedSamples(o)) {
 				return false;
 			}
-			
+
 			Interval L1 = this.getInterval();
 			Interval L2 = o.getInterval();
 			if(!LumpySort.this.overlap(L1,L2)) return false;
-			if(this.ctx.getStructuralVariantType()==StructuralVariantType.BND) {
+			if(this.st==StructuralVariantType.BND) {
 				L1 = this.getBndInterval();
 				L2 = o.getBndInterval();
 				if(!LumpySort.this.overlap(L1,L2)) return false;
 				}
-			
+
 			return true;
 			}
-		
-		
+
+		/** decode the VCF line from the spill file */
+		VariantContext getContext() {
+			final byte array[]=new byte[this.length];
+			final ByteBuffer buffer = ByteBuffer.wrap(array);
+			try {
+				long pos = this.offset;
+				while(buffer.hasRemaining()) {
+					final int n = LumpySort.this.spillChannel.read(buffer, pos);
+					if(n<0) throw new IOException("unexpected end of spill file");
+					pos+=n;
+					}
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			return LumpySort.this.vcfCodecs.get().decode(new String(array,StandardCharsets.UTF_8));
+			}
 		}
-	
-	
-	/** variant decoder */
-	private VariantContext linetoVariantContext(final String line) {
-		return this.vcfCodec.decode(line);
-	}
-	
+
+	/** LumpyVar encoder for the SortingCollection */
+	private class LumpyVarCodec extends AbstractDataCodec<LumpyVar>
+		{
+		private final StructuralVariantType sttypes[]=StructuralVariantType.values();
+		@Override
+		public LumpyVar decode(final DataInputStream dis) throws IOException {
+			final LumpyVar v = new LumpyVar();
+			try {
+				v.st = this.sttypes[(int)dis.readByte()];
+			} catch(final IOException err) { return null;}
+			v.contig = dis.readUTF();
+			v.contig1 = dis.readUTF();
+			v.start = dis.readInt();
+			v.end = dis.readInt();
+			if(v.st.equals(StructuralVariantType.BND)) {
+				v.contig2 = dis.readUTF();
+				v.bndContig = dis.readUTF();
+				v.bndStart = dis.readInt();
+				v.bndEnd = dis.readInt();
+				}
+			else
+				{
+				v.contig2 = v.contig1;
+				}
+			v.ctxStart = dis.readInt();
+			v.ctxEnd = dis.readInt();
+			v.genotyped = new int[dis.readInt()];
+			for(int i=0;i< v.genotyped.length;i++) v.genotyped[i] = dis.readInt();
+			v.id = dis.readLong();
+			v.offset = dis.readLong();
+			v.length = dis.readInt();
+			return v;
+			}
+		@Override
+		public void encode(final DataOutputStream dos, final LumpyVar v) throws IOException {
+			dos.writeByte((byte)v.st.ordinal());
+			dos.writeUTF(v.contig);
+			dos.writeUTF(v.contig1);
+			dos.writeInt(v.start);
+			dos.writeInt(v.end);
+			if(v.st.equals(StructuralVariantType.BND)) {
+				dos.writeUTF(v.contig2);
+				dos.writeUTF(v.bndContig);
+				dos.writeInt(v.bndStart);
+				dos.writeInt(v.bndEnd);
+				}
+			dos.writeInt(v.ctxStart);
+			dos.writeInt(v.ctxEnd);
+			dos.writeInt(v.genotyped.length);
+			for(final int i:v.genotyped) dos.writeInt(i);
+			dos.writeLong(v.id);
+			dos.writeLong(v.offset);
+			dos.writeInt(v.length);
+			}
+		@Override
+		public LumpyVarCodec clone() {
+			return new LumpyVarCodec();
+			}
+		}
+
+	/** a set of variants to be merged. The first variant is the one that collected the others */
+	private static class Cluster
+		{
+		final List<LumpyVar> variants = new ArrayList<>();
+		/* no more variant can be added to this cluster */
+		boolean closed = false;
+		Cluster(final LumpyVar first) {
+			this.variants.add(first);
+			}
+		LumpyVar first() {
+			return this.variants.get(0);
+			}
+		}
+
+	private Interval getInterval(final VariantContext ctx) {
+		if(!ctx.hasAttribute("CIPOS")) throw new IllegalArgumentException("No CIPOS in "+ctx);
+		final List<Integer> ciposL= ctx.getAttributeAsIntList("CIPOS",0);
+		if(ciposL.size()!=2) throw new IllegalArgumentException("len(CIPOS)!=2 in "+ctx);
+		if(!ctx.hasAttribute("CIEND")) throw new IllegalArgumentException("No CIEND in "+ctx);
+		final List<Integer> ciendL= ctx.getAttributeAsIntList("CIEND",0);
+		if(ciendL.size()!=2) throw new IllegalArgumentException("len(CIEND)!=2 in "+ctx);
+
+		return  new Interval(
+			ctx.getContig(),
+			Math.max(0,ctx.getStart() + ciposL.get(0) - this.slop_size),
+			ctx.getEnd() + ciendL.get(1) + this.slop_size
+			);
+		}
+
+	private Interval getBndInterval(final VariantContext ctx) {
+		if(!ctx.hasAttribute("CIPOS")) throw new IllegalArgumentException("No CIPOS in "+ctx);
+		final List<Integer> ciposL= ctx.getAttributeAsIntList("CIPOS",0);
+		if(ciposL.size()!=2) throw new IllegalArgumentException("len(CIPOS)!=2 in "+ctx);
+		if(!ctx.hasAttribute("CIEND")) throw new IllegalArgumentException("No CIEND in "+ctx);
+		final List<Integer> ciendL= ctx.getAttributeAsIntList("CIEND",0);
+		if(ciendL.size()!=2) throw new IllegalArgumentException("len(CIEND)!=2 in "+ctx);
+
+		String cL;
+		int pL;
+		if(ctx.getStructuralVariantType()==StructuralVariantType.BND) {
+			final  Map.Entry<String,Integer> entry = LumpyConstants.getBnDContigAndPos(ctx.getAlternateAllele(0).getDisplayString());
+			cL = entry.getKey();
+			pL = entry.getValue();
+			}
+		else
+			{
+			cL = ctx.getContig();
+			pL = ctx.getEnd();
+			}
+
+		return  new Interval(
+			cL,
+			Math.max(0,pL+ciposL.get(0) - this.slop_size),
+			pL+ciendL.get(1) + this.slop_size
+			);
+		}
+
 	/** encoder variant decoder */
 	private  String variantContextToLine(final VariantContext ctx) {
 		return this.vcfEncoder.encode(ctx);
 	}
-	
+
 	/** returns true two interval overlap with fraction_overlap  */
 	private boolean overlap(final Interval i1,final Interval i2)
 		{
@@ -387,7 +445,7 @@ public class LumpySort
 		if(L3< (int)(this.fraction_overlap*L2)) return false;
 		return true;
 		}
-	
+
 	/** returns true if there is a SU greater than 0 */
 	private boolean isAvailableGenotype(final Genotype g)
 		{
@@ -399,13 +457,100 @@ public class LumpySort
 			}
 		return true;
 		}
-	
+
+	/** decode and merge a batch of clusters. Called from the worker threads */
+	private List<VariantContext> mergeClusters(final List<Cluster> clusters)
+		{
+		final List<VariantContext> L = new ArrayList<>(clusters.size());
+		for(final Cluster cluster:clusters)
+			{
+			final List<VariantContext> buffer = cluster.variants.stream().
+					map(V->V.getContext()).
+					collect(Collectors.toList());
+			if(this.do_not_merge_ctx)
+				{
+				L.addAll(buffer);
+				continue;
+				}
+			L.add(merge(buffer));
+			}
+		return L;
+		}
+
+	/** merge the variants of a cluster, the first one is the variant that collected the others */
+	private VariantContext merge(final List<VariantContext> buffer)
+		{
+		final VariantContext first = buffer.get(0);
+		final int variantStartA = buffer.stream().
+				mapToInt(V->V.getStart()).
+				min().getAsInt();
+		final int variantStartB = (int)buffer.stream().
+				mapToInt(V->V.getStart()).
+				average().getAsDouble();
+		final int variantStartC = buffer.stream().
+				mapToInt(V->V.getStart()).
+				max().getAsInt();
+
+		final int variantEndA = buffer.stream().
+				mapToInt(V->V.getEnd()).
+				min().getAsInt();
+		final int variantEndB = (int)buffer.stream().
+				mapToInt(V->V.getEnd()).
+				average().getAsDouble();
+		final int variantEndC = buffer.stream().
+				mapToInt(V->V.getEnd()).
+				max().getAsInt();
+
+		final VariantContextBuilder vcb = new VariantContextBuilder(
+				"lumpymerge",
+				first.getContig(),
+				variantStartB,
+				variantEndB,
+				first.getAlleles()
+				);
+		vcb.attribute("END", variantEndB);
+		vcb.attribute("SVTYPE", first.getAttribute("SVTYPE"));
+		vcb.attribute("SVLEN", (int)Percentile.median().evaluate(buffer.stream().mapToInt(V->V.getEnd()-V.getStart())));
+		vcb.attribute("CIPOS",Arrays.asList(variantStartB-variantStartA,variantStartC-variantStartB));
+		vcb.attribute("CIEND",Arrays.asList(variantEndB-variantEndA,variantEndC-variantEndB));
+		vcb.attribute("SU",buffer.stream().flatMap(V->V.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SU", 0)).sum());
+		vcb.attribute("SR",buffer.stream().flatMap(V->V.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SR", 0)).sum());
+		vcb.attribute("PE",buffer.stream().flatMap(V->V.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("PE", 0)).sum());
+
+		final Map<String,Genotype> sample2genotype = new HashMap<>(this.sampleNames.size());
+
+		buffer.stream().flatMap(V->V.getGenotypes().stream()).
+			filter(G->isAvailableGenotype(G)).
+			forEach(G->{
+			sample2genotype.put(G.getSampleName(), G);
+		});
+
+		vcb.attribute(this.nSampleAttribute, sample2genotype.size());
+
+		for(final String sn: this.sampleNames)
+			{
+			if(!sample2genotype.containsKey(sn))
+				{
+				sample2genotype.put(sn, new GenotypeBuilder(sn,ALLELES_NO_CALLS).
+						attribute("SU",0).
+						attribute("SR",0).
+						attribute("PE",0).
+						make());
+				}
+			}
+
+		vcb.genotypes(sample2genotype.values());
+		return vcb.make();
+		}
+
 	@Override
 	public int doWork(final List<String> args) {
 	VariantContextWriter vcw = null;
-	LineIterator vcfIn= null;
-	Environment environment = null;
-	Database variantsDb1=null;
+	OutputStream spillOut = null;
+	File spillFile = null;
+	SortingCollection<LumpyVar> sorter = null;
+	CloseableIterator<LumpyVar> sortedIter = null;
+	ExecutorService executorService = null;
 	final List<File> inputs = IOUtil.unrollFiles(
 			args.stream().map(S->new File(S)).collect(Collectors.toList()),
 			".vcf",".vcf.gz");
@@ -413,11 +558,16 @@ public class LumpySort
 		LOG.error("empty vcf list");
 		return -1;
 		}
+	if(this.bdbHomeDir!=null) {
+		LOG.warn("option --bdb is deprecated and ignored.");
+		}
+	if(this.nThreads<1) {
+		LOG.error("bad number of threads");
+		return -1;
+		}
 	try {
-		IOUtil.assertDirectoryIsWritable(this.bdbHomeDir);
-
 		final Set<VCFHeaderLine> metaData = new HashSet<>();
-		final Set<String> sampleNames = new TreeSet<>();
+		final Set<String> sampleNamesSet = new TreeSet<>();
 		final IntervalTreeMap<Boolean> intervalTreeMapBed;
 		if(this.bedFile!=null)
 			{
@@ -429,12 +579,12 @@ public class LumpySort
 				filter(L->L!=null).
 				forEach(B->intervalTreeMapBed.put(B.toInterval(),true));
 			br.close();
-			}	
+			}
 		else
 			{
 			intervalTreeMapBed = null;
 			}
-		
+
 		for(int idx=0;idx< inputs.size();++idx)
 			{
 			final File vcfFile = inputs.get(idx);
@@ -447,7 +597,7 @@ public class LumpySort
 				r.close();
 				return -1;
 				}
-			
+
 			if(!header.hasGenotypingData()) {
 				LOG.error("No sample in "+vcfFile);
 				r.close();
@@ -455,12 +605,12 @@ public class LumpySort
 				}
 			for(final String sampleName : header.getSampleNamesInOrder())
 				{
-				if(sampleNames.contains(sampleName)) {
+				if(sampleNamesSet.contains(sampleName)) {
 					LOG.error("Sample found twice "+sampleName+" in "+vcfFile);
 					r.close();
 					return -1;
 					}
-				sampleNames.add(sampleName);
+				sampleNamesSet.add(sampleName);
 				}
 			metaData.addAll(
 					header.getMetaDataInInputOrder().
@@ -469,8 +619,13 @@ public class LumpySort
 					);
 			r.close();
 			}
+		this.sampleNames.addAll(sampleNamesSet);
+		final Map<String,Integer> sample2index = new HashMap<>(this.sampleNames.size());
+		for(final String sn:this.sampleNames) sample2index.put(sn, sample2index.size());
+
 		final VCFInfoHeaderLine nSampleInfoHeaderLine = new VCFInfoHeaderLine("NSAMPLES", 1, VCFHeaderLineType.Integer,"Number of affected samples.");
 		metaData.add(nSampleInfoHeaderLine);
+		this.nSampleAttribute = nSampleInfoHeaderLine.getID();
 		final VCFFormatHeaderLine chromStartFormatHeaderLine = new VCFFormatHeaderLine(
 				"CB", 1, VCFHeaderLineType.Integer,"Original Variant POS");
 		metaData.add(chromStartFormatHeaderLine);
@@ -478,40 +633,29 @@ public class LumpySort
 				"CE", 1, VCFHeaderLineType.Integer,"Original Variant END");
 		metaData.add(chromEndFormatHeaderLine);
 
-		
-		
-		final VCFHeader outHeader = new VCFHeader(
+		this.outHeader = new VCFHeader(
 			metaData,
-			sampleNames
+			sampleNamesSet
 			);
-		final VCFHeaderVersion versions[]=VCFHeaderVersion.values();
-		this.vcfEncoder = new VCFEncoder(outHeader, false, true);
-		this.vcfCodec.setVCFHeader(
-				outHeader,
-				versions[versions.length-1]
+		this.vcfEncoder = new VCFEncoder(this.outHeader, false, true);
+
+		/* the VCF lines are written once in the spill file, only the compact records are sorted */
+		final List<File> tmpDirs = this.writingSortingCollection.getTmpDirectories();
+		spillFile = File.createTempFile("lumpysort.", ".vcf", tmpDirs.get(0));
+		spillFile.deleteOnExit();
+		spillOut = new BufferedOutputStream(new FileOutputStream(spillFile), 1<<20);
+		long spillOffset = 0L;
+
+		sorter = SortingCollection.newInstance(
+				LumpyVar.class,
+				new LumpyVarCodec(),
+				(A,B)->A.compare2(B),
+				this.writingSortingCollection.getMaxRecordsInRam(),
+				this.writingSortingCollection.getTmpPaths()
 				);
-		
-		
-		/* open BDB env */
-		final Transaction txn=null;
-		environment = new Environment(this.bdbHomeDir, 
-				new EnvironmentConfig().
-					setAllowCreate(true).
-					setReadOnly(false)
-			);
-		
-		variantsDb1 = environment.openDatabase(txn,"variants1",
-			new DatabaseConfig().
-				setBtreeComparator(KeySorterComparator.class).
-				setAllowCreate(true).
-				setReadOnly(false).
-				setTemporary(true)
-			);
-		
+		sorter.setDestructiveIteration(true);
+
 		long total_variants = 0L;
-		
-		final LumpyVarBinding lumpVarBinding = new LumpyVarBinding();
-		final KeySorterBinding keySorterBinding = new KeySorterBinding();
 
 		for(int idx=0;idx< inputs.size();++idx)
 			{
@@ -519,33 +663,35 @@ public class LumpySort
 			final File vcfFile = inputs.get(idx);
 			int nVariant = 0;
 			final VCFFileReader r  = new VCFFileReader(vcfFile,false);
-			
-			final List<Genotype> missing =new ArrayList<>(sampleNames.size());
-			for(final String sn:sampleNames)
+
+			final List<Genotype> missing =new ArrayList<>(this.sampleNames.size());
+			for(final String sn:this.sampleNames)
 				{
 				if(r.getFileHeader().getSampleNamesInOrder().contains(sn)) continue;
 				missing.add(GenotypeBuilder.createMissing(sn, 2));
 				}
-			
-			final CloseableIterator<VariantContext> iter = r.iterator();
+
+			final CloseableIterator<VariantContext> iter = this.prefetchBufferSize>0?
+					new PrefetchIterator<>(r.iterator(),this.prefetchBufferSize,VCFUtils::decodeLazyGenotypes):
+					r.iterator();
 			while(iter.hasNext()) {
 				VariantContext ctx = iter.next();
 				if(!this.keep_secondary) {
 					if(ctx.hasAttribute("SECONDARY")) continue;
 					}
 				if(!this.variantFilter.test(ctx)) continue;
-				
+
 				if(intervalTreeMapBed!=null &&
 					!intervalTreeMapBed.containsOverlapping(ctx)) continue;
-					
-				
+
+
 				final List<Genotype> gtList  = new ArrayList<>(ctx.getGenotypes());
-				
+
 				for(int gi=0;gi< gtList.size();gi++)
 					{
 					Genotype g= gtList.get(gi);
 					final GenotypeBuilder gb;
-					
+
 					if(this.do_genotype && isAvailableGenotype(g))
 						{
 						gb = new GenotypeBuilder(g.getSampleName(), ctx.getAlternateAlleles());
@@ -559,27 +705,23 @@ public class LumpySort
 					gb.attribute(chromEndFormatHeaderLine.getID(), ctx.getEnd());
 					gtList.set(gi, gb.make());
 					}
-				
-				
+
+
 				gtList.addAll(missing);
-				
+
 				ctx = new VariantContextBuilder(ctx).
 						genotypes(gtList).
 						rmAttribute("PRPOS").
 						make();
-				
-				final LumpyVar lvar = new LumpyVar(ctx,total_variants);
-				final DatabaseEntry key = new DatabaseEntry();
-				final DatabaseEntry data = new DatabaseEntry();
-				
-				lumpVarBinding.objectToEntry(lvar, data);
-				keySorterBinding.objectToEntry(lvar.getSortKey(), key);
-				if(variantsDb1.put(txn, key, data)!=OperationStatus.SUCCESS)
-					{
-					r.close();
-					LOG.error("insertion failed");
-					return -1;
-					}
+
+				final LumpyVar lvar = new LumpyVar(ctx,total_variants,sample2index);
+				final byte array[] = variantContextToLine(ctx).getBytes(StandardCharsets.UTF_8);
+				spillOut.write(array);
+				lvar.offset = spillOffset;
+				lvar.length = array.length;
+				spillOffset += array.length;
+				sorter.add(lvar);
+
 				nVariant++;
 				total_variants++;
 				}
@@ -587,147 +729,133 @@ public class LumpySort
 			r.close();
 
 			LOG.info("Read  "+(idx+1)+"/"+inputs.size()+" variants of "+vcfFile+" N="+nVariant+
-					" Total:"+total_variants + 
+					" Total:"+total_variants +
 					" That took: " + Duration.ofMillis(System.currentTimeMillis() -millisecstart )
 					);
-			System.gc();
 			}
-		
+		spillOut.close();
+		spillOut = null;
+		sorter.doneAdding();
+
 		if(intervalTreeMapBed!=null) intervalTreeMapBed.clear();
-		System.gc();
-		
+
 		LOG.info("Writing output");
-		final List<Allele> ALLELES_NO_CALLS=
+		this.ALLELES_NO_CALLS=
 				this.do_genotype
 				? Collections.singletonList(Allele.NO_CALL)
 				: Arrays.asList(Allele.NO_CALL,Allele.NO_CALL)
 				;
-		final Cursor cursor = variantsDb1.openCursor(txn, null);
+		this.spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ);
 
+		if(this.nThreads>1) {
+			executorService = Executors.newFixedThreadPool(this.nThreads);
+			}
+		final Deque<Future<List<VariantContext>>> futures = new ArrayDeque<>();
 
 		vcw = super.openVariantContextWriter(this.outputFile);
-		vcw.writeHeader(outHeader);
-		
+		vcw.writeHeader(this.outHeader);
+
+		/* clusters in the order of their first variant, waiting to be closed */
+		final Deque<Cluster> pending = new ArrayDeque<>();
+		/* clusters that can still collect a variant */
+		final List<Cluster> open = new ArrayList<>();
+		List<Cluster> batch = new ArrayList<>();
+		int batchSize = 0;
+		LumpyVar prev = null;
+
+		sortedIter = sorter.iterator();
 		for(;;)
 			{
-			final DatabaseEntry key = new DatabaseEntry();
-			final DatabaseEntry data = new DatabaseEntry();
-			OperationStatus status = cursor.getNext(key, data, LockMode.DEFAULT);
-			if(!status.equals(OperationStatus.SUCCESS)) break;
-			final LumpyVar first = lumpVarBinding.entryToObject(data);
-			if(this.do_not_merge_ctx)
+			final LumpyVar lv = sortedIter.hasNext()?sortedIter.next():null;
+			if(lv==null || (prev!=null && prev.compare1(lv)!=0))
 				{
-				vcw.add(first.ctx);
-				continue;
+				/* end of the group (SV type/contigs) : all the clusters are closed */
+				for(final Cluster c:open) c.closed=true;
+				open.clear();
 				}
-
-			final KeySorter keySorter1 = keySorterBinding.entryToObject(key);
-
-			
-			final List<LumpyVar> buffer = new ArrayList<>();
-			buffer.add(first);
-			
-			final DatabaseEntry key2 = new DatabaseEntry();
-			final DatabaseEntry data2 = new DatabaseEntry();
-
-			final Cursor cursor2=cursor.dup(true);
-			for(;;)
+			if(lv!=null)
 				{
-				status = cursor2.getNext(key2, data2, LockMode.DEFAULT);
-				if(!status.equals(OperationStatus.SUCCESS)) break;
-				final KeySorter keySorter2 = keySorterBinding.entryToObject(key2);
-
-				if(keySorter1.compare1(keySorter2)!=0) 
+				Cluster target = null;
+				if(!this.do_not_merge_ctx)
 					{
-					break;
+					/* a variant goes to the first open cluster that can collect it.
+					 * A cluster is closed as soon as a variant starts after the end of its first variant */
+					final Iterator<Cluster> iter = open.iterator();
+					while(iter.hasNext())
+						{
+						final Cluster c = iter.next();
+						if(lv.ctxStart > c.first().ctxEnd)
+							{
+							c.closed = true;
+							iter.remove();
+							continue;
+							}
+						if(c.first().canMerge(lv))
+							{
+							target = c;
+							break;
+							}
+						}
 					}
-				
-				final LumpyVar lv = lumpVarBinding.entryToObject(data2);
-				if(lv.ctx.getStart()>first.ctx.getEnd()) {
-					break;
+				if(target!=null)
+					{
+					target.variants.add(lv);
 					}
-				if(first.canMerge(lv))
+				else
 					{
-					buffer.add(lv);
-					cursor2.delete();
+					final Cluster c = new Cluster(lv);
+					if(this.do_not_merge_ctx)
+						{
+						c.closed = true;
+						}
+					else
+						{
+						open.add(c);
+						}
+					pending.add(c);
 					}
 				}
-			cursor2.close();
-			
-			
-			cursor.delete();//delete 'first'
-			
-			
-			
-			final int variantStartA = buffer.stream().
-					mapToInt(V->V.ctx.getStart()).
-					min().getAsInt();
-			final int variantStartB = (int)buffer.stream().
-					mapToInt(V->V.ctx.getStart()).
-					average().getAsDouble();
-			final int variantStartC = buffer.stream().
-					mapToInt(V->V.ctx.getStart()).
-					max().getAsInt();
-			
-			final int variantEndA = buffer.stream().
-					mapToInt(V->V.ctx.getEnd()).
-					min().getAsInt();
-			final int variantEndB = (int)buffer.stream().
-					mapToInt(V->V.ctx.getEnd()).
-					average().getAsDouble();
-			final int variantEndC = buffer.stream().
-					mapToInt(V->V.ctx.getEnd()).
-					max().getAsInt();
-			
-			final VariantContextBuilder vcb = new VariantContextBuilder(
-					"lumpymerge",
-					first.ctx.getContig(),
-					variantStartB,
-					variantEndB,
-					first.ctx.getAlleles()
-					);
-			vcb.attribute("END", variantEndB);
-			vcb.attribute("SVTYPE", first.ctx.getAttribute("SVTYPE"));
-			vcb.attribute("SVLEN", (int)Percentile.median().evaluate(buffer.stream().mapToInt(V->V.ctx.getEnd()-V.ctx.getStart())));
-			vcb.attribute("CIPOS",Arrays.asList(variantStartB-variantStartA,variantStartC-variantStartB));
-			vcb.attribute("CIEND",Arrays.asList(variantEndB-variantEndA,variantEndC-variantEndB));
-			vcb.attribute("SU",buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SU", 0)).sum());
-			vcb.attribute("SR",buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SR", 0)).sum());
-			vcb.attribute("PE",buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("PE", 0)).sum());
-
-			
-			
-			final Map<String,Genotype> sample2genotype = new HashMap<>(sampleNames.size());
-			
-			
-			buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).
-				filter(G->isAvailableGenotype(G)).
-				forEach(G->{
-				sample2genotype.put(G.getSampleName(), G);
-			});
-			
-			vcb.attribute(nSampleInfoHeaderLine.getID(), sample2genotype.size());
-			
-			for(final String sn: sampleNames)
+			prev = lv;
+
+			/* move the closed clusters at the head of the queue to the current batch */
+			while(!pending.isEmpty() && pending.peekFirst().closed)
+				{
+				final Cluster c = pending.pollFirst();
+				batch.add(c);
+				batchSize += c.variants.size();
+				}
+			if(batchSize >= BATCH_SIZE || (lv==null && !batch.isEmpty()))
 				{
-				if(!sample2genotype.containsKey(sn))
+				final List<Cluster> clusters = batch;
+				if(executorService==null)
 					{
-					sample2genotype.put(sn, new GenotypeBuilder(sn,ALLELES_NO_CALLS).
-							attribute("SU",0).
-							attribute("SR",0).
-							attribute("PE",0).
-							make());
-					}	
+					for(final VariantContext ctx: mergeClusters(clusters)) vcw.add(ctx);
+					}
+				else
+					{
+					futures.add(executorService.submit(()->mergeClusters(clusters)));
+					while(futures.size() > this.nThreads*2)
+						{
+						for(final VariantContext ctx: futures.pollFirst().get()) vcw.add(ctx);
+						}
+					}
+				batch = new ArrayList<>();
+				batchSize = 0;
+				}
+			if(lv==null)
+				{
+				/* the last batch may have been submitted before the end of the input: always drain */
+				while(!futures.isEmpty())
+					{
+					for(final VariantContext ctx: futures.pollFirst().get()) vcw.add(ctx);
+					}
+				break;
 				}
-			
-			vcb.genotypes(sample2genotype.values());
-			vcw.add(vcb.make());
 			}
-		cursor.close();
+		sortedIter.close();sortedIter=null;
+		sorter.cleanup();sorter=null;
+		if(!pending.isEmpty()) throw new IllegalStateException("clusters were not written");
 		vcw.close();vcw=null;
-		
-		variantsDb1.close();variantsDb1=null;
-		environment.close();environment=null;
 		return 0;
 		}
 	catch(final Exception err)
@@ -737,13 +865,17 @@ public class LumpySort
 		}
 	finally
 		{
-		CloserUtil.close(vcfIn);
+		if(executorService!=null) executorService.shutdownNow();
+		CloserUtil.close(sortedIter);
+		if(sorter!=null) sorter.cleanup();
+		CloserUtil.close(spillOut);
+		CloserUtil.close(this.spillChannel);
+		this.spillChannel = null;
+		if(spillFile!=null) spillFile.delete();
 		CloserUtil.close(vcw);
-		CloserUtil.close(variantsDb1);
-		CloserUtil.close(environment);
-		} 
+		}
 	}
-	 
+
 	public static void main(final String[] args) {
 		new LumpySort().instanceMainWithExit(args);
 	}
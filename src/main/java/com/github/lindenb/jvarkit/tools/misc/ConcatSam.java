@@ -60,6 +60,7 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
+import com.github.lindenb.jvarkit.util.iterator.PrefetchIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -96,6 +97,8 @@ public class ConcatSam extends Launcher
 	private String region_str=null;
 	@Parameter(names={"-merge","--merge"},description="Don't really concatenate one sam after the other, use a htsjdk.samtools.MergingSamRecordIterator. Similar to Picard MergeSamFiles" )
 	private boolean merging=false;
+	@Parameter(names={"--prefetch"},description="With option --merge, each BAM is read by its own thread, keeping about 'x' reads in memory per file. 0: disable.")
+	private int prefetchBufferSize=0;
 
 	
 	@ParametersDelegate
@@ -155,6 +158,7 @@ public class ConcatSam extends Launcher
 		private SamReaderFactory samReaderFactory;
 		private boolean enableUnrollList=true;
 		private boolean concatenate=false;
+		private int prefetchBufferSize=0;
 		
 		public Factory() {
 			this.samReaderFactory = SamReaderFactory.
@@ -180,6 +184,16 @@ public class ConcatSam extends Launcher
 			return concatenate;
 			}
 		
+		/** when merging, each file is read by its own thread, buffering about 'prefetchBufferSize' reads. 0: disable */
+		public Factory setPrefetchBufferSize(int prefetchBufferSize) {
+			this.prefetchBufferSize = prefetchBufferSize;
+			return this;
+			}
+		
+		public int getPrefetchBufferSize() {
+			return prefetchBufferSize;
+			}
+		
 		
 		
 		@Deprecated
@@ -322,6 +336,10 @@ public class ConcatSam extends Launcher
 						reader2iter.put(sr, sr.query(intervals,false));
 						}
 					}
+				if(!this.concatenate && this.prefetchBufferSize>0)
+					{
+					reader2iter.replaceAll((K,V)->new PrefetchIterator<>(V, this.prefetchBufferSize));
+					}
 				myIter.merginIterators.addAll(reader2iter.values());
 				myIter.header = mergedheader.getMergedHeader();
 				
@@ -348,7 +366,8 @@ public class ConcatSam extends Launcher
 		try
 			{
 			final Factory factory = new Factory().
-					setConcatenate(!this.merging)
+					setConcatenate(!this.merging).
+					setPrefetchBufferSize(this.prefetchBufferSize)
 					;
 			if(!StringUtil.isBlank(this.region_str)) {
 				factory.addInterval(region_str);
@@ -15,7 +15,6 @@ import java.util.zip.GZIPOutputStream;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
@@ -28,6 +27,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 /**
@@ -94,7 +94,7 @@ public class CoverageNormalizer extends Launcher
 		LOG.info("Opening tmp File "+tmpFile1);
 		GZIPOutputStream gos=null;
 		DataInputStream dis=null;
-		SortingCollection<Float> median=null;
+		ParallelSortingCollection<Float> median=null;
 		try
 			{
 			gos=new GZIPOutputStream(new FileOutputStream(tmpFile1));
@@ -167,12 +167,10 @@ public class CoverageNormalizer extends Launcher
 			
 			//start normalizing min/max find median value
 			long nWritten=0L;
-			median=SortingCollection.newInstance(
+			median=this.writingSortingCollection.make(
 					Float.class,
 					new FloatCodec(),
-					new FloatCmp(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
+					new FloatCmp()
 					);
 			 median.setDestructiveIteration(true);
 			 dis=new DataInputStream(new GZIPInputStream(new FileInputStream(tmpFile1)));
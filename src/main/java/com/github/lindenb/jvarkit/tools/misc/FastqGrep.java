@@ -45,7 +45,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.NioFastqReader;
 
 @Program(
 	name="fastqgrep",
@@ -179,7 +179,7 @@ public class FastqGrep
 			if(args.isEmpty())
 				{
 				LOG.info("Reading from stdin");
-				FastqReader fqR=new FourLinesFastqReader(System.in);
+				FastqReader fqR=new NioFastqReader(System.in);
 				run(fqR,out);
 				fqR.close();
 				}
@@ -187,7 +187,7 @@ public class FastqGrep
 				{
 				File f=new File(fname);
 				LOG.info("Reading from "+f);
-				FastqReader fqR=new FourLinesFastqReader(f);
+				FastqReader fqR=new NioFastqReader(f);
 				run(fqR,out);
 				fqR.close();
 				}
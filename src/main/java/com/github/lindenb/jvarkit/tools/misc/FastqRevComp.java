@@ -39,7 +39,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.NioFastqReader;
 /*
 
 BEGIN_DOC
@@ -176,7 +176,7 @@ public class FastqRevComp extends Launcher
 			if(args.isEmpty())
 				{
 				LOG.info("Reading from stdin");
-				FastqReader fqR=new FourLinesFastqReader(stdin());
+				FastqReader fqR=new NioFastqReader(stdin());
 				run(fqR,out);
 				fqR.close();
 				}
@@ -184,7 +184,7 @@ public class FastqRevComp extends Launcher
 				{
 				File f=new File(fn);
 				LOG.info("Reading from "+f);
-				FastqReader fqR=new FourLinesFastqReader(f);
+				FastqReader fqR=new NioFastqReader(f);
 				run(fqR,out);
 				fqR.close();
 				}
@@ -32,17 +32,26 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
@@ -102,6 +111,7 @@ $ find ./testdata/ -type f -name "*.bam" | \
 ## History
 
  * 2017: moved to jcommander
+ * 2018: one multi-interval query per BAM for all the positions, option --threads
 
 END_DOC
  */
@@ -131,9 +141,18 @@ public class FindAllCoverageAtPosition extends Launcher
 	private SamRecordFilter filter = SamRecordJEXLFilter.buildDefault();
 	@Parameter(names={"-r","-R","--reference"},description="[20171201]"+Launcher.INDEXED_FASTA_REFERENCE_DESCRIPTION)
 	private File referenceFileFile=null;
+	@Parameter(names={"--threads"},description="Number of threads. The BAM files are processed in parallel. The output keeps the order of the BAM list.")
+	private int nThreads = 1;
+	@Parameter(names={"--merge"},description="Positions on the same contig separated by less than 'x' bases are fetched with the same query interval: the reads between those positions are decoded only once.")
+	private int mergeDistance = 1_000;
 	
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	private GenomicSequence genomicSequence=null;
+	/** reference base for each mutation */
+	private char mutation2refBase[] = null;
+	private ExecutorService executorService = null;
+	/** pending results, in the order of the BAM list */
+	private final Deque<Future<String>> futures = new ArrayDeque<>();
 	
 	private static class Mutation implements Comparable<Mutation>
 		{
@@ -206,22 +225,6 @@ public class FindAllCoverageAtPosition extends Launcher
     	samReaderFactory=  SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT);
     	}		
     
-    private Mutation convertFromSamHeader(final File f,SAMFileHeader h,final Mutation src)
-    	{
-    	SAMSequenceDictionary dict=h.getSequenceDictionary();
-    	if(dict==null)
-    		{
-    		LOG.warn("No dictionary in "+h);
-    		return null;
-    		}
-    	final ContigNameConverter converter = ContigNameConverter.fromOneDictionary(dict); 
-    	converter.setOnNotFound(ContigNameConverter.OnNotFound.SKIP);
-    	final String ctg =  converter.apply(src.chrom);
-    	if(ctg==null) return null;
-    	if(ctg!=null && ctg.equals(src.chrom)) return src;
-    	return new Mutation(ctg,src.pos);
-    	}
-    
     private char getReferenceAt(final String contig,int pos1) {
     	if(this.indexedFastaSequenceFile==null) return '.';
     	if(this.genomicSequence==null || !this.genomicSequence.getChrom().equals(contig)) {
@@ -238,68 +241,117 @@ public class FindAllCoverageAtPosition extends Launcher
     	return genomicSequence.charAt(pos1-1);
     	}
 
-    private void scan(final BufferedReader in,final Set<Mutation> mutations) throws Exception
+    /** the positions of one contig of a BAM, sorted on position */
+    private static class ContigTargets
+    	{
+    	final int tid;
+    	/** sorted positions */
+    	final int positions[];
+    	/** index of the mutation for each position */
+    	final int mutationIndexes[];
+    	ContigTargets(final int tid,final List<int[]> posAndIndex)
+    		{
+    		this.tid = tid;
+    		posAndIndex.sort((A,B)->Integer.compare(A[0], B[0]));
+    		this.positions = new int[posAndIndex.size()];
+    		this.mutationIndexes = new int[posAndIndex.size()];
+    		for(int i=0;i< this.positions.length;i++)
+    			{
+    			this.positions[i] = posAndIndex.get(i)[0];
+    			this.mutationIndexes[i] = posAndIndex.get(i)[1];
+    			}
+    		}
+    	/** index of the first position >= pos */
+    	int lowerBound(final int pos)
+    		{
+    		int low=0;
+    		int high=this.positions.length;
+    		while(low<high)
+    			{
+    			final int mid = (low+high)>>>1;
+    			if(this.positions[mid]<pos) { low=mid+1;} else { high=mid;}
+    			}
+    		return low;
+    		}
+    	}
+    
+    /** scan one BAM for all the mutations, returns the output lines */
+    private String scanBam(final File f,final List<Mutation> mutations) throws Exception
     	{
-
     	final String DEFAULT_SAMPLE_NAME="(undefined)";
-    	String line;
-    	while((line=in.readLine())!=null)
+    	final StringWriter sw = new StringWriter();
+    	final PrintWriter out = new PrintWriter(sw);
+		try(SamReader samReader = this.samReaderFactory.open(f))
 			{
-    		if(out.checkError()) break;
-			if(line.isEmpty() || line.startsWith("#")) continue;
-			File f=new File(line);
-			if(!f.exists()) continue;
-			if(!f.isFile()) continue;
-			if(!f.canRead()) continue;
-			String filename=f.getName();
-			if(filename.endsWith(".cram"))
+			if(!samReader.hasIndex())
 				{
-				LOG.warn("Sorry CRAM is not supported "+filename);
-				continue;
+				LOG.warn("no index for "+f);
+				return "";
 				}
-			if(!filename.endsWith(".bam")) continue;
+			final SAMFileHeader header=samReader.getFileHeader();
+			final SAMSequenceDictionary dict=header.getSequenceDictionary();
+			if(dict==null)
+				{
+				LOG.warn("No dictionary in "+f);
+				return "";
+				}
+			final ContigNameConverter converter = ContigNameConverter.fromOneDictionary(dict); 
+			converter.setOnNotFound(ContigNameConverter.OnNotFound.SKIP);
 			
-    			
-			SamReader samReader=null;
-			SAMRecordIterator iter=null;
-			try
+			/* group the positions by contig of the BAM */
+			final String bamContigs[] = new String[mutations.size()];
+			final Map<Integer,List<int[]>> tid2positions = new TreeMap<>();
+			for(int i=0;i< mutations.size();i++)
 				{
-				samReader = this.samReaderFactory.open(f);
-				if(!samReader.hasIndex())
-					{
-					LOG.warn("no index for "+f);
-					continue;
-					}
-				final SAMFileHeader header=samReader.getFileHeader();
-				for(final Mutation src:mutations)
+				final Mutation src = mutations.get(i);
+				final String ctg = converter.apply(src.chrom);
+				if(ctg==null) continue;
+				final SAMSequenceRecord ssr = dict.getSequence(ctg);
+				if(ssr==null) continue;
+				bamContigs[i] = ctg;
+				tid2positions.computeIfAbsent(ssr.getSequenceIndex(), K->new ArrayList<>()).add(new int[] {src.pos,i});
+				}
+			final ContigTargets tid2targets[] = new ContigTargets[dict.size()];
+			final List<QueryInterval> intervals = new ArrayList<>();
+			for(final Integer tid:tid2positions.keySet())
+				{
+				final ContigTargets targets = new ContigTargets(tid, tid2positions.get(tid));
+				tid2targets[tid] = targets;
+				/* close positions share the same query interval */
+				int start = -1;
+				int end = -1;
+				for(final int pos : targets.positions)
 					{
-					final Map<String, CigarAndBases> sample2count=new TreeMap<String,CigarAndBases>();
-					for(SAMReadGroupRecord rg:header.getReadGroups())
-						{
-						if(rg!=null)
-							{
-							String sn=this.groupBy.apply(rg);
-							if(sn!=null && !sn.trim().isEmpty())
-								{
-								sample2count.put(sn, new CigarAndBases());
-								}
-							}
-						}
-					
-					if(sample2count.isEmpty())
+					if(start!=-1 && pos-1 > end+this.mergeDistance)
 						{
-						sample2count.put(DEFAULT_SAMPLE_NAME, new CigarAndBases());
+						intervals.add(new QueryInterval(tid, Math.max(1,start), end));
+						start=-1;
 						}
-
-					
-					
-					final Mutation m = convertFromSamHeader(f,header,src);
-					if(m==null) continue;
-					iter=samReader.query(m.chrom, m.pos-1, m.pos+1,	false);
+					if(start==-1) start = pos-1;
+					end = pos+1;
+					}
+				if(start!=-1) intervals.add(new QueryInterval(tid, Math.max(1,start), end));
+				}
+			
+			/* counters for each mutation, created when needed */
+			@SuppressWarnings("unchecked")
+			final Map<String, CigarAndBases> mutation2counts[] = new Map[mutations.size()];
+			
+			if(!intervals.isEmpty())
+				{
+				final QueryInterval array[] = QueryInterval.optimizeIntervals(intervals.toArray(new QueryInterval[intervals.size()]));
+				try(SAMRecordIterator iter=samReader.query(array,false))
+					{
 					while(iter.hasNext())
 						{
 						final SAMRecord rec=iter.next();
 						if(rec.getReadUnmappedFlag()) continue;
+						final ContigTargets targets = tid2targets[rec.getReferenceIndex()];
+						if(targets==null) continue;
+						/* positions in [start-1,end+1] like the query for one position */
+						final int lo = targets.lowerBound(rec.getAlignmentStart()-1);
+						final int hi = targets.lowerBound(rec.getAlignmentEnd()+2);
+						if(lo>=hi) continue;
 						if(this.filter.filterOut(rec)) continue;
 						final Cigar cigar=rec.getCigar();
 						if(cigar==null) continue;
@@ -308,23 +360,17 @@ public class FindAllCoverageAtPosition extends Launcher
 						final SAMReadGroupRecord rg=rec.getReadGroup();
 						if(rg!=null)
 							{
-							String sn= groupBy.apply(rg);
+							final String sn= groupBy.apply(rg);
 							if(!StringUtil.isBlank(sn))
 								{
 								sampleName=sn;
 								}
 							}
-						CigarAndBases counter= sample2count.get(sampleName);
-						if(counter==null)
-							{
-							counter=new CigarAndBases();
-							sample2count.put(sampleName, counter);
-							}	
-						
 						
+						int cursor = lo;
 						int ref= rec.getUnclippedStart();
 						int readPos = 0;
-						for(int k=0;k<cigar.numCigarElements() && ref< m.pos+1;++k)
+						for(int k=0;k<cigar.numCigarElements() && cursor< hi;++k)
 							{
 							final CigarElement ce=cigar.getCigarElement(k);
 							final CigarOperator op=ce.getOperator();
@@ -333,8 +379,10 @@ public class FindAllCoverageAtPosition extends Launcher
 								case P: break;
 								case I: 
 									{
-									if(ref==m.pos)
+									/* insertion before the reference base 'ref' */
+									for(int j=cursor;j< hi && targets.positions[j]==ref;++j)
 										{
+										final CigarAndBases counter = getCounter(mutation2counts, targets.mutationIndexes[j], sampleName);
 										counter.operators.incr(op);
 										counter.bases.incr(INSERTION_CHAR);
 										}
@@ -346,86 +394,158 @@ public class FindAllCoverageAtPosition extends Launcher
 								case H:
 								case S:
 									{
-									for(int i=0;i< ce.getLength();++i )
+									final int end = ref + ce.getLength();
+									while(cursor< hi && targets.positions[cursor] < end)
 										{
-										if(ref==m.pos)
+										final int pos = targets.positions[cursor];
+										if(pos>=ref)
 											{
+											final CigarAndBases counter = getCounter(mutation2counts, targets.mutationIndexes[cursor], sampleName);
 											counter.operators.incr(op);
 											switch(op)
 												{
 												case M:case X:case EQ:
-													counter.bases.incr(readString.charAt(readPos));
+													counter.bases.incr(readString.charAt(readPos+(pos-ref)));
 													break;
 												case D:case N:
 													counter.bases.incr(DELETION_CHAR);
 													break;
 												default:break;
 												}
-											break;
-											}	
-										if(op.consumesReadBases()) ++readPos;
-										ref++;
+											}
+										cursor++;
 										}
+									if(op.consumesReadBases()) readPos += ce.getLength();
+									ref = end;
 									break;
 									}
 								default: throw new RuntimeException("unknown operator:"+op);
 								}
 							}
 						}
-					iter.close();
-					iter=null;
-						
-					
-					for(final String sample:sample2count.keySet())
+					}
+				}
+			
+			/* samples defined in the read groups are always printed */
+			final Set<String> rgSamples = new TreeSet<>();
+			for(final SAMReadGroupRecord rg:header.getReadGroups())
+				{
+				if(rg!=null)
+					{
+					final String sn=this.groupBy.apply(rg);
+					if(sn!=null && !sn.trim().isEmpty())
 						{
-						final CigarAndBases counter= sample2count.get(sample);
-						
-						out.print(f);
-						out.print('\t');
-						out.print(m.chrom);
+						rgSamples.add(sn);
+						}
+					}
+				}
+			if(rgSamples.isEmpty())
+				{
+				rgSamples.add(DEFAULT_SAMPLE_NAME);
+				}
+			
+			for(int i=0;i< mutations.size();i++)
+				{
+				if(bamContigs[i]==null) continue;
+				final Mutation m = mutations.get(i);
+				final Map<String, CigarAndBases> sample2count=new TreeMap<String,CigarAndBases>();
+				for(final String sn:rgSamples) sample2count.put(sn, new CigarAndBases());
+				if(mutation2counts[i]!=null) sample2count.putAll(mutation2counts[i]);
+					
+				for(final String sample:sample2count.keySet())
+					{
+					final CigarAndBases counter= sample2count.get(sample);
+					
+					out.print(f);
+					out.print('\t');
+					out.print(bamContigs[i]);
+					out.print('\t');
+					out.print(m.pos);
+					
+					if(this.indexedFastaSequenceFile!=null) {
 						out.print('\t');
-						out.print(m.pos);
-						
-						if(this.indexedFastaSequenceFile!=null) {
-							out.print('\t');
-							out.print(getReferenceAt(m.chrom,m.pos));
-							}
-						
+						out.print(this.mutation2refBase[i]);
+						}
+					
+					out.print('\t');
+					out.print(sample);
+					out.print('\t');
+					out.print(
+							counter.operators.count(CigarOperator.M)+
+							counter.operators.count(CigarOperator.EQ)+
+							counter.operators.count(CigarOperator.X)
+							);
+					for(final CigarOperator op:CigarOperator.values())
+						{
 						out.print('\t');
-						out.print(sample);
+						out.print(counter.operators.count(op));
+						}
+					for(char c:BASES_To_PRINT)
+						{
 						out.print('\t');
-						out.print(
-								counter.operators.count(CigarOperator.M)+
-								counter.operators.count(CigarOperator.EQ)+
-								counter.operators.count(CigarOperator.X)
-								);
-						for(final CigarOperator op:CigarOperator.values())
-							{
-							out.print('\t');
-							out.print(counter.operators.count(op));
-							}
-						for(char c:BASES_To_PRINT)
-							{
-							out.print('\t');
-							out.print(counter.bases.count(c));
-							}
-						
-						out.println();
+						out.print(counter.bases.count(c));
 						}
-					}//end of loop over mutations
+					
+					out.println();
+					}
+				}//end of loop over mutations
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			throw err;
+			}
+		out.flush();
+		return sw.toString();
+		}
+    
+    private static CigarAndBases getCounter(final Map<String, CigarAndBases> mutation2counts[],final int mutationIndex,final String sampleName)
+    	{
+    	Map<String, CigarAndBases> sample2count = mutation2counts[mutationIndex];
+    	if(sample2count==null)
+    		{
+    		sample2count = new HashMap<>();
+    		mutation2counts[mutationIndex] = sample2count;
+    		}
+    	CigarAndBases counter= sample2count.get(sampleName);
+		if(counter==null)
+			{
+			counter=new CigarAndBases();
+			sample2count.put(sampleName, counter);
+			}
+		return counter;
+    	}
+    
+    private void scan(final BufferedReader in,final List<Mutation> mutations) throws Exception
+    	{
+    	String line;
+    	while((line=in.readLine())!=null)
+			{
+    		if(this.out.checkError()) break;
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			final File f=new File(line);
+			if(!f.exists()) continue;
+			if(!f.isFile()) continue;
+			if(!f.canRead()) continue;
+			final String filename=f.getName();
+			if(filename.endsWith(".cram"))
+				{
+				LOG.warn("Sorry CRAM is not supported "+filename);
+				continue;
 				}
-			catch(final Exception err)
+			if(!filename.endsWith(".bam")) continue;
+			if(this.executorService==null)
 				{
-				LOG.error(err);
-				throw err;
+				this.out.print(scanBam(f,mutations));
+				continue;
 				}
-			finally
+			this.futures.add(this.executorService.submit(()->scanBam(f,mutations)));
+			/* bounded number of pending BAMs */
+			while(this.futures.size() >= this.nThreads*2 || (!this.futures.isEmpty() && this.futures.peek().isDone()))
 				{
-				CloserUtil.close(iter);
-				CloserUtil.close(samReader);
-				}    				
-			}		
-	    
+				this.out.print(this.futures.poll().get());
+				}
+			}
     	}
     
     @Override
@@ -436,6 +556,14 @@ public class FindAllCoverageAtPosition extends Launcher
 		BufferedReader r = null;
 		try
 			{
+			if(this.nThreads<1) {
+				LOG.error("bad number of threads");
+				return -1;
+				}
+			if(this.mergeDistance<0) {
+				LOG.error("bad merge distance");
+				return -1;
+				}
 			if(this.referenceFileFile!=null) {
 				this.indexedFastaSequenceFile = new IndexedFastaSequenceFile(this.referenceFileFile);
 				}
@@ -486,6 +614,22 @@ public class FindAllCoverageAtPosition extends Launcher
 				}
 		
 			LOG.info("number of mutations "+mutations.size());
+			/* sorted on chrom/pos */
+			final List<Mutation> mutationList = new ArrayList<>(mutations);
+			mutations.clear();
+			if(this.indexedFastaSequenceFile!=null)
+				{
+				this.mutation2refBase = new char[mutationList.size()];
+				for(int i=0;i< mutationList.size();i++)
+					{
+					final Mutation m = mutationList.get(i);
+					this.mutation2refBase[i] = getReferenceAt(m.chrom,m.pos);
+					}
+				}
+			if(this.nThreads>1)
+				{
+				this.executorService = Executors.newFixedThreadPool(this.nThreads);
+				}
 			
 			
 			this.out=this.openFileOrStdoutAsPrintWriter(this.outputFile);
@@ -524,7 +668,7 @@ public class FindAllCoverageAtPosition extends Launcher
 				{
 				LOG.info("Reading from stdin");
 				r = new BufferedReader(new InputStreamReader(stdin()));
-				scan(r,mutations);
+				scan(r,mutationList);
 				r.close();
 				r=null;
 				}
@@ -534,11 +678,15 @@ public class FindAllCoverageAtPosition extends Launcher
 					{
 					LOG.info("Reading from "+filename);
 					r=IOUtils.openURIForBufferedReading(filename);
-					scan(r,mutations);
+					scan(r,mutationList);
 					r.close();
 					r=null;
 					}
 				}
+			while(!this.futures.isEmpty())
+				{
+				this.out.print(this.futures.poll().get());
+				}
 			this.out.flush();
 			return 0;
 			}
@@ -549,6 +697,7 @@ public class FindAllCoverageAtPosition extends Launcher
 			}
 		finally
 			{
+			if(this.executorService!=null) this.executorService.shutdownNow();
 			CloserUtil.close(this.indexedFastaSequenceFile);
 			CloserUtil.close(this.out);
 			CloserUtil.close(r);
@@ -106,7 +106,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.NioFastqReader;
 @Program(name="ilmnfastqstats",description="Reads filenames from stdin: Count FASTQs in Illumina Result.")
 public class IlluminaStatsFastq
 	extends Launcher
@@ -232,7 +232,7 @@ public class IlluminaStatsFastq
 				FastqReader r=null;
 				try
 					{
-					r=new FourLinesFastqReader(f);
+					r=new NioFastqReader(f);
 					r.setValidationStringency(ValidationStringency.LENIENT);
 					while(r.hasNext())
 						{
@@ -39,7 +39,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.NioFastqReader;
 /*
 BEGIN_DOC
 
@@ -151,7 +151,7 @@ public class PadEmptyFastq extends Launcher
 			if(args.isEmpty())
 				{
 				LOG.info("Reading from stdin");
-				FastqReader fqr=new FourLinesFastqReader(stdin());
+				FastqReader fqr=new NioFastqReader(stdin());
 				copyTo(fqr,fqw);
 				fqr.close();
 				}
@@ -160,7 +160,7 @@ public class PadEmptyFastq extends Launcher
 				for(final String filename:args)
 					{
 					LOG.info("Reading from "+filename);
-					final FastqReader fqr=new FourLinesFastqReader(new File(filename));
+					final FastqReader fqr=new NioFastqReader(new File(filename));
 					copyTo(fqr,fqw);
 					fqr.close();
 					}
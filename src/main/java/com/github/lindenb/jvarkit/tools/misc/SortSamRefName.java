@@ -36,13 +36,13 @@ import htsjdk.samtools.SAMRecordQueryNameComparator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Comparator;
 import java.util.List;
 
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -131,7 +131,7 @@ public class SortSamRefName extends Launcher
 		SAMFileWriter out=null;
 		SAMRecordIterator iter=null;
 		CloseableIterator<SAMRecord> iter2=null;
-		SortingCollection<SAMRecord> sorter=null;
+		ParallelSortingCollection<SAMRecord> sorter=null;
 		try
 			{
 			in  = openSamReader(oneFileOrNull(args));
@@ -139,12 +139,10 @@ public class SortSamRefName extends Launcher
 			
 			final BAMRecordCodec bamRecordCodec=new BAMRecordCodec(header);
 			final RefNameComparator refNameComparator=new RefNameComparator();
-			sorter =SortingCollection.newInstance(
+			sorter =this.writingSortingCollection.make(
 					SAMRecord.class,
 					bamRecordCodec,
-					refNameComparator,
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
+					refNameComparator
 					);
 			sorter.setDestructiveIteration(true);
 			
@@ -39,7 +39,6 @@ import java.util.Random;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
@@ -50,6 +49,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 /**
 BEGIN_DOC
@@ -125,7 +125,7 @@ public class VCFShuffle extends Launcher
 	@Override
 	public int doWork(final List<String> args) {
 		if(seed==-1L) seed= System.currentTimeMillis();
-		SortingCollection<RLine> shuffled=null;
+		ParallelSortingCollection<RLine> shuffled=null;
 		VariantContextWriter out=null;
 		BufferedReader lr=null;
 		try
@@ -142,16 +142,14 @@ public class VCFShuffle extends Launcher
 			out.writeHeader(header);
 			LOG.info("shuffling");
 			
-			shuffled=SortingCollection.newInstance(
+			shuffled=this.writingSortingCollection.make(
 					RLine.class,
 					new RLineCodec(),
 					(o1,o2)->{
 						final int i= Long.compare(o1.rand, o2.rand);
 						if(i!=0) return i;
 						return o1.line.compareTo(o2.line);
-						},
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
+						}
 					);
 			shuffled.setDestructiveIteration(true);
 			String line;
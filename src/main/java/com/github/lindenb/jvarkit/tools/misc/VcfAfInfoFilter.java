@@ -240,6 +240,11 @@ public class VcfAfInfoFilter extends Launcher{
 		return Double.parseDouble(s);
 		}
 	
+	@Override
+	protected boolean isRawGenotypesPassthrough() {
+		return true;
+		}
+	
 	@Override
 	protected int doVcfToVcf(
 			final String inputName,
@@ -374,6 +374,11 @@ public class VcfCadd extends Launcher
 		return this.annoField2linecount.getOrDefault(field, VCFHeaderLineCount.UNBOUNDED);
 	}
 	
+	@Override
+	protected boolean isRawGenotypesPassthrough() {
+		return true;
+		}
+	
 	@Override
 	protected int doVcfToVcf(final String inputName, VcfIterator in, VariantContextWriter out) {
 			
@@ -1,25 +1,24 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
-import htsjdk.samtools.util.BlockCompressedInputStream;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
-import htsjdk.variant.vcf.AbstractVCFCodec;
-import htsjdk.variant.vcf.VCFHeader;
 
 import java.io.BufferedReader;
-import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.vcflist.VcfList;
+import com.github.lindenb.jvarkit.tools.vcflist.VcfOffsetsIndexFactory;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 /**
 BEGIN_DOC
 
@@ -33,6 +32,10 @@ java -jar dist/vcfgetvariantbyindex.jar -i index.list input.vcf.gz > output.vcf
 
 ```
 
+The offsets of the variants are stored in a file `*.offsets` next to the VCF, created if needed.
+The indexes are read by batches: in each batch, the variants are fetched in the order of the file
+and, with `--threads`, decoded in parallel. The output keeps the order of the list of indexes.
+
 END_DOC
 */
 @Program(name="vcfgetvariantbyIndex",
@@ -47,212 +50,23 @@ public class VcfGetVariantByIndex extends Launcher
 	@Parameter(names="-i",description=" (file) list of 1-based indexes")
 	private File fileListOfIndexes=null;
 	
-	private static final String STANDARD_EXTENSION=".ith";
-	private static abstract class IndexFile
-		implements Closeable
-		{
-		protected File vcfFile;
-		protected File indexFile;
-		protected VCFUtils.CodecAndHeader cah;
-		private RandomAccessFile rafile;
-		private long count=0L;
-		public IndexFile(File vcfFile) throws IOException
-			{
-			this.vcfFile=vcfFile;
-			this.indexFile = new File(
-					vcfFile.getParentFile(),
-					vcfFile.getName()+STANDARD_EXTENSION
-					);
-			}
-		public VCFHeader getHeader() {
-			return cah.header;
-			}
-		public AbstractVCFCodec getCodec()
-			{
-			return cah.codec;
-			}
-		
-		public abstract int read() throws IOException;
-		
-		protected  String readLine() throws IOException
-			{
-	        StringBuffer buf = new StringBuffer();
-	        int c;
-	        while ((c = this.read()) >= 0 && c != '\n')
-	            buf.append((char) c);
-	        if (c < 0) return null;
-	        return buf.toString();
-			}
-		
-		public void open() throws IOException
-			{
-			if(this.indexFile.exists())
-				{
-				LOG.info("Index exists reading "+this.indexFile);
-				openForReading();
-				}
-			else
-				{
-				LOG.info("Writing index for "+this.indexFile);
-				openForBuilding();
-				}
-			}
-		
-		protected abstract void openVcfFile() throws IOException;
-		protected abstract long getFilePointer() throws IOException;
-		private void openForBuilding() throws IOException
-			{
-			try
-				{
-				this.rafile=new RandomAccessFile(this.indexFile,"rw");
-				openVcfFile();
-				
-				String line=null;
-				List<String> headerLines=new ArrayList<>();
-				while((line=readLine())!=null)
-					{
-					headerLines.add(line);
-					if(line.startsWith("#CHROM"))  break;
-					}
-				VCFUtils.CodecAndHeader cah = VCFUtils.parseHeader(headerLines);
-				this.cah=cah;
-				this.count=0L;
-				long virtualPtr=this.getFilePointer();
-				while((line=readLine())!=null)
-					{
-					this.rafile.writeLong(virtualPtr);
-					this.count++;
-					virtualPtr=this.getFilePointer();
-					}
-				}
-			catch(Exception err)
-				{
-				throw new IOException(err);
-				}
-			}
-		
-		private void openForReading() throws IOException
-			{
-			try
-				{
-				this.rafile=new RandomAccessFile(this.indexFile,"r");
-				openVcfFile();
-				String line=null;
-				List<String> headerLines=new ArrayList<>();
-				while((line=readLine())!=null)
-					{
-					headerLines.add(line);
-					if(line.startsWith("#CHROM"))  break;
-					}
-				VCFUtils.CodecAndHeader cah = VCFUtils.parseHeader(headerLines);
-				this.cah=cah;
-				
-				this.count = (this.indexFile.length()/8L);
-				}
-			catch(Exception err)
-				{
-				throw new IOException(err);
-				}
-			}
-		
-		public long getVirtualPtr(long index) throws IOException
-			{
-			if(index<0 || index>=this.count) throw new IndexOutOfBoundsException();
-			this.rafile.seek(index*8);//8 =sizeof(long)
-			return this.rafile.readLong();
-			}
-		
-		public abstract String getLine(long index)   throws IOException;
-
-		
-		public long size()
-			{
-			return count;
-			}
-		@Override
-		public void close() throws IOException {
-			CloserUtil.close(this.rafile);
-			this.rafile=null;
-			this.cah=null;
-			this.count=0;
-			}
-		}
+	@Parameter(names="--threads",description="Number of threads decoding the variants.")
+	private int nThreads=1;
+	@Parameter(names="--batch",description="Number of indexes fetched at once. The variants of a batch are fetched in the order of the file.")
+	private int batchSize=100_000;
 	
-	private static class BGZIndexFile extends IndexFile
+	/** fetch and write a batch of indexes */
+	private void flush(final VcfList vcfList,final int indexes[],final int count,final ExecutorService executorService,final VariantContextWriter w)
 		{
-		private BlockCompressedInputStream bgzin=null;
-		BGZIndexFile(File f) throws IOException
-			{
-			super(f);
-			}
-		@Override
-		protected void openVcfFile() throws IOException {
-			this.bgzin = new BlockCompressedInputStream(this.vcfFile);
-			}
-		
-		@Override
-		public void close() throws IOException {
-			super.close();
-			CloserUtil.close(this.bgzin);
-			this.bgzin=null;
-			}
-		@Override
-		public  int read() throws IOException
-			{
-			return this.bgzin.read();
-			}
-		@Override
-		public String getLine(long index)   throws IOException
+		if(count==0) return;
+		for(final VariantContext ctx: vcfList.getAll(Arrays.copyOf(indexes, count), executorService))
 			{
-			long offset = getVirtualPtr(index);
-			this.bgzin.seek(offset);
-			return readLine();
+			w.add(ctx);
 			}
-		@Override
-		protected long getFilePointer()  throws IOException {
-			return this.bgzin.getFilePointer();
-			}
-
 		}
-	private static class RandomAccessIndexFile extends IndexFile
-		{
-		RandomAccessFile vcfraf=null;
-		RandomAccessIndexFile(File f) throws IOException
-			{
-			super(f);
-			}
-		
-		@Override
-		protected void openVcfFile() throws IOException {
-			this.vcfraf=new RandomAccessFile(this.vcfFile, "r");
-			}
-		
-		@Override
-		public void close() throws IOException {
-			super.close();
-			CloserUtil.close(this.vcfraf);
-			this.vcfraf=null;
-			}
-		@Override
-		public  int read() throws IOException
-			{
-			return this.vcfraf.read();
-			}
-		@Override
-		public String getLine(long index)   throws IOException
-			{
-			long offset = getVirtualPtr(index);
-			this.vcfraf.seek(offset);
-			return readLine();
-			}
-		@Override
-		protected long getFilePointer() throws IOException {
-			return this.vcfraf.getFilePointer();
-			}
-
-		}
-
-	public int doWork(List<String> args) {
+	
+	@Override
+	public int doWork(final List<String> args) {
 		if(this.fileListOfIndexes==null)
 			{
 			LOG.error("undefined list of indexes");
@@ -263,34 +77,38 @@ public class VcfGetVariantByIndex extends Launcher
 			LOG.error("Expected only one vcf file on input");
 			return -1;
 			}
-		File vcfFile=new File(args.get(0));
+		if(this.nThreads<1 || this.batchSize<1)
+			{
+			LOG.error("bad number of threads or bad batch size");
+			return -1;
+			}
+		final File vcfFile=new File(args.get(0));
 		VariantContextWriter w=null;
-		IndexFile indexFile=null;
+		VcfList vcfList=null;
 		BufferedReader r=null;
+		ExecutorService executorService = null;
 		String line;
 		try {
 			LOG.info("Opening "+vcfFile);
 			
-			if(vcfFile.getName().endsWith(".vcf.gz"))
-				{
-				indexFile = new BGZIndexFile(vcfFile);
-				}
-			else if(vcfFile.getName().endsWith(".vcf"))
-				{
-				indexFile = new RandomAccessIndexFile(vcfFile);
-				}
-			else
+			if(!(vcfFile.getName().endsWith(".vcf.gz") || vcfFile.getName().endsWith(".vcf")))
 				{
 				LOG.error("Not a .vcf or .vcf.gz file: "+vcfFile);
 				return -1;
 				}
-
-			
-			indexFile.open();
+			final File indexFile = new VcfOffsetsIndexFactory().
+					setLogger(LOG).
+					indexVcfFileIfNeeded(vcfFile);
+			vcfList = VcfList.fromFile(vcfFile, indexFile);
+			if(this.nThreads>1)
+				{
+				executorService = Executors.newFixedThreadPool(this.nThreads);
+				}
 			w = super.openVariantContextWriter(outputFile);
-		
 			
-			w.writeHeader(indexFile.getHeader());
+			w.writeHeader(vcfList.getHeader());
+			final int indexes[] = new int[this.batchSize];
+			int count = 0;
 			r=IOUtils.openFileForBufferedReading(fileListOfIndexes);
 			while((line=r.readLine())!=null)
 				{
@@ -304,14 +122,19 @@ public class VcfGetVariantByIndex extends Launcher
 					continue;
 					}
 				ith--;//0-based index
-				if(ith<0 || ith>=indexFile.size())
+				if(ith<0 || ith>=vcfList.size())
 					{
 					LOG.error("Index out of bound in "+line+" ignoring");
 					continue;
 					}
-				String varStr = indexFile.getLine(ith);
-				w.add(indexFile.getCodec().decode(varStr));
+				indexes[count++] = (int)ith;
+				if(count==indexes.length)
+					{
+					flush(vcfList, indexes, count, executorService, w);
+					count = 0;
+					}
 				}
+			flush(vcfList, indexes, count, executorService, w);
 			} 
 		catch (Exception e)
 			{
@@ -320,7 +143,8 @@ public class VcfGetVariantByIndex extends Launcher
 			}
 		finally
 			{
-			CloserUtil.close(indexFile);
+			if(executorService!=null) executorService.shutdownNow();
+			CloserUtil.close(vcfList);
 			CloserUtil.close(w);
 			CloserUtil.close(r);
 			}
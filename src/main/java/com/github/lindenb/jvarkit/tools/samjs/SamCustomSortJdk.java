@@ -42,6 +42,7 @@ import com.github.lindenb.jvarkit.util.illumina.ShortReadName;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.BAMRecordCodec;
@@ -57,7 +58,6 @@ import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Iso8601Date;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 
 
@@ -228,7 +228,7 @@ public class SamCustomSortJdk
 		SAMRecordIterator iter=null;
 		SamReader samFileReader=null;
 		SAMFileWriter sw=null;
-		SortingCollection<SAMRecord> sorter=null;
+		ParallelSortingCollection<SAMRecord> sorter=null;
 		CloseableIterator<SAMRecord> iter2=null;
 		try
 			{
@@ -329,12 +329,10 @@ public class SamCustomSortJdk
 			final StableSort customComparator = new StableSort(( Comparator<SAMRecord>)ctor.newInstance(headerIn));
 			final BAMRecordCodec bamRecordCodec=new BAMRecordCodec(headerIn);
 			
-			sorter =SortingCollection.newInstance(
+			sorter =this.writingSortingCollection.make(
 						SAMRecord.class,
 						bamRecordCodec,
-						customComparator,
-						this.writingSortingCollection.getMaxRecordsInRam(),
-						this.writingSortingCollection.getTmpPaths()
+						customComparator
 						);
 			sorter.setDestructiveIteration(true);
 			
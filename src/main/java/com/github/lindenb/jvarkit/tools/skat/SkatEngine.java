@@ -0,0 +1,505 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.skat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+import com.github.lindenb.jvarkit.math.SymmetricEigenvalues;
+import com.github.lindenb.jvarkit.math.stats.ChiSquared;
+import com.github.lindenb.jvarkit.math.stats.DaviesQuadraticForm;
+
+/**
+ * In-process implementation of the SKAT and SKAT-O tests for a dichotomous phenotype
+ * without covariate and a 'linear.weighted' kernel, following the R package SKAT
+ * ( SKAT.logistic.Linear , SKAT_Optimal_Logistic ). P-values are computed using
+ * the Davies method with a fallback to the Liu method, like R.
+ * 
+ * All the methods are static and don't share any state: they can be called from any thread.
+ */
+public class SkatEngine {
+	/** accuracy used by SKAT when calling 'davies' */
+	private static final double DAVIES_ACCURACY = 1E-6;
+	/** values of rho for method 'optimal.adj' , 1 is replaced by 0.999 */
+	private static final double RHOS[] = {0, 0.1*0.1, 0.2*0.2, 0.3*0.3, 0.5*0.5, 0.5, 0.999};
+
+	private SkatEngine() {
+		}
+
+	/** parameters of the Liu approximation */
+	private static class LiuParams {
+		final double muQ;
+		final double sigmaQ;
+		final double muX;
+		final double sigmaX;
+		final double l;
+		final double d;
+		LiuParams(final double lambda[]) {
+			final double c1[]=new double[4];
+			for(final double v: lambda) {
+				double p = v;
+				for(int i=0;i< 4;i++) {
+					c1[i] += p;
+					p *= v;
+					}
+				}
+			this.muQ = c1[0];
+			this.sigmaQ = Math.sqrt(2.0 * c1[1]);
+			final double s1 = c1[2] / Math.pow(c1[1], 1.5);
+			final double s2 = c1[3] / (c1[1]*c1[1]);
+			final double a;
+			if(s1*s1 > s2) {
+				a = 1.0/(s1 - Math.sqrt(s1*s1 - s2));
+				this.d = s1 * a*a*a - a*a;
+				this.l = a*a - 2.0*this.d;
+				}
+			else
+				{
+				this.l = 1.0/s2;
+				a = Math.sqrt(this.l);
+				this.d = 0;
+				}
+			this.muX = this.l + this.d;
+			this.sigmaX = Math.sqrt(2.0) * a;
+			}
+		/** Get_Liu_PVal.MOD.Lambda */
+		double pvalue(final double q) {
+			final double qNorm = (q - this.muQ)/this.sigmaQ;
+			return ChiSquared.upperTail(qNorm * this.sigmaX + this.muX, this.l, this.d);
+			}
+		}
+
+	/** parameters of the mixture for SKAT-O: SKAT_Optimal_Param */
+	private static class OptimalParams {
+		double lambda[];
+		double muQ;
+		double varQ;
+		double varRemain;
+		double df;
+		double tau[];
+		}
+
+	/** eigenvalues of X'X (X is rows x cols) keeping the positive values like SKAT's Get_Lambda */
+	static double[] getLambda(final double X[][],final int ncols) {
+		final int nrows = X.length;
+		final double gram[][];
+		/* X'X and XX' have the same non-null eigenvalues: use the smallest */
+		if(ncols <= nrows) {
+			gram = new double[ncols][ncols];
+			for(int i=0;i< ncols;i++) {
+				for(int j=i;j< ncols;j++) {
+					double s = 0;
+					for(int k=0;k< nrows;k++) s += X[k][i]*X[k][j];
+					gram[i][j] = gram[j][i] = s;
+					}
+				}
+			}
+		else
+			{
+			gram = new double[nrows][nrows];
+			for(int i=0;i< nrows;i++) {
+				for(int j=i;j< nrows;j++) {
+					double s = 0;
+					for(int k=0;k< ncols;k++) s += X[i][k]*X[j][k];
+					gram[i][j] = gram[j][i] = s;
+					}
+				}
+			}
+		final double values[] = SymmetricEigenvalues.compute(gram);
+		double sum = 0;
+		int npos = 0;
+		for(final double v:values) {
+			if(v>=0) {sum+=v;npos++;}
+			}
+		final double threshold = (npos==0?0:sum/npos)/100_000.0;
+		final List<Double> L = new ArrayList<>(values.length);
+		for(final double v:values) {
+			if(v > threshold) L.add(v);
+			}
+		return L.stream().mapToDouble(D->D).toArray();
+		}
+
+	/** Get_PValue.Lambda: Davies method, Liu if Davies failed or if there is only one eigenvalue */
+	static double pvalueLambda(final double lambda[],final double q) {
+		final double pLiu = new LiuParams(lambda).pvalue(q);
+		if(lambda.length==1) return pLiu;
+		final DaviesQuadraticForm.Result rez = DaviesQuadraticForm.upperTail(lambda, q, DAVIES_ACCURACY);
+		final double p = rez.getUpperTail();
+		if(p > 1.0 || p <= 0.0) return pLiu;
+		return p;
+		}
+
+	/**
+	 * compute the p-value
+	 * @param genotypes genotypes[sample][variant] number of ALT alleles (0,1,2)
+	 * @param phenotypes  1: case, 0: control
+	 * @param weights one weight per variant
+	 * @param optimal use SKAT-O rather than SKAT
+	 * @return the p-value
+	 */
+	public static double pvalue(final double genotypes[][],final double phenotypes[],final double weights[],final boolean optimal) {
+		final int nSamples = phenotypes.length;
+		if(nSamples==0) throw new IllegalArgumentException("no sample");
+		if(genotypes.length!=nSamples) throw new IllegalArgumentException("genotypes.length!=phenotypes.length");
+		
+		/* like SKAT_MAIN_Check_Z: flip the variants having a MAF>0.5, remove the monomorphic variants */
+		final List<Integer> keep = new ArrayList<>(weights.length);
+		final boolean flip[] = new boolean[weights.length];
+		for(int j=0;j< weights.length;j++) {
+			double sum = 0;
+			for(int i=0;i< nSamples;i++) sum += genotypes[i][j];
+			final double maf = sum/(2.0*nSamples);
+			flip[j] = maf > 0.5;
+			if(maf > 0.0 && maf < 1.0) keep.add(j);
+			}
+		final int nVariants = keep.size();
+		if(nVariants==0) return 1.0;
+		
+		/* null model: logistic regression with the intercept only */
+		double mu = 0;
+		for(final double y:phenotypes) mu+=y;
+		mu /= nSamples;
+		final double pi1 = mu*(1.0-mu);
+		if(pi1<=0) throw new IllegalArgumentException("all the samples have the same phenotype");
+		
+		/* weighted genotypes Z, score res'Z, and Z1=P0^1/2 Z/sqrt(2) */
+		final double score[] = new double[nVariants];
+		final double Z1[][] = new double[nSamples][nVariants];
+		for(int k=0;k< nVariants;k++) {
+			final int j = keep.get(k);
+			double colSum = 0;
+			for(int i=0;i< nSamples;i++) {
+				double g = genotypes[i][j];
+				if(flip[j]) g = 2.0 - g;
+				g *= weights[j];
+				Z1[i][k] = g;
+				colSum += g;
+				score[k] += (phenotypes[i]-mu) * g;
+				}
+			final double colMean = colSum/nSamples;
+			final double scale = Math.sqrt(pi1/2.0);
+			for(int i=0;i< nSamples;i++) {
+				Z1[i][k] = (Z1[i][k] - colMean) * scale;
+				}
+			}
+		/* like R: with only one variant, SKAT-O is SKAT (r.corr=0) */
+		if(!optimal || nVariants==1) {
+			double q = 0;
+			for(final double s:score) q += s*s;
+			return pvalueLambda(getLambda(Z1, nVariants), q/2.0);
+			}
+		return pvalueOptimal(Z1, nVariants, score);
+		}
+
+	/** SKAT_Optimal_Logistic */
+	private static double pvalueOptimal(final double Z1[][],final int nVariants,final double score[]) {
+		final int nSamples = Z1.length;
+		final int nRho = RHOS.length;
+		/* SKAT_Optimal_Get_Q */
+		double sumSq = 0;
+		double sum = 0;
+		for(final double s:score) {
+			sumSq += s*s;
+			sum += s;
+			}
+		final double Q[] = new double[nRho];
+		for(int r=0;r< nRho;r++) {
+			Q[r] = ((1.0-RHOS[r])*sumSq + RHOS[r]*sum*sum)/2.0;
+			}
+
+		/* SKAT_Optimal_Get_Pvalue: eigenvalues for each rho: Z1 * t(chol(R.M)) */
+		final List<double[]> lambdas = new ArrayList<>(nRho);
+		for(int r=0;r< nRho;r++) {
+			final double L[][] = choleskyOfCorrelation(RHOS[r], nVariants);
+			final double Z2[][] = new double[nSamples][nVariants];
+			for(int i=0;i< nSamples;i++) {
+				for(int j=0;j< nVariants;j++) {
+					double s = 0;
+					/* L is lower triangular: t(U) */
+					for(int k=j;k< nVariants;k++) s += Z1[i][k]*L[k][j];
+					Z2[i][j] = s;
+					}
+				}
+			lambdas.add(getLambda(Z2, nVariants));
+			}
+		final OptimalParams param = optimalParams(Z1, nVariants);
+
+		/* SKAT_Optimal_Each_Q */
+		final double pvals[] = new double[nRho];
+		final double paramMat[][] = new double[nRho][];
+		double pmin = 1.0;
+		for(int r=0;r< nRho;r++) {
+			final double lambda[] = lambdas.get(r);
+			final LiuParams liu = new LiuParams(lambda);
+			paramMat[r] = new double[]{liu.muQ, liu.sigmaQ*liu.sigmaQ, liu.l};
+			pvals[r] = pvalueLambda(lambda, Q[r]);
+			pmin = Math.min(pmin, pvals[r]);
+			}
+		final double pminQ[] = new double[nRho];
+		for(int r=0;r< nRho;r++) {
+			final double muQ = paramMat[r][0];
+			final double varQ = paramMat[r][1];
+			final double df = paramMat[r][2];
+			final double qOrg = (1.0 - pmin == 1.0 ? Double.POSITIVE_INFINITY : ChiSquared.upperTailQuantile(pmin, df));
+			pminQ[r] = (qOrg - df)/Math.sqrt(2.0*df) * Math.sqrt(varQ) + muQ;
+			}
+		
+		double pvalue;
+		try {
+			pvalue = pvalueOptimalDavies(pminQ, param, pmin);
+			}
+		catch(final ArithmeticException err) {
+			pvalue = pvalueOptimalLiu(pminQ, param, pmin);
+			}
+		
+		/* SKAT-O p-value should be <= min(p-values) * 2, use min(p-values) * 3 */
+		final int multi = (nRho < 3 ? 2 : 3);
+		boolean allPositive = true;
+		double minPositive = Double.MAX_VALUE;
+		for(final double p:pvals) {
+			if(p>0) {
+				minPositive = Math.min(minPositive, p);
+				}
+			else
+				{
+				allPositive = false;
+				}
+			}
+		if(pvalue <= 0 || !allPositive) {
+			pvalue = pmin * multi;
+			}
+		if(pvalue == 0 && minPositive!=Double.MAX_VALUE) {
+			pvalue = minPositive;
+			}
+		return pvalue;
+		}
+
+	/** lower triangular L with L L' = R.M = (1-rho) I + rho 11' */
+	private static double[][] choleskyOfCorrelation(final double rho,final int n) {
+		final double L[][] = new double[n][n];
+		for(int i=0;i< n;i++) {
+			for(int j=0;j<=i;j++) {
+				double s = (i==j?1.0:rho);
+				for(int k=0;k< j;k++) s -= L[i][k]*L[j][k];
+				if(i==j) {
+					if(s<=0) throw new ArithmeticException("matrix is not positive definite");
+					L[i][i] = Math.sqrt(s);
+					}
+				else
+					{
+					L[i][j] = s/L[j][j];
+					}
+				}
+			}
+		return L;
+		}
+
+	/** SKAT_Optimal_Param */
+	private static OptimalParams optimalParams(final double Z1[][],final int nVariants) {
+		final int nSamples = Z1.length;
+		final double zMean[] = new double[nSamples];
+		double sumZMean2 = 0;
+		for(int i=0;i< nSamples;i++) {
+			double s = 0;
+			for(int j=0;j< nVariants;j++) s += Z1[i][j];
+			zMean[i] = s/nVariants;
+			sumZMean2 += zMean[i]*zMean[i];
+			}
+		final double cof1[] = new double[nVariants];
+		double sumCof1Sq = 0;
+		for(int j=0;j< nVariants;j++) {
+			double s = 0;
+			for(int i=0;i< nSamples;i++) s += zMean[i]*Z1[i][j];
+			cof1[j] = s/sumZMean2;
+			sumCof1Sq += cof1[j]*cof1[j];
+			}
+		/* Z.item2 = Z1 - Z.mean %*% t(cof1) */
+		final double item2[][] = new double[nSamples][nVariants];
+		for(int i=0;i< nSamples;i++) {
+			for(int j=0;j< nVariants;j++) {
+				item2[i][j] = Z1[i][j] - zMean[i]*cof1[j];
+				}
+			}
+		final OptimalParams param = new OptimalParams();
+		param.lambda = getLambda(item2, nVariants);
+		/* sum((t(Z.item1) %*% Z.item1) * (t(Z.item2) %*% Z.item2)) * 4 == 4 * sum(Z.mean^2) * |Z.item2 cof1|^2 */
+		double norm2 = 0;
+		for(int i=0;i< nSamples;i++) {
+			double s = 0;
+			for(int j=0;j< nVariants;j++) s += item2[i][j]*cof1[j];
+			norm2 += s*s;
+			}
+		param.varRemain = 4.0 * sumZMean2 * norm2;
+		double sumL = 0, sumL2 = 0, sumL4 = 0;
+		for(final double v:param.lambda) {
+			sumL += v;
+			sumL2 += v*v;
+			sumL4 += v*v*v*v;
+			}
+		param.muQ = sumL;
+		param.varQ = sumL2 * 2.0 + param.varRemain;
+		final double kerQ = sumL4/(sumL2*sumL2) * 12.0;
+		param.df = 12.0/kerQ;
+		param.tau = new double[RHOS.length];
+		for(int r=0;r< RHOS.length;r++) {
+			final double term1 = nVariants*(double)nVariants*RHOS[r] + sumCof1Sq * (1.0-RHOS[r]);
+			param.tau[r] = term1 * sumZMean2;
+			}
+		return param;
+		}
+
+	/** min over rho of (pmin.q - tau*x)/(1-rho) */
+	private static double tempMin(final double x,final double pminQ[],final OptimalParams param) {
+		double m = Double.POSITIVE_INFINITY;
+		for(int r=0;r< RHOS.length;r++) {
+			m = Math.min(m, (pminQ[r] - param.tau[r]*x)/(1.0-RHOS[r]));
+			}
+		return m;
+		}
+
+	/** SKAT_Optimal_PValue_Davies */
+	private static double pvalueOptimalDavies(final double pminQ[],final OptimalParams param,final double pmin) {
+		double sumLambda = 0;
+		for(final double v:param.lambda) sumLambda += v;
+		final double threshold = sumLambda * 1E4;
+		final double sd1 = Math.sqrt(param.varQ - param.varRemain)/Math.sqrt(param.varQ);
+		final double integral = integrateChiSquare1(X->{
+			final double min1 = tempMin(X, pminQ, param);
+			double temp;
+			if(min1 > threshold) {
+				temp = 0;
+				}
+			else
+				{
+				final double min1st = (min1 - param.muQ) * sd1 + param.muQ;
+				final DaviesQuadraticForm.Result rez = DaviesQuadraticForm.upperTail(param.lambda, min1st, DAVIES_ACCURACY);
+				if(rez.getFault()!=0) throw new ArithmeticException("davies: fault "+rez.getFault());
+				temp = rez.getUpperTail();
+				}
+			if(temp > 1.0) temp = 1.0;
+			return 1.0 - temp;
+			});
+		double pvalue = 1.0 - integral;
+		if(pmin * RHOS.length < pvalue) pvalue = pmin * RHOS.length;
+		return pvalue;
+		}
+
+	/** SKAT_Optimal_PValue_Liu */
+	private static double pvalueOptimalLiu(final double pminQ[],final OptimalParams param,final double pmin) {
+		final double integral = integrateChiSquare1(X->{
+			final double min1 = tempMin(X, pminQ, param);
+			final double q = (min1 - param.muQ)/Math.sqrt(param.varQ)*Math.sqrt(2.0*param.df) + param.df;
+			return 1.0 - ChiSquared.upperTail(q, param.df);
+			});
+		double pvalue = 1.0 - integral;
+		if(pmin * RHOS.length < pvalue) pvalue = pmin * RHOS.length;
+		return pvalue;
+		}
+
+	/**
+	 * integral of f(x)*dchisq(x,df=1) for x in [0,40].
+	 * With x=t^2 , dchisq(x,1)dx = 2*dnorm(t)dt, removing the singularity in 0.
+	 */
+	private static double integrateChiSquare1(final DoubleUnaryOperator f) {
+		final double norm = 2.0/Math.sqrt(2.0*Math.PI);
+		final DoubleUnaryOperator g = T->f.applyAsDouble(T*T) * norm * Math.exp(-T*T/2.0);
+		return GaussKronrod.integrate(g, 0, Math.sqrt(40.0), 1E-12, 1_000);
+		}
+
+	/** adaptive Gauss-Kronrod (7-15) quadrature */
+	private static class GaussKronrod {
+		private static final double XGK[]={
+			0.991455371120812639206854697526329,
+			0.949107912342758524526189684047851,
+			0.864864423359769072789712788640926,
+			0.741531185599394439863864773280788,
+			0.586087235467691130294144845693013,
+			0.405845151377397166906606412076961,
+			0.207784955007898467600689403773245,
+			0.000000000000000000000000000000000
+			};
+		private static final double WGK[]={
+			0.022935322010529224963732008058970,
+			0.063092092629978553290700663189204,
+			0.104790010322250183839876322541518,
+			0.140653259715525918745189590510238,
+			0.169004726639267902826583426598550,
+			0.190350578064785409913256402421014,
+			0.204432940075298892414161999234649,
+			0.209482141084727828012999174891714
+			};
+		private static final double WG[]={
+			0.129484966168869693270611432679082,
+			0.279705391489276667901467771423780,
+			0.381830050505118944950369775488975,
+			0.417959183673469387755102040816327
+			};
+		/** returns {kronrod, |kronrod-gauss|} */
+		private static double[] rule(final DoubleUnaryOperator f,final double a,final double b) {
+			final double center = 0.5*(a+b);
+			final double half = 0.5*(b-a);
+			final double fc = f.applyAsDouble(center);
+			double resK = fc * WGK[7];
+			double resG = fc * WG[3];
+			for(int j=0;j< 7;j++) {
+				final double dx = half * XGK[j];
+				final double f1 = f.applyAsDouble(center-dx);
+				final double f2 = f.applyAsDouble(center+dx);
+				resK += WGK[j]*(f1+f2);
+				if(j%2==1) resG += WG[j/2]*(f1+f2);
+				}
+			return new double[]{resK*half, Math.abs((resK-resG)*half)};
+			}
+		static double integrate(final DoubleUnaryOperator f,final double a,final double b,final double absTol,final int maxIntervals) {
+			/* intervals: {a, b, integral, error} , always split the interval having the largest error */
+			final List<double[]> intervals = new ArrayList<>();
+			final double r0[] = rule(f, a, b);
+			intervals.add(new double[]{a, b, r0[0], r0[1]});
+			double total = r0[0];
+			double error = r0[1];
+			while(error > absTol && intervals.size() < maxIntervals) {
+				int worst = 0;
+				for(int i=1;i< intervals.size();i++) {
+					if(intervals.get(i)[3] > intervals.get(worst)[3]) worst = i;
+					}
+				final double w[] = intervals.get(worst);
+				final double mid = 0.5*(w[0]+w[1]);
+				if(mid <= w[0] || mid >= w[1]) break;
+				final double r1[] = rule(f, w[0], mid);
+				final double r2[] = rule(f, mid, w[1]);
+				total += r1[0] + r2[0] - w[2];
+				error += r1[1] + r2[1] - w[3];
+				intervals.set(worst, new double[]{w[0], mid, r1[0], r1[1]});
+				intervals.add(new double[]{mid, w[1], r2[0], r2[1]});
+				}
+			return total;
+			}
+		}
+	}
@@ -65,6 +65,8 @@ public class SkatFactory {
 	private boolean acceptFILTERED = false;
 	@Parameter(names={"--skat-num-retry"},description="compute n-times the p-value")
 	private int n_retry = 1;
+	@Parameter(names={"--skat-java"},description="Compute the p-values with the in-process java port of SKAT instead of forking 'Rscript' and the R package SKAT for each test. Dichotomous phenotype, no covariate, 'linear.weighted' kernel. Ignored with --skat-adjusted.")
+	private boolean useJava = false;
 
 	private String RScript= "Rscript";
 	
@@ -135,36 +137,27 @@ public boolean isOptimal() {
 	return optimal;
 	}
 
+public void setUseJava(boolean useJava) {
+	this.useJava = useJava;
+	}
+@XmlElement(name = "java")
+public boolean isUseJava() {
+	return useJava;
+	}
+
+/** creates a new executor. R is used by default; the SKAT adjustment for small samples is only available with R */
 public SkatExecutor build() {
+	if(this.useJava && !this.adjusted) {
+		return new JavaExecutorImpl();
+		}
 	return new ExecutorImpl();
 	}
 
-
-private class ExecutorImpl implements SkatExecutor {
-
-private final boolean	adjusted = SkatFactory.this.adjusted;
-private final boolean	optimal = SkatFactory.this.optimal;
+/** base class of the executors: filters the variants and the samples before running the test */
+private abstract class AbstractExecutor implements SkatExecutor {
+protected final boolean	adjusted = SkatFactory.this.adjusted;
+protected final boolean	optimal = SkatFactory.this.optimal;
 private final boolean acceptFILTERED = SkatFactory.this.acceptFILTERED;
-private final int n_retry = SkatFactory.this.n_retry;
-private final String RScript=  SkatFactory.this.RScript;
-private final int set_random_seed_value = SkatFactory.this.set_random_seed_value;
-private final File scriptFile;
-private final File saveFile;
-
-public ExecutorImpl() {
-	try 
-		{
-		this.scriptFile = File.createTempFile("skat", ".R");
-		//this.scriptFile.deleteOnExit();
-		this.saveFile = File.createTempFile("skat", ".txt");
-		//this.saveFile.deleteOnExit();		
-		if(this.n_retry<1) throw new IllegalArgumentException("n_retry <1");
-		}
-	catch(final IOException err)
-		{
-		throw new RuntimeIOException(err);
-		}
-	}
 
 @Override
 public Predicate<VariantContext> getUpstreamVariantFilter() {
@@ -179,8 +172,7 @@ public Predicate<VariantContext> getUpstreamVariantFilter() {
 			};
 		}
 
-
-private MafCalculator calculateMaf(final VariantContext ctx,final Collection<Pedigree.Person>  samples) {
+protected MafCalculator calculateMaf(final VariantContext ctx,final Collection<Pedigree.Person>  samples) {
 	final Allele observed_alt = ctx.getAltAlleleWithHighestAlleleCount();
 	final MafCalculator mafCalculator= new MafCalculator(observed_alt,ctx.getContig());
 	for (final Pedigree.Person person : samples) {
@@ -190,25 +182,27 @@ private MafCalculator calculateMaf(final VariantContext ctx,final Collection<Ped
 	return mafCalculator;
 	}
 
-
-private boolean isAdjusted() {
+protected boolean isAdjusted() {
 	return adjusted;
 	}
 
-private boolean isOptimal() {
+protected boolean isOptimal() {
 	return optimal;
 	}
 
-
-private String getMethod() {
-	return isOptimal()?"optimal":"davies";
+/** number of ALT alleles, as sent to SKAT */
+protected int dosage(final Genotype genotype) {
+	if(genotype.isHomVar()) return 2;
+	if(genotype.isHet()) return 1;
+	return 0;
 	}
 
-private String getKernel() {
-	return "linear.weighted";
-	}
+/** run the test on the filtered data */
+protected abstract SkatFactory.SkatResult execute(
+		final List<VariantContext> variants,
+		final List<Pedigree.Person> samples
+		);
 
-	
 @Override
 public SkatFactory.SkatResult execute(
 		List<VariantContext> variants,
@@ -240,7 +234,84 @@ public SkatFactory.SkatResult execute(
 			filter(V->!calculateMaf(V,samples).isEmpty()).
 			collect(Collectors.toList());
 	if(variants.isEmpty()) return new ResultError("no variants with valid MAF");
+	return execute(variants, samples);
+	}
+}
+
+/** in-process implementation, see {@link SkatEngine}. Doesn't have any state, so it is thread-safe */
+private class JavaExecutorImpl extends AbstractExecutor {
+@Override
+protected SkatFactory.SkatResult execute(
+		final List<VariantContext> variants,
+		final List<Pedigree.Person> samples
+		)
+	{
+	try {
+		final double phenotypes[] = new double[samples.size()];
+		final double genotypes[][] = new double[samples.size()][variants.size()];
+		final double weights[] = new double[variants.size()];
+		for(int i=0;i< samples.size();i++) {
+			phenotypes[i] = samples.get(i).isUnaffected()?0:1;
+			}
+		for(int j=0;j< variants.size();j++) {
+			final VariantContext ctx = variants.get(j);
+			final double maf = calculateMaf(ctx, samples).getMaf();
+			weights[j] = 1.0/Math.sqrt(samples.size()*maf*(1.0-maf));
+			for(int i=0;i< samples.size();i++) {
+				genotypes[i][j] = dosage(ctx.getGenotype(samples.get(i).getId()));
+				}
+			}
+		final double pvalue = SkatEngine.pvalue(genotypes, phenotypes, weights, isOptimal());
+		if(Double.isNaN(pvalue)) return new ResultError("p-value is NaN");
+		return new ResultImpl(pvalue);
+		}
+	catch(final Throwable err)
+		{
+		LOG.error(err);
+		return  new ResultError(err.getMessage());
+		}
+	}
+}
+
+/** implementation forking Rscript */
+private class ExecutorImpl extends AbstractExecutor {
+
+private final int n_retry = SkatFactory.this.n_retry;
+private final String RScript=  SkatFactory.this.RScript;
+private final int set_random_seed_value = SkatFactory.this.set_random_seed_value;
+private final File scriptFile;
+private final File saveFile;
+
+public ExecutorImpl() {
+	try 
+		{
+		this.scriptFile = File.createTempFile("skat", ".R");
+		//this.scriptFile.deleteOnExit();
+		this.saveFile = File.createTempFile("skat", ".txt");
+		//this.saveFile.deleteOnExit();		
+		if(this.n_retry<1) throw new IllegalArgumentException("n_retry <1");
+		}
+	catch(final IOException err)
+		{
+		throw new RuntimeIOException(err);
+		}
+	}
+
+private String getMethod() {
+	return isOptimal()?"optimal":"davies";
+	}
+
+private String getKernel() {
+	return "linear.weighted";
+	}
+
 	
+@Override
+protected SkatFactory.SkatResult execute(
+		final List<VariantContext> variants,
+		final List<Pedigree.Person> samples
+		)
+	{
 	PrintWriter pw = null;
 	try {
 		pw = new PrintWriter(this.scriptFile);
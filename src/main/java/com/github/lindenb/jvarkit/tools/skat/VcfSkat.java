@@ -60,6 +60,10 @@ import htsjdk.variant.vcf.VCFHeaderLine;
 /**
 BEGIN_DOC
 
+The SKAT/SKAT-O p-values are computed by R and the package SKAT.
+The option `--skat-java` computes them in-process with a java port ( dichotomous phenotype, no covariate, 'linear.weighted' kernel, Davies method ):
+it is much faster. It is ignored with `--skat-adjusted`.
+
 ## Example
 
 ```
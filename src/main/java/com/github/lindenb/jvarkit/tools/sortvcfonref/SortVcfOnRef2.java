@@ -44,13 +44,13 @@ import htsjdk.variant.vcf.VCFHeader;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 
 import com.beust.jcommander.Parameter;
@@ -112,9 +112,11 @@ public class SortVcfOnRef2 extends Launcher
     	implements Comparable<ChromPosLine>
     	{
     	int tid;
-    	Integer pos;
+    	int pos;
     	Allele ref;
     	String line;
+    	/** normalized key for (tid,pos,ref) */
+    	long sortKey;
     	ChromPosLine()
     		{
     		}
@@ -128,7 +130,7 @@ public class SortVcfOnRef2 extends Launcher
 			
     		try
     			{
-    			this.pos=new Integer(tokens[1]);
+    			this.pos=Integer.parseInt(tokens[1]);
     			}
     		catch(NumberFormatException err)
     			{
@@ -136,13 +138,14 @@ public class SortVcfOnRef2 extends Launcher
     			}
     		this.ref = Allele.create(tokens[3],true);
     		this.line=line;
+    		this.sortKey = VCFUtils.chromPosRefSortKey(this.tid, this.pos, this.ref.getBaseString());
     		}
     	@Override
     	public int compareTo(ChromPosLine o)
     		{
     		int i=this.tid-o.tid;
     		if(i!=0) return i;
-    		i=this.pos.compareTo(o.pos);
+    		i=Integer.compare(this.pos,o.pos);
     		if(i!=0) return i;
     		i=this.ref.compareTo(o.ref);
     		if(i!=0) return i;
@@ -178,6 +181,7 @@ public class SortVcfOnRef2 extends Launcher
 			cpl.pos=dis.readInt();
 			cpl.ref = Allele.create(readString(dis), true);
 			cpl.line= readString(dis);
+			cpl.sortKey = dis.readLong();
 			return cpl;
 			}
 		@Override
@@ -187,6 +191,7 @@ public class SortVcfOnRef2 extends Launcher
 			dos.writeInt(s.pos);
 			writeString(dos, s.ref.getBaseString());
 			writeString(dos,s.line);
+			dos.writeLong(s.sortKey);
 			}
 		@Override
 		public VariantCodec clone() {
@@ -269,15 +274,14 @@ public class SortVcfOnRef2 extends Launcher
 			}
 		
     	CloseableIterator<ChromPosLine> iter=null;
-    	SortingCollection<ChromPosLine> array=null;
+    	ParallelSortingCollection<ChromPosLine> array=null;
     	VariantContextWriter w =null;
     	try {
-			array= SortingCollection.newInstance(
+			array= this.writingSortingCollection.make(
 					ChromPosLine.class,
 					new VariantCodec(),
 					new VariantComparator(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
+					C->C.sortKey
 					);
 			array.setDestructiveIteration(true);
 			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dict);
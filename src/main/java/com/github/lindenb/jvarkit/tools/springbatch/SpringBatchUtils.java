@@ -32,14 +32,39 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.partition.support.PartitionStep;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.core.partition.support.SimpleStepExecutionSplitter;
+import org.springframework.batch.core.partition.support.TaskExecutorPartitionHandler;
+import org.springframework.batch.core.repository.JobRepository;
 import org.springframework.batch.item.ExecutionContext;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 
+import htsjdk.samtools.util.Interval;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
 
 public class SpringBatchUtils {
 public static final String VCF_HEADER_KEY="vcf-header";
+/** keys of the ExecutionContext of a partition, see {@link VcfPartitioner} */
+public static final String PARTITION_INDEX_KEY="partition-index";
+public static final String PARTITION_CONTIG_KEY="partition-contig";
+public static final String PARTITION_START_KEY="partition-start";
+public static final String PARTITION_END_KEY="partition-end";
+public static final String PARTITION_OUTPUT_KEY="partition-output";
+
+/** return the genomic interval of a partition or null if the context was not created by a {@link VcfPartitioner} */
+public static Interval getPartitionInterval(final ExecutionContext executionContext) {
+	if(executionContext==null || !executionContext.containsKey(PARTITION_CONTIG_KEY)) return null;
+	return new Interval(
+		executionContext.getString(PARTITION_CONTIG_KEY),
+		executionContext.getInt(PARTITION_START_KEY),
+		executionContext.getInt(PARTITION_END_KEY)
+		);
+	}
+
 public static VCFHeader getVcfHeader(final ExecutionContext executionContext) {
 	if(!Objects.requireNonNull(executionContext, "executionContext NPE").containsKey(SpringBatchUtils.VCF_HEADER_KEY)) {
 		throw new RuntimeException("key \""+SpringBatchUtils.VCF_HEADER_KEY+"\" is not defined in StepExecution");
@@ -51,6 +76,41 @@ public static VCFHeader getVcfHeader(final ExecutionContext executionContext) {
 	return VCFHeader.class.cast(o);
 	}
 
+/**
+ * create a partitioned step: the 'workerStep' is run in parallel for each partition of 'partitioner'.
+ * The reader and the writer of the worker must be step-scoped or keep their state per thread,
+ * like {@link VariantContextBatchReader} and {@link VariantContextBatchWriter}. Add a {@link VcfPartitionsMerger} listener
+ * to the returned step to merge the outputs in the dictionary order.
+ * @param name name of the partitioned step
+ * @param nThreads number of concurrent partitions
+ * @param gridSize number of partitions requested to the partitioner
+ */
+public static PartitionStep createPartitionStep(
+	final String name,
+	final JobRepository jobRepository,
+	final Step workerStep,
+	final Partitioner partitioner,
+	final int nThreads,
+	final int gridSize
+	) throws Exception {
+	final SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor(name+"-");
+	taskExecutor.setConcurrencyLimit(Math.max(1, nThreads));
+	
+	final TaskExecutorPartitionHandler handler = new TaskExecutorPartitionHandler();
+	handler.setStep(workerStep);
+	handler.setTaskExecutor(taskExecutor);
+	handler.setGridSize(gridSize);
+	handler.afterPropertiesSet();
+	
+	final PartitionStep step = new PartitionStep();
+	step.setName(name);
+	step.setJobRepository(jobRepository);
+	step.setPartitionHandler(handler);
+	step.setStepExecutionSplitter(new SimpleStepExecutionSplitter(jobRepository, true, name, partitioner));
+	step.afterPropertiesSet();
+	return step;
+	}
+
 public static Map<String,Object> executionContextToMap(final ExecutionContext ctx) {
 	if(ctx==null || ctx.isEmpty() ) return Collections.emptyMap();
 	final Map<String,Object> hash = new HashMap<>(ctx.size());
@@ -52,6 +52,12 @@ import htsjdk.variant.variantcontext.filter.VariantContextFilter;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 
+/**
+ * Reads the variants of a VCF, or of the partition of a VCF created by {@link VcfPartitioner}.
+ * The state of a partition (iterator, header, index) is kept per thread, so one reader can be
+ * shared by the concurrent partitions of a partitioned step, as long as each partition runs in its own thread.
+ * The header of the VCF is not stored in the ExecutionContext (it is not serializable), use {@link #getHeader()}.
+ */
 public class VariantContextBatchReader implements 
 	ResourceAwareItemReaderItemStream<List<VariantContext>>,
 	ItemReader<List<VariantContext>>,
@@ -60,12 +66,19 @@ public class VariantContextBatchReader implements
 	private static final Log LOG = LogFactory.getLog(VariantContextBatchReader.class);
     private static final String CURRENT_INDEX = "current.vcf.index";
 
+	/** the state of the partition running in the current thread */
+	private static class State
+		{
+		VCFFileReader vcfFileReader = null;
+		CloseableIterator<VariantContext> iter = null;
+		VCFHeader header = null;
+		long currentIndex = 0L;
+		}
+	
 	private Resource rsrc = null;
-	private CloseableIterator<VariantContext> iter = null;
-	private VCFFileReader vcfFileReader = null;
 	private Interval interval = null;
 	private VariantContextFilter filter = V->true;
-    private long currentIndex=0L;
+	private final ThreadLocal<State> state = new ThreadLocal<>();
 	
 	public void setInterval(final Interval interval) {
 		this.interval = interval;
@@ -80,48 +93,79 @@ public class VariantContextBatchReader implements
 		this.rsrc = rsrc;
 		}
 	
+	/** get the header of the VCF opened in the current thread */
+	public VCFHeader getHeader() {
+		final State st = this.state.get();
+		if(st==null) throw new IllegalStateException("reader was not opened in thread "+Thread.currentThread().getName());
+		return st.header;
+		}
+	
 	@Override
 	public void open(final ExecutionContext executionContext) throws ItemStreamException {
 		if(this.rsrc==null) throw new ItemStreamException("resource is not defined");
+		priv_close();
+		final State st = new State();
+		this.state.set(st);
 		final File vcfFile;
 		try {
 			if(LOG.isInfoEnabled()) LOG.info("Opening "+this.rsrc);
 			vcfFile = this.rsrc.getFile();
 			IOUtil.assertFileIsReadable(vcfFile);
-			this.vcfFileReader = new VCFFileReader(
+			/* running in a partition created by VcfPartitioner ? */
+			final Interval partitionInterval = SpringBatchUtils.getPartitionInterval(executionContext);
+			Interval readInterval = this.interval;
+			if(partitionInterval!=null) {
+				if(LOG.isInfoEnabled()) LOG.info("reading partition "+partitionInterval);
+				/* don't overwrite this.interval: the reader is shared by the partitions */
+				readInterval = (readInterval==null?partitionInterval:
+					readInterval.intersects(partitionInterval)?readInterval.intersect(partitionInterval):
+					null);
+				}
+			st.vcfFileReader = new VCFFileReader(
 				vcfFile,
-				this.interval!=null
+				this.interval!=null || partitionInterval!=null
 				);
-			final VCFHeader header = this.vcfFileReader.getFileHeader();
-			
-			executionContext.put(SpringBatchUtils.VCF_HEADER_KEY, header);
+			st.header = st.vcfFileReader.getFileHeader();
 			
-			if(this.interval == null) {
-				this.iter = this.vcfFileReader.iterator();
+			if(readInterval == null && (this.interval!=null || partitionInterval!=null)) {
+				/* the interval of the user doesn't overlap this partition: nothing to read */
+				if(LOG.isInfoEnabled()) LOG.info(this.interval+" doesn't overlap partition "+partitionInterval);
+				return;
+				}
+			if(readInterval == null) {
+				st.iter = st.vcfFileReader.iterator();
 				}
 			else
 				{
-				this.iter = this.vcfFileReader.query(
-					this.interval.getContig(),
-					this.interval.getStart(),
-					this.interval.getEnd()
+				st.iter = st.vcfFileReader.query(
+					readInterval.getContig(),
+					readInterval.getStart(),
+					readInterval.getEnd()
+					);
+				}
+			if(partitionInterval!=null) {
+				/* a variant overlapping two partitions must be read only once: keep the variants starting in this partition */
+				final int partitionStart = partitionInterval.getStart();
+				final int partitionEnd = partitionInterval.getEnd();
+				st.iter = new FilteringVariantContextIterator(st.iter,
+					V->V.getStart()>=partitionStart && V.getStart()<=partitionEnd
 					);
 				}
 			if(this.filter!=null) {
-				this.iter = new FilteringVariantContextIterator(this.iter, this.filter);
+				st.iter = new FilteringVariantContextIterator(st.iter, this.filter);
 				}
 			 if(!executionContext.containsKey(CURRENT_INDEX)){
-				 this.currentIndex = 0L;
+				 st.currentIndex = 0L;
 			 	}
 			 else {
-				 this.currentIndex = executionContext.getLong(CURRENT_INDEX);
-				 if(LOG.isInfoEnabled()) LOG.info("skipping "+this.currentIndex+" variants");
-				 for(long n=0L;n< this.currentIndex ;n++)
+				 st.currentIndex = executionContext.getLong(CURRENT_INDEX);
+				 if(LOG.isInfoEnabled()) LOG.info("skipping "+st.currentIndex+" variants");
+				 for(long n=0L;n< st.currentIndex ;n++)
 					{
-					if(!this.iter.hasNext()) {
+					if(!st.iter.hasNext()) {
 						throw new IllegalStateException("no more variants");
 						}
-					this.iter.next();
+					st.iter.next();
 					}
 			 	}
 			
@@ -136,10 +180,11 @@ public class VariantContextBatchReader implements
 	@Override
 	public List<VariantContext> read()
 			throws Exception, UnexpectedInputException, ParseException, NonTransientResourceException {
-		if(iter!=null && iter.hasNext())
+		final State st = this.state.get();
+		if(st!=null && st.iter!=null && st.iter.hasNext())
 				{
-				this.currentIndex ++;
-				return Collections.singletonList(this.iter.next());
+				st.currentIndex ++;
+				return Collections.singletonList(st.iter.next());
 				}
 		else
 				{
@@ -149,15 +194,18 @@ public class VariantContextBatchReader implements
 	
 	@Override
 	public void update(final ExecutionContext executionContext) throws ItemStreamException {
-		 executionContext.putLong(CURRENT_INDEX, this.currentIndex);
+		final State st = this.state.get();
+		if(st==null) return;
+		executionContext.putLong(CURRENT_INDEX, st.currentIndex);
 		}
 	
 	private void priv_close()
 		{
-		CloserUtil.close(this.iter);
-		this.iter=null;
-		CloserUtil.close(this.vcfFileReader);
-		this.vcfFileReader=null;
+		final State st = this.state.get();
+		if(st==null) return;
+		CloserUtil.close(st.iter);
+		CloserUtil.close(st.vcfFileReader);
+		this.state.remove();
 		}
 	
 	@Override
@@ -29,6 +29,7 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -44,23 +45,33 @@ import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
 import htsjdk.variant.vcf.VCFHeader;
 
+/**
+ * Writes the variants into a VCF. The VariantContextWriter is kept per thread, so one writer can be
+ * shared by the concurrent partitions of a partitioned step, as long as each partition runs in its own thread.
+ */
 public class VariantContextBatchWriter implements 
 	ResourceAwareItemWriterItemStream<List<VariantContext>> {
 	private static final Log LOG = LogFactory.getLog(VariantContextBatchWriter.class);
 
 	private Function<ExecutionContext,String> filenameFactory = null;
-	private VariantContextWriter vcw = null;
+	private Supplier<VCFHeader> headerSupplier = null;
+	private final ThreadLocal<VariantContextWriter> vcw = new ThreadLocal<>();
 	private boolean createMD5 = false;
 	private File reference = null;
 	
 @Override
 public void open(final ExecutionContext executionContext) throws ItemStreamException {
-	if(this.filenameFactory==null) throw new ItemStreamException("resource is not defined");
+	if(this.filenameFactory==null && !executionContext.containsKey(SpringBatchUtils.PARTITION_OUTPUT_KEY)) throw new ItemStreamException("resource is not defined");
 	try {
-		final String filename = this.filenameFactory.apply(executionContext);
+		/* no resource but running in a partition created by VcfPartitioner */
+		final String filename = this.filenameFactory==null?
+			executionContext.getString(SpringBatchUtils.PARTITION_OUTPUT_KEY):
+			this.filenameFactory.apply(executionContext)
+			;
 		if(StringUtil.isBlank(filename)) throw new ItemStreamException("No output file defined.");
 		if(LOG.isInfoEnabled()) LOG.info("Opening "+filename+" for writing");
 		
@@ -69,7 +80,10 @@ public void open(final ExecutionContext executionContext) throws ItemStreamExcep
 			throw new ItemStreamException("Bad extension for a VCF file:" + filename);
 			}
 		final File vcfFile = new File(filename);
-		VCFHeader header= SpringBatchUtils.getVcfHeader(executionContext);
+		VCFHeader header= this.headerSupplier!=null?
+			this.headerSupplier.get():
+			SpringBatchUtils.getVcfHeader(executionContext)
+			;
 		final VariantContextWriterBuilder vcwb = new VariantContextWriterBuilder();
 		vcwb.setOutputFile(vcfFile);
 		if(this.reference!=null)
@@ -84,10 +98,13 @@ public void open(final ExecutionContext executionContext) throws ItemStreamExcep
 		else
 			{
 			vcwb.setReferenceDictionary(header.getSequenceDictionary());
+			/* cannot index on the fly without a dictionary */
+			if(header.getSequenceDictionary()==null) vcwb.unsetOption(Options.INDEX_ON_THE_FLY);
 			}
 		vcwb.setCreateMD5(this.createMD5);
-		this.vcw = vcwb.build();
-		this.vcw.writeHeader(header);
+		final VariantContextWriter w = vcwb.build();
+		this.vcw.set(w);
+		w.writeHeader(header);
 		}
 	catch(final Exception err)
 		{
@@ -107,8 +124,14 @@ public void update(final ExecutionContext executionContext) throws ItemStreamExc
 	}
 @Override
 public void write(List<? extends List<VariantContext>> variants) throws Exception {
-	if(this.vcw==null) return;
-	variants.stream().flatMap(L->L.stream()).forEach(ctx->this.vcw.add(ctx));
+	final VariantContextWriter w = this.vcw.get();
+	if(w==null) return;
+	variants.stream().flatMap(L->L.stream()).forEach(ctx->w.add(ctx));
+	}
+
+/** supplies the header of the VCF, e.g: {@link VariantContextBatchReader#getHeader()}. If null, the header is searched in the ExecutionContext */
+public void setHeaderSupplier(final Supplier<VCFHeader> headerSupplier) {
+	this.headerSupplier = headerSupplier;
 	}
 
 public void setFilenameFactory(final Function<ExecutionContext, String> resourceFactory) {
@@ -128,7 +151,7 @@ public void setReference(final File reference) {
 	}
 
 private void priv_close() {
-	CloserUtil.close(this.vcw);
-	this.vcw = null;
+	CloserUtil.close(this.vcw.get());
+	this.vcw.remove();
 	}
 }
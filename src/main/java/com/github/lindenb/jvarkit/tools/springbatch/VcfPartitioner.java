@@ -1,25 +1,247 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+*/
 package com.github.lindenb.jvarkit.tools.springbatch;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.batch.core.partition.support.Partitioner;
 import org.springframework.batch.item.ExecutionContext;
+import org.springframework.core.io.Resource;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.Block;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.variant.vcf.VCFFileReader;
+
+/**
+ * Splits an indexed VCF into genomic partitions using the tribble/tabix index.
+ *
+ * mode 'contig' : one partition per contig.
+ * mode 'chunk' : the contigs are split into windows, each window is weighted
+ * by the size of the index blocks it overlaps, and consecutive windows are grouped
+ * into about 'gridSize' partitions of the same weight.
+ *
+ * The partitions are named and indexed in the dictionary order, see {@link VcfPartitionsMerger}
+ */
 public class VcfPartitioner implements Partitioner {
-private static final Log LOG = LogFactory.getLog(VcfPartitioner.class);    
+private static final Log LOG = LogFactory.getLog(VcfPartitioner.class);
+public enum Mode {contig,chunk};
+private Resource resource = null;
+private Mode mode = Mode.chunk;
+private int windowSize = 1_000_000;
+private String outputPrefix = null;
+
+/** a genomic partition */
+private static class Region
+	{
+	final String contig;
+	final int start;
+	int end;
+	long weight;
+	Region(final String contig,final int start,final int end,final long weight) {
+		this.contig = contig;
+		this.start = start;
+		this.end = end;
+		this.weight = weight;
+		}
+	}
+
+public void setResource(final Resource resource) {
+	this.resource = resource;
+	}
+public Resource getResource() {
+	return this.resource;
+	}
+public void setMode(final Mode mode) {
+	this.mode = mode;
+	}
+public Mode getMode() {
+	return this.mode;
+	}
+/** size of the windows used to weight the genome in 'chunk' mode */
+public void setWindowSize(final int windowSize) {
+	if(windowSize<1) throw new IllegalArgumentException("bad window size "+windowSize);
+	this.windowSize = windowSize;
+	}
+public int getWindowSize() {
+	return this.windowSize;
+	}
+/** prefix of the VCF files written for each partition */
+public void setOutputPrefix(final String outputPrefix) {
+	this.outputPrefix = outputPrefix;
+	}
+public String getOutputPrefix() {
+	return this.outputPrefix;
+	}
+
+/** load the tabix or the tribble index */
+private Index loadIndex(final File vcfFile) {
+	File indexFile = Tribble.tabixIndexFile(vcfFile);
+	if(!indexFile.exists()) indexFile = Tribble.indexFile(vcfFile);
+	IOUtil.assertFileIsReadable(indexFile);
+	return IndexFactory.loadIndex(indexFile.getPath());
+	}
+
+/** get the contigs in the dictionary order, with their length. Length is Integer.MAX_VALUE if unknown */
+private List<Region> getContigs(final File vcfFile,final Index index) {
+	final List<Region> contigs = new ArrayList<>();
+	SAMSequenceDictionary dict = null;
+	VCFFileReader r = null;
+	try {
+		r = new VCFFileReader(vcfFile, false);
+		dict = r.getFileHeader().getSequenceDictionary();
+		}
+	finally
+		{
+		CloserUtil.close(r);
+		}
+	if(dict!=null && !dict.isEmpty()) {
+		for(final SAMSequenceRecord ssr: dict.getSequences()) {
+			if(!index.containsChromosome(ssr.getSequenceName())) continue;
+			contigs.add(new Region(ssr.getSequenceName(),1,ssr.getSequenceLength(),0L));
+			}
+		/* the variants of those contigs would be silently lost */
+		for(final String contig: index.getSequenceNames()) {
+			if(dict.getSequence(contig)!=null) continue;
+			throw new IllegalStateException("contig \""+contig+"\" is indexed in "+vcfFile+" but it is not defined in the dictionary of the VCF header.");
+			}
+		}
+	else
+		{
+		LOG.warn("No dictionary in "+vcfFile+". Using the order of the contigs in the index.");
+		for(final String contig: index.getSequenceNames()) {
+			contigs.add(new Region(contig,1,Integer.MAX_VALUE,0L));
+			}
+		}
+	return contigs;
+	}
+
+/** sum of the size of the index blocks overlapping the region */
+private long weight(final Index index,final String contig,final int start,final int end) {
+	long w=1L;/* never 0 */
+	for(final Block block: index.getBlocks(contig, start, end)) {
+		w += block.getSize();
+		}
+	return w;
+	}
+
+private List<Region> partitionByChunk(final Index index,final List<Region> contigs,final int gridSize) {
+	final List<Region> windows = new ArrayList<>();
+	long total = 0L;
+	for(final Region contig: contigs) {
+		if(contig.end==Integer.MAX_VALUE) {
+			/* unknown length: cannot split */
+			contig.weight = weight(index,contig.contig,contig.start,contig.end);
+			windows.add(contig);
+			}
+		else
+			{
+			for(int start=1;start<=contig.end;start+=this.windowSize) {
+				final int end = (int)Math.min((long)contig.end,(long)start+this.windowSize-1L);
+				windows.add(new Region(contig.contig,start,end,weight(index,contig.contig,start,end)));
+				}
+			}
+		}
+	for(final Region w:windows) total+=w.weight;
+	final long target = Math.max(1L, total/Math.max(1,gridSize));
+
+	final List<Region> partitions = new ArrayList<>();
+	Region current = null;
+	for(final Region w:windows) {
+		if(current!=null && (!current.contig.equals(w.contig) || current.weight>=target)) {
+			partitions.add(current);
+			current=null;
+			}
+		if(current==null) {
+			current = new Region(w.contig,w.start,w.end,w.weight);
+			}
+		else
+			{
+			current.end = w.end;
+			current.weight += w.weight;
+			}
+		}
+	if(current!=null) partitions.add(current);
+	return partitions;
+	}
+
 @Override
 public Map<String, ExecutionContext> partition(final int gridSize) {
 	LOG.info("creating partition for gridsize="+gridSize);
-	final Map<String, ExecutionContext> map = new HashMap<>(gridSize);
-	for(int i=0;i<10;i++)
+	if(this.resource==null) throw new IllegalStateException("resource is not defined");
+	final File vcfFile;
+	try {
+		vcfFile = this.resource.getFile();
+		}
+	catch(final IOException err) {
+		throw new IllegalStateException("Cannot get file for "+this.resource,err);
+		}
+	IOUtil.assertFileIsReadable(vcfFile);
+	final Index index = loadIndex(vcfFile);
+	final List<Region> contigs = getContigs(vcfFile,index);
+	final List<Region> regions;
+	switch(this.mode) {
+		case contig: regions = contigs; break;
+		case chunk: regions = partitionByChunk(index,contigs,gridSize); break;
+		default: throw new IllegalStateException("bad mode "+this.mode);
+		}
+
+	final String prefix = this.outputPrefix!=null?
+			this.outputPrefix:
+			new File(IOUtils.getDefaultTmpDir(),"vcfpartition."+System.currentTimeMillis()+".").getPath()
+			;
+
+	/* LinkedHashMap: keep the dictionary order */
+	final Map<String, ExecutionContext> map = new LinkedHashMap<>(regions.size());
+	for(int i=0;i< regions.size();i++)
 		{
+		final Region region = regions.get(i);
+		final String name = String.format("partition%06d", i);
 		final ExecutionContext exec= new ExecutionContext();
-		exec.put("contig", i);
-		map.put(String.valueOf(i), exec);
-		
+		exec.putInt(SpringBatchUtils.PARTITION_INDEX_KEY, i);
+		exec.putString(SpringBatchUtils.PARTITION_CONTIG_KEY, region.contig);
+		exec.putInt(SpringBatchUtils.PARTITION_START_KEY, region.start);
+		exec.putInt(SpringBatchUtils.PARTITION_END_KEY, region.end);
+		exec.putString(SpringBatchUtils.PARTITION_OUTPUT_KEY, prefix+name+".vcf.gz");
+		map.put(name, exec);
+		if(LOG.isInfoEnabled()) LOG.info(name+" "+region.contig+":"+region.start+"-"+region.end);
 		}
 	return map;
 	}
@@ -0,0 +1,138 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+*/
+package com.github.lindenb.jvarkit.tools.springbatch;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.core.io.Resource;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.tribble.Tribble;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFFileReader;
+
+/**
+ * Listener of the master step of a partitioned step.
+ * When the step is completed, the VCFs written by the partitions created
+ * by {@link VcfPartitioner} are concatenated, in the order of the partitions
+ * (that is the dictionary order), into the final VCF.
+ */
+public class VcfPartitionsMerger implements StepExecutionListener {
+private static final Log LOG = LogFactory.getLog(VcfPartitionsMerger.class);
+private Resource resource = null;
+private boolean deletePartitions = true;
+
+/** the final VCF */
+public void setResource(final Resource resource) {
+	this.resource = resource;
+	}
+/** delete the VCF of the partitions after the merge. Default: true */
+public void setDeletePartitions(final boolean deletePartitions) {
+	this.deletePartitions = deletePartitions;
+	}
+
+@Override
+public void beforeStep(final StepExecution stepExecution) {
+	}
+
+@Override
+public ExitStatus afterStep(final StepExecution stepExecution) {
+	if(!BatchStatus.COMPLETED.equals(stepExecution.getStatus())) {
+		LOG.warn("step "+stepExecution.getStepName()+" was not completed. Partitions won't be merged.");
+		return null;
+		}
+	if(this.resource==null) throw new IllegalStateException("resource is not defined");
+
+	/* the partitions of this step, sorted on their index */
+	final List<StepExecution> partitions = stepExecution.getJobExecution().getStepExecutions().stream().
+		filter(S->S!=stepExecution).
+		filter(S->S.getStepName().startsWith(stepExecution.getStepName()+":")).
+		filter(S->S.getExecutionContext().containsKey(SpringBatchUtils.PARTITION_OUTPUT_KEY)).
+		sorted(Comparator.comparingInt(S->S.getExecutionContext().getInt(SpringBatchUtils.PARTITION_INDEX_KEY))).
+		collect(Collectors.toList());
+	if(partitions.isEmpty()) {
+		LOG.warn("no partition found for "+stepExecution.getStepName());
+		return ExitStatus.FAILED;
+		}
+
+	VariantContextWriter w = null;
+	try {
+		final File outFile = this.resource.getFile();
+		if(LOG.isInfoEnabled()) LOG.info("merging "+partitions.size()+" partitions into "+outFile);
+		for(final StepExecution partition: partitions) {
+			final File vcfFile = new File(partition.getExecutionContext().getString(SpringBatchUtils.PARTITION_OUTPUT_KEY));
+			try(VCFFileReader r = new VCFFileReader(vcfFile, false)) {
+				if(w==null) {
+					final SAMSequenceDictionary dict = r.getFileHeader().getSequenceDictionary();
+					final VariantContextWriterBuilder vcwb = new VariantContextWriterBuilder().
+						setOutputFile(outFile).
+						setReferenceDictionary(dict);
+					/* cannot index on the fly without a dictionary */
+					if(dict==null) vcwb.unsetOption(Options.INDEX_ON_THE_FLY);
+					w = vcwb.build();
+					w.writeHeader(r.getFileHeader());
+					}
+				try(CloseableIterator<VariantContext> iter= r.iterator()) {
+					while(iter.hasNext()) w.add(iter.next());
+					}
+				}
+			}
+		w.close();
+		w = null;
+		if(this.deletePartitions) {
+			for(final StepExecution partition: partitions) {
+				final File vcfFile = new File(partition.getExecutionContext().getString(SpringBatchUtils.PARTITION_OUTPUT_KEY));
+				vcfFile.delete();
+				Tribble.tabixIndexFile(vcfFile).delete();
+				}
+			}
+		return null;
+		}
+	catch(final Exception err) {
+		LOG.error("Cannot merge partitions",err);
+		stepExecution.addFailureException(err);
+		return ExitStatus.FAILED;
+		}
+	finally
+		{
+		CloserUtil.close(w);
+		}
+	}
+}
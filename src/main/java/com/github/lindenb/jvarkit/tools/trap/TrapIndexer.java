@@ -1,14 +1,12 @@
 package com.github.lindenb.jvarkit.tools.trap;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -58,50 +56,74 @@ static final byte MAGIC[]= "TRAP.1.1".getBytes();
 
 public static TrapRecord decode(final String contig,byte array[]) {
 	if(array.length!=RECORD_SIZOF) throw new IllegalStateException("byte.length "+array.length+"!="+RECORD_SIZOF);
-	try {
-		final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(array));
-		final int pos = dis.readInt();
-		if(pos<0) throw new IOException("pos<0 : "+pos);
-		final byte ref = dis.readByte();
-		final byte alt = dis.readByte();
-		int ensgId = dis.readInt();
-		final String ensg = String.format("ENSG%0"+(ENSG_STRLEN-4)+"d",ensgId);
-		byte score_bytes[]=new byte[SCORE_SIZEOF];
-		dis.readFully(score_bytes);
-		final float score ;
-		if( score_bytes[0] == (byte)1)
-			{	
-			score=1.0f;
+	return decode(contig,ByteBuffer.wrap(array),0);
+	}
+
+/** decode the record at the given offset, using absolute reads: the position of the buffer is not modified */
+static TrapRecord decode(final String contig,final ByteBuffer buffer,final int offset) {
+	final int pos = decodePos(buffer, offset);
+	if(pos<0) throw new RuntimeIOException("pos<0 : "+pos);
+	final byte ref = decodeRef(buffer, offset);
+	final byte alt = decodeAlt(buffer, offset);
+	final int ensgId = buffer.getInt(offset + Integer.BYTES + 2);
+	final String ensg = String.format("ENSG%0"+(ENSG_STRLEN-4)+"d",ensgId);
+	final float score = decodeScore(buffer, offset);
+	return new TrapRecord() {
+		@Override
+		public int getStart() { return pos; }
+		@Override
+		public int getEnd() { return pos; }
+		@Override
+		public String getContig() { return contig;}
+		@Override
+		public String getChr() { return getContig(); }
+		@Override
+		public float getScore() { return score; }
+		@Override
+		public char getRef() {return (char)ref;}
+		@Override
+		public String getGene() {return ensg;}
+		@Override
+		public char getAlt() { return  (char)alt; }
+		@Override
+		public String toString() {
+			return contig+":"+pos+":"+(char)ref+"/"+(char)alt+" "+ensg+" "+score;
 			}
-		else
+	};
+	}
+
+static int decodePos(final ByteBuffer buffer,final int offset) {
+	return buffer.getInt(offset);
+	}
+
+static byte decodeRef(final ByteBuffer buffer,final int offset) {
+	return buffer.get(offset + Integer.BYTES);
+	}
+
+static byte decodeAlt(final ByteBuffer buffer,final int offset) {
+	return buffer.get(offset + Integer.BYTES + 1);
+	}
+
+/** decode the score without creating a String when the bytes are digits */
+static float decodeScore(final ByteBuffer buffer,final int offset) {
+	final int scoreOffset = offset + Integer.BYTES + 2 + Integer.BYTES;
+	if(buffer.get(scoreOffset) == (byte)1) return 1.0f;
+	int n = 0;
+	int divisor = 1;
+	for(int i=0;i< SCORE_SIZEOF;i++)
+		{
+		final byte c = buffer.get(scoreOffset+i);
+		if(c<'0' || c>'9')
 			{
-			score = Float.parseFloat("0."+new String(score_bytes));
+			final byte score_bytes[]=new byte[SCORE_SIZEOF];
+			for(int j=0;j< SCORE_SIZEOF;j++) score_bytes[j] = buffer.get(scoreOffset+j);
+			return Float.parseFloat("0."+new String(score_bytes));
 			}
-		return new TrapRecord() {
-			@Override
-			public int getStart() { return pos; }
-			@Override
-			public int getEnd() { return pos; }
-			@Override
-			public String getContig() { return contig;}
-			@Override
-			public String getChr() { return getContig(); }
-			@Override
-			public float getScore() { return score; }
-			@Override
-			public char getRef() {return (char)ref;}
-			@Override
-			public String getGene() {return ensg;}
-			@Override
-			public char getAlt() { return  (char)alt; }
-			@Override
-			public String toString() {
-				return contig+":"+pos+":"+(char)ref+"/"+(char)alt+" "+ensg+" "+score;
-				}
-		};
-	} catch (IOException e) {
-		throw new RuntimeIOException(e);
+		n = n*10 + (c-'0');
+		divisor *= 10;
 		}
+	/* correctly rounded, like Float.parseFloat("0."+digits) */
+	return n/(float)divisor;
 	}
 
 
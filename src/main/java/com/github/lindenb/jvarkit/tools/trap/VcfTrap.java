@@ -29,11 +29,13 @@ import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -50,7 +52,6 @@ import javax.xml.bind.annotation.XmlType;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.Algorithms;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -103,16 +104,31 @@ public class VcfTrap extends Launcher {
 	private CtxWriterFactory component = new CtxWriterFactory();
 	
 	
-	private static class IndexFile extends AbstractList<TrapRecord>
+	/** a TrapIndexer file mapped in memory. The records are decoded from the mapped buffers */
+	static class IndexFile extends AbstractList<TrapRecord>
 		implements Closeable
 		{
+		/** a MappedByteBuffer cannot be larger than 2Gb: one segment contains at most this number of records */
+		private static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / TrapIndexer.RECORD_SIZOF;
 		final String contig;
 		final File file;
-		private RandomAccessFile io;
+		/** number of records in one segment */
+		private final int recordsPerSegment;
+		private MappedByteBuffer segments[];
 		final int _size;
+		/** lower bound of the last query, the variants are expected to be sorted on position */
+		private int cursor = 0;
+		private int cursorPos = 0;
 		IndexFile(final String contig,final File file) throws IOException {
+			this(contig,file,RECORDS_PER_SEGMENT);
+			}
+		
+		/** @param recordsPerSegment number of records in one mapped segment, at most RECORDS_PER_SEGMENT */
+		IndexFile(final String contig,final File file,final int recordsPerSegment) throws IOException {
+			if(recordsPerSegment<1 || recordsPerSegment> RECORDS_PER_SEGMENT) throw new IllegalArgumentException("bad number of records per segment "+recordsPerSegment);
 			this.contig = contig;
 			this.file=file;
+			this.recordsPerSegment = recordsPerSegment;
 			long length = file.length();
 			
 			if(length< TrapIndexer.MAGIC.length)
@@ -122,28 +138,85 @@ public class VcfTrap extends Launcher {
 			length -=  TrapIndexer.MAGIC.length;
 			
 			if(length % TrapIndexer.RECORD_SIZOF!=0) throw new  IOException("not a multiple of "+TrapIndexer.RECORD_SIZOF+":"+length);
+			if(length/TrapIndexer.RECORD_SIZOF > Integer.MAX_VALUE) throw new IOException("too many records in "+file);
 			this._size = (int)(length/TrapIndexer.RECORD_SIZOF);
-			this.io = new RandomAccessFile(this.file, "r");
-			final byte magic[]=new byte[TrapIndexer.MAGIC.length];
-			this.io.readFully(magic);
-			if(!Arrays.equals(magic,  TrapIndexer.MAGIC))
-				{
-				this.io.close();
-				throw new IOException("not a TrapIndexer file:"+file);
+			try(final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				final ByteBuffer magic = ByteBuffer.allocate(TrapIndexer.MAGIC.length);
+				while(magic.hasRemaining()) {
+					if(channel.read(magic, magic.position())<0) break;
+					}
+				if(!Arrays.equals(magic.array(),  TrapIndexer.MAGIC))
+					{
+					throw new IOException("not a TrapIndexer file:"+file);
+					}
+				this.segments = new MappedByteBuffer[(int)((this._size + (long)this.recordsPerSegment - 1L)/this.recordsPerSegment)];
+				for(int i=0;i< this.segments.length;i++)
+					{
+					final long first = (long)i * this.recordsPerSegment;
+					final long count = Math.min(this.recordsPerSegment, this._size - first);
+					this.segments[i] = channel.map(
+						FileChannel.MapMode.READ_ONLY,
+						TrapIndexer.MAGIC.length + first * TrapIndexer.RECORD_SIZOF,
+						count * TrapIndexer.RECORD_SIZOF
+						);
+					}
 				}
 			}
+		
+		private ByteBuffer segment(final int index) {
+			return this.segments[index / this.recordsPerSegment];
+			}
+		
+		private int offset(final int index) {
+			return (index % this.recordsPerSegment) * TrapIndexer.RECORD_SIZOF;
+			}
+		
 		@Override
 		public TrapRecord get(final int index) {
-			try {
-				final byte array[]=new byte[TrapIndexer.RECORD_SIZOF];
-				this.io.seek((long)TrapIndexer.MAGIC.length + (long)TrapIndexer.RECORD_SIZOF*(long)index);
-				this.io.readFully(array);
-				return TrapIndexer.decode(this.contig, array);
+			return TrapIndexer.decode(this.contig, segment(index), offset(index));
+			}
+		
+		int getPos(final int index) {
+			return TrapIndexer.decodePos(segment(index), offset(index));
+			}
+		
+		byte getRef(final int index) {
+			return TrapIndexer.decodeRef(segment(index), offset(index));
+			}
+		
+		byte getAlt(final int index) {
+			return TrapIndexer.decodeAlt(segment(index), offset(index));
+			}
+		
+		/** @return the index of the first record with getPos()&gt;=pos. 
+		 * When the queries are sorted, the search starts from the previous result
+		 * with an exponential step, so it is O(1) for close positions */
+		int lowerBound(final int pos) {
+			if(pos < this.cursorPos) this.cursor = 0;
+			int lo = this.cursor;
+			int hi = lo;
+			long step = 1L;
+			while(hi < this._size && getPos(hi) < pos)
+				{
+				lo = hi + 1;
+				hi = (int)Math.min(this._size, hi + step);
+				step <<= 1;
 				}
-			catch(final IOException err)
+			while(lo < hi)
 				{
-				throw new RuntimeIOException(err);
+				final int mid = (lo + hi) >>> 1;
+				if(getPos(mid) < pos)
+					{
+					lo = mid + 1;
+					}
+				else
+					{
+					hi = mid;
+					}
 				}
+			this.cursor = lo;
+			this.cursorPos = pos;
+			return lo;
 			}
 		
 		@Override
@@ -152,10 +225,10 @@ public class VcfTrap extends Launcher {
 			}
 		
 		@Override
-		public void close() throws IOException {
+		public void close() {
 			LOG.debug("closing "+contig);
-			CloserUtil.close(this.io);
-			this.io = null;
+			/* the buffers are unmapped by the garbage collector */
+			this.segments = null;
 			}
 		}
 	
@@ -187,10 +260,6 @@ public class VcfTrap extends Launcher {
 				private final String ATT_MIN = CtxWriterFactory.this.ATT+"_MIN";
 				private final String ATT_MAX = CtxWriterFactory.this.ATT+"_MAX";
 				private final Set<String> contigs_not_found=new HashSet<>();
-				private final Comparator<TrapRecord> comparator = (A,B) ->{
-					if(! A.getContig().equals(B.getContig())) throw new IllegalStateException("not the same contigs ???");
-					return Integer.compare(A.getStart(), B.getStart());
-					};
 				
 				CtxWriter(final VariantContextWriter delegate) {
 					super(delegate);
@@ -250,48 +319,29 @@ public class VcfTrap extends Launcher {
 					final Float min_score[]=new Float[] {null};
 					final Float max_score[]=new Float[] {null};
 					
-					Algorithms.equal_range_stream(
-							this.current,
-							0,
-							this.current.size(),
-							new TrapRecord() {
-								@Override
-								public int getStart() { return var.getStart(); }
-								@Override
-								public int getEnd() { return var.getEnd(); }
-								@Override
-								public String getContig() { return var.getContig();}
-								@Override
-								public String getChr() { return getContig(); }
-								@Override
-								public float getScore() { return 0f; }
-								@Override
-								public char getRef() {return '\0';}
-								@Override
-								public String getGene() {return "";}
-								@Override
-								public char getAlt() { return '\0'; }
-								},
-							this.comparator
-							).
-							filter(R->var.getReference().equals(Allele.create((byte)R.getRef(),true))).
-							filter(R->var.getAlternateAlleles().stream().anyMatch(A->A.equals(Allele.create((byte)R.getAlt(),false)))).
-							forEach(R->{
-								
-								annotations.add(String.join("|",
-										String.valueOf(R.getAlt()),
-										R.getGene(),
-										String.format("%."+TrapIndexer.SCORE_STRLEN+"f", R.getScore())
-										));
-								if(min_score[0]==null || min_score[0].compareTo(R.getScore())>0)
-									{
-									min_score[0]=R.getScore();
-									}
-								if(max_score[0]==null || max_score[0].compareTo(R.getScore())<0)
-									{
-									max_score[0]=R.getScore();
-									}
-								});
+					final Allele ref = var.getReference();
+					for(int i= this.current.lowerBound(var.getStart());
+						i< this.current.size() && this.current.getPos(i)==var.getStart();
+						++i)
+						{
+						if(!ref.equals(Allele.create(this.current.getRef(i),true))) continue;
+						final Allele alt = Allele.create(this.current.getAlt(i),false);
+						if(!var.getAlternateAlleles().contains(alt)) continue;
+						final TrapRecord R = this.current.get(i);
+						annotations.add(String.join("|",
+								String.valueOf(R.getAlt()),
+								R.getGene(),
+								String.format("%."+TrapIndexer.SCORE_STRLEN+"f", R.getScore())
+								));
+						if(min_score[0]==null || min_score[0].compareTo(R.getScore())>0)
+							{
+							min_score[0]=R.getScore();
+							}
+						if(max_score[0]==null || max_score[0].compareTo(R.getScore())<0)
+							{
+							max_score[0]=R.getScore();
+							}
+						}
 					if(annotations.isEmpty())
 						{
 						super.add(var);
@@ -305,8 +355,7 @@ public class VcfTrap extends Launcher {
 					}
 				@Override
 				public void close() {
-					try { this.current.close();}
-					catch(IOException err) {LOG.error(err);} //CloserUtil doenst' work ??
+					CloserUtil.close(this.current);
 					this.current=null;
 					super.close();
 					}
@@ -0,0 +1,414 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.vcfamalgation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.converters.NoSplitter;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.tools.burden.VcfBurdenFilterExac;
+import com.github.lindenb.jvarkit.tools.burden.VcfBurdenFisherH;
+import com.github.lindenb.jvarkit.tools.burden.VcfBurdenFisherV;
+import com.github.lindenb.jvarkit.tools.burden.VcfBurdenMAF;
+import com.github.lindenb.jvarkit.tools.burden.VcfFilterNotInPedigree;
+import com.github.lindenb.jvarkit.tools.burden.VcfInjectPedigree;
+import com.github.lindenb.jvarkit.tools.burden.VcfMoveFiltersToInfo;
+import com.github.lindenb.jvarkit.tools.gnomad.VcfGnomad;
+import com.github.lindenb.jvarkit.tools.misc.VCFPolyX;
+import com.github.lindenb.jvarkit.tools.misc.VcfHead;
+import com.github.lindenb.jvarkit.tools.misc.VcfMultiToOneAllele;
+import com.github.lindenb.jvarkit.tools.misc.VcfNoCallToHomRef;
+import com.github.lindenb.jvarkit.tools.misc.VcfRemoveUnusedAlt;
+import com.github.lindenb.jvarkit.tools.misc.VcfTail;
+import com.github.lindenb.jvarkit.tools.skat.VcfSkat;
+import com.github.lindenb.jvarkit.tools.trap.VcfTrap;
+import com.github.lindenb.jvarkit.tools.vcfbed.VCFBed;
+import com.github.lindenb.jvarkit.tools.vcfbigwig.VCFBigWig;
+import com.github.lindenb.jvarkit.tools.vcfeigen.VcfEigen01;
+import com.github.lindenb.jvarkit.tools.vcffilterjs.VcfFilterJdk;
+import com.github.lindenb.jvarkit.tools.vcffilterso.VcfFilterSequenceOntology;
+import com.github.lindenb.jvarkit.tools.vcfrebase.VcfRebase;
+import com.github.lindenb.jvarkit.tools.vcfstripannot.VCFStripAnnotations;
+import com.github.lindenb.jvarkit.tools.vcftrios.VCFFamilies;
+import com.github.lindenb.jvarkit.tools.vcftrios.VCFTrios;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
+import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.AsyncVariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+/**
+BEGIN_DOC
+
+## Motivation
+
+Piping jvarkit tools (`java -jar vcfa.jar in.vcf | java -jar vcfb.jar | java -jar vcfc.jar`) means that each
+variant is formatted as text, written to a pipe and parsed again by each tool.
+`vcfpipeline` loads the filters of each tool (their `CtxWriterFactory`) in a single JVM and
+the variants are passed as objects from one stage to the next one.
+
+## Stages
+
+A stage is the name of a tool (see option `--list`) followed by its options. Arguments containing spaces must be quoted.
+The stages are applied in the order of the command line (or in the order of the lines of the `--stages` file).
+The options of the tool related to the input and the output (`-o`, `--out`...) are not available.
+
+A stage starting with the keyword `async` runs in its own thread, the variants are handed to this stage
+through a bounded queue (see `--queue-size`). Option `--async` runs every stage in its own thread.
+
+## Example
+
+```
+$ java -jar dist/vcfpipeline.jar \
+	-s "vcfmulti2oneallele" \
+	-s "async vcfgnomad --gnomad /path/to/gnomad.manifest" \
+	-s "vcfhead -n 10" \
+	input.vcf.gz
+```
+
+is equivalent to
+
+```
+$ java -jar dist/vcfmulti2oneallele.jar input.vcf.gz |\
+	java -jar dist/vcfgnomad.jar --gnomad /path/to/gnomad.manifest |\
+	java -jar dist/vcfhead.jar -n 10
+```
+
+END_DOC
+**/
+@Program(
+		name="vcfpipeline",
+		description="Run a chain of jvarkit VCF filters/annotators in a single process. The variants are passed as objects from one stage to the next one.",
+		keywords={"vcf","pipeline","filter"}
+		)
+public class VcfPipeline extends Launcher {
+	private static final Logger LOG = Logger.build(VcfPipeline.class).make();
+	/** keyword before a stage that should run in its own thread */
+	private static final String ASYNC_KEYWORD = "async";
+
+	/** tools having a nested class 'CtxWriterFactory' */
+	private static final  Class<?> SUPPORTED_TOOLS[]=new Class[]{
+			VCFFamilies.class,
+			VCFTrios.class,
+			VcfBurdenFisherV.class,
+			VcfFilterNotInPedigree.class,
+			VcfBurdenMAF.class,
+			VcfBurdenFilterExac.class,
+			VcfMoveFiltersToInfo.class,
+			VcfBurdenFisherH.class,
+			VcfInjectPedigree.class,
+			VcfSkat.class,
+			VcfGnomad.class,
+			VCFBed.class,
+			VCFStripAnnotations.class,
+			VcfMultiToOneAllele.class,
+			VcfRemoveUnusedAlt.class,
+			VcfNoCallToHomRef.class,
+			VcfTail.class,
+			VCFPolyX.class,
+			VcfHead.class,
+			VcfFilterSequenceOntology.class,
+			VCFBigWig.class,
+			VcfFilterJdk.class,
+			VcfRebase.class,
+			VcfTrap.class,
+			VcfEigen01.class
+		};
+
+	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
+	private File outputFile = null;
+	@Parameter(names={"-list","--list"},description="list the supported tools and exit",help=true)
+	private boolean listSupportedTools = false;
+	@Parameter(names={"-s","--stage"},splitter=NoSplitter.class,description="A stage: the name of a tool followed by its options. e.g: \"vcfhead -n 10\". "
+			+ "Prefix with '"+ASYNC_KEYWORD+"' to run this stage in its own thread. Can be used multiple times.")
+	private List<String> stageStrings = new ArrayList<>();
+	@Parameter(names={"-S","--stages"},description="File containing the stages. One stage per line. Empty lines and lines starting with '#' are ignored. "
+			+ "Those stages are appended after the stages defined with --stage")
+	private File stagesFile = null;
+	@Parameter(names={"--async"},description="Run each stage in its own thread.")
+	private boolean allAsync = false;
+	@Parameter(names={"--queue-size"},description="Number of variants queued before an asynchronous stage.")
+	private int queueSize = AsyncVariantContextWriter.DEFAULT_QUEUE_SIZE;
+
+	private static class Stage
+		{
+		final String name;
+		final VariantContextWriterFactory factory;
+		final boolean async;
+		Stage(final String name,final VariantContextWriterFactory factory,final boolean async) {
+			this.name = name;
+			this.factory = factory;
+			this.async = async;
+			}
+		}
+
+	private final List<Stage> stages = new ArrayList<>();
+
+	/** map program name to the class of the nested CtxWriterFactory */
+	private static Map<String,Class<?>> getSupportedFactories()
+		{
+		final Map<String,Class<?>> name2class = new LinkedHashMap<>();
+		for(final Class<?> tool : SUPPORTED_TOOLS)
+			{
+			final Program program = tool.getAnnotation(Program.class);
+			if(program==null) throw new IllegalStateException("no @Program for "+tool.getName());
+			Class<?> factoryClass = null;
+			for(final Class<?> nested: tool.getDeclaredClasses())
+				{
+				if(nested.getSimpleName().equals("CtxWriterFactory") &&
+					VariantContextWriterFactory.class.isAssignableFrom(nested))
+					{
+					factoryClass = nested;
+					break;
+					}
+				}
+			if(factoryClass==null) throw new IllegalStateException("no CtxWriterFactory in "+tool.getName());
+			name2class.put(program.name(), factoryClass);
+			}
+		return name2class;
+		}
+
+	/** split a stage into words. Handles single/double quotes and backslashes */
+	static List<String> tokenize(final String line)
+		{
+		final List<String> tokens = new ArrayList<>();
+		final StringBuilder sb = new StringBuilder();
+		boolean inToken = false;
+		char quote = 0;
+		int i=0;
+		while(i< line.length())
+			{
+			final char c = line.charAt(i);
+			if(quote!=0)
+				{
+				if(c==quote)
+					{
+					quote=0;
+					}
+				else if(c=='\\' && quote=='"' && i+1< line.length())
+					{
+					i++;
+					sb.append(line.charAt(i));
+					}
+				else
+					{
+					sb.append(c);
+					}
+				}
+			else if(Character.isWhitespace(c))
+				{
+				if(inToken) tokens.add(sb.toString());
+				sb.setLength(0);
+				inToken = false;
+				}
+			else if(c=='"' || c=='\'')
+				{
+				quote = c;
+				inToken = true;
+				}
+			else if(c=='\\' && i+1< line.length())
+				{
+				i++;
+				sb.append(line.charAt(i));
+				inToken = true;
+				}
+			else
+				{
+				sb.append(c);
+				inToken = true;
+				}
+			i++;
+			}
+		if(quote!=0) throw new IllegalArgumentException("unclosed quote in "+line);
+		if(inToken) tokens.add(sb.toString());
+		return tokens;
+		}
+
+	/** create and configure the factory for a stage */
+	private Stage parseStage(final Map<String,Class<?>> name2class,final String stageStr) throws Exception
+		{
+		final List<String> tokens = tokenize(stageStr);
+		boolean async = this.allAsync;
+		if(!tokens.isEmpty() && tokens.get(0).equals(ASYNC_KEYWORD))
+			{
+			async = true;
+			tokens.remove(0);
+			}
+		if(tokens.isEmpty()) throw new JvarkitException.UserError("empty stage \""+stageStr+"\"");
+		final String name = tokens.remove(0);
+		final Class<?> factoryClass = name2class.get(name);
+		if(factoryClass==null)
+			{
+			throw new JvarkitException.UserError("unknown tool \""+name+"\". Available are: "+String.join(" ", name2class.keySet()));
+			}
+		final Constructor<?> ctor = factoryClass.getDeclaredConstructor();
+		ctor.setAccessible(true);
+		final VariantContextWriterFactory factory = VariantContextWriterFactory.class.cast(ctor.newInstance());
+		final JCommander jc = new JCommander();
+		jc.setProgramName(name);
+		jc.addConverterFactory(Launcher.createConverterFactory());
+		jc.addObject(factory);
+		try {
+			jc.parse(tokens.toArray(new String[tokens.size()]));
+			}
+		catch(final ParameterException err)
+			{
+			final StringBuilder usage = new StringBuilder();
+			jc.usage(usage);
+			throw new JvarkitException.UserError("cannot parse stage \""+stageStr+"\": "+err.getMessage()+"\n"+usage);
+			}
+		return new Stage(name, factory, async);
+		}
+
+	@Override
+	public int doVcfToVcf(final String inputName, final VcfIterator r, final VariantContextWriter delegate)
+		{
+		boolean anyAsync = false;
+		VariantContextWriter out = delegate;
+		for(int i=this.stages.size()-1;i>=0;i--)
+			{
+			final Stage stage = this.stages.get(i);
+			out = stage.factory.open(out);
+			if(stage.async)
+				{
+				/* the records will be consumed by this stage in another thread */
+				out = new AsyncVariantContextWriter(out, this.queueSize);
+				anyAsync = true;
+				}
+			}
+		final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(r.getHeader()).logger(LOG);
+		out.writeHeader(r.getHeader());
+		while(r.hasNext())
+			{
+			final VariantContext ctx = progress.watch(r.next());
+			if(anyAsync)
+				{
+				/* the lazy genotypes share the buffers of the VCF codec: decode them in this thread */
+				final GenotypesContext gc = ctx.getGenotypes();
+				if(gc instanceof LazyGenotypesContext)
+					{
+					LazyGenotypesContext.class.cast(gc).decode();
+					}
+				}
+			out.add(ctx);
+			}
+		out.close();
+		progress.finish();
+		return 0;
+		}
+
+	@Override
+	public int doWork(final List<String> args) {
+		try {
+			final Map<String,Class<?>> name2class = getSupportedFactories();
+			if(this.listSupportedTools)
+				{
+				final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(outputFile);
+				for(final String name: name2class.keySet())
+					{
+					pw.println(name);
+					}
+				pw.flush();
+				pw.close();
+				return 0;
+				}
+			if(this.queueSize<1)
+				{
+				LOG.error("bad queue size "+this.queueSize);
+				return -1;
+				}
+			final List<String> stageList = new ArrayList<>(this.stageStrings);
+			if(this.stagesFile!=null)
+				{
+				try(BufferedReader br = IOUtils.openFileForBufferedReading(this.stagesFile))
+					{
+					br.lines().
+						map(S->S.trim()).
+						filter(S->!(S.isEmpty() || S.startsWith("#"))).
+						forEach(S->stageList.add(S));
+					}
+				}
+			if(stageList.isEmpty())
+				{
+				LOG.error("no stage was defined");
+				return -1;
+				}
+			for(final String stageStr: stageList)
+				{
+				this.stages.add(parseStage(name2class, stageStr));
+				}
+			for(final Stage stage: this.stages)
+				{
+				if(stage.factory.initialize()!=0)
+					{
+					LOG.error("initialization of stage \""+stage.name+"\" failed");
+					return -1;
+					}
+				}
+			return doVcfToVcf(args, this.outputFile);
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			for(final Stage stage: this.stages)
+				{
+				CloserUtil.close(stage.factory);
+				}
+			this.stages.clear();
+			}
+		}
+
+
+	public static void main(final String[] args) {
+		new VcfPipeline().instanceMainWithExit(args);
+	}
+
+}
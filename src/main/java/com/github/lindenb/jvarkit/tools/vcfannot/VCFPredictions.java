@@ -421,6 +421,11 @@ public class VCFPredictions extends Launcher
 	public static enum FORMAT1{TRANSCRIPT,CDSPOS,PROTPOS,CODON,AA,SEQONTOLOGY};
 	
 	
+	@Override
+	protected boolean isRawGenotypesPassthrough() {
+		return true;
+		}
+	
 	@Override
 	protected int doVcfToVcf(final String inputName, final VcfIterator r, VariantContextWriter w)
 		{
@@ -25,8 +25,13 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcfbed;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -43,6 +48,9 @@ import org.apache.commons.jexl2.Expression;
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlException;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.bed.IndexedBedReader;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter.OnNotFound;
@@ -58,6 +66,7 @@ import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.RuntimeIOException;
@@ -132,6 +141,16 @@ chr19   58865112    rs188818621 C   T   .   .   CAF=[0.9954,0.004591];COMMON=1;K
 chr19   58865164    rs80109863  C   T   .   .   CAF=[0.9949,0.005051];COMMON=1;GNO;KGPROD;KGPhase1;OTHERKG;R5;RS=80109863;RSPOS=58865164;SAO=0;SSR=0;VC=SNV;VCFBED=chr19|58864565|58865165|A1BG&58864865;VP=0x050000020001000116000100;WGT=1;dbSNPBuildID=132
 ```
 
+## Large BED files
+
+With option `--sorted-bed`, the BED file doesn't need an index and is not loaded in memory:
+the VCF and the BED must be both sorted on the dictionary of the VCF and they are read together.
+Only the BED records around the current variant (+/- `--max-extend` bases when `--extend` is used) are kept in memory.
+
+```
+$ java -jar dist/vcfbed.jar --sorted-bed regulatory.sorted.bed.gz input.vcf.gz
+```
+
 END_DOC
 
  */
@@ -204,6 +223,8 @@ public class VCFBed extends Launcher
 		
 			@Parameter(names={"-m","--map"},description="unindexed bed file, will be loaded in memory (faster than tribble/tabix but memory consumming)")
 			private File treeMapFile = null;
+			@Parameter(names={"--sorted-bed"},description="[20180701] unindexed bed file sorted on the VCF dictionary. The VCF and the BED are read together, only the BED records near the current variant are kept in memory. Require that the VCF file is sorted and has a Dictionary (##contig lines)")
+			private File sortedBedFile = null;
 		
 			@Parameter(names={"-fo","--filteroverlap"},description="if defined, set this as a FILTER column if one or more BED line overlap a variant")
 			private String filterOverlapStr = null;
@@ -223,6 +244,103 @@ public class VCFBed extends Launcher
 			private ContigNameConverter contigNameConverter = null;
 			private Expression jexlExpr = null;
 			
+			/** sweep-line over a BED file sorted like the VCF: the active BED records are those near the current variant */
+			private class BedSweep implements Closeable
+				{
+				private final SAMSequenceDictionary dict;
+				private final ContigNameConverter bedToVcfContig;
+				private final BedLineCodec codec = new BedLineCodec();
+				private BufferedReader reader;
+				/** number of bases around the variant that can be queried (see --extend) */
+				private final int window;
+				/** BED records overlapping the window of the current variant */
+				private final Deque<BedLine> active = new ArrayDeque<>();
+				/** next BED record, not yet active */
+				private BedLine nextBed = null;
+				private int nextTid = -1;
+				private int prevVcfTid = -1;
+				private int prevVcfStart = 0;
+				
+				BedSweep(final File bedFile,final SAMSequenceDictionary dict,final int window) throws IOException
+					{
+					this.dict = dict;
+					this.window = window;
+					this.bedToVcfContig = ContigNameConverter.fromOneDictionary(dict);
+					this.bedToVcfContig.setOnNotFound(OnNotFound.SKIP);
+					this.reader = IOUtils.openFileForBufferedReading(bedFile);
+					readNext();
+					}
+				
+				private void readNext() throws IOException
+					{
+					final BedLine prevBed = this.nextBed;
+					final int prevTid = this.nextTid;
+					this.nextBed = null;
+					this.nextTid = -1;
+					if(this.reader==null) return;
+					String line;
+					while((line=this.reader.readLine())!=null)
+						{
+						if(line.startsWith("#") ||  BedLine.isBedHeader(line) ||  line.isEmpty()) continue; 
+						final BedLine bl = this.codec.decode(line);
+						if(bl==null || bl.getStart()>bl.getEnd()) continue;
+						final String ctg = this.bedToVcfContig.apply(bl.getContig());
+						if(StringUtil.isBlank(ctg)) continue;
+						final SAMSequenceRecord ssr = this.dict.getSequence(ctg);
+						if(ssr==null) continue;
+						final int tid = ssr.getSequenceIndex();
+						if(prevBed!=null && (tid< prevTid || (tid==prevTid && bl.getStart()< prevBed.getStart())))
+							{
+							throw new JvarkitException.FileFormatError("BED is not sorted like the VCF dictionary: got "+bl+" after "+prevBed);
+							}
+						this.nextBed = bl;
+						this.nextTid = tid;
+						return;
+						}
+					close();
+					}
+				
+				/** move the window to the variant at tid:start-end */
+				void advance(final int tid,final int start,final int end) throws IOException
+					{
+					if(tid< this.prevVcfTid || (tid==this.prevVcfTid && start< this.prevVcfStart))
+						{
+						throw new JvarkitException.UserError("VCF is not sorted: got "+this.dict.getSequence(tid).getSequenceName()+":"+start+" after "+
+							this.dict.getSequence(this.prevVcfTid).getSequenceName()+":"+this.prevVcfStart);
+						}
+					if(tid!=this.prevVcfTid) this.active.clear();
+					this.prevVcfTid = tid;
+					this.prevVcfStart = start;
+					final int minEnd = start - this.window;
+					final int maxStart = end + this.window;
+					while(this.nextBed!=null && (this.nextTid< tid || (this.nextTid==tid && this.nextBed.getStart()<=maxStart)))
+						{
+						if(this.nextTid==tid && this.nextBed.getEnd()>=minEnd) this.active.add(this.nextBed);
+						readNext();
+						}
+					this.active.removeIf(B->B.getEnd()< minEnd);
+					}
+				
+				/** @return the active records overlapping start-end */
+				List<BedLine> getOverlapping(final int start,final int end)
+					{
+					final List<BedLine> L = new ArrayList<>();
+					for(final BedLine bedLine:this.active)
+						{
+						if(start > bedLine.getEnd() ) continue;
+						if(end < bedLine.getStart() ) continue;
+						L.add(bedLine);
+						}
+					return L;
+					}
+				
+				@Override
+				public void close() {
+					CloserUtil.close(this.reader);
+					this.reader = null;
+					}
+				}
+			
 			private class CtxWriter extends DelegateVariantContextWriter
 				{
 				private final File tabixFile = CtxWriterFactory.this.tabixFile;
@@ -238,6 +356,7 @@ public class VCFBed extends Launcher
 				private final int extend_by = CtxWriterFactory.this.extend_by;
 				private final int max_extend_by = CtxWriterFactory.this.max_extend_by;
 				private SAMSequenceDictionary vcfDict=null;
+				private BedSweep bedSweep = null;
 				
 				
 				CtxWriter(final VariantContextWriter delegate) {
@@ -245,6 +364,13 @@ public class VCFBed extends Launcher
 					
 					}
 				
+				@Override
+				public void close() {
+					CloserUtil.close(this.bedSweep);
+					this.bedSweep = null;
+					super.close();
+					}
+				
 				private CtxWriterFactory getOwner() { return CtxWriterFactory.this;}
 				
 				
@@ -262,8 +388,28 @@ public class VCFBed extends Launcher
 				
 				@Override
 				public void writeHeader(final VCFHeader header) {
-					final File srcbedfile = this.tabixFile==null?this.treeMapFile:this.tabixFile;
+					final File srcbedfile = this.tabixFile!=null?this.tabixFile:
+						this.treeMapFile!=null?this.treeMapFile:
+						getOwner().sortedBedFile;
 					this.vcfDict = header.getSequenceDictionary();
+					if(getOwner().sortedBedFile!=null)
+						{
+						if(this.vcfDict==null || this.vcfDict.isEmpty())
+							{
+							throw new JvarkitException.VcfDictionaryMissing("input VCF");
+							}
+						try {
+							this.bedSweep = new BedSweep(
+								getOwner().sortedBedFile,
+								this.vcfDict,
+								this.extend_by<1?0:Math.max(0,this.max_extend_by)
+								);
+							}
+						catch(final IOException err)
+							{
+							throw new RuntimeIOException(err);
+							}
+						}
 					final VCFHeader h2=new VCFHeader(header);
 					this.infoHeader= 
 							new VCFInfoHeaderLine(
@@ -299,7 +445,27 @@ public class VCFBed extends Launcher
 						return;
 						}
 					
-					final String normalizedContig = getOwner().contigNameConverter.apply(ctx.getContig());
+					final String normalizedContig;
+					if(this.bedSweep!=null)
+						{
+						final SAMSequenceRecord ssr = this.vcfDict.getSequence(ctx.getContig());
+						if(ssr==null) {
+							super.add(ctx);
+							return;
+							}
+						try {
+							this.bedSweep.advance(ssr.getSequenceIndex(), ctx.getStart(), ctx.getEnd());
+							}
+						catch(final IOException err)
+							{
+							throw new RuntimeIOException(err);
+							}
+						normalizedContig = ctx.getContig();
+						}
+					else
+						{
+						normalizedContig = getOwner().contigNameConverter.apply(ctx.getContig());
+						}
 					if(StringUtil.isBlank(normalizedContig)) {
 						super.add(ctx);
 						return;
@@ -325,6 +491,17 @@ public class VCFBed extends Launcher
 								}
 							  }
 							}
+						else if(this.bedSweep!=null)
+							{
+							for(final BedLine bedLine:this.bedSweep.getOverlapping(theInterval.getStart(),theInterval.getEnd())) {
+								found_overlap=true;
+								final String newannot= this.bedLineToString(bedLine);
+								if(!StringUtil.isBlank(newannot))
+									{
+									annotations.add(VCFUtils.escapeInfoField(newannot));
+									}
+								}
+							}
 						else
 							{
 							CloseableIterator<BedLine> iter = null;
@@ -449,16 +626,20 @@ public class VCFBed extends Launcher
 			@Override
 			public int initialize() {
 
-				if(this.tabixFile==null && this.treeMapFile==null)
+				final int n_sources = (this.tabixFile==null?0:1) + (this.treeMapFile==null?0:1) + (this.sortedBedFile==null?0:1);
+				if(n_sources==0)
 					{
-					LOG.error("Undefined tabix or memory file");
+					LOG.error("Undefined tabix or memory or sorted file");
 					return -1;
 					}
-				else if(this.tabixFile!=null && this.treeMapFile!=null)
+				else if(n_sources>1)
 					{
-					LOG.error("You cannot use both options: tabix/in memory bed");
+					LOG.error("You cannot use more than one option: tabix/in memory/sorted bed");
 					return -1;
 					}
+				else if( this.sortedBedFile!=null) {
+					IOUtil.assertFileIsReadable(this.sortedBedFile);
+					}
 				else if( this.tabixFile!=null) {
 					LOG.info("opening Bed "+this.tabixFile);
 					try 
@@ -485,7 +666,7 @@ public class VCFBed extends Launcher
 						}
 					}
 				
-				this.contigNameConverter.setOnNotFound(OnNotFound.SKIP);
+				if(this.contigNameConverter!=null) this.contigNameConverter.setOnNotFound(OnNotFound.SKIP);
 				
 				if(this.infoName==null || this.infoName.trim().isEmpty())
 					{
@@ -518,6 +699,11 @@ public class VCFBed extends Launcher
 				}
 			}
 	
+	@Override
+	protected boolean isRawGenotypesPassthrough() {
+		return true;
+		}
+	
 	@Override
 	protected int doVcfToVcf(final String inputName, final  VcfIterator iter, final  VariantContextWriter delegate)
 		{	
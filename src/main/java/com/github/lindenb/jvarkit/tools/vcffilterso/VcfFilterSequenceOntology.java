@@ -40,6 +40,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -237,6 +238,8 @@ public class VcfFilterSequenceOntology
 			/* all sequence terms */
 			@XmlTransient
 			private final Set<SequenceOntologyTree.Term> user_terms=new HashSet<SequenceOntologyTree.Term>();
+			/** bitset test on the ids of user_terms */
+			private Predicate<SequenceOntologyTree.Term> user_terms_filter = T->false;
 
 			
 			private class CtxWriter extends DelegateVariantContextWriter
@@ -617,7 +620,7 @@ public class VcfFilterSequenceOntology
 					if(ctxTerms==null || ctxTerms.isEmpty()) return false;
 					return ctxTerms.
 							stream().
-							anyMatch(S->user_terms.contains(S));
+							anyMatch(user_terms_filter);
 					}				
 				}
 			
@@ -682,6 +685,7 @@ public class VcfFilterSequenceOntology
 					this.user_terms.addAll(tmpSet1);
 					}
 				
+				this.user_terms_filter = this.sequenceOntologyTree.createTermFilter(this.user_terms, false);
 				if(this.user_terms.isEmpty())
 					{
 					LOG.warn("No SO: term found ");
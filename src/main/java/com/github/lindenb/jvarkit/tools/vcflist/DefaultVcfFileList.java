@@ -25,11 +25,22 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcflist;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
@@ -48,10 +59,15 @@ class DefaultVcfFileList extends AbstractList<VariantContext>
 	implements VcfList
 	{
 	private static final Logger LOG=Logger.build(DefaultVcfFileList.class).make();
+	/** a MappedByteBuffer cannot be larger than 2Gb: one segment contains at most this number of offsets */
+	private static final int OFFSETS_PER_SEGMENT = Integer.MAX_VALUE / Long.BYTES;
+	/** number of sorted indexes fetched by one task of the thread pool */
+	private static final int SLICE_SIZE = 10_000;
 
 	private final File vcfFile;
 	private final VCFHeader header;
-	private RandomAccessFile indexio;
+	/** the offsets index, mapped in memory */
+	private MappedByteBuffer offsetSegments[];
 	private final BlockCompressedInputStream bgzfin;
 	private final RandomAccessFile vcfrandom;
 	private final VCFCodec codec = new VCFCodec();
@@ -89,20 +105,39 @@ class DefaultVcfFileList extends AbstractList<VariantContext>
 			throw new IOException("index file doesn't contain magic header " + indexFile);
 			}
 		fileLength-= VcfOffsetsIndexFactory.MAGIC.length;
-		if(fileLength%Long.BYTES!=0) {
+		if(fileLength%Long.BYTES!=0 || fileLength/Long.BYTES > Integer.MAX_VALUE) {
 			close();
 			throw new IOException("bad index file  " + indexFile);
 			}
-		this.indexio = new RandomAccessFile(indexFile, "r");
-		final byte magic[]=new byte[VcfOffsetsIndexFactory.MAGIC.length];
-		this.indexio.readFully(magic);
-		if(!Arrays.equals(magic, VcfOffsetsIndexFactory.MAGIC)) {
-			close();
-			throw new IOException("bad index file (magic)  " + indexFile);
-			}
-		
 		this._size=(int)(fileLength/Long.BYTES);
+		try(final FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer magic = ByteBuffer.allocate(VcfOffsetsIndexFactory.MAGIC.length);
+			while(magic.hasRemaining()) {
+				if(channel.read(magic, magic.position())<0) break;
+				}
+			if(!Arrays.equals(magic.array(), VcfOffsetsIndexFactory.MAGIC)) {
+				close();
+				throw new IOException("bad index file (magic)  " + indexFile);
+				}
+			this.offsetSegments = new MappedByteBuffer[(int)((this._size + (long)OFFSETS_PER_SEGMENT - 1L)/OFFSETS_PER_SEGMENT)];
+			for(int i=0;i< this.offsetSegments.length;i++)
+				{
+				final long first = (long)i * OFFSETS_PER_SEGMENT;
+				final long count = Math.min(OFFSETS_PER_SEGMENT, this._size - first);
+				this.offsetSegments[i] = channel.map(
+					FileChannel.MapMode.READ_ONLY,
+					VcfOffsetsIndexFactory.MAGIC.length + first * Long.BYTES,
+					count * Long.BYTES
+					);
+				}
+			}
 		}
+	
+	/** @return the offset of the index-th variant in the vcf file */
+	private long getOffset(final int index) {
+		return this.offsetSegments[index / OFFSETS_PER_SEGMENT].getLong((index % OFFSETS_PER_SEGMENT) * Long.BYTES);
+		}
+	
 	@Override
 	public VCFHeader getHeader() {
 		return this.header;
@@ -115,8 +150,7 @@ class DefaultVcfFileList extends AbstractList<VariantContext>
 			final String line;
 			if(this.last_list_index==-1 || this.last_list_index+1!=index)
 				{
-				this.indexio.seek((long)VcfOffsetsIndexFactory.MAGIC.length+ (long)index*(long)Long.BYTES);
-				final long offset = this.indexio.readLong();
+				final long offset = getOffset(index);
 				
 				if(this.bgzfin!=null) {
 					this.bgzfin.seek(offset);
@@ -146,6 +180,160 @@ class DefaultVcfFileList extends AbstractList<VariantContext>
 			throw new RuntimeIOException(err);
 			}
 		}
+	/** read the line at a given offset of the vcf. The offsets are expected to be sorted */
+	private interface LineFetcher extends Closeable
+		{
+		public String readLine(long offset) throws IOException;
+		}
+	
+	/** BGZF file: the lines in the same block are read with one decompression */
+	private class BgzfLineFetcher implements LineFetcher
+		{
+		private final BlockCompressedInputStream in;
+		BgzfLineFetcher() throws IOException {
+			this.in = new BlockCompressedInputStream(DefaultVcfFileList.this.vcfFile);
+			}
+		@Override
+		public String readLine(final long offset) throws IOException {
+			/* seek doesn't inflate the block again if the offset is in the current block */
+			if(this.in.getFilePointer()!=offset) this.in.seek(offset);
+			return this.in.readLine();
+			}
+		@Override
+		public void close() {
+			CloserUtil.close(this.in);
+			}
+		}
+	
+	/** plain file: positional reads in a buffer, the channel can be shared by the threads */
+	private static class PlainLineFetcher implements LineFetcher
+		{
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(65_536);
+		/** offset of the buffer in the file or -1 */
+		private long bufferStart = -1L;
+		private byte line[] = new byte[1_000];
+		PlainLineFetcher(final FileChannel channel) {
+			this.channel = channel;
+			}
+		private void fill(final long offset) throws IOException {
+			this.buffer.clear();
+			while(this.buffer.hasRemaining()) {
+				if(this.channel.read(this.buffer, offset + this.buffer.position())<0) break;
+				}
+			this.buffer.flip();
+			this.bufferStart = offset;
+			}
+		@Override
+		public String readLine(final long offset) throws IOException {
+			long pos = offset;
+			int len = 0;
+			for(;;)
+				{
+				if(this.bufferStart<0L || pos < this.bufferStart || pos >= this.bufferStart + this.buffer.limit())
+					{
+					fill(pos);
+					if(this.buffer.limit()==0)
+						{
+						if(pos==offset) return null;
+						break;
+						}
+					}
+				final byte array[] = this.buffer.array();
+				final int start = (int)(pos - this.bufferStart);
+				int i = start;
+				while(i< this.buffer.limit() && array[i]!='\n') i++;
+				if(len + (i-start) > this.line.length) this.line = Arrays.copyOf(this.line, Math.max(2*this.line.length, len + (i-start)));
+				System.arraycopy(array, start, this.line, len, i-start);
+				len += (i-start);
+				pos += (i-start);
+				if(i< this.buffer.limit()) break;
+				}
+			if(len>0 && this.line[len-1]=='\r') len--;
+			return new String(this.line, 0, len, StandardCharsets.ISO_8859_1);
+			}
+		@Override
+		public void close() {
+			/* channel is closed by the caller */
+			}
+		}
+	
+	/** decode the variants for sorted[from..to[ . sorted contains (index&lt;&lt;32|rank) */
+	private void fetch(final long sorted[],final int from,final int to,final VariantContext variants[],final VCFCodec vcfCodec,final FileChannel channel) throws IOException {
+		try(final LineFetcher fetcher = (channel==null?new BgzfLineFetcher():new PlainLineFetcher(channel))) {
+			int prevIndex = -1;
+			VariantContext prev = null;
+			for(int i=from;i< to;i++)
+				{
+				final int index = (int)(sorted[i]>>>32);
+				final int rank = (int)(sorted[i] & 0xFFFFFFFFL);
+				if(index!=prevIndex)
+					{
+					final String line = fetcher.readLine(getOffset(index));
+					if(line==null) throw new IOException("cannot read variant at index "+index+" in "+this.vcfFile);
+					prev = vcfCodec.decode(line);
+					prevIndex = index;
+					}
+				variants[rank] = prev;
+				}
+			}
+		}
+	
+	@Override
+	public List<VariantContext> getAll(final int indexes[],final ExecutorService executorService) {
+		for(final int index:indexes) {
+			if(index<0 || index>=this.size()) throw new IndexOutOfBoundsException("0<"+index+"<"+size() +" in "+vcfFile);
+			}
+		/* sort on index, keep the rank to restore the user's order */
+		final long sorted[] = new long[indexes.length];
+		for(int i=0;i< indexes.length;i++) {
+			sorted[i] = (((long)indexes[i])<<32) | i;
+			}
+		Arrays.sort(sorted);
+		final VariantContext variants[] = new VariantContext[indexes.length];
+		FileChannel channel = null;
+		try {
+			if(this.bgzfin==null) channel = FileChannel.open(this.vcfFile.toPath(), StandardOpenOption.READ);
+			if(executorService==null || sorted.length <= SLICE_SIZE)
+				{
+				fetch(sorted, 0, sorted.length, variants, this.codec, channel);
+				}
+			else
+				{
+				final FileChannel sharedChannel = channel;
+				final List<Future<Void>> futures = new ArrayList<>();
+				for(int i=0;i< sorted.length;i+=SLICE_SIZE)
+					{
+					final int from = i;
+					final int to = Math.min(sorted.length, i+SLICE_SIZE);
+					futures.add(executorService.submit(()->{
+						/* VCFCodec is not thread safe */
+						final VCFCodec sliceCodec = new VCFCodec();
+						sliceCodec.readHeader(VCFUtils.convertVCFHeaderToLineIterator(this.header));
+						fetch(sorted, from, to, variants, sliceCodec, sharedChannel);
+						return null;
+						}));
+					}
+				for(final Future<Void> future:futures) {
+					future.get();
+					}
+				}
+			return Arrays.asList(variants);
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		catch(final InterruptedException|ExecutionException err)
+			{
+			throw new RuntimeException(err);
+			}
+		finally
+			{
+			CloserUtil.close(channel);
+			}
+		}
+	
 	@Override
 	public int size() {
 		return this._size;
@@ -154,7 +342,8 @@ class DefaultVcfFileList extends AbstractList<VariantContext>
 	public void close() throws IOException {
 		CloserUtil.close(this.bgzfin);
 		CloserUtil.close(this.vcfrandom);
-		CloserUtil.close(this.indexio);
+		/* the offsets are unmapped by the garbage collector */
+		this.offsetSegments = null;
 		}
 	@Override
 	public String toString() {
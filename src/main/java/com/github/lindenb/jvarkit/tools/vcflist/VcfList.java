@@ -29,8 +29,11 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFHeader;
 
@@ -41,6 +44,13 @@ import htsjdk.variant.vcf.VCFHeader;
  */
 public interface VcfList extends List<VariantContext>,Closeable {
 	public VCFHeader getHeader();
+	/** get the variants at the given 0-based indexes. The returned list has the same order as 'indexes'.
+	 * Implementations can sort the indexes and use the executorService (which can be null) to decode the variants */
+	public default List<VariantContext> getAll(final int indexes[],final ExecutorService executorService) {
+		final List<VariantContext> L = new ArrayList<>(indexes.length);
+		for(final int index:indexes) L.add(get(index));
+		return L;
+		}
 	public static VcfList fromFile(final File vcfFile ) throws IOException {
 		return fromFile(vcfFile,VcfOffsetsIndexFactory.getDefaultIndexFile(vcfFile));
 		}
@@ -25,6 +25,7 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcflist;
 
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -129,7 +130,7 @@ public class VcfOffsetsIndexFactory {
 		SAMSequenceDictionaryProgress progress=null;
 		
 		try {
-			daos = new DataOutputStream(new FileOutputStream(indexFile));
+			daos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
 			daos.write(MAGIC);
 			if(vcfFile.getName().endsWith(".vcf.gz")) {
 				bgzin = new BlockCompressedInputStream(vcfFile);
@@ -29,7 +29,6 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.vcfmerge;
 
-import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -60,19 +59,21 @@ import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.AbstractVCFCodec;
+import htsjdk.variant.vcf.VCFCodec;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
+import htsjdk.variant.vcf.VCFHeaderVersion;
 import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.PeekableIterator;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 
 import com.beust.jcommander.Parameter;
@@ -80,10 +81,13 @@ import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
+import com.github.lindenb.jvarkit.util.iterator.EqualRangeIterator;
+import com.github.lindenb.jvarkit.util.iterator.MergingIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
@@ -126,6 +130,8 @@ public class VCFMerge
 	@Parameter(names={"-region","--region"},description="Merge in that region: " + IntervalParser.OPT_DESC )
 	private String regionStr = "";
 
+	@Parameter(names={"--prefetch"},description="When the files are sorted (option -s), each VCF is read by its own thread, keeping about 'x' variants in memory per file. 0: disable.")
+	private int prefetchBufferSize = 0;
 	
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
@@ -152,17 +158,27 @@ public class VCFMerge
 	private static class VCFHandler
 		{
 		final String origin;
-		AbstractVCFCodec vcfCodec = VCFUtils.createDefaultVCFCodec();
+		/** codec reading the header, used by the thread that created this handler */
+		final AbstractVCFCodec vcfCodec = VCFUtils.createDefaultVCFCodec();
 		VCFHeader header=null;
-		
+		/** the codecs are not thread-safe: one decoder per thread */
+		private final ThreadLocal<AbstractVCFCodec> threadCodecs;
 		
 		VCFHandler(final String origin) {
 			this.origin=origin;
+			final Thread owner = Thread.currentThread();
+			this.threadCodecs = ThreadLocal.withInitial(()->{
+				if(Thread.currentThread()==owner) return this.vcfCodec;
+				final VCFHeaderVersion versions[]=VCFHeaderVersion.values();
+				final VCFCodec codec = new VCFCodec();
+				codec.setVCFHeader(this.header, versions[versions.length-1]);
+				return codec;
+				});
 		}
 		
 		VariantContext parse(final String line)
 			{
-			return vcfCodec.decode(line);
+			return this.threadCodecs.get().decode(line);
 			}
 	
 		
@@ -180,19 +196,46 @@ public class VCFMerge
 		String line=null;
 		/** variantContext cache */
 		private VariantContext var=null;
+		/** contig index, start and REF of the variant, set by {@link #computeSortKey()} */
+		int tid;
+		int pos;
+		String ref;
+		/** normalized key for (tid,pos,ref) */
+		long sortKey;
+		
+		/** decode the variant and fill the fields used for sorting. The decoded variant is released. */
+		void computeSortKey()
+			{
+			final VariantContext ctx = parse();
+			this.tid = VCFMerge.this.contig2tid.apply(ctx.getContig());
+			this.pos = ctx.getStart();
+			this.ref = ctx.getReference().getBaseString();
+			this.sortKey = VCFUtils.chromPosRefSortKey(this.tid, this.pos, this.ref);
+			this.var = null;
+			}
+		
+		/** same as compareChromPosRef on the decoded variants */
+		private int compareChromPosRef(final VariantOfFile o)
+			{
+			int i = Long.compareUnsigned(this.sortKey, o.sortKey);
+			if(i!=0) return i;
+			i = Integer.compare(this.tid, o.tid);
+			if(i!=0) return i;
+			i = Integer.compare(this.pos, o.pos);
+			if(i!=0) return i;
+			return this.ref.compareTo(o.ref);
+			}
 		
 		boolean same(final VariantOfFile var)
 			{
-			return VCFMerge.this.compareChromPosRef.compare(this.parse(),var.parse())==0;
+			return compareChromPosRef(var)==0;
 			}
 		
 
 		@Override
 		public int compareTo(final VariantOfFile var)
 			{
-			final VariantContext vc1=parse();
-			final VariantContext vc2=var.parse();
-			final int i= VCFMerge.this.compareChromPosRef.compare(vc1, vc2);
+			final int i= compareChromPosRef(var);
 			if(i!=0) return i;
 			return fileIndex - var.fileIndex;
 			}
@@ -228,6 +271,10 @@ public class VCFMerge
 				return null;
 				}
 			o.line=readString(dis);
+			o.tid=dis.readInt();
+			o.pos=dis.readInt();
+			o.ref=readString(dis);
+			o.sortKey=dis.readLong();
 			return o;
 
 			}
@@ -236,13 +283,17 @@ public class VCFMerge
 				throws IOException {
 			dos.writeInt(s.fileIndex);
 			writeString(dos,s.line);
+			dos.writeInt(s.tid);
+			dos.writeInt(s.pos);
+			writeString(dos,s.ref);
+			dos.writeLong(s.sortKey);
 			}
 		@Override
 		public VariantCodec clone() {
 			return new VariantCodec();
 			}
 		}
-	/** sorter for sorting collection */
+	/** sorter for sorting collection. Called by the sorting threads: only uses the fields set by {@link VariantOfFile#computeSortKey()}, never decodes the line */
 	private class VariantComparator implements Comparator<VariantOfFile>
 		{
 		@Override
@@ -431,8 +482,10 @@ public class VCFMerge
 		}
 	
 	
-	/** container uri+vcfIterator */
-	private class PeekVCF implements Closeable
+	/** container uri+vcfIterator . Variants at the same position are sorted on REF */
+	private class PeekVCF
+		extends AbstractIterator<VariantContext>
+		implements CloseableIterator<VariantContext>
 		{
 		final String uri;
 		final VCFFileReader reader;
@@ -440,6 +493,7 @@ public class VCFMerge
 		final CloseableIterator<VariantContext> iter0;
 		final VCFHeader header;
 		final List<VariantContext> buffer = new ArrayList<>();
+		private boolean closed = false;
 		
 		PeekVCF(final String uri) throws IOException {
 			this.uri = uri;
@@ -461,9 +515,9 @@ public class VCFMerge
 			this.iter = new PeekableIterator<>(this.iter0); 
 			}
 		
-		private List<VariantContext> priv_peek()
+		/** fill the buffer with the variants having the same chrom/pos */
+		private void fillBuffer()
 			{
-			if(!this.buffer.isEmpty()) return this.buffer;
 			while(this.iter.hasNext())
 				{
 				final VariantContext ctx= this.iter.peek();
@@ -492,28 +546,21 @@ public class VCFMerge
 					}
 				}
 			Collections.sort(this.buffer, VCFMerge.this.compareChromPosRef);
-			return buffer;
-			}
-		List<VariantContext> peek()
-			{
-			final List<VariantContext> L = priv_peek();
-			if(L.isEmpty() || L.size()==1) return L;
-			return L.stream().
-					filter(V->V==L.get(0) /* compare ptr */|| VCFMerge.this.compareChromPosRef.compare(L.get(0),V)==0).
-					collect(Collectors.toList());
 			}
 		
-		void reset(final VariantContext ctx0)
+		@Override
+		protected VariantContext advance()
 			{
-			this.buffer.removeIf(V->
-					 V.getContig().equals(ctx0.getContig()) &&
-					 V.getStart() == ctx0.getStart()  &&
-				     V.getReference().equals(ctx0.getReference()));
+			if(this.closed) return null;
+			if(this.buffer.isEmpty()) fillBuffer();
+			return this.buffer.isEmpty()?null:this.buffer.remove(0);
 			}
 		
 		@Override
 		public void close()
 			{
+			if(this.closed) return;
+			this.closed = true;
 			CloserUtil.close(this.iter);
 			CloserUtil.close(this.iter0);
 			CloserUtil.close(this.reader);
@@ -529,7 +576,7 @@ public class VCFMerge
 		{
 		VariantContextWriter out = null;
 		final List<PeekVCF> input=new ArrayList<PeekVCF>();
-
+		EqualRangeIterator<VariantContext> rowIterator = null;
 		try {
 			final Set<String> genotypeSampleNames=new TreeSet<String>();
 			final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
@@ -571,51 +618,26 @@ public class VCFMerge
 			
 			
 			out.writeHeader(headerOut);
-			final List<VariantContext> row=new ArrayList<VariantContext>(input.size());
-			//find smallest ordered variant
+			/* k-way merge of the files, grouped by chrom/pos/ref. Variants of a row are in the order of the files */
+			rowIterator = new EqualRangeIterator<>(
+					new MergingIterator<>(this.compareChromPosRef, input, Math.max(0, this.prefetchBufferSize),
+						/* the genotypes must be decoded by the reading thread, with the codec of this file */
+						VCFUtils::decodeLazyGenotypes),
+					this.compareChromPosRef
+					);
 			long nCountForGC=0L;
-			for(;;)
+			while(rowIterator.hasNext())
 				{
-				row.clear();
-				for(final PeekVCF peekVcf: input)
-					{
-					final List<VariantContext> peekVcfList = peekVcf.peek(); 
-					if(peekVcf.peek().isEmpty()) continue;
-					final VariantContext ctx= peekVcfList.get(0);
-					if(row.isEmpty())
-						{
-						row.addAll(peekVcfList);
-						continue;
-						}
-					final int cmp= this.compareChromPosRef.compare( ctx, row.get(0));
-					if(cmp==0)
-						{
-						row.addAll(peekVcfList);
-						}
-					else if(cmp<0)
-						{
-						row.clear();
-						row.addAll(peekVcfList);
-						}
-					}
-				if(row.isEmpty()) break;
+				final List<VariantContext> row = rowIterator.next();
 				
 				for(final VariantContext merged: buildContextFromVariantContext(headerOut, row))
 					{
 					out.add(progress.watch(merged));
 					}
-				
-				//consumme peeked variants
-				for(final PeekVCF peekVcf: input)
-					{
-					peekVcf.reset(row.get(0));
-					}
 				if(nCountForGC++%100000==0) System.gc();
 				}
-			for(final PeekVCF peekVcf: input)
-				{
-				peekVcf.close();
-				}
+			rowIterator.close();
+			rowIterator = null;
 			input.clear();
 			CloserUtil.close(out); out=null;
 			progress.finish();
@@ -629,6 +651,7 @@ public class VCFMerge
 		}
 		finally
 			{
+			CloserUtil.close(rowIterator);
 			CloserUtil.close(out);
 			for(final PeekVCF p: input)
 				{
@@ -665,19 +688,18 @@ public class VCFMerge
 	private int workUsingSortingCollection() 
 		{
 		VariantContextWriter w=null;
-		SortingCollection<VariantOfFile> array = null;
+		ParallelSortingCollection<VariantOfFile> array = null;
 		InputStream in = null;
 		CloseableIterator<VariantOfFile> iter=null;
 			try {
 			final List<String> IN=new ArrayList<String>(this.userVcfFiles);
 			final Set<String> genotypeSampleNames=new TreeSet<String>();
 			final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
-			array= SortingCollection.newInstance(
+			array= this.writingSortingCollection.make(
 					VariantOfFile.class,
 					new VariantCodec(),
 					new VariantComparator(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
+					V->V.sortKey
 					);
 			array.setDestructiveIteration(true);
 			
@@ -729,6 +751,7 @@ public class VCFMerge
 					vof.fileIndex=fileIndex;
 					vof.line=lit.next();
 					if(!accept.test(vof)) continue;
+					vof.computeSortKey();
 					array.add(vof);
 					}
 	
@@ -0,0 +1,377 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * A memory-mapped, 2-bit packed copy of an indexed FASTA file, stored next to the '.fai'.
+ * 
+ * For each contig the file contains: the bases as 2-bit codes (A,C,G,T), a bit mask of the
+ * bases that are not A/C/G/T (N...), a bit mask of the lower-case bases, the cumulative
+ * GC/AT counts by blocks of {@value #BLOCK_SIZE} bases and the few bases that are neither
+ * A,C,G,T nor N (IUPAC codes). A contig is mapped on its first use; the mapping is read-only
+ * and can be shared by any number of threads.
+ */
+public class PackedReferenceCache {
+	private static final Logger LOG = Logger.build(PackedReferenceCache.class).make();
+	/** suffix of the cache, added to the path of the fasta */
+	public static final String FILE_SUFFIX = ".packed";
+	/** system property: if true, the cache is created when a fasta is opened by {@link ReferenceGenomeFactory} */
+	public static final String CREATE_PROPERTY = "jvarkit.reference.packed";
+	static final int BLOCK_SIZE = 1_024;
+	private static final byte[] MAGIC = "JVKREF01".getBytes(StandardCharsets.US_ASCII);
+	private static final char BASES[]={'A','C','G','T'};
+	/** all the caches opened in this JVM */
+	private static final Map<File,PackedReferenceCache> SHARED = new ConcurrentHashMap<>();
+
+	private final File file;
+	private final Map<String,ContigInfo> name2contig = new HashMap<>();
+
+	/** location of a contig in the cache */
+	private static class ContigInfo
+		{
+		int length;
+		long offset;
+		long size;
+		/** lazily mapped */
+		volatile PackedContig mapped = null;
+		}
+
+	/** the packed sequence of a contig. Reading methods don't have any state and are thread-safe */
+	public static class PackedContig
+		{
+		private final int length;
+		private final ByteBuffer buffer;
+		private final int twoBitOffset;
+		private final int nMaskOffset;
+		private final int lowerMaskOffset;
+		private final int gcOffset;
+		private final int atOffset;
+		private final int exceptionPos[];
+		private final byte exceptionBase[];
+
+		private PackedContig(final int length,final ByteBuffer buffer) {
+			this.length = length;
+			this.buffer = buffer;
+			final int maskSize = (length+7)/8;
+			final int nBlocks = length/BLOCK_SIZE + 1;
+			this.twoBitOffset = 0;
+			this.nMaskOffset = this.twoBitOffset + (length+3)/4;
+			this.lowerMaskOffset = this.nMaskOffset + maskSize;
+			this.gcOffset = this.lowerMaskOffset + maskSize;
+			this.atOffset = this.gcOffset + 4*nBlocks;
+			int offset = this.atOffset + 4*nBlocks;
+			final int nExceptions = buffer.getInt(offset);
+			offset += 4;
+			this.exceptionPos = new int[nExceptions];
+			this.exceptionBase = new byte[nExceptions];
+			for(int i=0;i< nExceptions;i++) {
+				this.exceptionPos[i] = buffer.getInt(offset);
+				this.exceptionBase[i] = buffer.get(offset+4);
+				offset += 5;
+				}
+			}
+
+		public int length() {
+			return this.length;
+			}
+
+		private boolean isSet(final int maskOffset,final int index0) {
+			return ((this.buffer.get(maskOffset + (index0>>3)) >> (index0 & 7)) & 1) != 0;
+			}
+
+		/** base at 0-based index, with its original case */
+		public char charAt(final int index0) {
+			if(index0<0 || index0>=this.length) throw new IndexOutOfBoundsException("index:"+index0);
+			if(isSet(this.nMaskOffset, index0)) {
+				if(this.exceptionPos.length>0) {
+					final int i = Arrays.binarySearch(this.exceptionPos, index0);
+					if(i>=0) return (char)this.exceptionBase[i];
+					}
+				return isSet(this.lowerMaskOffset, index0)?'n':'N';
+				}
+			final char c = BASES[(this.buffer.get(this.twoBitOffset + (index0>>2)) >> (2*(index0 & 3))) & 3];
+			return isSet(this.lowerMaskOffset, index0)? Character.toLowerCase(c) : c;
+			}
+
+		/** adds (sign * number of G/C/S) to counts[0] and (sign * number of A/T/W) to counts[1] in [0,index0) */
+		private void countBefore(final int index0,final int counts[],final int sign) {
+			final int block = index0/BLOCK_SIZE;
+			int gc = this.buffer.getInt(this.gcOffset + 4*block);
+			int at = this.buffer.getInt(this.atOffset + 4*block);
+			for(int i=block*BLOCK_SIZE;i< index0;i++) {
+				switch(charAt(i)) {
+					case 'c': case 'C':
+					case 'g': case 'G':
+					case 's': case 'S': gc++; break;
+					case 'a': case 'A':
+					case 't': case 'T':
+					case 'w': case 'W': at++; break;
+					default: break;
+					}
+				}
+			counts[0] += sign*gc;
+			counts[1] += sign*at;
+			}
+
+		/** fills counts={GC,AT} for the 0-based half-open interval [start0,end0) */
+		public void getGCAT(final int start0,final int end0,final int counts[]) {
+			final int s = Math.max(0, start0);
+			final int e = Math.min(this.length, end0);
+			counts[0]=0;
+			counts[1]=0;
+			if(s>=e) return;
+			countBefore(e, counts, 1);
+			countBefore(s, counts, -1);
+			}
+		}
+
+	private PackedReferenceCache(final File file) throws IOException {
+		this.file = file;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final byte magic[] = new byte[MAGIC.length];
+			raf.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC)) throw new IOException("not a packed reference "+file);
+			raf.seek(raf.length()-MAGIC.length-8);
+			final long indexOffset = raf.readLong();
+			raf.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC)) throw new IOException("truncated packed reference "+file);
+			raf.seek(indexOffset);
+			final int n = raf.readInt();
+			for(int i=0;i< n;i++) {
+				final String name = raf.readUTF();
+				final ContigInfo ci = new ContigInfo();
+				ci.length = raf.readInt();
+				ci.offset = raf.readLong();
+				ci.size = raf.readLong();
+				this.name2contig.put(name, ci);
+				}
+			}
+		}
+
+	public File getFile() {
+		return this.file;
+		}
+
+	/** returns the packed contig or null if it doesn't exist. The contig is mapped on first call */
+	public PackedContig getContig(final String name) {
+		final ContigInfo ci = this.name2contig.get(name);
+		if(ci==null) return null;
+		PackedContig contig = ci.mapped;
+		if(contig!=null) return contig;
+		synchronized(ci) {
+			if(ci.mapped==null) {
+				try(RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+					final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, ci.offset, ci.size);
+					ci.mapped = new PackedContig(ci.length, buffer);
+					}
+				catch(final IOException err) {
+					throw new RuntimeIOException(err);
+					}
+				}
+			return ci.mapped;
+			}
+		}
+
+	/** returns the path of the cache for the given fasta */
+	public static File getCacheFile(final File fasta) {
+		return new File(fasta.getPath()+FILE_SUFFIX);
+		}
+
+	/** returns true if the cache exists and is newer than the fasta */
+	public static boolean isUpToDate(final File fasta) {
+		final File cache = getCacheFile(fasta);
+		return cache.exists() && cache.lastModified() >= fasta.lastModified();
+		}
+
+	/** open the shared cache of the given fasta, the cache must exist */
+	public static PackedReferenceCache open(final File fasta) throws IOException {
+		final File cache = getCacheFile(fasta).getCanonicalFile();
+		PackedReferenceCache c = SHARED.get(cache);
+		if(c==null) {
+			synchronized(SHARED) {
+				c = SHARED.get(cache);
+				if(c==null) {
+					c = new PackedReferenceCache(cache);
+					SHARED.put(cache, c);
+					}
+				}
+			}
+		return c;
+		}
+
+	/** creates the cache for an indexed fasta. The file is written in a temporary file and then renamed */
+	public static void build(final File fasta) throws IOException {
+		final File cache = getCacheFile(fasta);
+		final File tmp = File.createTempFile("tmp.", FILE_SUFFIX, cache.getAbsoluteFile().getParentFile());
+		IndexedFastaSequenceFile faidx = null;
+		DataOutputStream out = null;
+		try {
+			LOG.info("creating "+cache);
+			faidx = new IndexedFastaSequenceFile(fasta);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1_000_000));
+			out.write(MAGIC);
+			long offset = MAGIC.length;
+			final Map<String,ContigInfo> contigs = new LinkedHashMap<>();
+			for(final SAMSequenceRecord ssr: faidx.getSequenceDictionary().getSequences()) {
+				final ContigInfo ci = new ContigInfo();
+				ci.length = ssr.getSequenceLength();
+				ci.offset = offset;
+				ci.size = writeContig(faidx, ssr, out);
+				offset += ci.size;
+				contigs.put(ssr.getSequenceName(), ci);
+				}
+			out.writeInt(contigs.size());
+			for(final String name: contigs.keySet()) {
+				final ContigInfo ci = contigs.get(name);
+				out.writeUTF(name);
+				out.writeInt(ci.length);
+				out.writeLong(ci.offset);
+				out.writeLong(ci.size);
+				}
+			out.writeLong(offset);
+			out.write(MAGIC);
+			out.flush();
+			out.close();
+			out = null;
+			Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+		finally
+			{
+			CloserUtil.close(out);
+			CloserUtil.close(faidx);
+			tmp.delete();
+			}
+		}
+
+	private static long writeContig(final IndexedFastaSequenceFile faidx,final SAMSequenceRecord ssr,final DataOutputStream out) throws IOException {
+		final int length = ssr.getSequenceLength();
+		final int maskSize = (length+7)/8;
+		final int nBlocks = length/BLOCK_SIZE + 1;
+		final byte twoBit[] = new byte[(length+3)/4];
+		final byte nMask[] = new byte[maskSize];
+		final byte lowerMask[] = new byte[maskSize];
+		final int gcCount[] = new int[nBlocks];
+		final int atCount[] = new int[nBlocks];
+		final ByteArrayOutputStreamImpl exceptions = new ByteArrayOutputStreamImpl();
+		int nExceptions = 0;
+		int gc = 0;
+		int at = 0;
+		final int chunkSize = 1_000_000;
+		for(int start0=0; start0 < length; start0 += chunkSize) {
+			final int end0 = Math.min(length, start0 + chunkSize);
+			final byte bases[] = faidx.getSubsequenceAt(ssr.getSequenceName(), start0+1, end0).getBases();
+			for(int j=0;j< bases.length;j++) {
+				final int i = start0 + j;
+				if(i % BLOCK_SIZE == 0) {
+					gcCount[i/BLOCK_SIZE] = gc;
+					atCount[i/BLOCK_SIZE] = at;
+					}
+				final byte b = bases[j];
+				if(Character.isLowerCase(b)) lowerMask[i>>3] |= (1 << (i&7));
+				final int code;
+				switch(b) {
+					case 'a': case 'A': code = 0; at++; break;
+					case 'c': case 'C': code = 1; gc++; break;
+					case 'g': case 'G': code = 2; gc++; break;
+					case 't': case 'T': code = 3; at++; break;
+					default: code = -1; break;
+					}
+				if(code>=0) {
+					twoBit[i>>2] |= (code << (2*(i&3)));
+					}
+				else
+					{
+					nMask[i>>3] |= (1 << (i&7));
+					switch(b) {
+						case 's': case 'S': gc++; break;
+						case 'w': case 'W': at++; break;
+						default: break;
+						}
+					if(b!='N' && b!='n') {
+						exceptions.writeInt(i);
+						exceptions.write(b);
+						nExceptions++;
+						}
+					}
+				}
+			}
+		if(length % BLOCK_SIZE == 0) {
+			gcCount[nBlocks-1] = gc;
+			atCount[nBlocks-1] = at;
+			}
+		out.write(twoBit);
+		out.write(nMask);
+		out.write(lowerMask);
+		for(final int n:gcCount) out.writeInt(n);
+		for(final int n:atCount) out.writeInt(n);
+		out.writeInt(nExceptions);
+		exceptions.writeTo(out);
+		return twoBit.length + 2L*maskSize + 8L*nBlocks + 4L + exceptions.size();
+		}
+
+	/** ByteArrayOutputStream with writeInt */
+	private static class ByteArrayOutputStreamImpl extends java.io.ByteArrayOutputStream {
+		void writeInt(final int v) {
+			write((v >>> 24) & 0xFF);
+			write((v >>> 16) & 0xFF);
+			write((v >>>  8) & 0xFF);
+			write(v & 0xFF);
+			}
+		}
+
+	@Override
+	public String toString() {
+		return "PackedReferenceCache("+this.file+")";
+		}
+	}
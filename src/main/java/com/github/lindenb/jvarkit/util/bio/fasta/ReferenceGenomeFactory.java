@@ -87,6 +87,7 @@ private boolean debug = false;
 private boolean throwOnContigNotFound = false;
 private boolean neverReturnNullContig = false;
 private boolean disableDefaultAliase = false;
+private boolean usePackedCache = Boolean.getBoolean(PackedReferenceCache.CREATE_PROPERTY);
 
 /** never return a null contig if it's not in the dict, instead return a 0-length contig that will always return 'N' for 'charAt(idx)' */
 public ReferenceGenomeFactory setNeverReturnNullContig(boolean neverReturnNullContig) {
@@ -143,6 +144,17 @@ public boolean isDisableDefaultAliases() {
 	return disableDefaultAliase;
 }
 
+/** create the memory-mapped {@link PackedReferenceCache} next to the fasta if it doesn't exist. 
+ * An existing and up-to-date cache is always used. Default is the value of the system property {@value PackedReferenceCache#CREATE_PROPERTY} */
+public ReferenceGenomeFactory setUsePackedCache(boolean b) {
+	this.usePackedCache = b;
+	return this;
+}
+
+public boolean isUsePackedCache() {
+	return usePackedCache;
+}
+
 
 
 private class NullReferenceContig
@@ -361,16 +373,22 @@ private abstract class AbstractReferenceContigImpl
 		return this.samSequenceRecord;
 		}
 	
-	@Override
-	public final char charAt(int index0) {
+	/** returns true if index is out of range and 'N' should be returned, throws an exception if it's not allowed */
+	protected final boolean isOutOfRange(int index0) {
 		if(index0<0 || index0 >= length())
 			{
 			if(ReferenceGenomeFactory.this.isReturnBaseNOnIndexOutOfRange()) {
 				if(isDebug()) LOG.debug("index out of range "+index0);
-				return 'N';
+				return true;
 				}
 			throw new IndexOutOfBoundsException("index:"+index0);
 			}
+		return false;
+		}
+	
+	@Override
+	public char charAt(int index0) {
+		if(isOutOfRange(index0)) return 'N';
 		if(buffer!=null && index0>=buffer_pos && index0-buffer_pos < buffer.length)
 			{
 			return (char)buffer[index0-buffer_pos];
@@ -433,8 +451,44 @@ private  class ReferenceGenomeImpl
 		
 		}
 	
+	/** contig served by the memory-mapped cache: no buffer, can be shared by threads */
+	private  class PackedContigImpl
+		extends AbstractReferenceContigImpl
+		{
+		private final PackedReferenceCache.PackedContig packed;
+		PackedContigImpl(final SAMSequenceRecord ssr,final PackedReferenceCache.PackedContig packed) {
+			super(ReferenceGenomeImpl.this,ssr);
+			this.packed = packed;
+			}
+		@Override
+		public char charAt(int index0) {
+			if(isOutOfRange(index0)) return 'N';
+			return this.packed.charAt(index0);
+			}
+		@Override
+		public GCPercent getGCPercent(final int start,final int end) {
+			final int L = this.length();
+			final GCPercentImpl gcp = new GCPercentImpl(
+					this.getContig(),
+					start+1,
+					Math.min(end, L)
+					);
+			final int counts[] = new int[2];
+			this.packed.getGCAT(start, end, counts);
+			gcp.count = Math.max(0, Math.min(end, L) - start);
+			gcp.count_gc = counts[0];
+			gcp.count_at = counts[1];
+			return gcp;
+			}
+		@Override
+		protected byte[] refill(int start0, int end0) {
+			throw new IllegalStateException("should not be called");
+			}
+		}
+	
 	private final File fastaFile;
 	private IndexedFastaSequenceFile indexedFastaSequenceFile;
+	private PackedReferenceCache packedCache = null;
 	ReferenceGenomeImpl(final File fastaFile) throws IOException
 		{
 		this.fastaFile = fastaFile;
@@ -447,6 +501,18 @@ private  class ReferenceGenomeImpl
 		if(!ReferenceGenomeFactory.this.isDisableDefaultAliases()) {
 			ContigNameConverter.setDefaultAliases(super.dictionary);
 			}
+		try {
+			if(!PackedReferenceCache.isUpToDate(fastaFile) && ReferenceGenomeFactory.this.isUsePackedCache()) {
+				PackedReferenceCache.build(fastaFile);
+				}
+			if(PackedReferenceCache.isUpToDate(fastaFile)) {
+				this.packedCache = PackedReferenceCache.open(fastaFile);
+				}
+			}
+		catch(final IOException err) {
+			LOG.warn("cannot use the packed cache for "+fastaFile+" : "+err.getMessage());
+			this.packedCache = null;
+			}
 		}
 	@Override
 	public String getSource() {
@@ -454,6 +520,12 @@ private  class ReferenceGenomeImpl
 		}
 	@Override
 	protected ReferenceContig create(SAMSequenceRecord ssr) {
+		if(this.packedCache!=null) {
+			final PackedReferenceCache.PackedContig packed = this.packedCache.getContig(ssr.getSequenceName());
+			if(packed!=null && packed.length()==ssr.getSequenceLength()) {
+				return new PackedContigImpl(ssr, packed);
+				}
+			}
 		return new ReferenceContigImpl(ssr);
 		}
 	
@@ -24,74 +24,173 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util.iterator;
 
-import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.PeekableIterator;
 
+/**
+ * Merges a list of sorted iterators.
+ *
+ * The current item of each source is kept in a binary min-heap, so each
+ * item costs O(log(k)) comparisons where 'k' is the number of sources.
+ * Equal items are returned in the order of the sources. Each source
+ * can be read ahead by its own thread (see {@link PrefetchIterator}).
+ * An IllegalStateException is thrown if the data are not ordered.
+ */
 public class MergingIterator<T> 
 	extends AbstractIterator<T>
 	implements CloseableIterator<T>
 	{
-	private final List<PeekableIterator<T>> buffer;
+	/** a source and its current item */
+	private static class Source<T>
+		{
+		final int index;
+		final Iterator<T> iter;
+		T item = null;
+		Source(final int index,final Iterator<T> iter) {
+			this.index = index;
+			this.iter = iter;
+			}
+		}
+	
 	private final Comparator<T> comparator;
+	/** binary min-heap of the sources having a current item */
+	private final Source<T> heap[];
+	private int heapSize = 0;
+	private boolean initialized = false;
 	private T lastForChecking=null;
 	
 	public MergingIterator( final Comparator<T> comparator,final List<? extends Iterator<T>> delegates)
+		{
+		this(comparator,delegates,0);
+		}
+	
+	/**
+	 * @param comparator the comparator
+	 * @param delegates the sorted sources
+	 * @param prefetchBufferSize if greater than 0, each source is read by its own thread, 
+	 * buffering about 'prefetchBufferSize' items.
+	 */
+	public MergingIterator( final Comparator<T> comparator,final List<? extends Iterator<T>> delegates,final int prefetchBufferSize)
+		{
+		this(comparator,delegates,prefetchBufferSize,null);
+		}
+	
+	/**
+	 * @param comparator the comparator
+	 * @param delegates the sorted sources
+	 * @param prefetchBufferSize if greater than 0, each source is read by its own thread, 
+	 * buffering about 'prefetchBufferSize' items.
+	 * @param onPrefetch if not null and prefetchBufferSize&gt;0, called by the reading threads for each item. See {@link PrefetchIterator}
+	 */
+	@SuppressWarnings("unchecked")
+	public MergingIterator( final Comparator<T> comparator,final List<? extends Iterator<T>> delegates,final int prefetchBufferSize,final Consumer<? super T> onPrefetch)
 		{
 		this.comparator = Objects.requireNonNull(comparator, "comparator is null");
-		this.buffer = new ArrayList<>(delegates.stream().map(I->new PeekableIterator<>(I)).collect(Collectors.toList()));
+		this.heap = new Source[delegates.size()];
+		for(int i=0;i< delegates.size();i++)
+			{
+			final Iterator<T> delegate = Objects.requireNonNull(delegates.get(i), "delegate is null");
+			this.heap[i] = new Source<>(i, prefetchBufferSize>0 ?
+					new PrefetchIterator<>(delegate, prefetchBufferSize, onPrefetch) :
+					delegate
+					);
+			}
 		}	
 	
-	@Override
-	protected T advance() {
-		T smallest= null;
-		int smallest_index=-1;
-		int i=0;
-		while(i< this.buffer.size())
+	/** compare the current items of two sources, ties are resolved using the index of the source */
+	private int compare(final Source<T> a,final Source<T> b)
+		{
+		final int i = this.comparator.compare(a.item, b.item);
+		if(i!=0) return i;
+		return Integer.compare(a.index, b.index);
+		}
+	
+	private void siftDown(int i)
+		{
+		final Source<T> src = this.heap[i];
+		for(;;)
 			{
-			final PeekableIterator<T> delegate = this.buffer.get(i);
-			if(!delegate.hasNext())
+			int child = 2*i+1;
+			if(child >= this.heapSize) break;
+			if(child+1 < this.heapSize && compare(this.heap[child+1],this.heap[child])<0) child++;
+			if(compare(this.heap[child],src)>=0) break;
+			this.heap[i] = this.heap[child];
+			i = child;
+			}
+		this.heap[i] = src;
+		}
+	
+	/** fetch the first item of each source and build the heap */
+	private void initialize()
+		{
+		this.initialized = true;
+		for(int i=0;i< this.heap.length;i++)
+			{
+			final Source<T> src = this.heap[i];
+			if(src.iter.hasNext())
 				{
-				CloserUtil.close(delegate);
-				this.buffer.remove(i);
+				src.item = src.iter.next();
+				this.heap[this.heapSize++] = src;
 				}
 			else
 				{
-				final T item = delegate.peek();
-				if(smallest==null || this.comparator.compare(item, smallest)<0)
-					{
-					smallest = item;
-					smallest_index = i;
-					}
-				i++;
+				CloserUtil.close(src.iter);
 				}
 			}
-		if(smallest_index!=-1)
+		for(int i=this.heapSize/2 -1;i>=0;i--)
 			{
-			this.buffer.get(smallest_index).next();//consumme
-			if(this.lastForChecking!=null &&  this.comparator.compare(smallest, lastForChecking)<0)
-				{
-				throw new IllegalStateException("Data are not ordered... got "+ 
-						smallest+" after "+lastForChecking +" comparator(curr,previous) returns: "+
-						this.comparator.compare(smallest, lastForChecking)
-						);
-				}
-			lastForChecking = smallest;	
-			return smallest;
+			siftDown(i);
+			}
+		}
+	
+	@Override
+	protected T advance() {
+		if(!this.initialized) initialize();
+		if(this.heapSize==0) return null;
+		
+		final Source<T> top = this.heap[0];
+		final T smallest = top.item;
+		if(top.iter.hasNext())
+			{
+			top.item = top.iter.next();
+			}
+		else
+			{
+			top.item = null;
+			CloserUtil.close(top.iter);
+			this.heapSize--;
+			this.heap[0] = this.heap[this.heapSize];
+			this.heap[this.heapSize] = null;
 			}
-		return null;
+		if(this.heapSize>0) siftDown(0);
+		
+		if(this.lastForChecking!=null &&  this.comparator.compare(smallest, lastForChecking)<0)
+			{
+			throw new IllegalStateException("Data are not ordered... got "+ 
+					smallest+" after "+lastForChecking +" comparator(curr,previous) returns: "+
+					this.comparator.compare(smallest, lastForChecking)
+					);
+			}
+		lastForChecking = smallest;	
+		return smallest;
 		}
 	
 	@Override
 	public void close() {
-		CloserUtil.close(this.buffer);
+		final int n = this.initialized ? this.heapSize : this.heap.length;
+		for(int i=0;i< n;i++)
+			{
+			CloserUtil.close(this.heap[i].iter);
+			this.heap[i] = null;
+			}
+		this.heapSize = 0;
+		this.initialized = true;
 		}
 	}
@@ -0,0 +1,212 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.iterator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * Read-ahead iterator: a daemon thread consumes the delegate and
+ * pushes the items, by batches, into a bounded queue.
+ * The order of the items is not changed. An exception thrown
+ * by the delegate is re-thrown by the consumer.
+ * The delegate is closed by {@link #close()}.
+ * Items that are lazily decoded (e.g. the genotypes of a VariantContext) must be
+ * decoded in the reading thread using 'onRead', otherwise the consumer and the reader
+ * would use the same decoder at the same time.
+ */
+public class PrefetchIterator<T>
+	extends AbstractIterator<T>
+	implements CloseableIterator<T>
+	{
+	/** default number of items buffered by the reading thread */
+	public static final int DEFAULT_BUFFER_SIZE = 10_000;
+	/** time to wait for the reading thread on close */
+	private static final long JOIN_TIMEOUT_MILLISEC = 10_000L;
+	/** max number of items per batch */
+	private static final int MAX_BATCH_SIZE = 1_000;
+	/** end of stream marker */
+	private static final List<Object> EOF_BATCH = Collections.emptyList();
+
+	private final Iterator<T> delegate;
+	/** called in the reading thread for each item, or null */
+	private final Consumer<? super T> onRead;
+	private final int batchSize;
+	private final BlockingQueue<List<T>> batches;
+	private final Thread readerThread;
+	/** exception thrown in the reading thread */
+	private volatile Throwable readerError = null;
+	private volatile boolean closed = false;
+	private List<T> currentBatch = Collections.emptyList();
+	private int currentIndex = 0;
+	private boolean eofReached = false;
+
+	public PrefetchIterator(final Iterator<T> delegate)
+		{
+		this(delegate,DEFAULT_BUFFER_SIZE);
+		}
+
+	/**
+	 * @param delegate the iterator to be consumed in the background
+	 * @param bufferSize approximate number of items kept in memory
+	 */
+	public PrefetchIterator(final Iterator<T> delegate,final int bufferSize)
+		{
+		this(delegate,bufferSize,null);
+		}
+
+	/**
+	 * @param delegate the iterator to be consumed in the background
+	 * @param bufferSize approximate number of items kept in memory
+	 * @param onRead if not null, called in the reading thread for each item before it is queued
+	 */
+	public PrefetchIterator(final Iterator<T> delegate,final int bufferSize,final Consumer<? super T> onRead)
+		{
+		if(bufferSize<1) throw new IllegalArgumentException("bad buffer size "+bufferSize);
+		this.delegate = Objects.requireNonNull(delegate, "delegate is null");
+		this.onRead = onRead;
+		this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, bufferSize/4));
+		/* bounded queue: the reader will wait if the consumer is too slow */
+		this.batches = new ArrayBlockingQueue<>(Math.max(1, bufferSize/this.batchSize));
+		this.readerThread = new Thread(this::readItems,"prefetch-"+delegate.getClass().getSimpleName());
+		this.readerThread.setDaemon(true);
+		this.readerThread.start();
+		}
+
+	@SuppressWarnings("unchecked")
+	private List<T> eofBatch() {
+		return (List<T>)EOF_BATCH;
+		}
+
+	/** runs in readerThread */
+	private void readItems()
+		{
+		try
+			{
+			List<T> batch = new ArrayList<>(this.batchSize);
+			while(!this.closed && this.delegate.hasNext())
+				{
+				final T item = this.delegate.next();
+				if(this.onRead!=null) this.onRead.accept(item);
+				batch.add(item);
+				if(batch.size()>=this.batchSize)
+					{
+					this.batches.put(batch);
+					batch = new ArrayList<>(this.batchSize);
+					}
+				}
+			if(!batch.isEmpty()) this.batches.put(batch);
+			this.batches.put(eofBatch());
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			}
+		catch(final Throwable err)
+			{
+			this.readerError = err;
+			try {
+				this.batches.put(eofBatch());
+				}
+			catch(final InterruptedException err2)
+				{
+				Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+	@Override
+	protected T advance()
+		{
+		while(this.currentIndex >= this.currentBatch.size())
+			{
+			if(this.eofReached || this.closed) return null;
+			try
+				{
+				this.currentBatch = this.batches.take();
+				this.currentIndex = 0;
+				}
+			catch(final InterruptedException err)
+				{
+				Thread.currentThread().interrupt();
+				throw new RuntimeIOException(err);
+				}
+			if(this.currentBatch==EOF_BATCH)
+				{
+				this.eofReached = true;
+				final Throwable err = this.readerError;
+				if(err==null) return null;
+				if(err instanceof RuntimeException) throw (RuntimeException)err;
+				if(err instanceof Error) throw (Error)err;
+				throw new RuntimeIOException(err);
+				}
+			}
+		return this.currentBatch.get(this.currentIndex++);
+		}
+
+	@Override
+	public void close()
+		{
+		if(this.closed) return;
+		this.closed = true;
+		this.readerThread.interrupt();
+		this.batches.clear();
+		try
+			{
+			/* the reader might be blocked on a non-interruptible read */
+			this.readerThread.join(JOIN_TIMEOUT_MILLISEC);
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			}
+		this.batches.clear();
+		this.currentBatch = Collections.emptyList();
+		if(!this.readerThread.isAlive())
+			{
+			CloserUtil.close(this.delegate);
+			}
+		}
+
+	@Override
+	public String toString() {
+		return "PrefetchIterator("+this.delegate+")";
+		}
+	}
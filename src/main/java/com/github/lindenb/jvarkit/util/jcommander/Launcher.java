@@ -39,12 +39,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.Deflater;
@@ -75,6 +77,7 @@ import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
@@ -86,6 +89,7 @@ import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -579,6 +583,12 @@ public class WritingSortingCollection
 	@Parameter(names={"--tmpDir"},description= "tmp working directory. Default: java.io.tmpDir")
 	private List<File> tmpDirs=new ArrayList<>();
 	
+	@Parameter(names={"--sortThreads"},description="Number of background threads sorting and writing the temporary files while the next records are read. The memory is still bounded by 'maxRecordsInRam': it is shared by the (1+sortThreads) buffers, so more threads means more, smaller, temporary files.")
+	public int sortThreads=1;
+
+	@Parameter(names={"--sortNoCompress"},description="Do not compress the temporary files. Faster on a fast disk, uses more space.")
+	public boolean sortNoCompress=false;
+
 	
 	public WritingSortingCollection maxRecordsInRam(final int n)
 		{
@@ -600,6 +610,33 @@ public class WritingSortingCollection
 				map(F->F.toPath()).
 				toArray((i)->new Path[i]);
 		}
+	/** create a new sorting collection using those parameters. The temporary files are spread over the tmp directories */
+	public <T> ParallelSortingCollection<T> make(
+			final Class<T> componentType,
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator)
+		{
+		return make(componentType,codec,comparator,null);
+		}
+	/** create a new sorting collection using those parameters and a normalized key, see {@link ParallelSortingCollection} */
+	public <T> ParallelSortingCollection<T> make(
+			final Class<T> componentType,
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator,
+			final ToLongFunction<T> sortKey)
+		{
+		return new ParallelSortingCollection<>(
+				componentType,
+				codec,
+				comparator,
+				sortKey,
+				/* keep the memory bound: maxRecordsInRam is shared by the buffer being filled and the buffers being written */
+				Math.max(1, this.getMaxRecordsInRam()/(1+this.sortThreads)),
+				Arrays.asList(this.getTmpPaths()),
+				this.sortThreads,
+				!this.sortNoCompress
+				);
+		}
 	}	
 
 public static enum WritingSamReaderType
@@ -834,22 +871,28 @@ public Launcher()
 	catch(final java.security.AccessControlException err) {
 	}
 	
+	this.jcommander.addConverterFactory(createConverterFactory());
+	
+	
+	this.jcommander.addObject(this);	
+	}
+
+/** converters for the jvarkit specific types (Dimension, SamRecordFilter, Random...) */
+public static IStringConverterFactory createConverterFactory()
+	{
 	 @SuppressWarnings({"rawtypes","unchecked","serial"})
 	final Map<Class, Class<? extends IStringConverter<?>>> MAP = new HashMap() {{
 		    put(Dimension.class,DimensionConverter.class);
 		    put(SamRecordFilter.class,SamFilterParser.StringConverter.class);
 		    put(Random.class,RandomConverter.class);
 		}};	
-	this.jcommander.addConverterFactory(new IStringConverterFactory() {
+	return new IStringConverterFactory() {
 			@SuppressWarnings("unchecked")
 			@Override
 			public Class<? extends IStringConverter<?>> getConverter(@SuppressWarnings("rawtypes") Class forType) {		
 				return MAP.get(forType);
 				}
-			});
-	
-	
-	this.jcommander.addObject(this);	
+			};
 	}
 
 public String getProgramName()
@@ -919,8 +962,16 @@ protected Status parseArgs(final String args[])
 	 return Status.OK;
 	}
 
+/** returns true if this program only reads or changes the CHROM to INFO columns and keeps the samples.
+ * The genotypes are then kept unparsed until the program needs them and they're written back without being decoded.
+ * Default: false
+ */
+protected boolean isRawGenotypesPassthrough() {
+	return false;
+}
+
 protected VcfIterator openVcfIterator(final String inputNameOrNull) throws IOException {
-	return VCFUtils.createVcfIterator(inputNameOrNull);
+	return VCFUtils.createVcfIterator(inputNameOrNull,isRawGenotypesPassthrough());
 }
 
 /**
@@ -0,0 +1,299 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.ParallelGzipInputStream;
+
+import htsjdk.samtools.fastq.FastqConstants;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.StringUtil;
+
+/**
+ * FASTQ reader working on bytes, a drop-in replacement of {@link FourLinesFastqReader}.
+ *
+ * The input is read in large buffers (through a FileChannel for the plain files).
+ * A FASTQ record is delimited by scanning the buffer for '\n'; its Strings are only
+ * created when the record is returned. gzip inputs (detected with the magic
+ * number, not the suffix) are inflated by {@link ParallelGzipInputStream}: BGZF
+ * blocks are inflated in parallel, other gzip files in one background thread.
+ */
+public class NioFastqReader
+	extends AbstractFastqReader
+	{
+	/** default number of threads used to inflate BGZF */
+	public static final int DEFAULT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()/2));
+	private static final int DEFAULT_BUFFER_SIZE = 4*1024*1024;
+	/** not null if the input is a plain file */
+	private final FileChannel channel;
+	/** not null if the input is a stream */
+	private final InputStream inputStream;
+	private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+	private ByteBuffer byteBuffer = ByteBuffer.wrap(this.buffer);
+	/** first byte not consumed */
+	private int bufferStart = 0;
+	/** end of the valid bytes */
+	private int bufferEnd = 0;
+	private boolean eof = false;
+	private long nLines = 0L;
+	/* begin/end of the four lines of the current record */
+	private final int lineBegin[] = new int[4];
+	private final int lineEnd[] = new int[4];
+	
+	public NioFastqReader(final File file) throws IOException
+		{
+		this(file,DEFAULT_THREADS);
+		}
+	
+	public NioFastqReader(final File file,final int nThreads) throws IOException
+		{
+		super(file);
+		if(isGzipped(file))
+			{
+			this.channel = null;
+			this.inputStream = new ParallelGzipInputStream(Files.newInputStream(file.toPath()), nThreads);
+			}
+		else
+			{
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			this.inputStream = null;
+			}
+		}
+	
+	public NioFastqReader(final InputStream in)
+		{
+		this(in,DEFAULT_THREADS);
+		}
+	
+	public NioFastqReader(final InputStream in,final int nThreads)
+		{
+		super(null);
+		this.channel = null;
+		try {
+			final BufferedInputStream bin = new BufferedInputStream(in);
+			bin.mark(2);
+			final byte magic[] = new byte[]{(byte)bin.read(),(byte)bin.read()};
+			bin.reset();
+			this.inputStream = IOUtils.isGZipCompressed(magic) ?
+				new ParallelGzipInputStream(bin, nThreads):
+				bin;
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		}
+	
+	private static boolean isGzipped(final File file) throws IOException
+		{
+		try(InputStream in = Files.newInputStream(file.toPath()))
+			{
+			final byte magic[] = new byte[]{(byte)in.read(),(byte)in.read()};
+			return IOUtils.isGZipCompressed(magic);
+			}
+		}
+	
+	/** move the unconsumed bytes to the beginning of the buffer, enlarge the buffer if needed, and read more bytes.
+	 * @return the shift of the bytes in the buffer */
+	private int compactAndFill() throws IOException
+		{
+		final int shift = this.bufferStart;
+		if(shift>0)
+			{
+			System.arraycopy(this.buffer, shift, this.buffer, 0, this.bufferEnd - shift);
+			this.bufferEnd -= shift;
+			this.bufferStart = 0;
+			}
+		else if(this.bufferEnd==this.buffer.length)
+			{
+			/* one record is larger than the buffer */
+			final byte array[] = new byte[this.buffer.length*2];
+			System.arraycopy(this.buffer, 0, array, 0, this.bufferEnd);
+			this.buffer = array;
+			this.byteBuffer = ByteBuffer.wrap(this.buffer);
+			}
+		while(this.bufferEnd < this.buffer.length)
+			{
+			final int n;
+			if(this.channel!=null)
+				{
+				this.byteBuffer.limit(this.buffer.length);
+				this.byteBuffer.position(this.bufferEnd);
+				n = this.channel.read(this.byteBuffer);
+				}
+			else
+				{
+				n = this.inputStream.read(this.buffer, this.bufferEnd, this.buffer.length - this.bufferEnd);
+				}
+			if(n==-1)
+				{
+				this.eof = true;
+				break;
+				}
+			this.bufferEnd += n;
+			if(n>0) break;
+			}
+		return shift;
+		}
+	
+	/** find the bounds of the line starting at 'pos' and store them in lineBegin/lineEnd[k]
+	 * @return the start of the next line or -1 at EOF */
+	private int scanLine(final int k,int pos) throws IOException
+		{
+		int i = pos;
+		for(;;)
+			{
+			while(i< this.bufferEnd && this.buffer[i]!='\n') i++;
+			if(i< this.bufferEnd) break;
+			if(this.eof)
+				{
+				if(pos>=this.bufferEnd) return -1;
+				/* last line without '\n' */
+				break;
+				}
+			final int shift = compactAndFill();
+			pos -= shift;
+			i -= shift;
+			for(int j=0;j< k;j++)
+				{
+				this.lineBegin[j] -= shift;
+				this.lineEnd[j] -= shift;
+				}
+			}
+		int end = i;
+		if(end>pos && this.buffer[end-1]=='\r') end--;
+		this.lineBegin[k] = pos;
+		this.lineEnd[k] = end;
+		++this.nLines;
+		return Math.min(i+1, this.bufferEnd);
+		}
+	
+	private String lineAsString(final int k, final int skip)
+		{
+		return StringUtil.bytesToString(this.buffer, this.lineBegin[k]+skip, this.lineEnd[k]-(this.lineBegin[k]+skip));
+		}
+	
+	private boolean isBlank(final int k)
+		{
+		for(int i=this.lineBegin[k];i< this.lineEnd[k];i++)
+			{
+			if(!Character.isWhitespace(this.buffer[i])) return false;
+			}
+		return true;
+		}
+	
+	/** same as checkLine in AbstractFastqReader, without creating a String */
+	private void checkLine(final int next,final int k,final String kind)
+		{
+		if(next==-1)
+			{
+			throw new RuntimeException(error("File is too short - missing "+kind+" line"));
+			}
+		if(isBlank(k))
+			{
+			throw_error(error("Missing "+kind));
+			}
+		}
+	
+	@Override
+	protected FastqRecord readNextRecord()
+		{
+		try {
+			// Read sequence header
+			int next = scanLine(0, this.bufferStart);
+			if(next==-1) return null;
+			this.seqHeader = lineAsString(0, 0);
+			if (StringUtil.isBlank(this.seqHeader))
+				{
+				throw new RuntimeException(error("Missing sequence header"));
+				}
+			if (!this.seqHeader.startsWith(FastqConstants.SEQUENCE_HEADER))
+				{
+				throw new RuntimeException(error("Sequence header must start with "+ FastqConstants.SEQUENCE_HEADER));
+				}
+			// Read sequence line
+			next = scanLine(1, next);
+			checkLine(next, 1, "sequence line");
+			// Read quality header
+			next = scanLine(2, next);
+			checkLine(next, 2, "quality header");
+			if (this.lineBegin[2]==this.lineEnd[2] || this.buffer[this.lineBegin[2]]!=FastqConstants.QUALITY_HEADER.charAt(0))
+				{
+				throw new RuntimeException(error("Quality header must start with "+ FastqConstants.QUALITY_HEADER+": "+lineAsString(2, 0)));
+				}
+			// Read quality line
+			next = scanLine(3, next);
+			checkLine(next, 3, "quality line");
+			// Check sequence and quality lines are same length
+			if (this.lineEnd[1]-this.lineBegin[1] != this.lineEnd[3]-this.lineBegin[3])
+				{
+				throw new RuntimeException(error("Sequence and quality line must be the same length"));
+				}
+			final FastqRecord frec = new FastqRecord(
+					this.seqHeader.substring(1),
+					lineAsString(1, 0),
+					lineAsString(2, 1),
+					lineAsString(3, 0)
+					);
+			this.bufferStart = next;
+			this.seqHeader = null;
+			return frec;
+			}
+		catch (final IOException e)
+			{
+			throw new RuntimeException(String.format("Error reading fastq '%s'", getAbsolutePath()), e);
+			}
+		}
+	
+	public long getLineNumber() { return this.nLines ; }
+	
+	@Override
+	protected String location()
+		{
+		return String.valueOf(getLineNumber());
+		}
+	
+	@Override
+	public void close()
+		{
+		CloserUtil.close(this.channel);
+		CloserUtil.close(this.inputStream);
+		}
+	}
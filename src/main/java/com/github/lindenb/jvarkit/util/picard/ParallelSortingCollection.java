@@ -0,0 +1,582 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * External sort, a replacement for htsjdk's SortingCollection.
+ *
+ * When the buffer in RAM is full, it is sorted and written by a pool of background
+ * threads while the producer fills a new buffer. At most 'nThreads' buffers are being
+ * written, so about (1+nThreads)*maxRecordsInRam records are kept in memory.
+ * The temporary files can be compressed and are spread over the temporary directories.
+ * The runs are merged with a priority queue, the next records of each run being decoded
+ * in the pool while the current ones are consumed.
+ * Like htsjdk, the sort is stable: two records comparing equal are returned in the order they were added.
+ *
+ * An optional 'normalized key' packs the first fields of the comparator in a 64-bits unsigned key.
+ * The runs are then sorted with a radix sort on the keys, the comparator is only called
+ * for the records having the same key. If key(a)&lt;key(b) (unsigned), the comparator must return compare(a,b)&lt;0.
+ */
+public class ParallelSortingCollection<T> implements Iterable<T>
+	{
+	private static final Logger LOG = Logger.build(ParallelSortingCollection.class).make();
+	private static final int IO_BUFFER_SIZE = 65536;
+	private final Class<T> componentType;
+	private final SortingCollection.Codec<T> codec;
+	private final Comparator<T> comparator;
+	/** normalized key, or null */
+	private final ToLongFunction<T> sortKey;
+	/** comparator of the records, using the normalized key first if any */
+	private final Comparator<T> recordComparator;
+	private final int maxRecordsInRam;
+	private final List<Path> tmpDirs;
+	private final int nThreads;
+	private final boolean compressTmpFiles;
+	private final ExecutorService executorService;
+	/** the temporary files, in the order of the runs */
+	private final List<Path> runFiles = new ArrayList<>();
+	/** the runs being written, in the same order */
+	private final List<Future<Path>> runs = new ArrayList<>();
+	private T[] ramRecords;
+	private int numRecordsInRam = 0;
+	private boolean doneAdding = false;
+	private boolean iterationStarted = false;
+	private boolean destructiveIteration = true;
+	private boolean cleanedUp = false;
+
+	public ParallelSortingCollection(
+			final Class<T> componentType,
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator,
+			final int maxRecordsInRam,
+			final List<Path> tmpDirs,
+			final int nThreads,
+			final boolean compressTmpFiles)
+		{
+		this(componentType,codec,comparator,null,maxRecordsInRam,tmpDirs,nThreads,compressTmpFiles);
+		}
+
+	public ParallelSortingCollection(
+			final Class<T> componentType,
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator,
+			final ToLongFunction<T> sortKey,
+			final int maxRecordsInRam,
+			final List<Path> tmpDirs,
+			final int nThreads,
+			final boolean compressTmpFiles)
+		{
+		if(maxRecordsInRam<=0) throw new IllegalArgumentException("maxRecordsInRam must be > 0");
+		if(nThreads<1) throw new IllegalArgumentException("bad number of threads "+nThreads);
+		if(tmpDirs==null || tmpDirs.isEmpty()) throw new IllegalArgumentException("At least one temp directory must be provided.");
+		this.componentType = componentType;
+		this.codec = codec;
+		this.comparator = comparator;
+		this.sortKey = sortKey;
+		if(sortKey==null)
+			{
+			this.recordComparator = comparator;
+			}
+		else
+			{
+			this.recordComparator = (A,B)->{
+				final int i = Long.compareUnsigned(sortKey.applyAsLong(A), sortKey.applyAsLong(B));
+				if(i!=0) return i;
+				return comparator.compare(A, B);
+				};
+			}
+		this.maxRecordsInRam = maxRecordsInRam;
+		this.tmpDirs = new ArrayList<>(tmpDirs);
+		this.nThreads = nThreads;
+		this.compressTmpFiles = compressTmpFiles;
+		this.ramRecords = newArray();
+		this.executorService = Executors.newFixedThreadPool(nThreads,R->{
+			final Thread t = new Thread(R,"sorting-collection");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+
+	@SuppressWarnings("unchecked")
+	private T[] newArray()
+		{
+		return (T[])Array.newInstance(this.componentType, this.maxRecordsInRam);
+		}
+
+	/** if true, the records in RAM are released when the iteration starts and the collection can only be iterated once */
+	public void setDestructiveIteration(final boolean destructiveIteration)
+		{
+		this.destructiveIteration = destructiveIteration;
+		}
+
+	public void add(final T rec)
+		{
+		if(this.doneAdding) throw new IllegalStateException("Cannot add after calling doneAdding()");
+		if(this.cleanedUp) throw new IllegalStateException("Cannot add after calling cleanup()");
+		if(this.numRecordsInRam==this.maxRecordsInRam)
+			{
+			spill();
+			}
+		this.ramRecords[this.numRecordsInRam++] = rec;
+		}
+
+	/** send the buffer to the pool, wait if too many buffers are being written */
+	private void spill()
+		{
+		final T[] buffer = this.ramRecords;
+		final int count = this.numRecordsInRam;
+		final Path tmpFile = newTempFile();
+		this.runs.add(this.executorService.submit(()->writeRun(buffer,count,tmpFile)));
+		if(this.runs.size()>this.nThreads)
+			{
+			waitFor(this.runs.get(this.runs.size()-1-this.nThreads));
+			}
+		this.ramRecords = newArray();
+		this.numRecordsInRam = 0;
+		}
+
+	/** the temporary files are created in each directory in turn */
+	private Path newTempFile()
+		{
+		final Path dir = this.tmpDirs.get(this.runFiles.size()%this.tmpDirs.size());
+		try {
+			final Path tmpFile = Files.createTempFile(dir, "sortingcollection.", this.compressTmpFiles?".tmp.z":".tmp");
+			tmpFile.toFile().deleteOnExit();
+			this.runFiles.add(tmpFile);
+			return tmpFile;
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException("Cannot create a temporary file in "+dir,err);
+			}
+		}
+
+	/** sort and write one run. Runs in the pool */
+	private Path writeRun(final T[] buffer,final int count,final Path tmpFile) throws IOException
+		{
+		sortRun(buffer, count);
+		final SortingCollection.Codec<T> runCodec = this.codec.clone();
+		try(OutputStream out = openRunForWriting(tmpFile))
+			{
+			runCodec.setOutputStream(out);
+			for(int i=0;i< count;i++)
+				{
+				runCodec.encode(buffer[i]);
+				}
+			out.flush();
+			}
+		return tmpFile;
+		}
+
+	/** sort the first 'count' records of the buffer */
+	private void sortRun(final T[] buffer,final int count)
+		{
+		if(this.sortKey==null || count< 2)
+			{
+			Arrays.sort(buffer, 0, count, this.comparator);
+			return;
+			}
+		long keys[] = new long[count];
+		int order[] = new int[count];
+		for(int i=0;i< count;i++)
+			{
+			keys[i] = this.sortKey.applyAsLong(buffer[i]);
+			order[i] = i;
+			}
+		/* LSD radix sort, one byte at a time. It is stable, so the order of the ties is kept */
+		long keys2[] = new long[count];
+		int order2[] = new int[count];
+		final int counts[] = new int[257];
+		for(int shift=0;shift< 64;shift+=8)
+			{
+			Arrays.fill(counts, 0);
+			for(int i=0;i< count;i++)
+				{
+				counts[(int)((keys[i]>>>shift)&0xFFL)+1]++;
+				}
+			/* all the keys have the same byte */
+			if(counts[(int)((keys[0]>>>shift)&0xFFL)+1]==count) continue;
+			for(int i=1;i< counts.length;i++)
+				{
+				counts[i]+=counts[i-1];
+				}
+			for(int i=0;i< count;i++)
+				{
+				final int p = counts[(int)((keys[i]>>>shift)&0xFFL)]++;
+				keys2[p] = keys[i];
+				order2[p] = order[i];
+				}
+			final long tmpKeys[] = keys; keys = keys2; keys2 = tmpKeys;
+			final int tmpOrder[] = order; order = order2; order2 = tmpOrder;
+			}
+		final T[] copy = Arrays.copyOf(buffer, count);
+		for(int i=0;i< count;i++)
+			{
+			buffer[i] = copy[order[i]];
+			}
+		/* the records having the same key are sorted with the comparator */
+		int i=0;
+		while(i< count)
+			{
+			int j=i+1;
+			while(j< count && keys[j]==keys[i]) j++;
+			if(j-i>1) Arrays.sort(buffer, i, j, this.comparator);
+			i=j;
+			}
+		}
+
+	private OutputStream openRunForWriting(final Path tmpFile) throws IOException
+		{
+		OutputStream out = Files.newOutputStream(tmpFile);
+		if(this.compressTmpFiles)
+			{
+			final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			out = new DeflaterOutputStream(out, deflater, IO_BUFFER_SIZE) {
+				@Override
+				public void close() throws IOException {
+					try { super.close();}
+					finally { deflater.end();}
+					}
+				};
+			}
+		return new BufferedOutputStream(out, IO_BUFFER_SIZE);
+		}
+
+	private InputStream openRunForReading(final Path tmpFile) throws IOException
+		{
+		InputStream in = Files.newInputStream(tmpFile);
+		if(this.compressTmpFiles)
+			{
+			final Inflater inflater = new Inflater();
+			in = new InflaterInputStream(in, inflater, IO_BUFFER_SIZE) {
+				@Override
+				public void close() throws IOException {
+					try { super.close();}
+					finally { inflater.end();}
+					}
+				};
+			}
+		return new BufferedInputStream(in, IO_BUFFER_SIZE);
+		}
+
+	private static <X> X waitFor(final Future<X> future)
+		{
+		try {
+			return future.get();
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(err);
+			}
+		catch(final ExecutionException err)
+			{
+			if(err.getCause() instanceof IOException) throw new RuntimeIOException(err.getCause());
+			if(err.getCause() instanceof RuntimeException) throw (RuntimeException)err.getCause();
+			throw new RuntimeException(err.getCause());
+			}
+		}
+
+	/** sort the records in RAM and wait for all the runs to be written */
+	public void doneAdding()
+		{
+		if(this.cleanedUp) throw new IllegalStateException("Cannot call doneAdding() after cleanup() was called.");
+		if(this.doneAdding) return;
+		this.doneAdding = true;
+		/* the last buffer stays in RAM: it is the last run */
+		sortRun(this.ramRecords, this.numRecordsInRam);
+		for(final Future<Path> run:this.runs)
+			{
+			waitFor(run);
+			}
+		if(!this.runs.isEmpty())
+			{
+			LOG.debug("sorted in "+(this.runs.size()+1)+" runs.");
+			}
+		}
+
+	@Override
+	public CloseableIterator<T> iterator()
+		{
+		if(!this.doneAdding) throw new IllegalStateException("iterator() called before doneAdding()");
+		if(this.cleanedUp) throw new IllegalStateException("iterator() called after cleanup()");
+		if(this.iterationStarted && this.destructiveIteration) throw new IllegalStateException("iterator() can only be called once when destructiveIteration is true.");
+		this.iterationStarted = true;
+		final List<RunIterator> iterators = new ArrayList<>(this.runFiles.size()+1);
+		/* records decoded ahead for each run: about 'maxRecordsInRam' for all the runs */
+		final int readAhead = Math.max(16, Math.min(10_000, this.maxRecordsInRam/(this.runFiles.size()+1)));
+		try {
+			for(int i=0;i< this.runFiles.size();i++)
+				{
+				iterators.add(new FileRunIterator(i, this.runFiles.get(i), readAhead));
+				}
+			}
+		catch(final IOException err)
+			{
+			iterators.forEach(CloserUtil::close);
+			throw new RuntimeIOException(err);
+			}
+		iterators.add(new RamRunIterator(this.runFiles.size(), this.ramRecords, this.numRecordsInRam));
+		if(this.destructiveIteration)
+			{
+			this.ramRecords = null;
+			this.numRecordsInRam = 0;
+			}
+		if(iterators.size()==1) return iterators.get(0);
+		return new MergingIterator(iterators);
+		}
+
+	/** delete the temporary files, stop the threads */
+	public void cleanup()
+		{
+		if(this.cleanedUp) return;
+		this.cleanedUp = true;
+		this.executorService.shutdownNow();
+		this.ramRecords = null;
+		this.numRecordsInRam = 0;
+		for(final Path tmpFile:this.runFiles)
+			{
+			try {
+				Files.deleteIfExists(tmpFile);
+				}
+			catch(final IOException err)
+				{
+				LOG.warn("Cannot delete "+tmpFile);
+				}
+			}
+		this.runFiles.clear();
+		this.runs.clear();
+		}
+
+	/** iterator over one sorted run */
+	private abstract class RunIterator implements CloseableIterator<T>
+		{
+		/** index of the run, to keep the sort stable */
+		final int runIndex;
+		RunIterator(final int runIndex)
+			{
+			this.runIndex = runIndex;
+			}
+		abstract T peek();
+		}
+
+	private class RamRunIterator extends RunIterator
+		{
+		private T[] array;
+		private final int count;
+		private int index = 0;
+		RamRunIterator(final int runIndex,final T[] array,final int count)
+			{
+			super(runIndex);
+			this.array = array;
+			this.count = count;
+			}
+		@Override
+		T peek() {
+			return hasNext()?this.array[this.index]:null;
+			}
+		@Override
+		public boolean hasNext() {
+			return this.array!=null && this.index< this.count;
+			}
+		@Override
+		public T next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			return this.array[this.index++];
+			}
+		@Override
+		public void close() {
+			this.array = null;
+			}
+		}
+
+	/** iterator over a temporary file, the next records are decoded in the pool */
+	private class FileRunIterator extends RunIterator
+		{
+		private final int readAhead;
+		private final SortingCollection.Codec<T> runCodec;
+		private InputStream in;
+		private List<T> batch = Collections.emptyList();
+		private int index = 0;
+		private Future<List<T>> nextBatch;
+
+		FileRunIterator(final int runIndex,final Path tmpFile,final int readAhead) throws IOException
+			{
+			super(runIndex);
+			this.readAhead = readAhead;
+			this.in = openRunForReading(tmpFile);
+			this.runCodec = ParallelSortingCollection.this.codec.clone();
+			this.runCodec.setInputStream(this.in);
+			this.nextBatch = executorService.submit(()->readBatch());
+			fill();
+			}
+
+		/** decode the next records. Only one batch is read at a time for a given run */
+		private List<T> readBatch()
+			{
+			final List<T> L = new ArrayList<>(this.readAhead);
+			while(L.size()< this.readAhead)
+				{
+				final T rec = this.runCodec.decode();
+				if(rec==null) break;
+				L.add(rec);
+				}
+			return L;
+			}
+
+		private void fill()
+			{
+			if(this.index< this.batch.size() || this.nextBatch==null) return;
+			this.batch = waitFor(this.nextBatch);
+			this.index = 0;
+			if(this.batch.size()< this.readAhead)
+				{
+				/* end of file reached */
+				this.nextBatch = null;
+				CloserUtil.close(this.in);
+				this.in = null;
+				}
+			else
+				{
+				this.nextBatch = executorService.submit(()->readBatch());
+				}
+			}
+
+		@Override
+		T peek() {
+			return hasNext()?this.batch.get(this.index):null;
+			}
+		@Override
+		public boolean hasNext() {
+			fill();
+			return this.index< this.batch.size();
+			}
+		@Override
+		public T next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			return this.batch.get(this.index++);
+			}
+		@Override
+		public void close() {
+			if(this.nextBatch!=null)
+				{
+				/* wait for the pending read before closing the stream */
+				try { this.nextBatch.get();} catch(final Exception err) {}
+				this.nextBatch = null;
+				}
+			this.batch = Collections.emptyList();
+			CloserUtil.close(this.in);
+			this.in = null;
+			}
+		}
+
+	/** k-way merge of the runs */
+	private class MergingIterator implements CloseableIterator<T>
+		{
+		private final List<RunIterator> iterators;
+		private final PriorityQueue<RunIterator> queue;
+
+		MergingIterator(final List<RunIterator> iterators)
+			{
+			this.iterators = iterators;
+			this.queue = new PriorityQueue<>(iterators.size(),(A,B)->{
+				final int i = recordComparator.compare(A.peek(), B.peek());
+				if(i!=0) return i;
+				return Integer.compare(A.runIndex, B.runIndex);
+				});
+			for(final RunIterator iter:iterators)
+				{
+				if(iter.hasNext()) this.queue.add(iter);
+				else iter.close();
+				}
+			}
+		@Override
+		public boolean hasNext() {
+			return !this.queue.isEmpty();
+			}
+		@Override
+		public T next() {
+			final RunIterator iter = this.queue.poll();
+			if(iter==null) throw new NoSuchElementException();
+			final T rec = iter.next();
+			if(iter.hasNext())
+				{
+				this.queue.add(iter);
+				}
+			else
+				{
+				iter.close();
+				}
+			return rec;
+			}
+		@Override
+		public void close() {
+			this.queue.clear();
+			this.iterators.forEach(CloserUtil::close);
+			}
+		}
+
+	@Override
+	public String toString()
+		{
+		return "ParallelSortingCollection(threads:"+this.nThreads+", maxRecordsInRam:"+this.maxRecordsInRam+", compress:"+this.compressTmpFiles+", normalized key:"+(this.sortKey!=null)+")";
+		}
+	}
@@ -27,12 +27,15 @@ package com.github.lindenb.jvarkit.util.samtools;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.apache.commons.jexl2.Expression;
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlException;
 
 import com.beust.jcommander.IStringConverter;
+import com.github.lindenb.jvarkit.lang.JexlCompiler;
+import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.SAMRecord;
@@ -44,9 +47,13 @@ import htsjdk.variant.variantcontext.VariantContextUtils;
  * 
  * SamRecordJEXLFilter
  *
+ * If the JVM property 'jvarkit.jexl.compile' is true, the expression is
+ * translated to java and compiled (see {@link JexlCompiler}). The
+ * JEXL interpreter is used if the expression cannot be compiled.
  */
 public class SamRecordJEXLFilter
 	implements SamRecordFilter {
+	private static final Logger LOG = Logger.build(SamRecordJEXLFilter.class).make();
 	public static final String FILTER_DESCRIPTION = 
 			"A JEXL Expression that will be used to filter out some sam-records (see https://software.broadinstitute.org/gatk/documentation/article.php?id=1255). "+
 			"An expression should return a boolean value (true=exclude, false=keep the read). "
@@ -73,6 +80,39 @@ public class SamRecordJEXLFilter
 	private final String exprStr;
 	private final Expression expr;
 	
+	/** compiled filter */
+	private static class CompiledFilter implements SamRecordFilter
+		{
+		private final String exprStr;
+		private final Predicate<SAMRecord> predicate;
+		private final Function<SAMRecord,Object> function;
+		CompiledFilter(final String exprStr,final Predicate<SAMRecord> predicate,final Function<SAMRecord,Object> function) {
+			this.exprStr = exprStr;
+			this.predicate = predicate;
+			this.function = function;
+			}
+		@Override
+		public boolean filterOut(final SAMRecord record) {
+			final Object o;
+			try {
+				if(this.predicate!=null) return this.predicate.test(record);
+				o = this.function.apply(record);
+				}
+			catch(final RuntimeException err) {
+				throw new RuntimeException("Cannot evaluate JEXL expression \""+this.exprStr+"\" with SAMRecord 'record' :"+record, err);
+				}
+			return toBoolean(this.exprStr,o);
+			}
+		@Override
+		public boolean filterOut(final SAMRecord first,final SAMRecord second) {
+			return filterOut(first) && filterOut(second);
+			}
+		@Override
+		public String toString() {
+			return this.exprStr;
+			}
+		}
+	
 	private SamRecordJEXLFilter(final String exprStr) {
 		this.exprStr = exprStr; 
 		try {
@@ -146,20 +186,42 @@ public class SamRecordJEXLFilter
 
 		
 	public static SamRecordFilter create(final String expr) {
-		if(StringUtil.isBlank(expr)) return buildAcceptAll();
-		return new SamRecordJEXLFilter(expr);
+		return create(expr,JexlCompiler.isCompilationEnabled());
 		}
 	
-	@Override
-	public boolean filterOut(final SAMRecord record) {
-		final Object o;
+	/** create a new filter. If 'compile' is true, try to compile the expression to java */
+	public static SamRecordFilter create(final String expr,final boolean compile) {
+		if(StringUtil.isBlank(expr)) return buildAcceptAll();
+		final SamRecordJEXLFilter interpreted = new SamRecordJEXLFilter(expr);
+		if(!compile) return interpreted;
+		final JexlCompiler<SAMRecord> compiler = new JexlCompiler<>(SAMRecord.class).
+				addVariable("record", SAMRecord.class, JexlCompiler.RECORD).
+				addVariable("CLIPPED", boolean.class,
+					"!"+JexlCompiler.RECORD+".getReadUnmappedFlag() && "+
+					JexlCompiler.RECORD+".getCigar()!=null && "+
+					JexlCompiler.RECORD+".getCigar().isClipped()"
+					);
 		try {
-			o = this.expr.evaluate(new SamRecordJEXLContext(record));
+			try {
+				return new CompiledFilter(expr,compiler.compilePredicate(expr),null);
+				}
+			catch(final JexlCompiler.UnsupportedExpressionException err) {
+				/* maybe the expression doesn't return a boolean */
+				return new CompiledFilter(expr,null,compiler.compileFunction(expr));
+				}
 			}
-		catch(final JexlException err) {
-			throw new RuntimeException("Cannot evaluate JEXL expression \""+this.exprStr+"\" with SAMRecord 'record' :"+record, err);
+		catch(final JexlCompiler.UnsupportedExpressionException err) {
+			LOG.debug("cannot compile JEXL expression: "+err.getMessage()+". Using the interpreter.");
+			return interpreted;
 			}
-		
+		catch(final RuntimeException err) {
+			LOG.warning("compilation of JEXL expression \""+expr+"\" failed. Using the interpreter.");
+			return interpreted;
+			}
+		}
+	
+	/** convert the value returned by the expression to a boolean */
+	private static boolean toBoolean(final String exprStr,final Object o) {
 		if(o==null) return true;
 		if(o instanceof Boolean) {
 			return Boolean.class.cast(o).booleanValue();
@@ -167,7 +229,19 @@ public class SamRecordJEXLFilter
 		if(o instanceof Integer) {
 			return Integer.class.cast(o).intValue()!=0;
 		}
-		throw new IllegalArgumentException("expression "+this.exprStr+" doesn't return a boolean.");
+		throw new IllegalArgumentException("expression "+exprStr+" doesn't return a boolean.");
+		}
+	
+	@Override
+	public boolean filterOut(final SAMRecord record) {
+		final Object o;
+		try {
+			o = this.expr.evaluate(new SamRecordJEXLContext(record));
+			}
+		catch(final JexlException err) {
+			throw new RuntimeException("Cannot evaluate JEXL expression \""+this.exprStr+"\" with SAMRecord 'record' :"+record, err);
+			}
+		return toBoolean(this.exprStr,o);
 		}
 	
 	@Override
@@ -31,6 +31,8 @@ package com.github.lindenb.jvarkit.util.so;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -40,7 +42,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
@@ -68,6 +73,12 @@ public class SequenceOntologyTree
 	private static SequenceOntologyTree INSTANCE=null;
 	private final Map<String,TermImpl> acn2term=new HashMap<>(3000);
 	private final Map<String,TermImpl> label2term=new HashMap<>(3000);
+	/** normalized label to term, filled by buildIndex */
+	private final Map<String,TermImpl> normLabel2term=new HashMap<>(3000);
+	/** cache of the labels found in the VCFs, avoid calling normalizeName for each prediction */
+	private final Map<String,Optional<TermImpl>> labelCache=new ConcurrentHashMap<>();
+	/** terms indexed by their dense id, filled by buildIndex */
+	private TermImpl id2term[] = new TermImpl[0];
 	
 	
 	public interface Term
@@ -86,6 +97,8 @@ public class SequenceOntologyTree
 		public Set<Term> getAllDescendants();
 		/** return true if term is children of parent */
 		public boolean isChildrenOf(final Term t);
+		/** get the dense index of this term in the tree, in [0,tree.getTermCount()[ */
+		public int getId();
 		}
 	private class TermImpl implements Term
 		{
@@ -94,6 +107,12 @@ public class SequenceOntologyTree
 		String label;
 		final Set<Term> parents=new HashSet<>();
 		final Set<Term> children=new HashSet<>();
+		/** dense index, set by buildIndex */
+		int id = -1;
+		/** ids of all the ancestors, including self. Never modified after buildIndex */
+		BitSet ancestors = null;
+		/** all descendants, including self. Never modified after buildIndex */
+		Set<Term> descendants = null;
 		
 		TermImpl(final String accession,final String label) {
 			this.accession = accession;
@@ -122,18 +141,26 @@ public class SequenceOntologyTree
 			return Collections.unmodifiableSet(this.children);
 			}
 		
-		/** recursive operation on getChildren, including self */
+		@Override
+		public int getId() {
+			return this.id;
+			}
+		
+		/** recursive operation on getChildren, including self. The returned set is read-only */
 		@Override
 		public Set<Term> getAllDescendants()
 			{
-			final Set<Term> set=new HashSet<Term>();
-			_getAllDescendants(this,set);
-			return set;
+			return this.descendants;
 			}
 		/** return true if term is children of parent */
 		public boolean isChildrenOf(final Term t) {
-			return _isChildrenOf(this,t);
-			}	
+			final TermImpl parent = intern(t);
+			return parent!=null && this.ancestors.get(parent.id);
+			}
+		
+		private SequenceOntologyTree getTree() {
+			return SequenceOntologyTree.this;
+			}
 
 		
 		@Override
@@ -167,23 +194,117 @@ public class SequenceOntologyTree
 	
 
 	
-	private static void _getAllDescendants(final Term term,final Set<Term> set)
+	/** get the term of this tree having the same accession as 't' */
+	private TermImpl intern(final Term t)
 		{
-		set.add(term);
-		for(final Term c:term.getChildren())
+		if(t==null) return null;
+		if(t instanceof TermImpl && TermImpl.class.cast(t).getTree()==this) return TermImpl.class.cast(t);
+		return this.acn2term.get(t.getAcn());
+		}
+	
+	/** fill the ancestors of 't' , recursively */
+	private static BitSet _buildAncestors(final TermImpl t)
+		{
+		if(t.ancestors!=null) return t.ancestors;
+		final BitSet bits = new BitSet();
+		bits.set(t.id);
+		/* set before the recursion: a cycle in the ontology would otherwise loop forever */
+		t.ancestors = bits;
+		for(final Term p:t.parents)
 			{
-			_getAllDescendants(c,set);
+			bits.or(_buildAncestors(TermImpl.class.cast(p)));
 			}
+		return bits;
 		}
-
-	private static boolean _isChildrenOf(final Term term,final Term parent)
+	
+	/** called once the tree is loaded: assign the dense ids and compute the closures of each term */
+	private void buildIndex()
 		{
-		if(parent.equals(term)) return true;
-		for(final Term c:parent.getChildren())
+		this.id2term = this.acn2term.values().toArray(new TermImpl[this.acn2term.size()]);
+		Arrays.sort(this.id2term,(A,B)->A.accession.compareTo(B.accession));
+		for(int i=0;i< this.id2term.length;i++)
 			{
-			if(_isChildrenOf(term,c)) return true;
+			this.id2term[i].id = i;
+			this.id2term[i].ancestors = null;
+			}
+		final BitSet descendants[] = new BitSet[this.id2term.length];
+		for(int i=0;i< this.id2term.length;i++)
+			{
+			_buildAncestors(this.id2term[i]);
+			descendants[i] = new BitSet(this.id2term.length);
+			}
+		for(final TermImpl t: this.id2term)
+			{
+			final BitSet bits = t.ancestors;
+			for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1))
+				{
+				descendants[i].set(t.id);
+				}
+			}
+		for(final TermImpl t: this.id2term)
+			{
+			final BitSet bits = descendants[t.id];
+			final Set<Term> set = new HashSet<>(bits.cardinality()*2);
+			for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1))
+				{
+				set.add(this.id2term[i]);
+				}
+			t.descendants = Collections.unmodifiableSet(set);
+			}
+		this.normLabel2term.clear();
+		for(final TermImpl t: this.id2term)
+			{
+			if(t.label==null) continue;
+			this.normLabel2term.putIfAbsent(normalizeName(t.label), t);
+			}
+		this.labelCache.clear();
+		}
+	
+	/** get the number of terms in this tree. Each term has an id in [0,getTermCount()[ */
+	public int getTermCount()
+		{
+		return this.id2term.length;
+		}
+	
+	/** get a term by its dense id */
+	public Term getTermById(final int id)
+		{
+		return this.id2term[id];
+		}
+	
+	/** create a BitSet where the ids of the terms are set */
+	public BitSet toBitSet(final Collection<? extends Term> terms)
+		{
+		final BitSet bits = new BitSet(getTermCount());
+		for(final Term t: terms)
+			{
+			final TermImpl ti = intern(t);
+			if(ti==null) throw new IllegalArgumentException("term "+t+" is not in this tree");
+			bits.set(ti.id);
+			}
+		return bits;
+		}
+	
+	/** create a filter accepting a term if it is one of 'terms'. If 'reasoning' is true,
+	 * the children of 'terms' are also accepted and the test is a bitset AND between the
+	 * ancestors of the term and 'terms' */
+	public Predicate<Term> createTermFilter(final Collection<? extends Term> terms,final boolean reasoning)
+		{
+		final BitSet mask = toBitSet(terms);
+		if(reasoning)
+			{
+			return T->{
+				final TermImpl ti = intern(T);
+				return ti!=null && ti.ancestors.intersects(mask);
+				};
+			}
+		else
+			{
+			return T->{
+				final TermImpl ti = intern(T);
+				return ti!=null && mask.get(ti.id);
+				};
 			}
-		return false;
 		}
 	
 	/*
@@ -240,7 +361,18 @@ public class SequenceOntologyTree
 		{
 		final Term t= this.label2term.get(s);
 		if(t!=null) return t;
-		return  this.label2term.get(normalizeName(s));
+		if(s==null) return null;
+		/* the labels found in the VCFs are few: remember the result instead of normalizing each time */
+		Optional<TermImpl> opt = this.labelCache.get(s);
+		if(opt==null)
+			{
+			final String norm = normalizeName(s);
+			TermImpl t2 = this.label2term.get(norm);
+			if(t2==null) t2 = this.normLabel2term.get(norm);
+			opt = Optional.ofNullable(t2);
+			if(this.labelCache.size() < 10_000) this.labelCache.put(s, opt);
+			}
+		return opt.orElse(null);
 		}
 	
 	private SequenceOntologyTree()
@@ -2470,6 +2602,7 @@ public class SequenceOntologyTree
 			if(t.label==null) throw new JvarkitException.ProgrammingError("term "+t.accession+" has no label");
 			if(t!=tree.getTermByLabel(t.label)) throw new JvarkitException.ProgrammingError("???");
 		}
+		tree.buildIndex();
 		return tree;
 	 }
 		
@@ -2587,6 +2720,7 @@ public class SequenceOntologyTree
 					child.parents.add(parent);
 					}
 				final SequenceOntologyTree t2 = this.tree;
+				t2.buildIndex();
 				this.tree = null;
 				this.uri2terms.clear();
 				return t2;
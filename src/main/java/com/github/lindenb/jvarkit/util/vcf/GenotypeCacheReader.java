@@ -0,0 +1,403 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.AbstractVCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * Memory-mapped reader for the genotype cache written by {@link GenotypeCacheWriter}.
+ *
+ * The index of the sites is loaded as primitive arrays, so a query is a binary search
+ * followed by the decoding of the records. Like VCFFileReader, this class is not thread-safe.
+ */
+public class GenotypeCacheReader implements IndexedVcfSource
+	{
+	/** size of the mapped segments: a file larger than 2Gb is mapped as several buffers */
+	private static final long SEGMENT_SIZE = 1L<<30;
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer segments[];
+	private final VCFHeader header;
+	private final AbstractVCFCodec genotypesCodec;
+	private final AbstractVCFCodec sitesCodec;
+	private final List<String> sampleNames;
+	private final Map<String,Integer> contig2index = new HashMap<>();
+	private final int contigFirstSite[];
+	private final int contigCount[];
+	private final int contigMaxLength[];
+	private final int siteStart[];
+	private final int siteEnd[];
+	private final long siteOffset[];
+
+	/** a decoded record of the cache */
+	public class Site
+		{
+		private final int siteIndex;
+		private final ByteBuffer record;
+		private final boolean packed;
+		private final float af;
+		private final int flags;
+		private final String line;
+		private final int genotypesOffset;
+
+		private Site(final int siteIndex,final ByteBuffer record)
+			{
+			this.siteIndex = siteIndex;
+			this.record = record;
+			this.packed = record.get()==GenotypeCacheWriter.TYPE_PACKED;
+			if(this.packed)
+				{
+				this.af = record.getFloat();
+				this.flags = record.get();
+				final int len = record.getInt();
+				this.line = new String(record.array(), record.position(), len, StandardCharsets.UTF_8);
+				record.position(record.position()+len);
+				this.genotypesOffset = record.position();
+				}
+			else
+				{
+				this.af = -1f;
+				this.flags = 0;
+				this.line = new String(record.array(), record.position(), record.remaining(), StandardCharsets.UTF_8);
+				this.genotypesOffset = -1;
+				}
+			}
+		public int getSiteIndex() {
+			return this.siteIndex;
+			}
+		/** true if the genotypes are stored as 2-bit codes */
+		public boolean isPacked() {
+			return this.packed;
+			}
+		/** alternate allele frequency among the called alleles; -1 if no call or not packed */
+		public float getAlleleFrequency() {
+			return this.af;
+			}
+		/** get the 2-bit code of the genotype: 0 HOM_REF, 1 HET, 2 HOM_VAR, 3 NO_CALL, only for packed records */
+		public int getGenotypeCode(final int sampleIndex) {
+			if(!this.packed) throw new IllegalStateException("record is not packed");
+			final int b = this.record.get(this.genotypesOffset + sampleIndex/4);
+			return (b >> (2*(sampleIndex%4))) & 0x3;
+			}
+		/** get the DP or -1, only for packed records */
+		public int getDepth(final int sampleIndex) {
+			if(!this.packed) throw new IllegalStateException("record is not packed");
+			if((this.flags & GenotypeCacheWriter.FLAG_DP)==0) return -1;
+			return this.record.getInt(this.genotypesOffset + (sampleNames.size()+3)/4 + 4*sampleIndex);
+			}
+		/** get the GQ or -1, only for packed records */
+		public int getGenotypeQuality(final int sampleIndex) {
+			if(!this.packed) throw new IllegalStateException("record is not packed");
+			if((this.flags & GenotypeCacheWriter.FLAG_GQ)==0) return -1;
+			int offset = this.genotypesOffset + (sampleNames.size()+3)/4;
+			if((this.flags & GenotypeCacheWriter.FLAG_DP)!=0) offset += 4*sampleNames.size();
+			return this.record.getShort(offset + 2*sampleIndex);
+			}
+
+		public VariantContext toVariantContext()
+			{
+			if(!this.packed)
+				{
+				return genotypesCodec.decode(this.line);
+				}
+			final VariantContext sites = sitesCodec.decode(this.line);
+			if(sampleNames.isEmpty()) return sites;
+			final Allele ref = sites.getReference();
+			final Allele alt = sites.getAlternateAllele(0);
+			final List<List<Allele>> code2alleles = Arrays.asList(
+					Arrays.asList(ref,ref),
+					Arrays.asList(ref,alt),
+					Arrays.asList(alt,alt),
+					Arrays.asList(Allele.NO_CALL,Allele.NO_CALL)
+					);
+			final ArrayList<Genotype> genotypes = new ArrayList<>(sampleNames.size());
+			for(int i=0;i< sampleNames.size();++i)
+				{
+				final GenotypeBuilder gb = new GenotypeBuilder(sampleNames.get(i), code2alleles.get(getGenotypeCode(i)));
+				final int dp = getDepth(i);
+				if(dp>=0) gb.DP(dp);
+				final int gq = getGenotypeQuality(i);
+				if(gq>=0) gb.GQ(gq);
+				genotypes.add(gb.make());
+				}
+			return new VariantContextBuilder(sites).
+				genotypes(GenotypesContext.create(genotypes, header.getSampleNameToOffset(), header.getSampleNamesInOrder())).
+				make();
+			}
+		}
+
+	public GenotypeCacheReader(final File file) throws IOException
+		{
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		final FileChannel channel = this.raf.getChannel();
+		final long length = channel.size();
+		final int nSegments = (int)((length + SEGMENT_SIZE - 1)/SEGMENT_SIZE);
+		this.segments = new MappedByteBuffer[nSegments];
+		for(int i=0;i< nSegments;i++)
+			{
+			final long start = i*SEGMENT_SIZE;
+			this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length-start));
+			}
+		final byte magic[] = new byte[GenotypeCacheWriter.MAGIC.length];
+		read(0L, magic, magic.length);
+		if(!Arrays.equals(magic, GenotypeCacheWriter.MAGIC)) throw new IOException("Not a genotype cache: "+file);
+		read(length-magic.length, magic, magic.length);
+		if(!Arrays.equals(magic, GenotypeCacheWriter.MAGIC)) throw new IOException("Truncated genotype cache: "+file);
+
+		/* header */
+		final int headerLength = readInt(magic.length);
+		final byte headerBytes[] = new byte[headerLength];
+		read(magic.length+4, headerBytes, headerLength);
+		final List<String> headerLines = Arrays.asList(new String(headerBytes,StandardCharsets.UTF_8).split("\n"));
+		final VCFUtils.CodecAndHeader cah = VCFUtils.parseHeader(headerLines);
+		this.header = cah.header;
+		this.genotypesCodec = cah.codec;
+		this.sampleNames = new ArrayList<>(this.header.getSampleNamesInOrder());
+		final List<String> sitesLines = new ArrayList<>(headerLines.size());
+		for(final String line:headerLines)
+			{
+			if(line.startsWith("#CHROM\t"))
+				{
+				final String tokens[]=line.split("[\t]");
+				sitesLines.add(String.join("\t", Arrays.asList(tokens).subList(0, Math.min(tokens.length,8))));
+				}
+			else
+				{
+				sitesLines.add(line);
+				}
+			}
+		this.sitesCodec = VCFUtils.parseHeader(sitesLines).codec;
+
+		/* index */
+		final long indexOffset = readLong(length-magic.length-8);
+		final byte indexBytes[] = new byte[(int)(length-magic.length-8-indexOffset)];
+		read(indexOffset, indexBytes, indexBytes.length);
+		final ByteBuffer index = ByteBuffer.wrap(indexBytes);
+		final int nContigs = index.getInt();
+		this.contigFirstSite = new int[nContigs];
+		this.contigCount = new int[nContigs];
+		this.contigMaxLength = new int[nContigs];
+		for(int i=0;i< nContigs;i++)
+			{
+			final int len = Short.toUnsignedInt(index.getShort());
+			final String contig = new String(indexBytes, index.position(), len, StandardCharsets.UTF_8);
+			index.position(index.position()+len);
+			this.contig2index.put(contig, i);
+			this.contigFirstSite[i] = index.getInt();
+			this.contigCount[i] = index.getInt();
+			this.contigMaxLength[i] = index.getInt();
+			}
+		final int nSites = index.getInt();
+		this.siteStart = new int[nSites];
+		this.siteEnd = new int[nSites];
+		this.siteOffset = new long[nSites];
+		for(int i=0;i< nSites;i++)
+			{
+			index.getInt();//contig
+			this.siteStart[i] = index.getInt();
+			this.siteEnd[i] = index.getInt();
+			this.siteOffset[i] = index.getLong();
+			}
+		}
+
+	/** read 'len' bytes at 'pos' in the mapped segments */
+	private void read(long pos,final byte dest[],final int len)
+		{
+		int off = 0;
+		while(off < len)
+			{
+			final ByteBuffer segment = this.segments[(int)(pos/SEGMENT_SIZE)].duplicate();
+			segment.position((int)(pos%SEGMENT_SIZE));
+			final int n = Math.min(len-off, segment.remaining());
+			segment.get(dest, off, n);
+			off += n;
+			pos += n;
+			}
+		}
+
+	private int readInt(final long pos)
+		{
+		final byte b[] = new byte[4];
+		read(pos, b, 4);
+		return ByteBuffer.wrap(b).getInt();
+		}
+
+	private long readLong(final long pos)
+		{
+		final byte b[] = new byte[8];
+		read(pos, b, 8);
+		return ByteBuffer.wrap(b).getLong();
+		}
+
+	public File getFile() {
+		return this.file;
+		}
+
+	@Override
+	public VCFHeader getFileHeader() {
+		return this.header;
+		}
+
+	public int getNSites() {
+		return this.siteOffset.length;
+		}
+
+	/** decode the record of the site at the given index. The Site keeps its own copy of the record: the genotypes are decoded lazily */
+	public Site getSite(final int siteIndex)
+		{
+		final long offset = this.siteOffset[siteIndex];
+		final int len = readInt(offset);
+		final byte record[] = new byte[len];
+		read(offset+4, record, len);
+		return new Site(siteIndex,ByteBuffer.wrap(record));
+		}
+
+	public VariantContext getVariant(final int siteIndex)
+		{
+		return getSite(siteIndex).toVariantContext();
+		}
+
+	/** iterator over the sites in [beginIndex,endIndex) overlapping the optional interval */
+	private class SiteIterator extends AbstractIterator<VariantContext>
+		implements VcfIterator, CloseableIterator<VariantContext>
+		{
+		private int siteIndex;
+		private final int endIndex;
+		private final int start;
+		private final int end;
+		private final boolean closeReader;
+		SiteIterator(final int beginIndex,final int endIndex,final int start,final int end,final boolean closeReader) {
+			this.siteIndex = beginIndex;
+			this.endIndex = endIndex;
+			this.start = start;
+			this.end = end;
+			this.closeReader = closeReader;
+			}
+		@Override
+		protected VariantContext advance() {
+			while(this.siteIndex < this.endIndex)
+				{
+				final int i = this.siteIndex++;
+				if(siteEnd[i] < this.start || siteStart[i] > this.end) continue;
+				return getVariant(i);
+				}
+			return null;
+			}
+		@Override
+		public AbstractVCFCodec getCodec() {
+			return genotypesCodec;
+			}
+		@Override
+		public VCFHeader getHeader() {
+			return header;
+			}
+		@Override
+		public void close() {
+			this.siteIndex = this.endIndex;
+			if(this.closeReader) GenotypeCacheReader.this.close();
+			}
+		}
+
+	@Override
+	public CloseableIterator<VariantContext> iterator() {
+		return new SiteIterator(0, getNSites(), Integer.MIN_VALUE, Integer.MAX_VALUE, false);
+		}
+
+	/** iterate over all the variants, the reader is closed when the iterator is closed */
+	public VcfIterator vcfIterator() {
+		return new SiteIterator(0, getNSites(), Integer.MIN_VALUE, Integer.MAX_VALUE, true);
+		}
+
+	@Override
+	public CloseableIterator<VariantContext> query(final String contig,final int start,final int end)
+		{
+		final Integer tid = this.contig2index.get(contig);
+		if(tid==null) return new SiteIterator(0, 0, start, end, false);
+		final int first = this.contigFirstSite[tid];
+		final int last = first + this.contigCount[tid];
+		/* no variant starting before this position can overlap the interval */
+		final int minStart = (int)Math.max(Integer.MIN_VALUE, (long)start - this.contigMaxLength[tid]);
+		int lo = first;
+		int hi = last;
+		while(lo < hi)
+			{
+			final int mid = (lo+hi) >>> 1;
+			if(this.siteStart[mid] < minStart) lo = mid+1; else hi = mid;
+			}
+		final int beginIndex = lo;
+		hi = last;
+		while(lo < hi)
+			{
+			final int mid = (lo+hi) >>> 1;
+			if(this.siteStart[mid] <= end) lo = mid+1; else hi = mid;
+			}
+		return new SiteIterator(beginIndex, lo, start, end, false);
+		}
+
+	@Override
+	public void close()
+		{
+		try
+			{
+			this.raf.close();
+			}
+		catch(final IOException err)
+			{
+			/* ignore */
+			}
+		}
+
+	@Override
+	public String toString() {
+		return "GenotypeCacheReader("+this.file+")";
+		}
+	}
@@ -0,0 +1,311 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * Writes a binary genotype cache, read by {@link GenotypeCacheReader}.
+ *
+ * The cache is built once from a sorted VCF. It only keeps the sites and the GT, DP, GQ and FT of the genotypes:
+ * the other FORMAT fields are discarded.
+ *
+ * Layout:
+ * <pre>
+ * MAGIC
+ * int:length, VCF header as UTF-8
+ * for each variant: int:length, record
+ * index: int:nContigs (UTF:name int:first-site int:count int:max-length)*, int:nSites (int:contig int:start int:end long:offset)*
+ * long:offset-of-the-index MAGIC
+ * </pre>
+ * A record is either TYPE_PACKED (biallelic, unphased, diploid, unfiltered genotypes):
+ * float:AF byte:flags int:length sites-line, genotypes as 2 bits per sample, int[nSamples]:DP if FLAG_DP, short[nSamples]:GQ if FLAG_GQ
+ * or TYPE_TEXT : the VCF line with FORMAT=GT:DP:GQ:FT.
+ */
+public class GenotypeCacheWriter implements Closeable
+	{
+	public static final String FILE_SUFFIX = ".gtcache";
+	static final byte[] MAGIC = "GTCACHE1".getBytes(StandardCharsets.US_ASCII);
+	static final byte TYPE_PACKED = 0;
+	static final byte TYPE_TEXT = 1;
+	static final byte FLAG_DP = 1;
+	static final byte FLAG_GQ = 2;
+	static final int GT_HOM_REF = 0;
+	static final int GT_HET = 1;
+	static final int GT_HOM_VAR = 2;
+	static final int GT_NO_CALL = 3;
+
+	private static class ContigIndex
+		{
+		final int contigIndex;
+		final int firstSite;
+		int count = 0;
+		int maxLength = 0;
+		ContigIndex(final int contigIndex,final int firstSite) {
+			this.contigIndex = contigIndex;
+			this.firstSite = firstSite;
+			}
+		}
+
+	private final DataOutputStream out;
+	private final List<String> sampleNames;
+	private final VCFEncoder sitesEncoder;
+	private final VCFEncoder genotypesEncoder;
+	/* the index is kept in memory as primitive arrays */
+	private int siteContig[] = new int[10_000];
+	private int siteStart[] = new int[10_000];
+	private int siteEnd[] = new int[10_000];
+	private long siteOffset[] = new long[10_000];
+	private int nSites = 0;
+	private final Map<String,ContigIndex> contigs = new LinkedHashMap<>();
+	private ContigIndex lastContig = null;
+	/** current offset in the output */
+	private long offset = 0L;
+	private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+	private final DataOutputStream record = new DataOutputStream(this.recordBytes);
+	private boolean closed = false;
+
+	/** returns true if this path looks like a genotype cache */
+	public static boolean isGenotypeCache(final String path) {
+		return path!=null && path.endsWith(FILE_SUFFIX);
+		}
+
+	/** read a sorted VCF and write it as a genotype cache */
+	public static void build(final VcfIterator iter,final File outputFile) throws IOException {
+		try(GenotypeCacheWriter w = new GenotypeCacheWriter(outputFile, iter.getHeader())) {
+			while(iter.hasNext()) {
+				w.add(iter.next());
+				}
+			}
+		}
+
+	public GenotypeCacheWriter(final File outputFile,final VCFHeader header) throws IOException
+		{
+		if(!isGenotypeCache(outputFile.getName())) {
+			throw new IOException("Filename must end with "+FILE_SUFFIX+" : "+outputFile);
+			}
+		this.sampleNames = header.getSampleNamesInOrder();
+		this.sitesEncoder = new VCFEncoder(new VCFHeader(header.getMetaDataInInputOrder(),Collections.emptyList()), true, false);
+		this.genotypesEncoder = new VCFEncoder(header, true, false);
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1_000_000));
+		this.out.write(MAGIC);
+		this.offset += MAGIC.length;
+		final byte headerBytes[] = String.join("\n", VCFUtils.convertVCFHeaderToList(header)).getBytes(StandardCharsets.UTF_8);
+		this.out.writeInt(headerBytes.length);
+		this.out.write(headerBytes);
+		this.offset += 4 + headerBytes.length;
+		}
+
+	/** return the 2-bit code of a genotype or -1 if it cannot be packed */
+	private static int packGenotype(final Genotype g,final VariantContext ctx)
+		{
+		if(g.getPloidy()!=2 || g.isPhased() || g.isFiltered()) return -1;
+		if(g.isNoCall()) return GT_NO_CALL;
+		if(g.isMixed()) return -1;
+		final Allele a1 = g.getAllele(0);
+		final Allele a2 = g.getAllele(1);
+		final boolean ref1 = a1.isReference();
+		final boolean ref2 = a2.isReference();
+		if(ref1 && ref2) return GT_HOM_REF;
+		final Allele alt = ctx.getAlternateAllele(0);
+		if(ref1 || ref2) return (ref1?a2:a1).equals(alt)?GT_HET:-1;
+		return a1.equals(alt) && a2.equals(alt)?GT_HOM_VAR:-1;
+		}
+
+	/** alternate allele frequency among the called alleles, -1 if there is no call */
+	private static float alleleFrequency(final VariantContext ctx)
+		{
+		int called = 0;
+		int alt = 0;
+		for(final Genotype g: ctx.getGenotypes())
+			{
+			for(final Allele a: g.getAlleles())
+				{
+				if(a.isNoCall()) continue;
+				called++;
+				if(!a.isReference()) alt++;
+				}
+			}
+		return called==0?-1f:alt/(float)called;
+		}
+
+	private void writeRecord(final VariantContext ctx) throws IOException
+		{
+		final float af = alleleFrequency(ctx);
+		final int codes[] = new int[this.sampleNames.size()];
+		boolean packed = ctx.getNAlleles()==2;
+		boolean hasDP = false;
+		boolean hasGQ = false;
+		for(int i=0;packed && i< codes.length;++i)
+			{
+			final Genotype g = ctx.getGenotype(i);
+			codes[i] = packGenotype(g,ctx);
+			if(codes[i]<0) packed = false;
+			if(g.hasDP()) hasDP = true;
+			if(g.hasGQ()) hasGQ = true;
+			}
+		if(packed)
+			{
+			this.record.writeByte(TYPE_PACKED);
+			this.record.writeFloat(af);
+			this.record.writeByte((hasDP?FLAG_DP:0)|(hasGQ?FLAG_GQ:0));
+			final byte sites[] = this.sitesEncoder.encode(new VariantContextBuilder(ctx).noGenotypes().make()).getBytes(StandardCharsets.UTF_8);
+			this.record.writeInt(sites.length);
+			this.record.write(sites);
+			final byte gts[] = new byte[(codes.length+3)/4];
+			for(int i=0;i< codes.length;++i)
+				{
+				gts[i/4] |= (byte)(codes[i] << (2*(i%4)));
+				}
+			this.record.write(gts);
+			if(hasDP) for(int i=0;i< codes.length;++i) this.record.writeInt(ctx.getGenotype(i).getDP());
+			if(hasGQ) for(int i=0;i< codes.length;++i) this.record.writeShort(Math.min(Short.MAX_VALUE, ctx.getGenotype(i).getGQ()));
+			}
+		else
+			{
+			/* keep only GT, DP, GQ and FT */
+			final List<Genotype> genotypes = new ArrayList<>(this.sampleNames.size());
+			for(final Genotype g:ctx.getGenotypes())
+				{
+				final GenotypeBuilder gb = new GenotypeBuilder(g.getSampleName(), g.getAlleles());
+				gb.phased(g.isPhased());
+				if(g.hasDP()) gb.DP(g.getDP());
+				if(g.hasGQ()) gb.GQ(g.getGQ());
+				if(g.isFiltered()) gb.filter(g.getFilters());
+				genotypes.add(gb.make());
+				}
+			this.record.writeByte(TYPE_TEXT);
+			this.record.write(this.genotypesEncoder.encode(new VariantContextBuilder(ctx).genotypes(genotypes).make()).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+
+	public void add(final VariantContext ctx)
+		{
+		if(this.closed) throw new IllegalStateException("writer was closed");
+		try
+			{
+			ContigIndex contig = this.contigs.get(ctx.getContig());
+			if(contig==null)
+				{
+				contig = new ContigIndex(this.contigs.size(), this.nSites);
+				this.contigs.put(ctx.getContig(), contig);
+				}
+			else if(contig!=this.lastContig || ctx.getStart() < this.siteStart[this.nSites-1])
+				{
+				throw new IllegalArgumentException("Input is not sorted: got "+ctx.getContig()+":"+ctx.getStart()+
+						" after position "+this.siteStart[this.nSites-1]+" of the previous contig or of the same contig.");
+				}
+			this.lastContig = contig;
+
+			this.recordBytes.reset();
+			writeRecord(ctx);
+			this.record.flush();
+
+			if(this.nSites==this.siteStart.length)
+				{
+				final int n = this.nSites*2;
+				this.siteContig = Arrays.copyOf(this.siteContig, n);
+				this.siteStart = Arrays.copyOf(this.siteStart, n);
+				this.siteEnd = Arrays.copyOf(this.siteEnd, n);
+				this.siteOffset = Arrays.copyOf(this.siteOffset, n);
+				}
+			this.siteContig[this.nSites] = contig.contigIndex;
+			this.siteStart[this.nSites] = ctx.getStart();
+			this.siteEnd[this.nSites] = ctx.getEnd();
+			this.siteOffset[this.nSites] = this.offset;
+			this.nSites++;
+			contig.count++;
+			contig.maxLength = Math.max(contig.maxLength, ctx.getEnd()-ctx.getStart()+1);
+
+			this.out.writeInt(this.recordBytes.size());
+			this.recordBytes.writeTo(this.out);
+			this.offset += 4 + this.recordBytes.size();
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		this.closed = true;
+		final long indexOffset = this.offset;
+		this.out.writeInt(this.contigs.size());
+		for(final String contig: this.contigs.keySet())
+			{
+			final ContigIndex ci = this.contigs.get(contig);
+			this.out.writeUTF(contig);
+			this.out.writeInt(ci.firstSite);
+			this.out.writeInt(ci.count);
+			this.out.writeInt(ci.maxLength);
+			}
+		this.out.writeInt(this.nSites);
+		for(int i=0;i< this.nSites;i++)
+			{
+			this.out.writeInt(this.siteContig[i]);
+			this.out.writeInt(this.siteStart[i]);
+			this.out.writeInt(this.siteEnd[i]);
+			this.out.writeLong(this.siteOffset[i]);
+			}
+		this.out.writeLong(indexOffset);
+		this.out.write(MAGIC);
+		this.out.flush();
+		this.out.close();
+		}
+
+	@Override
+	public String toString() {
+		return "GenotypeCacheWriter";
+		}
+	}
@@ -0,0 +1,94 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * A VCF that can be scanned or queried: an indexed VCF file (htsjdk's VCFFileReader)
+ * or a genotype cache (see {@link GenotypeCacheReader})
+ */
+public interface IndexedVcfSource extends Closeable
+	{
+	public VCFHeader getFileHeader();
+	/** iterate over all the variants */
+	public CloseableIterator<VariantContext> iterator();
+	/** iterate over the variants overlapping the 1-based interval */
+	public CloseableIterator<VariantContext> query(final String contig,int start,int end);
+	@Override
+	public void close();
+
+	/** open a genotype cache if the file ends with {@link GenotypeCacheWriter#FILE_SUFFIX}, or a VCF file */
+	public static IndexedVcfSource open(final File file,final boolean requireIndex)
+		{
+		if(GenotypeCacheWriter.isGenotypeCache(file.getName()))
+			{
+			try
+				{
+				return new GenotypeCacheReader(file);
+				}
+			catch(final IOException err)
+				{
+				throw new RuntimeIOException(err);
+				}
+			}
+		final VCFFileReader reader = new VCFFileReader(file, requireIndex);
+		return new IndexedVcfSource()
+			{
+			@Override
+			public VCFHeader getFileHeader() {
+				return reader.getFileHeader();
+				}
+			@Override
+			public CloseableIterator<VariantContext> iterator() {
+				return reader.iterator();
+				}
+			@Override
+			public CloseableIterator<VariantContext> query(final String contig, int start, int end) {
+				return reader.query(contig, start, end);
+				}
+			@Override
+			public void close() {
+				reader.close();
+				}
+			@Override
+			public String toString() {
+				return file.getPath();
+				}
+			};
+		}
+	}
@@ -24,12 +24,14 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util.vcf;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.IStringConverter;
+import com.github.lindenb.jvarkit.lang.JexlCompiler;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.util.StringUtil;
@@ -39,6 +41,10 @@ import htsjdk.variant.variantcontext.VariantContextUtils.JexlVCMatchExp;
 
 /** 
  * JEXL expression factory
+ * 
+ * If the JVM property 'jvarkit.jexl.compile' is true, the expressions are
+ * translated to java and compiled (see {@link JexlCompiler}). The
+ * JEXL interpreter is used if one of the expressions cannot be compiled.
  */
 public class JexlVariantPredicate implements Predicate<VariantContext> {
 	private static final Logger LOG=Logger.build(JexlVariantPredicate.class).make();
@@ -85,15 +91,90 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 		final List<String> dummyNames = expressions.stream().
 				map(S->"JEXL"+(++ID_GENERATOR)).
 				collect(Collectors.toList());
+		final JexlVariantPredicate interpreted;
 		try {
-			return new JexlVariantPredicate(VariantContextUtils.initializeMatchExps(dummyNames, expressions));
+			interpreted = new JexlVariantPredicate(VariantContextUtils.initializeMatchExps(dummyNames, expressions));
 			}
 		catch(final Throwable err) {
 			LOG.error(err);
 			throw new RuntimeException("Cannot compile :"+String.join(",", expressions),err);
 			}
+		if(!JexlCompiler.isCompilationEnabled()) return interpreted;
+		final Predicate<VariantContext> compiled = compile(expressions);
+		return compiled==null?interpreted:compiled;
 	}
 	
+	/** try to compile the expressions. Returns null if one of them cannot be compiled. */
+	private static Predicate<VariantContext> compile(final List<String> expressions) {
+		final String R = JexlCompiler.RECORD;
+		final String MISSING = "throw new "+JexlCompiler.MissingVariableException.class.getCanonicalName()+"("+JexlCompiler.VARIABLE_NAME+");";
+		/* same variables as htsjdk.variant.variantcontext.VariantJEXLContext */
+		final JexlCompiler<VariantContext> compiler = new JexlCompiler<>(VariantContext.class).
+			addVariable("vc", VariantContext.class, R).
+			addVariable("CHROM", String.class, R+".getContig()").
+			addVariable("POS", int.class, R+".getStart()").
+			addVariable("TYPE", String.class, R+".getType().toString()").
+			addVariable("QUAL", double.class, "-10 * "+R+".getLog10PError()").
+			addVariable("ALLELES", List.class, R+".getAlleles()").
+			addVariable("N_ALLELES", int.class, R+".getNAlleles()").
+			addVariable("FILTER", String.class, R+".isFiltered() ? \"1\" : \"0\"").
+			addVariable("homRefCount", int.class, R+".getHomRefCount()").
+			addVariable("hetCount", int.class, R+".getHetCount()").
+			addVariable("homVarCount", int.class, R+".getHomVarCount()").
+			setDynamicVariables(
+				"if("+R+".hasAttribute(__name)) {\n"+
+				" final Object o = "+R+".getAttribute(__name);\n"+
+				" if(o==null) "+MISSING+"\n"+
+				" return o;\n"+
+				" }\n"+
+				"if("+R+".getFilters().contains(__name)) return \"1\";\n"+
+				MISSING
+				);
+		final List<Predicate<VariantContext>> predicates = new ArrayList<>(expressions.size());
+		try {
+			for(final String expr: expressions) {
+				final Predicate<VariantContext> delegate = compiler.compilePredicate(expr);
+				predicates.add(new Predicate<VariantContext>() {
+					@Override
+					public boolean test(final VariantContext ctx) {
+						try {
+							return delegate.test(ctx);
+							}
+						catch(final RuntimeException err) {
+							throw new IllegalArgumentException("Invalid JEXL expression detected for "+expr,err);
+							}
+						}
+					@Override
+					public String toString() {
+						return delegate.toString();
+						}
+					});
+				}
+			}
+		catch(final JexlCompiler.UnsupportedExpressionException err) {
+			LOG.debug("cannot compile JEXL expression: "+err.getMessage()+". Using the interpreter.");
+			return null;
+			}
+		catch(final RuntimeException err) {
+			LOG.warning("compilation of JEXL expressions "+String.join(",", expressions)+" failed. Using the interpreter.");
+			return null;
+			}
+		return new Predicate<VariantContext>() {
+			@Override
+			public boolean test(final VariantContext ctx) {
+				for(final Predicate<VariantContext> p: predicates) {
+					if(p.test(ctx)) return true;
+					}
+				return false;
+				}
+			@Override
+			public String toString() {
+				return JexlVariantPredicate.class.getName()+":"+
+					predicates.stream().map(x->x.toString()).collect(Collectors.joining(";"));
+				}
+			};
+		}
+	
 	private final List<JexlVCMatchExp> jexlVCMatchExps;
 	
 	private JexlVariantPredicate(final List<JexlVCMatchExp> jexlVCMatchExps) {
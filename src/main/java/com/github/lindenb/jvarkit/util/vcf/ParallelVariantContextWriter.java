@@ -0,0 +1,271 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * Asynchronous VariantContextWriter.
+ *
+ * The variants are grouped in batches, the batches are encoded in a pool
+ * of threads and a writer thread writes the encoded batches in order.
+ * The queue of batches is bounded: add() waits if the writer is too slow.
+ * The output is the same as htsjdk's VCFWriter.
+ */
+public class ParallelVariantContextWriter implements VariantContextWriter
+	{
+	/** default number of variants per batch */
+	public static final int DEFAULT_BATCH_SIZE = 1_000;
+	/** end of stream marker */
+	private static final Future<byte[]> EOF_BATCH = CompletableFuture.completedFuture(new byte[0]);
+
+	private final OutputStream out;
+	private final int batchSize;
+	private final ExecutorService executorService;
+	/** encoded batches, in order */
+	private final BlockingQueue<Future<byte[]>> batches;
+	private final Thread writerThread;
+	/** the encoded header, the output is flushed after it, like VCFWriter does */
+	private volatile Future<byte[]> headerBatch = null;
+	/** one encoder per thread */
+	private ThreadLocal<VCFEncoder> threadEncoder = null;
+	private List<VariantContext> currentBatch;
+	private volatile Throwable error = null;
+	private boolean closed = false;
+
+	public ParallelVariantContextWriter(final OutputStream out,final int nThreads)
+		{
+		this(out,nThreads,DEFAULT_BATCH_SIZE);
+		}
+
+	public ParallelVariantContextWriter(final OutputStream out,final int nThreads,final int batchSize)
+		{
+		if(nThreads<1) throw new IllegalArgumentException("bad number of threads "+nThreads);
+		if(batchSize<1) throw new IllegalArgumentException("bad batch size "+batchSize);
+		this.out = out;
+		this.batchSize = batchSize;
+		this.currentBatch = new ArrayList<>(batchSize);
+		this.executorService = Executors.newFixedThreadPool(nThreads,R->{
+			final Thread t = new Thread(R,"vcf-encoder");
+			t.setDaemon(true);
+			return t;
+			});
+		this.batches = new ArrayBlockingQueue<>(nThreads*4);
+		this.writerThread = new Thread(this::writeBatches,"vcf-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+		}
+
+	/** runs in writerThread */
+	private void writeBatches()
+		{
+		try
+			{
+			for(;;)
+				{
+				final Future<byte[]> future = this.batches.take();
+				if(future==EOF_BATCH) break;
+				this.out.write(future.get());
+				if(future==this.headerBatch) this.out.flush();
+				}
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			}
+		catch(final ExecutionException err)
+			{
+			this.error = err.getCause();
+			}
+		catch(final Throwable err)
+			{
+			this.error = err;
+			}
+		/* consume the remaining batches so add() never blocks */
+		if(this.error!=null)
+			{
+			this.batches.clear();
+			}
+		}
+
+	private void assertNoError()
+		{
+		if(this.error==null) return;
+		if(this.error instanceof RuntimeException) throw (RuntimeException)this.error;
+		throw new RuntimeIOException(this.error);
+		}
+
+	private void enqueue(final Future<byte[]> future)
+		{
+		assertNoError();
+		try
+			{
+			while(!this.batches.offer(future, 1L, TimeUnit.SECONDS))
+				{
+				assertNoError();
+				if(!this.writerThread.isAlive()) throw new RuntimeIOException("writer thread is dead");
+				}
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			throw new RuntimeIOException(err);
+			}
+		}
+
+	/** encode one batch. Runs in the executor */
+	private byte[] encode(final List<VariantContext> batch)
+		{
+		final VCFEncoder encoder = this.threadEncoder.get();
+		final StringBuilder sb = new StringBuilder(batch.size()*100);
+		for(final VariantContext ctx:batch)
+			{
+			sb.append(encoder.encode(ctx));
+			sb.append('\n');
+			}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+		}
+
+	private void submitCurrentBatch()
+		{
+		if(this.currentBatch.isEmpty()) return;
+		final List<VariantContext> batch = this.currentBatch;
+		this.currentBatch = new ArrayList<>(this.batchSize);
+		enqueue(this.executorService.submit(()->encode(batch)));
+		}
+
+	@Override
+	public void setHeader(final VCFHeader header)
+		{
+		if(this.threadEncoder!=null) throw new IllegalStateException("header was already set");
+		this.threadEncoder = ThreadLocal.withInitial(()->new VCFEncoder(header, false, false));
+		}
+
+	@Override
+	public void writeHeader(final VCFHeader header)
+		{
+		setHeader(header);
+		/* the header is written by a regular VCF writer, so it's the same than the serial path */
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final VariantContextWriter w = new VariantContextWriterBuilder().
+				setCreateMD5(false).
+				setReferenceDictionary(null).
+				clearOptions().
+				setOutputStream(baos).
+				build();
+		w.writeHeader(header);
+		w.close();
+		this.headerBatch = CompletableFuture.completedFuture(baos.toByteArray());
+		enqueue(this.headerBatch);
+		}
+
+	@Override
+	public void add(final VariantContext ctx)
+		{
+		if(this.closed) throw new IllegalStateException("writer was closed");
+		if(this.threadEncoder==null) throw new IllegalStateException("header was not written");
+		/* lazy genotypes are parsed by the codec of the reader which is not thread safe: parse them here.
+		 * Unparsed genotypes stored as a String are written 'as is' by VCFEncoder, no need to parse them */
+		final GenotypesContext gc = ctx.getGenotypes();
+		if(gc.isLazyWithData() && !(((LazyGenotypesContext)gc).getUnparsedGenotypeData() instanceof String))
+			{
+			((LazyGenotypesContext)gc).decode();
+			}
+		this.currentBatch.add(ctx);
+		if(this.currentBatch.size()>=this.batchSize)
+			{
+			submitCurrentBatch();
+			}
+		}
+
+	@Override
+	public boolean checkError()
+		{
+		if(this.error!=null) return true;
+		/* a PrintStream (e.g. stdout) never throws: ask it, like htsjdk's VCFWriter does */
+		return (this.out instanceof PrintStream) && ((PrintStream)this.out).checkError();
+		}
+
+	@Override
+	public void close()
+		{
+		if(this.closed) return;
+		this.closed = true;
+		try
+			{
+			submitCurrentBatch();
+			enqueue(EOF_BATCH);
+			this.writerThread.join();
+			assertNoError();
+			this.out.close();
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			throw new RuntimeIOException(err);
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		finally
+			{
+			this.executorService.shutdownNow();
+			}
+		}
+
+	@Override
+	public String toString()
+		{
+		return "ParallelVariantContextWriter";
+		}
+	}
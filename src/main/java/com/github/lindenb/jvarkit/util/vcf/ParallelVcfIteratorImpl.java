@@ -0,0 +1,297 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.AbstractVCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * Order-preserving, multi-threaded VcfIterator.
+ *
+ * One thread reads the lines by blocks, a pool of threads decodes the blocks
+ * (including the genotypes). The blocks are returned in the original order.
+ * The AbstractVCFCodec is not thread-safe, so each decoding thread owns its own codec.
+ * The genotypes can also be kept unparsed, see {@link RawGenotypesVcfDecoder}
+ */
+public class ParallelVcfIteratorImpl implements VcfIterator
+	{
+	/** default number of lines per block */
+	public static final int DEFAULT_BLOCK_SIZE = 1_000;
+	/** time to wait for the reader thread on close */
+	private static final long JOIN_TIMEOUT_MILLISEC = 10_000L;
+	/** end of stream marker */
+	private static final Future<List<VariantContext>> EOF_BLOCK = CompletableFuture.completedFuture(Collections.emptyList());
+
+	/** the header lines, used to create one codec per thread */
+	private final List<String> headerLines;
+	/** associated VCF codec, for the caller thread */
+	private final AbstractVCFCodec vcfCodec;
+	/** associated VCF header */
+	private final VCFHeader vcfHeader;
+	/** associated line iterator */
+	private final LineIterator lineIterator;
+	/** number of lines per block */
+	private final int blockSize;
+	/** decoding threads */
+	private final ExecutorService executorService;
+	/** keep the genotypes unparsed */
+	private final boolean rawGenotypes;
+	/** one decoder per decoding thread */
+	private final ThreadLocal<Function<String,VariantContext>> threadDecoder;
+	/** blocks being decoded, in the input order */
+	private final BlockingQueue<Future<List<VariantContext>>> blocks;
+	/** thread reading the lines */
+	private final Thread readerThread;
+	/** current decoded block */
+	private List<VariantContext> currentBlock = Collections.emptyList();
+	/** index in currentBlock */
+	private int currentIndex = 0;
+	private boolean eofReached = false;
+	private volatile boolean closed = false;
+
+	public ParallelVcfIteratorImpl(final LineIterator r,final int nThreads)
+		{
+		this(r,nThreads,DEFAULT_BLOCK_SIZE);
+		}
+
+	public ParallelVcfIteratorImpl(final LineIterator r,final int nThreads,final int blockSize)
+		{
+		this(r,nThreads,blockSize,false);
+		}
+	
+	/**
+	 * @param r the line iterator
+	 * @param nThreads number of decoding threads
+	 * @param blockSize number of lines per block
+	 * @param rawGenotypes if true, the genotypes are kept unparsed until they're needed, see {@link RawGenotypesVcfDecoder}
+	 */
+	public ParallelVcfIteratorImpl(final LineIterator r,final int nThreads,final int blockSize,final boolean rawGenotypes)
+		{
+		if(nThreads<1) throw new IllegalArgumentException("bad number of threads "+nThreads);
+		if(blockSize<1) throw new IllegalArgumentException("bad block size "+blockSize);
+		this.lineIterator = r;
+		this.blockSize = blockSize;
+
+		this.headerLines = Collections.unmodifiableList(VCFUtils.parseHeaderLines(r));
+		final VCFUtils.CodecAndHeader cah = VCFUtils.parseHeader(this.headerLines);
+		this.vcfHeader = cah.header;
+		this.vcfCodec = cah.codec;
+		this.rawGenotypes = rawGenotypes;
+		this.threadDecoder = ThreadLocal.<Function<String,VariantContext>>withInitial(()->{
+			if(this.rawGenotypes) return new RawGenotypesVcfDecoder(this.headerLines);
+			final AbstractVCFCodec codec = VCFUtils.parseHeader(this.headerLines).codec;
+			return codec::decode;
+			});
+		this.executorService = Executors.newFixedThreadPool(nThreads,R->{
+			final Thread t = new Thread(R,"vcf-decoder");
+			t.setDaemon(true);
+			return t;
+			});
+		/* bounded queue: the reader will wait if the consumer is too slow */
+		this.blocks = new ArrayBlockingQueue<>(nThreads*4);
+		this.readerThread = new Thread(this::readLines,"vcf-reader");
+		this.readerThread.setDaemon(true);
+		this.readerThread.start();
+		}
+
+	/** decode one block of lines using the codec of the current thread */
+	private List<VariantContext> decode(final List<String> lines)
+		{
+		final Function<String,VariantContext> decoder = this.threadDecoder.get();
+		final List<VariantContext> L = new ArrayList<>(lines.size());
+		for(final String line:lines)
+			{
+			final VariantContext ctx = decoder.apply(line);
+			if(ctx==null) continue;
+			/* genotypes are lazily parsed with the codec of this thread: parse them now */
+			final GenotypesContext gc = ctx.getGenotypes();
+			if(!this.rawGenotypes && gc.isLazyWithData())
+				{
+				((LazyGenotypesContext)gc).decode();
+				}
+			L.add(ctx);
+			}
+		return L;
+		}
+
+	/** runs in readerThread */
+	private void readLines()
+		{
+		try
+			{
+			while(!this.closed && this.lineIterator.hasNext())
+				{
+				final List<String> lines = new ArrayList<>(this.blockSize);
+				while(lines.size()< this.blockSize && this.lineIterator.hasNext())
+					{
+					lines.add(this.lineIterator.next());
+					}
+				this.blocks.put(this.executorService.submit(()->decode(lines)));
+				}
+			this.blocks.put(EOF_BLOCK);
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			}
+		catch(final Throwable err)
+			{
+			final CompletableFuture<List<VariantContext>> failed = new CompletableFuture<>();
+			failed.completeExceptionally(err);
+			try {
+				this.blocks.put(failed);
+				}
+			catch(final InterruptedException err2)
+				{
+				Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+	/** fill currentBlock if needed. return false at end of stream */
+	private boolean fill()
+		{
+		while(this.currentIndex >= this.currentBlock.size())
+			{
+			if(this.eofReached || this.closed) return false;
+			final Future<List<VariantContext>> future;
+			try
+				{
+				future = this.blocks.take();
+				if(future==EOF_BLOCK)
+					{
+					this.eofReached = true;
+					return false;
+					}
+				this.currentBlock = future.get();
+				this.currentIndex = 0;
+				}
+			catch(final InterruptedException err)
+				{
+				Thread.currentThread().interrupt();
+				throw new RuntimeIOException(err);
+				}
+			catch(final ExecutionException err)
+				{
+				final Throwable cause = err.getCause();
+				if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+				throw new RuntimeIOException(cause);
+				}
+			}
+		return true;
+		}
+
+	@Override
+	public AbstractVCFCodec getCodec()
+		{
+		return this.vcfCodec;
+		}
+
+	@Override
+	public VCFHeader getHeader()
+		{
+		return this.vcfHeader;
+		}
+
+	@Override
+	public VariantContext peek()
+		{
+		if(!fill()) throw new NoSuchElementException();
+		return this.currentBlock.get(this.currentIndex);
+		}
+
+	@Override
+	public boolean hasNext()
+		{
+		return fill();
+		}
+
+	@Override
+	public VariantContext next()
+		{
+		if(!fill()) throw new NoSuchElementException();
+		return this.currentBlock.get(this.currentIndex++);
+		}
+
+	@Override
+	public void remove()
+		{
+		throw new UnsupportedOperationException();
+		}
+
+	@Override
+	public void close()
+		{
+		if(this.closed) return;
+		this.closed = true;
+		this.readerThread.interrupt();
+		this.executorService.shutdownNow();
+		this.blocks.clear();
+		try
+			{
+			/* the reader might be blocked on a non-interruptible read */
+			this.readerThread.join(JOIN_TIMEOUT_MILLISEC);
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			}
+		this.blocks.clear();
+		this.currentBlock = Collections.emptyList();
+		if(!this.readerThread.isAlive())
+			{
+			CloserUtil.close(this.lineIterator);
+			}
+		}
+
+	@Override
+	public String toString()
+		{
+		return "Parallel VCF Iterator. Codec: "+this.vcfCodec;
+		}
+	}
@@ -0,0 +1,143 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.AbstractVCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * Decodes the VCF lines but keeps the genotype columns as a raw String.
+ *
+ * The genotypes are only parsed if the program asks for them. Otherwise
+ * htsjdk's VCFEncoder writes the raw String back without decoding it.
+ *
+ * htsjdk's codec also parses the genotypes lazily, but it decodes them
+ * immediately when the samples in the header are not sorted.
+ *
+ * Warning: the raw genotypes are written 'as is', so this must only be used
+ * when the output header keeps the same samples in the same order and
+ * the alleles are not modified.
+ *
+ * This class is not thread-safe, but the lazy genotypes can be parsed from any thread.
+ */
+public class RawGenotypesVcfDecoder implements Function<String, VariantContext>
+	{
+	/** codec for the CHROM to INFO columns */
+	private final AbstractVCFCodec sitesCodec;
+	/** codec used to parse the genotypes on demand, access must be synchronized */
+	private final AbstractVCFCodec genotypesCodec;
+	private final VCFHeader genotypesHeader;
+	private final int nSamples;
+
+	public RawGenotypesVcfDecoder(final List<String> headerLines)
+		{
+		final List<String> sitesLines = new ArrayList<>(headerLines.size());
+		for(final String line:headerLines)
+			{
+			if(line.startsWith("#CHROM\t"))
+				{
+				/* remove FORMAT and the samples */
+				final String tokens[]=line.split("[\t]");
+				sitesLines.add(String.join("\t", Arrays.asList(tokens).subList(0, Math.min(tokens.length,8))));
+				}
+			else
+				{
+				sitesLines.add(line);
+				}
+			}
+		this.sitesCodec = VCFUtils.parseHeader(sitesLines).codec;
+		final VCFUtils.CodecAndHeader cah = VCFUtils.parseHeader(headerLines);
+		this.genotypesCodec = cah.codec;
+		this.genotypesHeader = cah.header;
+		this.nSamples = cah.header.getNGenotypeSamples();
+		}
+
+	/** decode a VCF line, keeping the FORMAT and the genotypes as a String */
+	@Override
+	public VariantContext apply(final String line)
+		{
+		if(this.nSamples==0)
+			{
+			return this.sitesCodec.decode(line);
+			}
+		/* find the 8th tabulation */
+		int tab8 = -1;
+		for(int n=0;n<8;++n)
+			{
+			tab8 = line.indexOf('\t', tab8+1);
+			if(tab8==-1) break;
+			}
+		if(tab8==-1)
+			{
+			/* no genotype, let htsjdk throw the error */
+			synchronized (this.genotypesCodec) {
+				return this.genotypesCodec.decode(line);
+				}
+			}
+		final VariantContext sites = this.sitesCodec.decode(line.substring(0, tab8));
+		final LazyGenotypesContext lazy = new LazyGenotypesContext(
+				new RawGenotypesParser(line),
+				line.substring(tab8+1),
+				this.nSamples
+				);
+		return new VariantContextBuilder(sites).genotypesNoValidation(lazy).make();
+		}
+
+	/** called when the genotypes are needed: decode the whole line */
+	private class RawGenotypesParser implements LazyGenotypesContext.LazyParser
+		{
+		private final String line;
+		RawGenotypesParser(final String line)
+			{
+			this.line = line;
+			}
+		@Override
+		public LazyGenotypesContext.LazyData parse(final Object data)
+			{
+			final ArrayList<Genotype> genotypes;
+			synchronized (genotypesCodec) {
+				genotypes = new ArrayList<>(genotypesCodec.decode(this.line).getGenotypes());
+				}
+			return new LazyGenotypesContext.LazyData(
+					genotypes,
+					genotypesHeader.getSampleNamesInOrder(),
+					genotypesHeader.getSampleNameToOffset()
+					);
+			}
+		}
+	}
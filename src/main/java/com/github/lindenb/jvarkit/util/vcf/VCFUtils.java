@@ -28,9 +28,11 @@ History:
 */
 package com.github.lindenb.jvarkit.util.vcf;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -49,17 +51,23 @@ import java.util.TreeSet;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.tribble.AsciiFeatureCodec;
 import htsjdk.tribble.FeatureCodec;
 import htsjdk.tribble.Tribble;
 import htsjdk.tribble.readers.LineIterator;
+import htsjdk.tribble.readers.LineIteratorImpl;
 import htsjdk.tribble.readers.LineReader;
+import htsjdk.tribble.readers.SynchronousLineReader;
 import htsjdk.tribble.util.TabixUtils;
 import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
@@ -78,6 +86,7 @@ import htsjdk.variant.vcf.VCFHeaderVersion;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.ParallelBgzfOutputStream;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.samtools.ContigDictComparator;
@@ -168,11 +177,10 @@ public class VCFUtils
 		}
 		
 	
-	public static CodecAndHeader parseHeader(final LineIterator r)
+	/** read the header lines, up to the '#CHROM' line */
+	public static List<String> parseHeaderLines(final LineIterator r)
 		{
-		final CodecAndHeader vh=new CodecAndHeader();
-		vh.codec=null;
-		LinkedList<String> stack=new LinkedList<String>();
+		final LinkedList<String> stack=new LinkedList<String>();
 		while(r.hasNext())
 			{
 			final String line=r.peek();
@@ -180,9 +188,12 @@ public class VCFUtils
 			stack.add(r.next());
 			if(line.startsWith("#CHROM\t")) break;
 			}
-		vh.codec = findCodecFromLines(stack);
-		vh.header=  (VCFHeader)vh.codec.readActualHeader(new LIT(stack));
-    	return vh;
+		return stack;
+		}
+	
+	public static CodecAndHeader parseHeader(final LineIterator r)
+		{
+		return parseHeader(parseHeaderLines(r));
 		}
 	
 	
@@ -245,6 +256,18 @@ public class VCFUtils
 		}
 
 	
+	/** parse the lazy genotypes of a variant, if any. Must be called by the thread that decoded the line:
+	 * the lazy parser uses the caches of the codec, that are not thread-safe */
+	public static VariantContext decodeLazyGenotypes(final VariantContext ctx)
+		{
+		final GenotypesContext gc = ctx.getGenotypes();
+		if(gc.isLazyWithData())
+			{
+			((LazyGenotypesContext)gc).decode();
+			}
+		return ctx;
+		}
+	
 	/** convert a VCF header to line iterator. Created for serialization */
 	public static LineIterator convertVCFHeaderToLineIterator(final VCFHeader header)
 		{	
@@ -256,6 +279,113 @@ public class VCFUtils
 		{
 		return new VCFCodec();
 		}
+
+	/** number of bits for the tid in {@link #chromPosRefSortKey(int, int, String)} */
+	private static final int SORT_KEY_TID_BITS = 21;
+	/** number of bits for the position in {@link #chromPosRefSortKey(int, int, String)} */
+	private static final int SORT_KEY_POS_BITS = 31;
+	/** number of REF bases in {@link #chromPosRefSortKey(int, int, String)}, 4 bits per base */
+	private static final int SORT_KEY_REF_BASES = 3;
+
+	/** rank of a REF base, preserving the order of the chars: 'A','C','G','N','T' have their own rank (even), the other chars
+	 * share the rank (odd) of the interval between two of those bases. 0 is the end of the string. */
+	private static int sortKeyBaseRank(final char c)
+		{
+		switch(c)
+			{
+			case 'A': return 2;
+			case 'C': return 4;
+			case 'G': return 6;
+			case 'N': return 8;
+			case 'T': return 10;
+			default:
+				if(c< 'A') return 1;
+				if(c< 'C') return 3;
+				if(c< 'G') return 5;
+				if(c< 'N') return 7;
+				if(c< 'T') return 9;
+				return 11;
+			}
+		}
+
+	/** pack (tid,pos,first bases of REF) in a 64-bits key to be compared with {@link Long#compareUnsigned(long, long)}.
+	 * If <code>compareUnsigned(key1,key2)&lt;0</code> then (tid1,pos1,ref1) &lt; (tid2,pos2,ref2) : the keys
+	 * are only equal when the variants cannot be ordered using the key, the caller must then compare the variants. */
+	public static long chromPosRefSortKey(final int tid,final int pos,final String ref)
+		{
+		if(tid<0) return 0L;
+		final long maxTid = (1L<<SORT_KEY_TID_BITS)-1L;
+		/* too many contigs: all those variants will be compared by the caller */
+		if(tid>=maxTid) return maxTid<<(64-SORT_KEY_TID_BITS);
+		long key = ((long)tid)<<(64-SORT_KEY_TID_BITS);
+		if(pos<0) return key;
+		key |= ((long)pos)<<(64-SORT_KEY_TID_BITS-SORT_KEY_POS_BITS);
+		for(int i=0;i< SORT_KEY_REF_BASES && i< ref.length();i++)
+			{
+			final int rank = sortKeyBaseRank(ref.charAt(i));
+			key |= ((long)rank)<<(4*(SORT_KEY_REF_BASES-1-i));
+			/* two different chars may have the same rank: stop here */
+			if(rank%2==1) break;
+			}
+		return key;
+		}
+	
+	/** JVM property defining the number of threads used to decode the VCF lines. 
+	 * e.g: <code>java -Djvarkit.vcf.decoding.threads=4 -jar tool.jar</code>
+	 * Default is 1 : the lines are decoded in the calling thread. */
+	public static final String VCF_DECODING_THREADS_PROPERTY = "jvarkit.vcf.decoding.threads";
+	
+	/** get the number of threads used to decode the VCF lines, defined by the JVM property {@value #VCF_DECODING_THREADS_PROPERTY} */
+	public static int getVcfDecodingThreads()
+		{
+		final String s = System.getProperty(VCF_DECODING_THREADS_PROPERTY,"1").trim();
+		try {
+			final int n = Integer.parseInt(s);
+			return n<1?1:n;
+			}
+		catch(final NumberFormatException err)
+			{
+			throw new JvarkitException.UserError("Bad value for JVM property \""+VCF_DECODING_THREADS_PROPERTY+"\" : "+s);
+			}
+		}
+	
+	/** JVM property defining the number of threads used to encode and compress the VCF lines. 
+	 * e.g: <code>java -Djvarkit.vcf.encoding.threads=4 -jar tool.jar</code>
+	 * Default is 1 : the variants are written in the calling thread. */
+	public static final String VCF_ENCODING_THREADS_PROPERTY = "jvarkit.vcf.encoding.threads";
+	
+	/** get the number of threads used to encode the VCF lines, defined by the JVM property {@value #VCF_ENCODING_THREADS_PROPERTY} */
+	public static int getVcfEncodingThreads()
+		{
+		final String s = System.getProperty(VCF_ENCODING_THREADS_PROPERTY,"1").trim();
+		try {
+			final int n = Integer.parseInt(s);
+			return n<1?1:n;
+			}
+		catch(final NumberFormatException err)
+			{
+			throw new JvarkitException.UserError("Bad value for JVM property \""+VCF_ENCODING_THREADS_PROPERTY+"\" : "+s);
+			}
+		}
+	
+	/** create a VCF iterator from a line iterator, multi-threaded if getVcfDecodingThreads()&gt;1 
+	 * @param rawGenotypes if true, the genotypes are kept unparsed until they're needed, see {@link RawGenotypesVcfDecoder}
+	 */
+	private static VcfIterator createVcfIteratorImpl(final LineIterator lineIterator,final boolean rawGenotypes)
+		{
+		final int nThreads = getVcfDecodingThreads();
+		if(nThreads>1)
+			{
+			return new ParallelVcfIteratorImpl(lineIterator,nThreads,ParallelVcfIteratorImpl.DEFAULT_BLOCK_SIZE,rawGenotypes);
+			}
+		return new VcfIteratorImpl(lineIterator,rawGenotypes);
+		}
+	
+	/** create a VCF iterator from an input stream, multi-threaded if getVcfDecodingThreads()&gt;1 */
+	private static VcfIterator createVcfIteratorImpl(final InputStream in,final boolean rawGenotypes)
+		{
+		return createVcfIteratorImpl(new LineIteratorImpl(new SynchronousLineReader(in)),rawGenotypes);
+		}
 	
 	/** create a VCF iterator
 	 * 
@@ -263,7 +393,7 @@ public class VCFUtils
 	 * */
 	public static  VcfIterator createVcfIteratorFromStream(final InputStream in) throws IOException
 		{
-		return new VcfIteratorImpl(in);	
+		return createVcfIteratorImpl(in,false);	
 		}
 	
 	/** create a VCF iterator
@@ -271,15 +401,33 @@ public class VCFUtils
 	 * @param IN input vcf file
 	 * */
 	public static  VcfIterator createVcfIteratorFromFile(final File vcfOrBcfFile) throws IOException
+		{
+		return createVcfIteratorFromFile(vcfOrBcfFile,false);
+		}
+	
+	/** create a VCF iterator
+	 * 
+	 * @param IN input vcf file
+	 * @param rawGenotypes if true, the genotypes are kept unparsed until they're needed, see {@link RawGenotypesVcfDecoder}
+	 * */
+	public static  VcfIterator createVcfIteratorFromFile(final File vcfOrBcfFile,final boolean rawGenotypes) throws IOException
 		{
 		IOUtil.assertFileIsReadable(vcfOrBcfFile);
+		if(GenotypeCacheWriter.isGenotypeCache(vcfOrBcfFile.getName()))
+			{
+			return new GenotypeCacheReader(vcfOrBcfFile).vcfIterator();
+			}
+		if((rawGenotypes || getVcfDecodingThreads()>1) && !vcfOrBcfFile.getName().endsWith(".bcf"))
+			{
+			return createVcfIteratorImpl(IOUtils.toLineIterator(IOUtils.openFileForBufferedReading(vcfOrBcfFile)),rawGenotypes);
+			}
 		if(Arrays.asList(IOUtil.VCF_EXTENSIONS).
 				stream().
 				anyMatch(S->vcfOrBcfFile.getName().endsWith(S)))
 			{
 			return new BcfOrVcfIteratorImpl(vcfOrBcfFile);
 			}
-		return new VcfIteratorImpl(IOUtils.openFileForBufferedReading(vcfOrBcfFile));	
+		return createVcfIteratorImpl(IOUtils.toLineIterator(IOUtils.openFileForBufferedReading(vcfOrBcfFile)),rawGenotypes);	
 		}
 	
 	/** create a VCF iterator
@@ -288,7 +436,7 @@ public class VCFUtils
 	 * */
 	public static  VcfIterator createVcfIteratorFromInputStream(final InputStream in) throws IOException
 		{
-		return new VcfIteratorImpl(in);	
+		return createVcfIteratorImpl(in,false);	
 		}
 
 	/** create a VCF iterator from LineReader
@@ -309,12 +457,22 @@ public class VCFUtils
 	 * @param IN : input uri or null for stdin
 	 * */
 	public static  VcfIterator createVcfIterator(final String IN) throws IOException
+		{
+		return createVcfIterator(IN,false);
+		}
+	
+	/** create a VCF iterator
+	 * 
+	 * @param IN : input uri or null for stdin
+	 * @param rawGenotypes if true, the genotypes are kept unparsed until they're needed, see {@link RawGenotypesVcfDecoder}
+	 * */
+	public static  VcfIterator createVcfIterator(final String IN,final boolean rawGenotypes) throws IOException
 		{
 		if(IN==null)
 			{
-			return createVcfIteratorStdin();
+			return createVcfIteratorImpl(System.in,rawGenotypes);
 			}
-		else if(Arrays.asList(IOUtil.VCF_EXTENSIONS).stream().anyMatch(S->IN.endsWith(S))
+		else if((GenotypeCacheWriter.isGenotypeCache(IN) || Arrays.asList(IOUtil.VCF_EXTENSIONS).stream().anyMatch(S->IN.endsWith(S)))
 				&& !IOUtils.isRemoteURI(IN))
 			{
 			final File bcfFile = new File(
@@ -322,11 +480,11 @@ public class VCFUtils
 					IN.substring(7):
 					IN
 					);
-			return createVcfIteratorFromFile(bcfFile);
+			return createVcfIteratorFromFile(bcfFile,rawGenotypes);
 			}
 		else
 			{
-			return new VcfIteratorImpl(IOUtils.openURIForReading(IN));
+			return createVcfIteratorImpl(IOUtils.openURIForReading(IN),rawGenotypes);
 			}
 		}
 	/** create a VCF iterator
@@ -335,7 +493,7 @@ public class VCFUtils
 	 * */
 	public static  VcfIterator createVcfIteratorStdin() throws IOException
 		{
-		return new VcfIteratorImpl(System.in);
+		return createVcfIteratorImpl(System.in,false);
 		}
 	
 	public static  VariantContextWriter createVariantContextWriterToStdout()
@@ -345,6 +503,11 @@ public class VCFUtils
 	
 	public static  VariantContextWriter createVariantContextWriterToOutputStream(final OutputStream ostream)
 		{
+		final int nThreads = getVcfEncodingThreads();
+		if(nThreads>1)
+			{
+			return new ParallelVariantContextWriter(ostream, nThreads);
+			}
 		final VariantContextWriterBuilder vcwb=new VariantContextWriterBuilder();
 		vcwb.setCreateMD5(false);
 		vcwb.setOutputStream(ostream);
@@ -402,6 +565,16 @@ public class VCFUtils
 		else
 			{
 			IOUtil.assertFileIsWritable(OUT);
+			final int nThreads = getVcfEncodingThreads();
+			if(nThreads>1 && !OUT.getName().endsWith(".bcf"))
+				{
+				OutputStream os = new BufferedOutputStream(new FileOutputStream(OUT));
+				if(AbstractFeatureReader.hasBlockCompressedExtension(OUT.getName()))
+					{
+					os = new ParallelBgzfOutputStream(os, BlockCompressedOutputStream.getDefaultCompressionLevel(), nThreads);
+					}
+				return new ParallelVariantContextWriter(os, nThreads);
+				}
 			final VariantContextWriterBuilder vcwb=new VariantContextWriterBuilder();
 			vcwb.setCreateMD5(false);
 			vcwb.setReferenceDictionary(null);
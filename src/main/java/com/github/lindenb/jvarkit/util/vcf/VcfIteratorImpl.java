@@ -30,6 +30,7 @@ package com.github.lindenb.jvarkit.util.vcf;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
+import java.util.List;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 
@@ -50,6 +51,8 @@ public class VcfIteratorImpl implements VcfIterator
     private final VCFHeader vcfHeader;
 	/** associated line iterator */
     private final LineIterator lineIterator;
+    /** decoder keeping the genotypes as raw string, or null */
+    private final RawGenotypesVcfDecoder rawGenotypesDecoder;
     
 	public VcfIteratorImpl(final InputStream vcfStream)
 		{
@@ -62,13 +65,31 @@ public class VcfIteratorImpl implements VcfIterator
 		}
 	
 	public VcfIteratorImpl(final LineIterator r)
+		{
+		this(r,false);
+		}
+	
+	/**
+	 * @param r the line iterator
+	 * @param rawGenotypes if true, the genotypes are kept unparsed until they're needed, see {@link RawGenotypesVcfDecoder}
+	 */
+	public VcfIteratorImpl(final LineIterator r,final boolean rawGenotypes)
 		{
 		this.lineIterator = r;
 	   // this.vcfHeader = (VCFHeader) vcfCodec.readActualHeader(lineIterator);
-	    
-	    final VCFUtils.CodecAndHeader cah=VCFUtils.parseHeader(r);
+	    final List<String> headerLines = VCFUtils.parseHeaderLines(r);
+	    final VCFUtils.CodecAndHeader cah=VCFUtils.parseHeader(headerLines);
 	    this.vcfHeader=cah.header;
 	    this.vcfCodec=cah.codec;
+	    this.rawGenotypesDecoder = rawGenotypes ? new RawGenotypesVcfDecoder(headerLines) : null;
+		}
+	
+	private VariantContext decode(final String line)
+		{
+		return this.rawGenotypesDecoder==null?
+				this.vcfCodec.decode(line):
+				this.rawGenotypesDecoder.apply(line)
+				;
 		}
 	
 	@Override
@@ -86,7 +107,7 @@ public class VcfIteratorImpl implements VcfIterator
 	@Override
     public VariantContext peek()
     	{
-    	return vcfCodec.decode(lineIterator.peek());
+    	return decode(lineIterator.peek());
 		}
     
 	@Override
@@ -95,7 +116,7 @@ public class VcfIteratorImpl implements VcfIterator
 		}
 	@Override
 	public VariantContext next() {
-		return vcfCodec.decode(lineIterator.next());
+		return decode(lineIterator.next());
 		}
 	
 	@Override
@@ -80,12 +80,14 @@ public class AnnPredictionParser
 		}
 	private static final Logger LOG=Logger.build(AnnPredictionParser.class).make();
 
-	private final CharSplitter pipeRegex= CharSplitter.PIPE;
+	private static final PredictionMemo<AnnPrediction> MEMO = new PredictionMemo<>();
 	private final CharSplitter ampRegex = CharSplitter.of('&');
 
 	private final String tag;
 	private final boolean valid;
 	private SequenceOntologyTree soTree = SequenceOntologyTree.getInstance();
+	/** two parsers with the same key return the same predictions */
+	private List<Object> memoKey;
 	
 	AnnPredictionParser(final VCFHeader header)
 		{		
@@ -94,6 +96,7 @@ public class AnnPredictionParser
 	
 	public AnnPredictionParser sequenceOntologyTree( final SequenceOntologyTree soTree) {
 		this.soTree = soTree;
+		this.memoKey = Arrays.asList(this.tag,this.soTree);
 		return this;
 		}
 	
@@ -116,6 +119,7 @@ public class AnnPredictionParser
 				}
 			}
 		this.valid=true;
+		this.memoKey = Arrays.asList(this.tag,this.soTree);
 		}
 
 	public String getTag()
@@ -143,12 +147,18 @@ public class AnnPredictionParser
 		}
 
 	
+	/** returns the predictions of this variant. The list is read-only and is reused if the same variant is queried again */
 	public List<AnnPrediction> getPredictions(final VariantContext ctx)
 		{
 		if(!isValid())
 			{
 			return Collections.emptyList();
 			}
+		return MEMO.get(ctx, this.memoKey, this::parsePredictions);
+		}
+	
+	private List<AnnPrediction> parsePredictions(final VariantContext ctx)
+		{
 		final List<? extends Object> L= ctx.getAttributeAsList(getTag());
 		final ArrayList<AnnPrediction> preds= new ArrayList<AnnPrediction>(L.size());
 
@@ -168,8 +178,7 @@ public class AnnPredictionParser
 			return parseOnePrediction( o.toString());
 			}
 		final String s=String.class.cast(o).trim();
-		final List<CharSequence> tokens=this.pipeRegex.splitAsCharSequenceList(s);
-		return new AnnPrediction(s,tokens);
+		return new AnnPrediction(s);
 		}
 	
 	/*
@@ -185,16 +194,19 @@ public class AnnPredictionParser
 		implements Prediction
 		{
 		private final String originalStr;
-		private final List<CharSequence> _tokens;
-		private AnnPrediction(final String originalStr,final List<CharSequence> tokens)
+		/** columns are only extracted when needed */
+		private final LazyFields _tokens;
+		private List<String> _soTermsStrings = null;
+		private Set<SequenceOntologyTree.Term> _soTerms = null;
+		private AnnPrediction(final String originalStr)
 			{
 			this.originalStr = originalStr;
-			this._tokens=tokens;
+			this._tokens= new LazyFields(originalStr,'|');
 			}
 		
 		private String at(int i)
 			{
-			return(i<0 || i>=_tokens.size() ? null:_tokens.get(i).toString());
+			return this._tokens.get(i);
 			}
 		
 		public String getAllele()
@@ -284,14 +296,25 @@ public class AnnPredictionParser
 			return so==null?"":so;
 			}
 		
+		/** returns the SO labels. The list is read-only */
 		public List<String> getSOTermsStrings() {
-			final String soterms = getSOTermsString();
-			if(StringUtil.isBlank(soterms)) return Collections.emptyList();
-			return AnnPredictionParser.this.ampRegex.splitAsStringList(soterms);
+			if(this._soTermsStrings==null) {
+				final String soterms = getSOTermsString();
+				this._soTermsStrings = StringUtil.isBlank(soterms)?
+					Collections.emptyList():
+					Collections.unmodifiableList(AnnPredictionParser.this.ampRegex.splitAsStringList(soterms));
+				}
+			return this._soTermsStrings;
 			}
 		
-		//@Override
+		/** returns the SO terms. The set is read-only */
 		public Set<SequenceOntologyTree.Term> getSOTerms()
+			{
+			if(this._soTerms==null) this._soTerms = Collections.unmodifiableSet(parseSOTerms());
+			return this._soTerms;
+			}
+		
+		private Set<SequenceOntologyTree.Term> parseSOTerms()
 			{
 			final List<String> effects = getSOTermsStrings();
 			if(effects.isEmpty()) return Collections.emptySet();
@@ -0,0 +1,164 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf.predictions;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Lazy view of one prediction, a String split on one or more delimiters.
+ * The first access only records the offsets of the delimiters. A column is
+ * copied out of the original String the first time it is requested, and then
+ * memoized. As with CharSplitter and Pattern.split, the trailing empty
+ * columns are ignored.
+ */
+final class LazyFields
+	{
+	private final String str;
+	private final char delim;
+	/** if not null, any of those characters is a delimiter */
+	private final String delims;
+	/** end offset (exclusive) of each column. The column 'i' starts at ends[i-1]+1 */
+	private int ends[] = null;
+	private String fields[] = null;
+	
+	LazyFields(final String str,final char delim)
+		{
+		this.str = str;
+		this.delim = delim;
+		this.delims = null;
+		}
+	
+	LazyFields(final String str,final String delims)
+		{
+		this.str = str;
+		this.delim = delims.charAt(0);
+		this.delims = (delims.length()==1?null:delims);
+		}
+	
+	private boolean isDelim(final char c)
+		{
+		return this.delims==null ? c==this.delim : this.delims.indexOf(c)!=-1;
+		}
+	
+	private void index()
+		{
+		if(this.ends!=null) return;
+		int len = this.str.length();
+		while(len>0 && isDelim(this.str.charAt(len-1))) len--;
+		int n = 1;
+		for(int i=0;i< len;i++)
+			{
+			if(isDelim(this.str.charAt(i))) n++;
+			}
+		final int array[] = new int[n];
+		int k = 0;
+		for(int i=0;i< len;i++)
+			{
+			if(isDelim(this.str.charAt(i))) array[k++] = i;
+			}
+		array[k] = len;
+		this.fields = new String[n];
+		this.ends = array;
+		}
+	
+	private int start(final int i)
+		{
+		return i==0 ? 0 : this.ends[i-1]+1;
+		}
+	
+	/** number of columns */
+	int size()
+		{
+		index();
+		return this.ends.length;
+		}
+	
+	/** get i-th column, or null if out of range */
+	String get(final int i)
+		{
+		index();
+		if(i<0 || i>=this.ends.length) return null;
+		String s = this.fields[i];
+		if(s==null)
+			{
+			s = this.str.substring(start(i), this.ends[i]);
+			this.fields[i] = s;
+			}
+		return s;
+		}
+	
+	/** return true if the i-th column is out of range or empty. Never copies the column */
+	boolean isEmpty(final int i)
+		{
+		index();
+		if(i<0 || i>=this.ends.length) return true;
+		if(this.fields[i]!=null) return this.fields[i].isEmpty();
+		return start(i)==this.ends[i];
+		}
+	
+	/** return true if the i-th column is equal to 's'. Never copies the column */
+	boolean contentEquals(final int i,final String s)
+		{
+		index();
+		if(i<0 || i>=this.ends.length) return false;
+		if(this.fields[i]!=null) return this.fields[i].equals(s);
+		final int start = start(i);
+		return this.ends[i]-start==s.length() && this.str.regionMatches(start, s, 0, s.length());
+		}
+	
+	/** replace the value of the i-th column */
+	void set(final int i,final String s)
+		{
+		index();
+		this.fields[i] = s;
+		}
+	
+	/** all the columns, materialized */
+	List<String> asList()
+		{
+		return new AbstractList<String>()
+			{
+			@Override
+			public String get(final int index) {
+				if(index<0 || index>=size()) throw new IndexOutOfBoundsException(String.valueOf(index));
+				return LazyFields.this.get(index);
+				}
+			@Override
+			public int size() {
+				return LazyFields.this.size();
+				}
+			};
+		}
+	
+	@Override
+	public String toString() {
+		return this.str;
+		}
+	}
@@ -9,13 +9,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
+import com.github.lindenb.jvarkit.lang.CharSplitter;
 import com.github.lindenb.jvarkit.tools.vcfannot.VCFPredictions;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
@@ -28,9 +28,12 @@ public class MyPredictionParser implements PredictionParser
 	{
 	private static final Logger LOG=Logger.build(MyPredictionParser.class).make();
 	private Map<VCFPredictions.FORMAT1, Integer> col2col=new HashMap<VCFPredictions.FORMAT1, Integer>();
+	private static final PredictionMemo<MyPrediction> MEMO = new PredictionMemo<>();
 	private SequenceOntologyTree soTree = SequenceOntologyTree.getInstance();
-	private final Pattern pipe=Pattern.compile("[\\|]");
-	private final Pattern ampRegex = Pattern.compile("[&]");
+	private final CharSplitter pipe= CharSplitter.PIPE;
+	private final CharSplitter ampRegex = CharSplitter.of('&');
+	/** two parsers with the same key return the same predictions */
+	private List<Object> memoKey = Arrays.asList(this.soTree,this.col2col);
 
 	public final String getTag()
 		{
@@ -80,14 +83,21 @@ public class MyPredictionParser implements PredictionParser
 	
 	public MyPredictionParser sequenceOntologyTree( final SequenceOntologyTree soTree) {
 	this.soTree = soTree;
+	this.memoKey = Arrays.asList(this.soTree,this.col2col);
 	return this;
 	}
 	
+	/** returns the predictions of this variant. The list is read-only and is reused if the same variant is queried again */
 	@Override
 	public List<MyPrediction> getPredictions(final VariantContext ctx)
 		{
-		ArrayList<MyPrediction> preds= new ArrayList<MyPrediction>();
-		if(col2col.isEmpty()) return preds;
+		if(col2col.isEmpty()) return Collections.emptyList();
+		return MEMO.get(ctx, this.memoKey, this::parsePredictions);
+		}
+	
+	private List<MyPrediction> parsePredictions(final VariantContext ctx)
+		{
+		final ArrayList<MyPrediction> preds= new ArrayList<MyPrediction>();
 		Object o=ctx.getAttribute(getTag());
 		if(o==null)
 			{
@@ -124,8 +134,7 @@ public class MyPredictionParser implements PredictionParser
 			return parseOnePrediction( o.toString());
 			}
 		final String s=String.class.cast(o).trim();
-		final String tokens[]=pipe.split(s);
-		return new MyPrediction(s,tokens);
+		return new MyPrediction(s);
 		}
 	
 	
@@ -133,20 +142,21 @@ public class MyPredictionParser implements PredictionParser
 		implements Prediction
 		{
 		private final String originalInfoStr;
-		private final String tokens[];
-		MyPrediction(final String originalInfoStr,final String tokens[])
+		/** columns are only extracted when needed */
+		private final LazyFields tokens;
+		MyPrediction(final String originalInfoStr)
 			{
 			this.originalInfoStr = originalInfoStr;
-			this.tokens=tokens;
+			this.tokens= new LazyFields(originalInfoStr,'|');
 			}			
 		private String getByCol(VCFPredictions.FORMAT1 col)
 			{
 			Integer idx=col2col.get(col);
-			if(idx==null || idx>=tokens.length || tokens[idx].isEmpty())
+			if(idx==null || this.tokens.isEmpty(idx))
 				{
 				return null;
 				}
-			return tokens[idx];
+			return this.tokens.get(idx);
 			}
 		
 		public String getTranscript()
@@ -167,8 +177,8 @@ public class MyPredictionParser implements PredictionParser
 			for(VCFPredictions.FORMAT1 c: col2col.keySet())
 				{
 				int idx=col2col.get(c);
-				if(idx>=this.tokens.length) continue;
-				hash.put(c, tokens[idx]);
+				if(idx>=this.tokens.size()) continue;
+				hash.put(c, this.tokens.get(idx));
 				}
 			return hash;
 			}
@@ -241,7 +251,7 @@ public class MyPredictionParser implements PredictionParser
 			{
 			final String soterms=getSOTermsString();
 			if(soterms==null || soterms.isEmpty()) return Collections.emptyList();
-			return Arrays.asList(MyPredictionParser.this.ampRegex.split(soterms));
+			return MyPredictionParser.this.ampRegex.splitAsStringList(soterms);
 			}
 		
 		public Set<SequenceOntologyTree.Term> getSOTerms()
@@ -262,7 +272,7 @@ public class MyPredictionParser implements PredictionParser
 		
 	@Override
 	public String toString() {
-		return getMap().toString()+ " "+Arrays.asList(tokens);
+		return getMap().toString()+ " "+this.tokens.asList();
 		}
 	}
 		
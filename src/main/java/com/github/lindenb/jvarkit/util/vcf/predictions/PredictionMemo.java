@@ -0,0 +1,74 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf.predictions;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * Remembers the predictions of the last VariantContext, compared by identity.
+ * A filter usually asks several times for the predictions of the same variant,
+ * and the stages of a pipeline running in the same JVM ask for the same variant
+ * one after the other. The parsers of one class share one instance: the
+ * predictions are reused if the 'key' describing the parser (tag, SO tree,
+ * columns...) is the same.
+ */
+final class PredictionMemo<T>
+	{
+	private static class Entry<T>
+		{
+		final VariantContext ctx;
+		final Object key;
+		final List<T> predictions;
+		Entry(final VariantContext ctx,final Object key,final List<T> predictions)
+			{
+			this.ctx = ctx;
+			this.key = key;
+			this.predictions = predictions;
+			}
+		}
+	/* the Entry is immutable, only the reference is replaced */
+	private volatile Entry<T> last = null;
+	
+	/** get the predictions of 'ctx'. The returned list is read-only */
+	List<T> get(final VariantContext ctx,final Object key,final Function<VariantContext,List<T>> parser)
+		{
+		final Entry<T> e = this.last;
+		if(e!=null && e.ctx==ctx && (e.key==key || e.key.equals(key)))
+			{
+			return e.predictions;
+			}
+		final List<T> predictions = Collections.unmodifiableList(parser.apply(ctx));
+		this.last = new Entry<>(ctx,key,predictions);
+		return predictions;
+		}
+	}
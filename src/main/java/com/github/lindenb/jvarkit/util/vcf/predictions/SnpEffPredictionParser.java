@@ -36,7 +36,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Allele;
@@ -127,11 +126,15 @@ public class SnpEffPredictionParser implements PredictionParser
 		EFF2SO.put("UTR_5_DELETED","5_prime_UTR_truncation");		
 	}}}
 		
+	private static final PredictionMemo<SnpEffPrediction> MEMO = new PredictionMemo<>();
+	/** the columns are separated by any of those characters */
+	private static final String DELIMITERS = "|()";
 	private final Map<String, Integer> col2col=new HashMap<String, Integer>();
-	private final Pattern pipe=Pattern.compile("[\\|\\(\\)]");
 	private String tag;
 	private SequenceOntologyTree soTree = SequenceOntologyTree.getInstance();
 	private final boolean valid;
+	/** two parsers with the same key return the same predictions */
+	private List<Object> memoKey;
 	
 	SnpEffPredictionParser(final VCFHeader header)
 		{		
@@ -140,6 +143,7 @@ public class SnpEffPredictionParser implements PredictionParser
 	
 	public SnpEffPredictionParser sequenceOntologyTree( final SequenceOntologyTree soTree) {
 		this.soTree = soTree;
+		this.memoKey = Arrays.asList(this.tag,this.soTree,this.col2col);
 		return this;
 		}
 
@@ -170,10 +174,10 @@ public class SnpEffPredictionParser implements PredictionParser
 			return;
 			}
 		description=description.substring(i+chunck.length()).replace('(','|').replaceAll("[ \'\\.)\\[\\]]+","").trim();
-		final String tokens[]=pipe.split(description);
-		for(i=0;i< tokens.length;++i)
+		final List<String> tokens= new LazyFields(description,DELIMITERS).asList();
+		for(i=0;i< tokens.size();++i)
 			{
-			final String col=tokens[i];
+			final String col=tokens.get(i);
 			if(col.isEmpty()) continue;
 			if(this.col2col.containsKey(col))
 				{
@@ -183,6 +187,7 @@ public class SnpEffPredictionParser implements PredictionParser
 			this.col2col.put(col, i);
 			}
 		this.valid=true;
+		this.memoKey = Arrays.asList(this.tag,this.soTree,this.col2col);
 		}
 	
 	@Override
@@ -195,6 +200,7 @@ public class SnpEffPredictionParser implements PredictionParser
 		return valid;
 	}
 	
+	/** returns the predictions of this variant. The list is read-only and is reused if the same variant is queried again */
 	@Override
 	public List<SnpEffPrediction> getPredictions(final VariantContext ctx)
 		{
@@ -202,6 +208,11 @@ public class SnpEffPredictionParser implements PredictionParser
 			{
 			return Collections.emptyList();
 			}
+		return MEMO.get(ctx, this.memoKey, this::parsePredictions);
+		}
+	
+	private List<SnpEffPrediction> parsePredictions(final VariantContext ctx)
+		{
 		final List<? extends Object> L= ctx.getAttributeAsList(getTag());
 		final ArrayList<SnpEffPrediction> preds= new ArrayList<SnpEffPrediction>(L.size());
 		for(final Object o2:L)
@@ -230,8 +241,7 @@ public class SnpEffPredictionParser implements PredictionParser
 			return parseOnePrediction( o.toString());
 			}
 		final String ostr = String.class.cast(o).trim();
-		final String tokens[]=pipe.split(ostr);
-		return new SnpEffPrediction(ostr,tokens);
+		return new SnpEffPrediction(ostr);
 		}
 	
 	
@@ -247,18 +257,20 @@ public class SnpEffPredictionParser implements PredictionParser
 		implements Prediction
 		{
 		private final String originalAttributeAsString;
-		private final String tokens[];
-		SnpEffPrediction(final String originalAttributeAsString,final String tokens[])
+		/** columns are only extracted when needed */
+		private final LazyFields tokens;
+		private Set<SequenceOntologyTree.Term> _soTerms = null;
+		SnpEffPrediction(final String originalAttributeAsString)
 			{
 			this.originalAttributeAsString = originalAttributeAsString;
-			this.tokens=tokens;
+			this.tokens= new LazyFields(originalAttributeAsString,DELIMITERS);
 			}
 		/** get column by name, may return null. Returns null if column is empty */
 		private String getByCol(String col)
 			{
 			final Integer idx=col2col.get(col);
-			if(idx==null || idx>=this.tokens.length || tokens[idx].isEmpty()) return null;
-			return tokens[idx];
+			if(idx==null || this.tokens.isEmpty(idx)) return null;
+			return this.tokens.get(idx);
 			}
 		public String getGeneName()
 			{
@@ -322,8 +334,8 @@ public class SnpEffPredictionParser implements PredictionParser
 			for(final String c: col2col.keySet())
 				{
 				int idx=col2col.get(c);
-				if(idx>=this.tokens.length) continue;
-				hash.put(c, tokens[idx]);
+				if(idx>=this.tokens.size()) continue;
+				hash.put(c, this.tokens.get(idx));
 				}
 			return hash;
 			}
@@ -348,7 +360,14 @@ public class SnpEffPredictionParser implements PredictionParser
 			return Collections.singleton(EFF2);
 			}
 		
+		/** returns the SO terms. The set is read-only */
 		public Set<SequenceOntologyTree.Term> getSOTerms()
+			{
+			if(this._soTerms==null) this._soTerms = Collections.unmodifiableSet(parseSOTerms());
+			return this._soTerms;
+			}
+		
+		private Set<SequenceOntologyTree.Term> parseSOTerms()
 			{
 			final Set<String> EFFs=getSOTermsStrings();
 			if(EFFs.isEmpty()) return Collections.emptySet();
@@ -384,7 +403,7 @@ public class SnpEffPredictionParser implements PredictionParser
 		
 		@Override
 		public String toString() {
-			return getMap().toString()+ " "+Arrays.asList(tokens);
+			return getMap().toString()+ " "+this.tokens.asList();
 			}
 		}
 	
@@ -29,6 +29,7 @@ History:
 package com.github.lindenb.jvarkit.util.vcf.predictions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -87,12 +88,17 @@ public class VepPredictionParser implements PredictionParser
 		HGVSp,ALLELE_NUM,CANONICAL,
 		CCDS,ENSP,DOMAINS
 		*/
+	private static final PredictionMemo<VepPrediction> MEMO = new PredictionMemo<>();
 	private final Map<String, Integer> col2colidx=new HashMap<String, Integer>();
 	private final CharSplitter pipe= CharSplitter.PIPE;
 	private final CharSplitter ampRegex = CharSplitter.of('&');
 	private final String tag;
 	private SequenceOntologyTree soTree = SequenceOntologyTree.getInstance();
 	private final boolean valid;
+	/** two parsers with the same key return the same predictions */
+	private List<Object> memoKey;
+	/** index of the column 'Allele' or -1 */
+	private final int alleleColumn;
 	
 	VepPredictionParser(final VCFHeader header)
 		{		
@@ -101,6 +107,7 @@ public class VepPredictionParser implements PredictionParser
 	
 	public VepPredictionParser sequenceOntologyTree( final SequenceOntologyTree soTree) {
 		this.soTree = soTree;
+		this.memoKey = Arrays.asList(this.tag,this.soTree,this.col2colidx);
 		return this;
 		}
 	
@@ -123,6 +130,7 @@ public class VepPredictionParser implements PredictionParser
 			{
 			LOG.warning("NO INFO["+tag+"] found in header. This VCF was probably NOT annotated with VEP. But it's not a problem if this tool doesn't need to access VEP Annotations.");
 			this.valid = false;
+			this.alleleColumn = -1;
 			return;
 			}
 		String description=info.getDescription();
@@ -131,6 +139,7 @@ public class VepPredictionParser implements PredictionParser
 		if(i==-1)
 			{
 			this.valid = false;
+			this.alleleColumn = -1;
 			LOG.warning("Cannot find "+chunck+ " in "+description);
 			return;
 			}
@@ -149,6 +158,8 @@ public class VepPredictionParser implements PredictionParser
 			this.col2colidx.put(token, i);
 			}
 		this.valid=true;
+		this.alleleColumn = this.col2colidx.getOrDefault("Allele", -1);
+		this.memoKey = Arrays.asList(this.tag,this.soTree,this.col2colidx);
 		}
 	
 	public boolean isValid() {
@@ -159,10 +170,16 @@ public class VepPredictionParser implements PredictionParser
 		return Collections.unmodifiableSet(this.col2colidx.keySet());
 	}
 	
+	/** returns the predictions of this variant. The list is read-only and is reused if the same variant is queried again */
 	@Override
 	public List<VepPrediction> getPredictions(final VariantContext ctx)
 		{
 		if(!isValid() || this.col2colidx.isEmpty()) return Collections.emptyList();
+		return MEMO.get(ctx, this.memoKey, this::parsePredictions);
+		}
+	
+	private List<VepPrediction> parsePredictions(final VariantContext ctx)
+		{
 		final List<? extends Object> L =ctx.getAttributeAsList(this.tag);
 		ArrayList<VepPrediction> preds= new ArrayList<VepPrediction>(L.size());
 		for(final Object o2:L)  _predictions(preds,o2,ctx);
@@ -177,8 +194,7 @@ public class VepPredictionParser implements PredictionParser
 			return parseOnePrediction(ctx,o.toString());
 			}
 		final String s=String.class.cast(o).trim();
-		final String tokens[]= this.pipe.split(s);
-		return new VepPrediction(tokens,s,ctx);
+		return new VepPrediction(s,ctx);
 		}
 	
 	private void _predictions(final List<VepPrediction> preds,final Object o,final VariantContext ctx)
@@ -192,26 +208,27 @@ public class VepPredictionParser implements PredictionParser
 		implements Prediction
 		{
 		private final String source;
-		private final String tokens[];
+		/** columns are only extracted when needed */
+		private final LazyFields tokens;
 		private final List<Allele> alleles;
-		VepPrediction(final String tokens[],final String source,final VariantContext ctx)
+		private List<String> _soTermsStrings = null;
+		private Set<SequenceOntologyTree.Term> _soTerms = null;
+		VepPrediction(final String source,final VariantContext ctx)
 			{
 			this.source=source;
-			this.tokens=tokens;
+			this.tokens= new LazyFields(source,'|');
 			this.alleles = Collections.unmodifiableList(ctx.getAlleles());
 			/** special case for ALT, can be '-' */
-			Integer idx_allele = VepPredictionParser.this.col2colidx.get("Allele");
-			if(	idx_allele!=null && 
-				idx_allele<tokens.length &&
-				tokens[idx_allele].equals("-"))
+			final int idx_allele = VepPredictionParser.this.alleleColumn;
+			if(this.tokens.contentEquals(idx_allele,"-"))
 				{
 				if(ctx.getAlternateAlleles().size()==1)
 					{
-					this.tokens[idx_allele]=ctx.getAlternateAlleles().get(0).getDisplayString();
+					this.tokens.set(idx_allele,ctx.getAlternateAlleles().get(0).getDisplayString());
 					}
 				else
 					{
-					this.tokens[idx_allele]=INDEL_SYMBOL_STR;
+					this.tokens.set(idx_allele,INDEL_SYMBOL_STR);
 					}
 				}
 			}
@@ -219,11 +236,11 @@ public class VepPredictionParser implements PredictionParser
 			{
 			if(col==null || col.isEmpty()) return null;
 			final Integer idx= VepPredictionParser.this.col2colidx.get(col);
-			if(idx==null || idx>=tokens.length || tokens[idx].isEmpty())
+			if(idx==null || this.tokens.isEmpty(idx))
 				{
 				return null;
 				}
-			return this.tokens[idx];
+			return this.tokens.get(idx);
 			}
 		
 		/** alias of getByColl */
@@ -367,8 +384,8 @@ public class VepPredictionParser implements PredictionParser
 			for(final String c: col2colidx.keySet())
 				{
 				final int idx=col2colidx.get(c);
-				if(idx>=this.tokens.length) continue;
-				hash.put(c, tokens[idx]);
+				if(idx>=this.tokens.size()) continue;
+				hash.put(c, this.tokens.get(idx));
 				}
 			return hash;
 			}
@@ -414,16 +431,26 @@ public class VepPredictionParser implements PredictionParser
 			return getByCol("Consequence");
 		}
 		
-		/** return the "Consequence" splitted, as an array of String, empty if consequence is not found */
+		/** return the "Consequence" splitted, as a read-only list of String, empty if consequence is not found */
 		public List<String> getSOTermsStrings()
 		{
-			final String EFF = getSOTermsString();
-			if(EFF==null || EFF.isEmpty()) return Collections.emptyList();
-			return VepPredictionParser.this.ampRegex.splitAsStringList(EFF);
+			if(this._soTermsStrings==null) {
+				final String EFF = getSOTermsString();
+				this._soTermsStrings = (EFF==null || EFF.isEmpty()) ?
+					Collections.emptyList():
+					Collections.unmodifiableList(VepPredictionParser.this.ampRegex.splitAsStringList(EFF));
+				}
+			return this._soTermsStrings;
 		}
 	
-		/** convert the list of getConsequences() to a list of SequenceOntology Terms */
+		/** convert the list of getConsequences() to a read-only set of SequenceOntology Terms */
 		public Set<SequenceOntologyTree.Term> getSOTerms()
+			{
+			if(this._soTerms==null) this._soTerms = Collections.unmodifiableSet(parseSOTerms());
+			return this._soTerms;
+			}
+		
+		private Set<SequenceOntologyTree.Term> parseSOTerms()
 			{
 			final List<String> effects = getSOTermsStrings();
 			if(effects.isEmpty()) return Collections.emptySet();
@@ -0,0 +1,33 @@
+package com.github.lindenb.jvarkit.math.stats;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class DaviesQuadraticFormTest {
+
+@Test
+public void testOneChiSquare() {
+	final DaviesQuadraticForm.Result rez = DaviesQuadraticForm.upperTail(new double[] {1.0}, 3.841459, 1E-6);
+	Assert.assertEquals(rez.getFault(), 0);
+	Assert.assertEquals(rez.getUpperTail(), 0.05, 1E-5);
+	Assert.assertEquals(ChiSquared.upperTail(3.841459, 1), 0.05, 1E-6);
+	}
+
+/** two chi-squares with 2 df are exponentials: P(a*X+b*Y &gt; q) = (a*exp(-q/2a) - b*exp(-q/2b))/(a-b) */
+@Test
+public void testExponentials() {
+	final double a = 3.0, b = 1.0;
+	for(final double q : new double[] {1.0, 10.0, 30.0}) {
+		final double expect = (a*Math.exp(-q/(2*a)) - b*Math.exp(-q/(2*b)))/(a-b);
+		final DaviesQuadraticForm.Result rez = DaviesQuadraticForm.upperTail(new double[] {a, a, b, b}, q, 1E-6);
+		Assert.assertEquals(rez.getFault(), 0);
+		Assert.assertEquals(rez.getUpperTail(), expect, 1E-5);
+		}
+	}
+
+@Test
+public void testNonCentral() {
+	Assert.assertEquals(ChiSquared.upperTail(5, 3, 2), 0.40659, 1E-4);
+	Assert.assertEquals(ChiSquared.upperTailQuantile(0.05, 1), 3.841459, 1E-5);
+	}
+}
@@ -0,0 +1,158 @@
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.math.stats.Percentile;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+public class Bam2WigTest extends TestUtils {
+
+@DataProvider(name = "src1")
+public Object[][] createData1() {
+	return new ParamCombiner().
+		initList(new Object[] {
+			SRC_TEST_RESOURCE+"/toy.bam",
+			SRC_TEST_RESOURCE+"/S1.bam",
+			SRC_TEST_RESOURCE+"/S4.bam"
+			}).
+		product("COVERAGE","CLIPPING","INSERTION","DELETION").
+		product(false,true).
+		product(100,7).
+		build();
+	}
+
+/** run bam2wig on one or more space-separated BAMs, returns the lines of the output */
+private List<String> run(final String bams,final String args) throws IOException {
+	final File out = createTmpFile(".txt");
+	Assert.assertEquals(new Bam2Wig().instanceMain(newCmd().
+			add("-o",out.getPath()).
+			split(args).
+			split(bams).
+			make()),0);
+	return Files.readAllLines(out.toPath());
+	}
+
+/** increment the 1-based positions of the array. Unlike the former implementation, position 1 is counted */
+private static void incr(final int array[],final int pos1,final int length) {
+	for(int i=0;i< length;i++) {
+		final int array_index = pos1+i-1;
+		if(array_index>=0 && array_index< array.length) array[array_index]++;
+		}
+	}
+
+/** the former implementation: one array as large as the contig, windows computed at the end of each contig */
+private static void visit(final String what,final int array[],final SAMRecord rec) {
+	if(rec.getCigar()==null) return;
+	int refpos1 = what.equals("CLIPPING")?rec.getUnclippedStart():rec.getAlignmentStart();
+	for(final CigarElement ce:rec.getCigar()) {
+		final CigarOperator op = ce.getOperator();
+		switch(what) {
+			case "COVERAGE": if(op.consumesReferenceBases() && op.consumesReadBases()) incr(array,refpos1,ce.getLength()); break;
+			case "DELETION": if(op==CigarOperator.D || op==CigarOperator.N) incr(array,refpos1,ce.getLength()); break;
+			case "INSERTION": if(op==CigarOperator.I) incr(array,refpos1,1); break;
+			case "CLIPPING": if(op.isClipping()) incr(array,refpos1,ce.getLength()); break;
+			default: throw new IllegalArgumentException(what);
+			}
+		if(op.consumesReferenceBases() || (what.equals("CLIPPING") && op.isClipping())) {
+			refpos1 += ce.getLength();
+			}
+		}
+	}
+
+private static void dump(final List<String> lines,final SAMSequenceRecord ssr,final int array[],final boolean bedGraph,final int span,final int shift) {
+	final Percentile percentile = Percentile.of(Percentile.Type.AVERAGE);
+	if(!bedGraph) lines.add("fixedStep chrom="+ssr.getSequenceName()+" start=1 step="+shift+" span="+span);
+	for(int start0=0;start0< array.length;start0+=shift) {
+		final double value = percentile.evaluate(array, start0, Math.min(span,array.length-start0));
+		lines.add((bedGraph?ssr.getSequenceName()+"\t"+start0+"\t"+(start0+span)+"\t":"")+String.format("%.3f",value));
+		}
+	}
+
+private List<String> expect(final String bam,final String what,final boolean bedGraph,final int span,final int shift) throws IOException {
+	final List<String> lines = new ArrayList<>();
+	try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(new File(bam))) {
+		SAMSequenceRecord ssr = null;
+		int array[] = null;
+		try(SAMRecordIterator iter = sr.iterator()) {
+			while(iter.hasNext()) {
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				if(ssr==null || ssr.getSequenceIndex()!=rec.getReferenceIndex()) {
+					if(ssr!=null) dump(lines,ssr,array,bedGraph,span,shift);
+					ssr = sr.getFileHeader().getSequence(rec.getReferenceIndex());
+					array = new int[ssr.getSequenceLength()];
+					}
+				visit(what,array,rec);
+				}
+			}
+		if(ssr!=null) dump(lines,ssr,array,bedGraph,span,shift);
+		}
+	return lines;
+	}
+
+@Test(dataProvider="src1")
+public void testRegression(final String bam,final String what,final boolean bedGraph,final int span) throws IOException {
+	final int shift = Math.max(1, span/4);
+	final List<String> got = run(bam,"--display "+what+" -w "+span+" -s "+shift+(bedGraph?" -bg":""));
+	Assert.assertFalse(got.isEmpty());
+	Assert.assertEquals(got, expect(bam,what,bedGraph,span,shift));
+	}
+
+@DataProvider(name = "src2")
+public Object[][] createData2() {
+	final String bams = SRC_TEST_RESOURCE+"/S1.bam "+SRC_TEST_RESOURCE+"/S2.bam "+SRC_TEST_RESOURCE+"/S3.bam "+SRC_TEST_RESOURCE+"/S4.bam";
+	return new ParamCombiner().
+		initList(new Object[] {
+			SRC_TEST_RESOURCE+"/toy.bam",
+			bams
+			}).
+		product(
+			"",
+			"-bg",
+			"--display CLIPPING -w 7 -s 3",
+			"--display DELETION -bg -t",
+			"--display READ_GROUPS --mindepth 2",
+			"--region ref2",
+			"--region RF02:100-1000 -bg"
+			).
+		/* remove the regions that are not in the dictionary */
+		filter(L->L.get(0).toString().endsWith("toy.bam")?
+			L.get(1).toString().contains("RF02"):
+			L.get(1).toString().contains("ref2")
+			).
+		build();
+	}
+
+@Test(dataProvider="src2")
+public void testThreads(final String bams,final String args) throws IOException {
+	final List<String> serial = run(bams,args);
+	Assert.assertEquals(run(bams,args+" --threads 3"), serial);
+	}
+
+@Test
+public void testThreadsLargeContigs() throws IOException {
+	/* the contigs are split into several chunks */
+	final String bam = SRC_TEST_RESOURCE+"/FAB23716.nanopore.bam";
+	final String args = "-w 100000 -s 50000";
+	final List<String> serial = run(bam,args);
+	Assert.assertFalse(serial.isEmpty());
+	Assert.assertEquals(run(bam,args+" --threads 3"), serial);
+	}
+}
@@ -3,6 +3,7 @@ package com.github.lindenb.jvarkit.tools.bamstats04;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -46,5 +47,14 @@ public void test1(final String inBam) throws IOException {
 		inBam
 		}),0);
 	assertIsNotEmpty(out);
+	
+	final File out2 = createTmpFile(".txt");
+	Assert.assertEquals(new BamStats04().instanceMain(new String[] {
+		"-o",out2.getPath(),
+		"--bed",bedout.getPath(),
+		"--threads","3",
+		inBam
+		}),0);
+	Assert.assertEquals(Files.readAllLines(out2.toPath()), Files.readAllLines(out.toPath()));
 	}
 }
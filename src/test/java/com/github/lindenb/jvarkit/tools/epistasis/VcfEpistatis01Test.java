@@ -0,0 +1,54 @@
+package com.github.lindenb.jvarkit.tools.epistasis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class VcfEpistatis01Test extends TestUtils {
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{""},
+			{"--memory"}
+			};
+		}
+
+	/** best pair and score of the former scan over all the pairs of variants */
+	@Test(dataProvider="src1")
+	public void testBestPair(final String params) throws IOException {
+		final File output = super.createTmpFile(".txt");
+		Assert.assertEquals(new VcfEpistatis01().instanceMain(
+			newCmd().add(
+			"-o",output,
+			"--pedigree",SRC_TEST_RESOURCE+"/test_vcf01.ped",
+			"--score").
+			split(params).
+			add(SRC_TEST_RESOURCE+"/test_vcf01.vcf").
+			make()
+			),0);
+		final List<String> lines = Files.readAllLines(output.toPath());
+		Assert.assertEquals(lines.size(), 1);
+		Assert.assertEquals(lines.get(0), "50.0\t1:870317:G*/A[7] | 1:985450:G*/A[65] | 50.0");
+		}
+
+	@Test
+	public void testVcf() throws IOException {
+		final File output = super.createTmpFile(".vcf");
+		Assert.assertEquals(new VcfEpistatis01().instanceMain(
+			newCmd().add(
+			"-o",output,
+			"--pedigree",SRC_TEST_RESOURCE+"/test_vcf01.ped",
+			SRC_TEST_RESOURCE+"/test_vcf01.vcf").
+			make()
+			),0);
+		assertIsVcf(output);
+		Assert.assertEquals(variantStream(output).count(), 2L);
+		}
+}
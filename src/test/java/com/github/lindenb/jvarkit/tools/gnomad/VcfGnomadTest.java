@@ -3,6 +3,9 @@ package com.github.lindenb.jvarkit.tools.gnomad;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -59,6 +62,30 @@ public void testStreaming(final String vcfpath) throws IOException {
 	assertIsVcf(vcfOut);
 	}
 
+@Test(dataProvider="src01")
+public void testStreamingSameAsTabix(final String vcfpath) throws IOException {
+	final File mFile = createManifest();
+	final File vcfOuts[] = new File[2];
+	for(int i=0;i< vcfOuts.length;i++) {
+		vcfOuts[i] = super.createTmpFile(".vcf");
+		Assert.assertEquals(new VcfGnomad().instanceMain(newCmd().
+				add("-o",vcfOuts[i].getPath()).
+				add("-m",mFile.getPath()).
+				split(i==0?"":"--streaming").
+				add(vcfpath).make()
+				),0);
+		}
+	final Function<File,List<String>> annotations = F->variantStream(F).
+			map(V->V.getContig()+":"+V.getStart()+" "+V.getFilters()+" "+
+				V.getAttributes().entrySet().stream().
+				filter(E->E.getKey().startsWith("gnomad_")).
+				map(E->E.getKey()+"="+E.getValue()).
+				sorted().
+				collect(Collectors.joining(";"))).
+			collect(Collectors.toList());
+	Assert.assertEquals(annotations.apply(vcfOuts[1]), annotations.apply(vcfOuts[0]));
+	}
+
 @Test(dataProvider="src01")
 public void testFilterGenotypes(final String vcfpath) throws IOException {
 	final File mFile = createManifest();
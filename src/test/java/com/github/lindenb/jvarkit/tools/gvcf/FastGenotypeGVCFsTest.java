@@ -0,0 +1,104 @@
+package com.github.lindenb.jvarkit.tools.gvcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+
+public class FastGenotypeGVCFsTest extends TestUtils {
+private final String[] gvcfs = new String[] {
+	SRC_TEST_RESOURCE+"/gvcf01.g.vcf",
+	SRC_TEST_RESOURCE+"/gvcf02.g.vcf",
+	SRC_TEST_RESOURCE+"/gvcf03.g.vcf"
+	};
+
+/** run the tool on some gVCFs, returns the output */
+private File run(final String args,final String...gvcfs) throws IOException {
+	final File out = createTmpFile(".vcf");
+	Assert.assertEquals(new FastGenotypeGVCFs().instanceMain(newCmd().
+			add("-o",out.getPath()).
+			split(args).
+			add((Object[])gvcfs).
+			make()),0);
+	assertIsVcf(out);
+	return out;
+	}
+
+private File run(final String args) throws IOException {
+	return run(args,this.gvcfs);
+	}
+
+private List<String> variantLines(final File vcf) throws IOException {
+	return Files.readAllLines(vcf.toPath()).stream().
+		filter(L->!L.startsWith("#")).
+		collect(Collectors.toList());
+	}
+
+/** contig:pos:id:ref:sorted-alts then the sorted alleles of each genotype */
+private static String summary(final VariantContext ctx) {
+	return ctx.getContig()+":"+ctx.getStart()+":"+ctx.getID()+":"+ctx.getReference().getDisplayString()+":"+
+		ctx.getAlternateAlleles().stream().map(Allele::getDisplayString).sorted().collect(Collectors.joining(","))+
+		ctx.getGenotypes().stream().map(G->" "+G.getSampleName()+"="+
+			G.getAlleles().stream().map(Allele::getDisplayString).sorted().collect(Collectors.joining("/"))).
+			collect(Collectors.joining())
+		;
+	}
+
+@Test
+public void testThreads() throws IOException {
+	final List<String> serial = variantLines(run(""));
+	Assert.assertFalse(serial.isEmpty());
+	Assert.assertEquals(variantLines(run("--threads 3")), serial);
+	}
+
+/** the output of the former implementation, for the same files */
+@Test
+public void testPreviousOutput() throws IOException {
+	final List<VariantContext> variants = variantStream(run("--threads 3")).collect(Collectors.toList());
+	Assert.assertEquals(
+		variants.stream().map(V->summary(V)).collect(Collectors.toList()),
+		Arrays.asList(
+			/* S3 has a genotype with NON_REF */
+			"chr1:10:.:A:C S1=A/C S2=A/A S3=./.",
+			/* two REFs at the same position */
+			"chr1:20:.:C:G S1=C/C S2=C/G S3=C/C",
+			"chr1:20:rs20:CTT:C S1=CTT/CTT S2=C/CTT S3=CTT/CTT",
+			"chr1:31:.:G:A,T S1=T/T S2=G/G S3=A/G",
+			"chr2:150:.:G:A S1=G/G S2=A/G S3=G/G"
+			));
+	/* the genotypes of the reference blocks keep their DP and GQ */
+	final Genotype g = variants.get(0).getGenotype("S2");
+	Assert.assertEquals(g.getDP(), 7);
+	Assert.assertEquals(g.getGQ(), 20);
+	Assert.assertEquals(variants.get(4).getGenotype("S1").getDP(), 5);
+	Assert.assertEquals(variants.get(4).getGenotype("S2").getGQ(), 60);
+	}
+
+/** gvcf04 is gvcf02 for sample S4, with the two records at chr1:20 not sorted on REF */
+@Test
+public void testUnsortedRefs() throws IOException {
+	final String[] files = new String[] {this.gvcfs[0],this.gvcfs[2],SRC_TEST_RESOURCE+"/gvcf04.g.vcf"};
+	for(final String args:new String[] {"","--threads 3"}) {
+		Assert.assertEquals(
+			variantStream(run(args,files)).map(V->summary(V)).collect(Collectors.toList()),
+			Arrays.asList(
+				"chr1:10:.:A:C S1=A/C S3=./. S4=A/A",
+				"chr1:20:.:C:G S1=C/C S3=C/C S4=C/G",
+				"chr1:20:rs20:CTT:C S1=CTT/CTT S3=CTT/CTT S4=C/CTT",
+				"chr1:31:.:G:A,T S1=T/T S3=A/G S4=G/G",
+				"chr2:150:.:G:A S1=G/G S3=G/G S4=A/G"
+				));
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.github.lindenb.jvarkit.tools.lumpysv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class LumpySortTest extends TestUtils {
+
+/** run lumpysort, returns the variant lines */
+private List<String> run(final String args,final File...vcfs) throws IOException {
+	final File out = createTmpFile(".vcf");
+	Assert.assertEquals(new LumpySort().instanceMain(newCmd().
+			add("-o",out.getPath()).
+			split(args).
+			add(Arrays.stream(vcfs).map(F->F.getPath()).toArray()).
+			make()),0);
+	assertIsVcf(out);
+	return Files.readAllLines(out.toPath()).stream().
+		filter(L->!L.startsWith("#")).
+		collect(Collectors.toList());
+	}
+
+@Test
+public void testFixture() throws IOException {
+	final File vcf = new File(SRC_TEST_RESOURCE+"/lumpy.01.vcf");
+	final List<String> merged = run("",vcf);
+	Assert.assertEquals(run("--threads 3",vcf), merged);
+	/* the secondary BND is skipped, the 3 pairs of variants of S1/S2 are merged */
+	Assert.assertEquals(merged.size(), 8);
+
+	final List<String> notMerged = run("-dm",vcf);
+	Assert.assertEquals(run("-dm --threads 3",vcf), notMerged);
+	Assert.assertEquals(notMerged.size(), 11);
+	}
+
+/** write a lumpy VCF with 'n' random deletions for one sample */
+private File randomLumpyVcf(final Random rand,final String sample,final int n) throws IOException {
+	final File vcf = createTmpFile(".vcf");
+	try(PrintWriter pw = new PrintWriter(vcf)) {
+		for(final String line:Files.readAllLines(new File(SRC_TEST_RESOURCE+"/lumpy.01.vcf").toPath())) {
+			if(line.startsWith("#CHROM")) {
+				pw.println(String.join("\t","#CHROM","POS","ID","REF","ALT","QUAL","FILTER","INFO","FORMAT",sample));
+				break;
+				}
+			pw.println(line);
+			}
+		for(int i=0;i< n;i++) {
+			final int start = 1+rand.nextInt(2000);
+			final int end = start + 50 + rand.nextInt(50);
+			pw.println(String.join("\t","RF01",String.valueOf(start),sample+"."+i,"N","<DEL>",".",".",
+				"SVTYPE=DEL;SVLEN="+(start-end)+";END="+end+";CIPOS=-10,10;CIEND=-10,10;SU=5;PE=3;SR=2",
+				"GT:SU:PE:SR","0/1:5:3:2"));
+			}
+		}
+	return vcf;
+	}
+
+@Test
+public void testBatchBoundary() throws IOException {
+	final Random rand = new Random(0L);
+	/* 1000 variants: exactly one batch of clusters with -dm */
+	final File vcf1 = randomLumpyVcf(rand, "S1", 500);
+	final File vcf2 = randomLumpyVcf(rand, "S2", 500);
+
+	final List<String> notMerged = run("-dm",vcf1,vcf2);
+	Assert.assertEquals(notMerged.size(), 1000);
+	Assert.assertEquals(run("-dm --threads 3",vcf1,vcf2), notMerged);
+
+	final List<String> merged = run("",vcf1,vcf2);
+	Assert.assertTrue(merged.size() < 1000);
+	Assert.assertEquals(run("--threads 3",vcf1,vcf2), merged);
+	}
+}
@@ -0,0 +1,56 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class FindAllCoverageAtPositionTest extends TestUtils {
+
+@Test
+public void test01() throws IOException {
+	final File input = createTmpFile(".list");
+	PrintWriter pw=new PrintWriter(input);
+	super._collectFiles(new File(SRC_TEST_RESOURCE),
+			(D,F)->F.startsWith("S") && F.endsWith(".bam")
+			).forEach(F->pw.println(F.getPath()));
+	pw.flush();
+	pw.close();
+	Assert.assertTrue(wc(input)>0L);
+
+	final File bed = createTmpFile(".bed");
+	pw=new PrintWriter(bed);
+	pw.println("RF01\t99\t140");
+	pw.println("RF01\t2000\t2002");
+	pw.println("RF03\t1000\t1010");
+	pw.flush();
+	pw.close();
+
+	final File output1 = createTmpFile(".tsv");
+	Assert.assertEquals(new FindAllCoverageAtPosition().instanceMain(new String[]{
+    		"-o",output1.getPath(),
+    		"-f",bed.getPath(),
+    		"-p","RF02:100",
+    		"--merge","0",
+    		input.getPath()
+    		}),0);
+	Assert.assertTrue(wc(output1)>1L);
+	super.assertTsvTableIsConsitent(output1, null);
+
+	/* same output with the thread pool and larger query intervals */
+	final File output2 = createTmpFile(".tsv");
+	Assert.assertEquals(new FindAllCoverageAtPosition().instanceMain(new String[]{
+    		"-o",output2.getPath(),
+    		"-f",bed.getPath(),
+    		"-p","RF02:100",
+    		"--threads","3",
+    		input.getPath()
+    		}),0);
+	Assert.assertEquals(Files.readAllLines(output1.toPath()), Files.readAllLines(output2.toPath()));
+	}
+}
@@ -0,0 +1,139 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.tools.vcflist.VcfList;
+import com.github.lindenb.jvarkit.tools.vcflist.VcfOffsetsIndexFactory;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class VcfGetVariantByIndexTest extends TestUtils {
+
+@DataProvider(name = "src2")
+public Object[][] createData2() {
+	return new Object[][] {{".vcf.gz"},{".vcf"}};
+	}
+
+@DataProvider(name = "src1")
+public Object[][] createData1() {
+	return new ParamCombiner().
+		initList(new Object[] {".vcf.gz",".vcf"}).
+		product("1","3").
+		product("1","7","1000").
+		build();
+	}
+
+/** copy the test VCF, bgzipped or not */
+private File copyVcf(final String suffix) throws IOException {
+	final File vcf = createTmpFile(suffix);
+	final File src = new File(SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz");
+	if(suffix.endsWith(".gz")) {
+		Files.copy(src.toPath(), vcf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	else
+		{
+		try(InputStream in = new GZIPInputStream(Files.newInputStream(src.toPath()))) {
+			Files.copy(in, vcf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	deleteOnExit(VcfOffsetsIndexFactory.getDefaultIndexFile(vcf));
+	return vcf;
+	}
+
+private static String asString(final VariantContext ctx) {
+	return ctx.getContig()+":"+ctx.getStart()+":"+ctx.getReference().getDisplayString();
+	}
+
+private List<String> readVariants(final File vcf) {
+	final List<String> variants = new ArrayList<>();
+	try(VCFFileReader r = new VCFFileReader(vcf,false)) {
+		try(CloseableIterator<VariantContext> iter = r.iterator()) {
+			while(iter.hasNext()) {
+				variants.add(asString(iter.next()));
+				}
+			}
+		}
+	return variants;
+	}
+
+@Test(dataProvider="src1")
+public void test01(final String suffix,final String nThreads,final String batchSize) throws IOException {
+	final File vcf = copyVcf(suffix);
+	final List<String> variants = readVariants(vcf);
+	Assert.assertFalse(variants.isEmpty());
+
+	/* random 1-based indexes, with duplicates, in random order */
+	final Random rand = new Random(variants.size());
+	final List<String> expect = new ArrayList<>();
+	final File indexes = createTmpFile(".list");
+	try(PrintWriter pw = new PrintWriter(indexes)) {
+		for(int i=0;i< 50;i++) {
+			final int idx = rand.nextInt(variants.size());
+			pw.println(idx+1);
+			expect.add(variants.get(idx));
+			}
+		}
+
+	final File output = createTmpFile(".vcf");
+	Assert.assertEquals(new VcfGetVariantByIndex().instanceMain(new String[]{
+		"-o",output.getPath(),
+		"-i",indexes.getPath(),
+		"--threads",nThreads,
+		"--batch",batchSize,
+		vcf.getPath()
+		}),0);
+
+	Assert.assertEquals(readVariants(output), expect);
+	}
+
+@Test(dataProvider="src2")
+public void testGetAll(final String suffix) throws Exception {
+	final File vcf = copyVcf(suffix);
+	final List<String> variants = readVariants(vcf);
+	final File indexFile = new VcfOffsetsIndexFactory().indexVcfFileIfNeeded(vcf);
+
+	/* more indexes than a slice of DefaultVcfFileList, with duplicates, in random order */
+	final Random rand = new Random(0L);
+	final int indexes[] = new int[25_123];
+	final List<String> expect = new ArrayList<>(indexes.length);
+	for(int i=0;i< indexes.length;i++) {
+		indexes[i] = rand.nextInt(variants.size());
+		expect.add(variants.get(indexes[i]));
+		}
+	final ExecutorService executorService = Executors.newFixedThreadPool(3);
+	try(VcfList vcfList = VcfList.fromFile(vcf, indexFile)) {
+		Assert.assertEquals(vcfList.size(), variants.size());
+		for(int i=0;i< variants.size();i++) {
+			Assert.assertEquals(asString(vcfList.get(i)), variants.get(i));
+			}
+		final List<String> got1 = new ArrayList<>(indexes.length);
+		for(final VariantContext ctx:vcfList.getAll(indexes, null)) got1.add(asString(ctx));
+		Assert.assertEquals(got1, expect);
+		final List<String> got2 = new ArrayList<>(indexes.length);
+		for(final VariantContext ctx:vcfList.getAll(indexes, executorService)) got2.add(asString(ctx));
+		Assert.assertEquals(got2, expect);
+		}
+	finally
+		{
+		executorService.shutdown();
+		}
+	}
+}
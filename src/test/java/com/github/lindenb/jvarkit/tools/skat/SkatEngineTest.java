@@ -0,0 +1,125 @@
+package com.github.lindenb.jvarkit.tools.skat;
+
+import com.github.lindenb.jvarkit.math.stats.ChiSquared;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * The expected p-values follow the R package SKAT ( SKAT(Z, SKAT_Null_Model(y ~ 1, out_type="D"), weights=w, method="davies" or "optimal.adj") ).
+ * They were computed with an independent implementation of the formulas of the package, where the
+ * distribution of the mixtures of chi-squares is given by Ruben's series rather than by Davies' method.
+ */
+public class SkatEngineTest {
+/** maximum difference with the expected p-values: the accuracy of Davies' method in SKAT is 1E-6 */
+private static final double TOLERANCE = 1E-5;
+
+private static double[][] toDouble(final int genotypes[][]) {
+	final double G[][] = new double[genotypes.length][];
+	for(int i=0;i< genotypes.length;i++) {
+		G[i] = new double[genotypes[i].length];
+		for(int j=0;j< genotypes[i].length;j++) G[i][j] = genotypes[i][j];
+		}
+	return G;
+	}
+
+/** the first 'nCases' samples are the cases */
+private static double[] phenotypes(final int nSamples,final int nCases) {
+	final double y[] = new double[nSamples];
+	for(int i=0;i< nCases;i++) y[i] = 1.0;
+	return y;
+	}
+
+@DataProvider(name = "src1")
+public Object[][] createData1() {
+	return new Object[][] {
+		/* SKAT-O: Davies' method doesn't reach the accuracy in the integral, R and the engine use Liu's method */
+		{new int[][] {
+			{0,0,0,0},{2,0,1,0},{0,1,1,0},{0,1,0,2},{0,1,0,1},{0,1,0,0},{0,0,0,0},{1,0,0,0},{0,0,0,1},{1,0,0,0},
+			{0,0,0,0},{0,1,0,0},{0,0,1,1},{0,0,0,0},{1,1,0,0},{0,1,2,1},{0,1,0,2},{0,0,1,1},{0,0,0,2},{0,1,0,1}
+			},
+			8, new double[] {2.0, 1.5, 1.0, 0.5},
+			0.6499892150, 0.8130566870
+			},
+		/* third variant has a MAF>0.5 and is flipped, fourth variant is monomorphic */
+		{new int[][] {
+			{0,2,0,0,0,0},{0,0,1,0,2,0},{0,0,2,0,0,0},{0,0,0,0,1,0},{0,0,1,0,0,0},{0,1,2,0,0,0},{0,0,2,0,1,0},{0,1,2,0,1,0},{0,0,2,0,1,1},{1,1,2,0,1,1},
+			{0,1,2,0,0,0},{0,0,2,0,0,0},{0,0,2,0,2,1},{0,0,2,0,0,0},{0,2,2,0,2,0},{0,0,1,0,0,1},{0,1,1,0,0,0},{1,0,1,0,0,0},{0,0,1,0,0,0},{0,1,1,0,0,0},
+			{0,0,2,0,0,0},{0,0,1,0,0,0},{0,0,2,0,0,0},{0,0,2,0,0,0},{0,0,2,0,1,0},{0,0,1,0,0,0},{0,0,2,0,0,1},{0,0,1,0,0,0},{0,0,2,0,2,0},{0,0,2,0,1,0}
+			},
+			12, new double[] {3.0, 2.5, 1.0, 1.0, 0.8, 2.0},
+			0.4163330705, 0.3494530521
+			},
+		/* SKAT-O: Liu's method, as above */
+		{new int[][] {
+			{1,1,1},{1,2,0},{0,1,0},{0,1,0},{1,0,0},{0,1,0},{1,2,0},{0,1,0},{0,0,0},{1,0,0},
+			{0,0,1},{0,1,0},{0,1,1},{0,0,0},{1,1,0},{0,1,0},{0,0,0},{0,0,0},{0,0,1},{0,1,1},
+			{0,0,0},{2,0,0},{0,0,0},{0,1,0}
+			},
+			10, new double[] {1.0, 1.0, 1.0},
+			0.0845916088, 0.1295822638
+			},
+		/* weights of the beta(1,25) distribution for rare variants */
+		{new int[][] {
+			{0,0,1,0,0,0,0,0},{0,0,0,0,1,0,0,0},{0,0,0,0,0,0,0,1},{0,0,0,0,0,0,0,0},{0,0,0,0,1,1,0,0},
+			{1,0,0,0,1,0,0,1},{0,0,2,0,1,1,0,1},{0,0,0,0,0,1,0,0},{0,0,1,0,0,0,0,0},{0,0,0,0,0,0,0,0},
+			{0,0,1,0,0,1,0,0},{1,1,1,0,0,0,0,0},{0,2,0,0,1,0,1,0},{0,0,1,0,1,0,0,1},{0,0,0,0,2,0,0,1},
+			{0,0,1,0,0,0,0,0},{0,0,0,0,0,0,0,0},{0,0,1,0,1,0,2,0},{0,0,0,0,0,0,0,0},{0,0,0,0,0,0,0,0},
+			{1,0,0,0,1,1,0,0},{0,0,0,0,0,0,0,0},{0,1,0,0,0,0,0,0},{0,0,0,0,2,0,0,0},{0,1,1,0,0,0,0,0},
+			{0,0,0,0,1,0,0,1},{0,0,0,0,0,0,0,0},{0,0,0,0,1,0,0,0},{1,0,1,1,1,0,0,0},{0,0,0,0,0,0,1,0},
+			{0,0,0,0,1,0,0,0},{0,0,0,0,0,0,0,0},{0,0,1,0,1,0,0,0},{0,0,0,0,1,0,0,0},{0,0,0,0,2,0,0,0},
+			{0,0,0,1,1,0,0,0},{0,0,0,1,0,0,0,0},{0,0,0,1,0,1,0,0},{0,0,0,0,0,0,0,0},{0,0,0,0,1,0,0,1}
+			},
+			15, new double[] {24.0, 20.0, 15.0, 20.0, 6.0, 15.0, 22.0, 17.0},
+			0.1373611755, 0.1814542878
+			},
+		/* one variant: SKAT-O is SKAT */
+		{new int[][] {
+			{2},{1},{2},{2},{2},{2},{0},{1},{0},{0},{1},{0},{2},{0},{1},{0}
+			},
+			6, new double[] {1.0},
+			0.0028691128, 0.0028691128
+			}
+		};
+	}
+
+@Test(dataProvider="src1")
+public void testPValues(final int genotypes[][],final int nCases,final double weights[],final double expectSkat,final double expectSkatO) {
+	final double G[][] = toDouble(genotypes);
+	final double y[] = phenotypes(genotypes.length, nCases);
+	Assert.assertEquals(SkatEngine.pvalue(G, y, weights, false), expectSkat, TOLERANCE);
+	Assert.assertEquals(SkatEngine.pvalue(G, y, weights, true), expectSkatO, TOLERANCE);
+	}
+
+/** with one variant, the statistic follows a chi-square with one degree of freedom */
+@Test
+public void testOneVariant() {
+	final double G[][] = toDouble(new int[][] {{2},{1},{2},{2},{2},{2},{0},{1},{0},{0},{1},{0},{2},{0},{1},{0}});
+	final double y[] = phenotypes(G.length, 6);
+	/* score and variance of the score */
+	final double mu = 6.0/G.length;
+	double mean = 0, score = 0, var = 0;
+	for(final double g[]:G) mean += g[0]/G.length;
+	for(int i=0;i< G.length;i++) {
+		score += (y[i]-mu)*G[i][0];
+		var += mu*(1.0-mu)*(G[i][0]-mean)*(G[i][0]-mean);
+		}
+	final double expect = ChiSquared.upperTail(score*score/var, 1);
+	Assert.assertEquals(SkatEngine.pvalue(G, y, new double[] {1.0}, false), expect, 1E-9);
+	}
+
+/** the p-value doesn't depend on the order of the variants */
+@Test(dataProvider="src1")
+public void testPermuteVariants(final int genotypes[][],final int nCases,final double weights[],final double expectSkat,final double expectSkatO) {
+	final int nVariants = weights.length;
+	final double G[][] = new double[genotypes.length][nVariants];
+	final double w[] = new double[nVariants];
+	for(int j=0;j< nVariants;j++) {
+		w[j] = weights[nVariants-1-j];
+		for(int i=0;i< genotypes.length;i++) G[i][j] = genotypes[i][nVariants-1-j];
+		}
+	final double y[] = phenotypes(genotypes.length, nCases);
+	Assert.assertEquals(SkatEngine.pvalue(G, y, w, false), expectSkat, TOLERANCE);
+	Assert.assertEquals(SkatEngine.pvalue(G, y, w, true), expectSkatO, TOLERANCE);
+	}
+}
@@ -0,0 +1,184 @@
+package com.github.lindenb.jvarkit.tools.springbatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.job.SimpleJob;
+import org.springframework.batch.core.launch.support.SimpleJobLauncher;
+import org.springframework.batch.core.partition.support.PartitionStep;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.MapJobRepositoryFactoryBean;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+import org.springframework.core.io.FileSystemResource;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.Interval;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class VcfPartitionerTest extends TestUtils {
+private final File sourceVcf = new File(SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz");
+
+@DataProvider(name = "src1")
+public Object[][] createData1() {
+	return new ParamCombiner().
+		initList(new Object[] {VcfPartitioner.Mode.contig,VcfPartitioner.Mode.chunk}).
+		product(1,4,100).
+		build();
+	}
+
+private List<String> readVariants(final File vcf) {
+	final List<String> L = new ArrayList<>();
+	try(VCFFileReader r = new VCFFileReader(vcf, false)) {
+		try(CloseableIterator<VariantContext> iter = r.iterator()) {
+			while(iter.hasNext()) {
+				final VariantContext ctx = iter.next();
+				L.add(ctx.getContig()+":"+ctx.getStart()+":"+ctx.getAlleles());
+				}
+			}
+		}
+	return L;
+	}
+
+private VcfPartitioner createPartitioner(final VcfPartitioner.Mode mode) throws IOException {
+	final VcfPartitioner partitioner = new VcfPartitioner();
+	partitioner.setResource(new FileSystemResource(this.sourceVcf));
+	partitioner.setMode(mode);
+	partitioner.setWindowSize(100);
+	partitioner.setOutputPrefix(createTmpFile(".").getPath());
+	return partitioner;
+	}
+
+private VariantContextBatchReader createReader(final Interval interval) {
+	final VariantContextBatchReader reader = new VariantContextBatchReader();
+	reader.setResource(new FileSystemResource(this.sourceVcf));
+	reader.setInterval(interval);
+	return reader;
+	}
+
+private VariantContextBatchWriter createWriter(final VariantContextBatchReader reader) {
+	final VariantContextBatchWriter writer = new VariantContextBatchWriter();
+	writer.setHeaderSupplier(reader::getHeader);
+	return writer;
+	}
+
+private File merge(final StepExecution master) throws IOException {
+	final File out = createTmpFile(".vcf");
+	final VcfPartitionsMerger merger = new VcfPartitionsMerger();
+	merger.setResource(new FileSystemResource(out));
+	Assert.assertNull(merger.afterStep(master));
+	assertIsVcf(out);
+	return out;
+	}
+
+/** run the partitions in one thread, in reverse order: the merger must sort them */
+private File runPartitions(final VcfPartitioner partitioner,final int gridSize,final Interval interval) throws Exception {
+	final Map<String,ExecutionContext> partitions = partitioner.partition(gridSize);
+	Assert.assertFalse(partitions.isEmpty());
+	/* the same reader and writer for all the partitions, as a worker step would do */
+	final VariantContextBatchReader reader = createReader(interval);
+	final VariantContextBatchWriter writer = createWriter(reader);
+
+	final JobExecution jobExecution = new JobExecution(1L);
+	final StepExecution master = jobExecution.createStepExecution("partition");
+	final List<String> names = new ArrayList<>(partitions.keySet());
+	Collections.reverse(names);
+	for(final String name: names) {
+		final ExecutionContext ctx = partitions.get(name);
+		reader.open(ctx);
+		writer.open(ctx);
+		List<VariantContext> L;
+		while((L=reader.read())!=null) {
+			writer.write(Collections.singletonList(L));
+			}
+		writer.close();
+		reader.close();
+		final StepExecution se = jobExecution.createStepExecution("partition:"+name);
+		se.setExecutionContext(ctx);
+		}
+	master.setStatus(BatchStatus.COMPLETED);
+	return merge(master);
+	}
+
+@Test(dataProvider="src1")
+public void testRoundTrip(final VcfPartitioner.Mode mode,final int gridSize) throws Exception {
+	final File out = runPartitions(createPartitioner(mode), gridSize, null);
+	Assert.assertEquals(readVariants(out), readVariants(this.sourceVcf));
+	}
+
+/** the interval of the reader and the partitions: each variant must be read once */
+@Test(dataProvider="src1")
+public void testInterval(final VcfPartitioner.Mode mode,final int gridSize) throws Exception {
+	final Interval interval = new Interval("RF03",1230,2200);
+	final File out = runPartitions(createPartitioner(mode), gridSize, interval);
+	final List<String> expect = readVariants(this.sourceVcf).stream().
+		filter(S->S.startsWith("RF03:")).
+		filter(S->{final int pos=Integer.parseInt(S.split("[:]")[1]);return pos>=1230 && pos<=2200;}).
+		collect(Collectors.toList());
+	Assert.assertEquals(expect.size(), 4);
+	Assert.assertEquals(readVariants(out), expect);
+	}
+
+@DataProvider(name = "src2")
+public Object[][] createData2() {
+	return new ParamCombiner().
+		initList(new Object[] {VcfPartitioner.Mode.contig,VcfPartitioner.Mode.chunk}).
+		product(1,4).
+		build();
+	}
+
+/** a partitioned job: one chunk-oriented worker step, the same reader and writer for all the partitions */
+@Test(dataProvider="src2")
+public void testJob(final VcfPartitioner.Mode mode,final int nThreads) throws Exception {
+	final ResourcelessTransactionManager transactionManager = new ResourcelessTransactionManager();
+	final MapJobRepositoryFactoryBean factory = new MapJobRepositoryFactoryBean(transactionManager);
+	factory.afterPropertiesSet();
+	final JobRepository jobRepository = factory.getObject();
+
+	final VariantContextBatchReader reader = createReader(null);
+	final Step worker = new StepBuilder("copy").
+		repository(jobRepository).
+		transactionManager(transactionManager).
+		<List<VariantContext>,List<VariantContext>>chunk(3).
+		reader(reader).
+		writer(createWriter(reader)).
+		build();
+
+	final PartitionStep step = SpringBatchUtils.createPartitionStep("partition", jobRepository, worker, createPartitioner(mode), nThreads, 5);
+	final File out = createTmpFile(".vcf");
+	final VcfPartitionsMerger merger = new VcfPartitionsMerger();
+	merger.setResource(new FileSystemResource(out));
+	step.registerStepExecutionListener(merger);
+
+	final SimpleJob job = new SimpleJob("vcfpartition");
+	job.setJobRepository(jobRepository);
+	job.addStep(step);
+
+	final SimpleJobLauncher launcher = new SimpleJobLauncher();
+	launcher.setJobRepository(jobRepository);
+	launcher.afterPropertiesSet();
+
+	final JobExecution execution = launcher.run(job, new JobParameters());
+	Assert.assertEquals(execution.getStatus(), BatchStatus.COMPLETED);
+	Assert.assertTrue(execution.getStepExecutions().size()>2);
+	assertIsVcf(out);
+	Assert.assertEquals(readVariants(out), readVariants(this.sourceVcf));
+	}
+}
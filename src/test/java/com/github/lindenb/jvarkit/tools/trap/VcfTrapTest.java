@@ -0,0 +1,132 @@
+package com.github.lindenb.jvarkit.tools.trap;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class VcfTrapTest extends TestUtils {
+	private static final int SCORE_SIZEOF = TrapIndexer.SCORE_STRLEN - 2;
+
+	/** encode the score like TrapIndexer */
+	private static byte[] encodeScore(final String score) {
+		final byte array[] = new byte[SCORE_SIZEOF];
+		Arrays.fill(array, (byte)'0');
+		if(score.equals("1") || score.equals("1.0")) {
+			array[0] = (byte)1;
+			}
+		else if(score.startsWith("0.")) {
+			final byte digits[] = score.substring(2).getBytes();
+			System.arraycopy(digits, 0, array, 0, digits.length);
+			}
+		return array;
+		}
+
+	/** write a TrapIndexer file, the i-th record has the score 0.(i%1000) */
+	private File writeIndex(final int positions[]) throws IOException {
+		final File file = createTmpFile(".dat");
+		try(DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			out.write(TrapIndexer.MAGIC);
+			for(int i=0;i< positions.length;i++) {
+				out.writeInt(positions[i]);
+				out.writeByte('A');
+				out.writeByte("CGT".charAt(i%3));
+				out.writeInt(i);
+				out.write(encodeScore(String.format("0.%03d", i%1000)));
+				}
+			}
+		return file;
+		}
+
+	/** sorted positions, with some duplicates */
+	private static int[] createPositions(final Random rand,final int n) {
+		final int positions[] = new int[n];
+		int pos = 1;
+		for(int i=0;i< n;i++) {
+			pos += rand.nextInt(3);
+			positions[i] = pos;
+			}
+		return positions;
+		}
+
+	/** index of the first record with pos&gt;=pos */
+	private static int expectLowerBound(final int positions[],final int pos) {
+		int i=0;
+		while(i< positions.length && positions[i] < pos) i++;
+		return i;
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{1000},/* one segment */
+			{7},
+			{1},
+			{100}
+			};
+		}
+
+	@Test(dataProvider="src1")
+	public void testLowerBound(final int recordsPerSegment) throws IOException {
+		final Random rand = new Random(recordsPerSegment);
+		final int positions[] = createPositions(rand, 500);
+		final File file = writeIndex(positions);
+		try(VcfTrap.IndexFile index = new VcfTrap.IndexFile("1", file, recordsPerSegment)) {
+			Assert.assertEquals(index.size(), positions.length);
+			for(int i=0;i< positions.length;i++) {
+				Assert.assertEquals(index.getPos(i), positions[i]);
+				Assert.assertEquals(index.get(i).getStart(), positions[i]);
+				Assert.assertEquals(index.get(i).getGene(), String.format("ENSG%011d", i));
+				Assert.assertEquals(index.getAlt(i), (byte)"CGT".charAt(i%3));
+				}
+			/* sorted queries, the cursor moves forward */
+			for(int pos=0;pos<= positions[positions.length-1]+1;pos++) {
+				Assert.assertEquals(index.lowerBound(pos), expectLowerBound(positions, pos), "pos="+pos);
+				}
+			/* unsorted queries, the cursor must be reset */
+			for(int i=0;i< 1000;i++) {
+				final int pos = rand.nextInt(positions[positions.length-1] + 10);
+				Assert.assertEquals(index.lowerBound(pos), expectLowerBound(positions, pos), "pos="+pos);
+				}
+			/* same query twice and going back to the first position */
+			Assert.assertEquals(index.lowerBound(positions[10]), expectLowerBound(positions, positions[10]));
+			Assert.assertEquals(index.lowerBound(positions[10]), expectLowerBound(positions, positions[10]));
+			Assert.assertEquals(index.lowerBound(0), 0);
+			Assert.assertEquals(index.lowerBound(positions[positions.length-1]+1), positions.length);
+			}
+		}
+
+	@Test
+	public void testDecodeScore() {
+		final String scores[] = new String[1000 + 6];
+		for(int i=0;i< 1000;i++) scores[i] = String.format("0.%03d", i);
+		scores[1000] = "0";
+		scores[1001] = "1";
+		scores[1002] = "1.0";
+		scores[1003] = "0.5";
+		scores[1004] = "0.05";
+		scores[1005] = "0.99";
+		final ByteBuffer buffer = ByteBuffer.allocate(TrapIndexer.RECORD_SIZOF * 2);
+		for(final String score: scores) {
+			/* the score is decoded at a non-zero offset */
+			final int offset = TrapIndexer.RECORD_SIZOF;
+			buffer.clear();
+			buffer.position(offset + Integer.BYTES + 2 + Integer.BYTES);
+			buffer.put(encodeScore(score));
+			Assert.assertEquals(
+				Float.floatToIntBits(TrapIndexer.decodeScore(buffer, offset)),
+				Float.floatToIntBits(Float.parseFloat(score)),
+				score
+				);
+			}
+		}
+}
@@ -0,0 +1,63 @@
+package com.github.lindenb.jvarkit.tools.vcfamalgation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.misc.VcfHead;
+import com.github.lindenb.jvarkit.tools.misc.VcfTail;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class VcfPipelineTest extends TestUtils {
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(collectAllVcfs()).
+			product("","--async").
+			build();
+		}
+
+	private List<String> variantKeys(final File f) {
+		return variantStream(f).
+			map(V->V.getContig()+":"+V.getStart()+":"+V.getReference().getDisplayString()).
+			collect(Collectors.toList());
+		}
+
+	@Test(dataProvider="src1")
+	public void testSameAsChainedTools(final String inputFile,final String async) throws IOException {
+		final File tmp1 = super.createTmpFile(".vcf");
+		final File tmp2 = super.createTmpFile(".vcf");
+		Assert.assertEquals(new VcfHead().instanceMain(new String[] {
+			"-n","5","-o",tmp1.getPath(),inputFile
+			}),0);
+		Assert.assertEquals(new VcfTail().instanceMain(new String[] {
+			"-n","2","-o",tmp2.getPath(),tmp1.getPath()
+			}),0);
+
+		final File out = super.createTmpFile(".vcf");
+		Assert.assertEquals(new VcfPipeline().instanceMain(newCmd().
+			add("-s","vcfhead -n 5").
+			add("-s","vcftail --count '2'").
+			add("-o",out.getPath()).
+			split(async).
+			add(inputFile).
+			make()
+			),0);
+		Assert.assertEquals(variantKeys(out), variantKeys(tmp2));
+		}
+
+	@Test
+	public void testTokenize() {
+		Assert.assertEquals(VcfPipeline.tokenize(" a  'b c' \"d\\\"e\" f\\ g "),
+			Arrays.asList("a","b c","d\"e","f g"));
+		Assert.assertEquals(VcfPipeline.tokenize("x ''"),
+			Arrays.asList("x",""));
+		}
+}
@@ -3,11 +3,21 @@ package com.github.lindenb.jvarkit.tools.vcfbed;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.Interval;
+import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
+
 public class VCFBedTest extends TestUtils{
 	
 	@Test(dataProvider = "all-vcf-files")
@@ -30,4 +40,49 @@ public class VCFBedTest extends TestUtils{
 			}),0);
 		assertIsVcf(out);
 		}
+	
+	@DataProvider(name = "sorted-vcfs")
+	public Object[][] createSortedVcfs() {
+		return new ParamCombiner().
+			initList(new String[] {
+				SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz",
+				SRC_TEST_RESOURCE+"/rotavirus_rf.freebayes.vcf.gz",
+				SRC_TEST_RESOURCE+"/S1.vcf.gz"
+				}).
+			product("","-x 10 -mx 100").
+			build();
+		}
+	
+	@Test(dataProvider = "sorted-vcfs")
+	public void testSortedIsSameAsMemory(final String invcf,final String extend) throws IOException {
+		final SAMSequenceDictionary dict = SAMSequenceDictionaryExtractor.extractDictionary(new File(invcf));
+		final List<Interval> intervals = new ArrayList<>();
+		for(int i=0;i< 500;i++) {
+			final SAMSequenceRecord ssr = dict.getSequence(random.nextInt(dict.size()));
+			final int start = 1 + random.nextInt(ssr.getSequenceLength());
+			intervals.add(new Interval(ssr.getSequenceName(), start, Math.min(ssr.getSequenceLength(), start + random.nextInt(50))));
+			}
+		intervals.sort(Comparator.comparing((Interval R)->dict.getSequenceIndex(R.getContig())).thenComparing(R->R.getStart()));
+		final File bedout = createTmpFile(".bed");
+		final PrintWriter pw = new PrintWriter(bedout);
+		intervals.forEach(R->pw.println(R.getContig()+"\t"+(R.getStart()-1)+"\t"+R.getEnd()));
+		pw.flush();
+		pw.close();
+		
+		final List<List<String>> annotations = new ArrayList<>();
+		for(final String opt: new String[] {"-m","--sorted-bed"}) {
+			final File out = createTmpFile(".vcf");
+			Assert.assertEquals(new VCFBed().instanceMain(newCmd().
+				add("-o",out.getPath()).
+				add(opt,bedout.getPath()).
+				split(extend).
+				add(invcf).
+				make()
+				),0);
+			annotations.add(variantStream(out).
+				map(V->V.getContig()+":"+V.getStart()+" "+V.getAttributeAsStringList("VCFBED", "").stream().sorted().collect(Collectors.joining(";"))).
+				collect(Collectors.toList()));
+			}
+		Assert.assertEquals(annotations.get(1), annotations.get(0));
+		}
 	}
@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.tools.vcfmerge;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -9,6 +11,7 @@ import org.testng.annotations.Test;
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
 import htsjdk.samtools.util.Interval;
+import htsjdk.variant.variantcontext.VariantContext;
 
 public class VCFMergeTest extends TestUtils{
 
@@ -41,6 +44,20 @@ public void testSorted() throws IOException
 	basetest("--sorted");
 	}
 
+@Test
+public void testSortedPrefetch() throws IOException
+	{
+	final File expect = basetest("--sorted");
+	final File got = basetest("--sorted --prefetch 3");
+	/* the genotypes are decoded by the prefetch threads: compare them too */
+	final Function<VariantContext,String> toStr = V->V.getContig()+":"+V.getStart()+":"+V.getReference()+":"+
+		V.getGenotypes().stream().map(G->G.toString()).collect(Collectors.joining(";"));
+	Assert.assertEquals(
+		variantStream(got).map(toStr).collect(Collectors.toList()),
+		variantStream(expect).map(toStr).collect(Collectors.toList())
+		);
+	}
+
 @Test
 public void testRegion() throws IOException
 	{
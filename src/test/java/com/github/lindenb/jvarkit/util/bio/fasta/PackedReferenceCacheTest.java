@@ -0,0 +1,55 @@
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class PackedReferenceCacheTest extends TestUtils {
+
+@DataProvider(name = "src1")
+public Object[][] createData1() {
+	return new Object[][] {
+		{SRC_TEST_RESOURCE+"/toy.fa"},
+		{SRC_TEST_RESOURCE+"/rotavirus_rf.fa"}
+		};
+	}
+
+@Test(dataProvider="src1")
+public void testCharAtAndGC(final String fasta) throws IOException {
+	final File srcFasta = new File(fasta);
+	/* copy the fasta and its indexes, the cache is created next to the fasta */
+	final File tmpFasta = createTmpFile(".fa");
+	Files.copy(srcFasta.toPath(), tmpFasta.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	final File fai = deleteOnExit(new File(tmpFasta.getPath()+".fai"));
+	Files.copy(new File(fasta+".fai").toPath(), fai.toPath());
+	final File dict = deleteOnExit(new File(tmpFasta.getPath().replaceAll("\\.fa$", ".dict")));
+	Files.copy(new File(fasta.replaceAll("\\.fa$", ".dict")).toPath(), dict.toPath());
+	deleteOnExit(PackedReferenceCache.getCacheFile(tmpFasta));
+	
+	try(ReferenceGenome g1 = new ReferenceGenomeFactory().setUsePackedCache(false).openFastaFile(srcFasta);
+		ReferenceGenome g2 = new ReferenceGenomeFactory().setUsePackedCache(true).openFastaFile(tmpFasta)) {
+		Assert.assertTrue(PackedReferenceCache.isUpToDate(tmpFasta));
+		for(final SAMSequenceRecord ssr: g1.getDictionary().getSequences()) {
+			final ReferenceContig c1 = g1.getContig(ssr.getSequenceName());
+			final ReferenceContig c2 = g2.getContig(ssr.getSequenceName());
+			Assert.assertEquals(c1.length(), c2.length());
+			for(int i=0;i< c1.length();i++) {
+				Assert.assertEquals(c1.charAt(i), c2.charAt(i));
+				}
+			for(int i=0;i+10 < c1.length();i+=7) {
+				final int end = Math.min(c1.length(), i + 1 + (i*31)%2000);
+				Assert.assertEquals(c1.getGCPercent(i, end), c2.getGCPercent(i, end));
+				}
+			}
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.github.lindenb.jvarkit.util.iterator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.testng.Assert;
@@ -38,6 +39,34 @@ public void test1() {
 	Assert.assertFalse(iter.hasNext());
 	iter.close();
 	}
+@Test
+public void testPrefetch() {
+	final List<Iterator<Integer>> L = new ArrayList<>();
+	final List<Integer> expect = new ArrayList<>();
+	for(int i=0;i< 50;i++) {
+		final List<Integer> x = new ArrayList<>();
+		for(int j=0;j< 1000;j++) x.add(j*(i+1));
+		expect.addAll(x);
+		L.add(x.iterator());
+		}
+	Collections.sort(expect);
+	final MergingIterator<Integer> iter = new MergingIterator<>(Integer::compare,L,10);
+	final List<Integer> got = new ArrayList<>();
+	while(iter.hasNext()) got.add(iter.next());
+	iter.close();
+	Assert.assertEquals(got, expect);
+	}
+@Test(expectedExceptions= {IllegalStateException.class})
+public void test2Prefetch() {
+	final MergingIterator<Integer> iter = new MergingIterator<>(
+			Integer::compare,
+			Arrays.asList(
+					Arrays.asList(10,9).iterator(),
+					Arrays.asList(4,2).iterator()
+			),2);
+	while(iter.hasNext()) iter.next();
+	iter.close();
+	}
 @Test(expectedExceptions= {IllegalStateException.class})
 public void test2() {
 	final MergingIterator<Integer> iter = new MergingIterator<>(
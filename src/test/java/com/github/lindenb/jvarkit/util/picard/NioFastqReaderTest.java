@@ -0,0 +1,127 @@
+package com.github.lindenb.jvarkit.util.picard;
+import htsjdk.samtools.fastq.FastqRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+
+public class NioFastqReaderTest
+	extends TestUtils
+	{
+	@DataProvider(name = "src1")
+		public Object[][] createData1() {
+		 return new ParamCombiner().
+			 initList(collectAllFastq()).
+			 product(1,3).
+			 build();
+		}
+
+	@Test(dataProvider="src1")
+	public void testSameAsFourLines(final String input,final Integer nThreads) throws IOException
+		{
+		InputStream in = Files.newInputStream(new File(input).toPath());
+		if(input.endsWith(".gz")) in = new GZIPInputStream(in);
+		final FourLinesFastqReader r1=new FourLinesFastqReader(in);
+		final NioFastqReader r2=new NioFastqReader(new File(input),nThreads);
+		while(r1.hasNext())
+			{
+			Assert.assertTrue(r2.hasNext());
+			final FastqRecord rec1 = r1.next();
+			final FastqRecord rec2 = r2.next();
+			Assert.assertEquals(rec2.getReadName(), rec1.getReadName());
+			Assert.assertEquals(rec2.getReadString(), rec1.getReadString());
+			Assert.assertEquals(rec2.getBaseQualityHeader(), rec1.getBaseQualityHeader());
+			Assert.assertEquals(rec2.getBaseQualityString(), rec1.getBaseQualityString());
+			}
+		Assert.assertFalse(r2.hasNext());
+		r2.close();
+		r1.close();
+		}
+	
+	@DataProvider(name = "src2")
+		public Object[][] createData2() {
+		 return new ParamCombiner().
+			 initList(collectAllFastq()).
+			 product("plain","bgzf","multigzip").
+			 product(false,true).
+			 product(1,3).
+			 build();
+		}
+	
+	private static String asString(final FastqRecord rec) {
+		return rec.getReadName()+"\n"+rec.getReadString()+"\n"+rec.getBaseQualityHeader()+"\n"+rec.getBaseQualityString();
+		}
+	
+	/** recompress the fastq. 'multigzip' concatenates several gzip members, cut anywhere in the records */
+	private File recompress(final byte content[],final String compression) throws IOException
+		{
+		final File out = createTmpFile(compression.equals("plain")?".fq":".fq.gz");
+		switch(compression)
+			{
+			case "plain": Files.write(out.toPath(), content); break;
+			case "bgzf":
+				try(BlockCompressedOutputStream bgzf = new BlockCompressedOutputStream(out)) {
+					bgzf.write(content);
+					}
+				break;
+			case "multigzip":
+				try(OutputStream os = Files.newOutputStream(out.toPath())) {
+					final int step = Math.max(1, content.length/3 + 7);
+					for(int i=0;i< content.length;i+=step) {
+						final ByteArrayOutputStream member = new ByteArrayOutputStream();
+						try(GZIPOutputStream gz = new GZIPOutputStream(member)) {
+							gz.write(content, i, Math.min(step, content.length-i));
+							}
+						os.write(member.toByteArray());
+						}
+					}
+				break;
+			default: throw new IllegalArgumentException(compression);
+			}
+		return out;
+		}
+	
+	@Test(dataProvider="src2")
+	public void testCompressions(final String input,final String compression,final Boolean useStream,final Integer nThreads) throws IOException
+		{
+		final byte content[];
+		try(InputStream in = input.endsWith(".gz")?
+				new GZIPInputStream(Files.newInputStream(new File(input).toPath())):
+				Files.newInputStream(new File(input).toPath())) {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			IOUtils.copyTo(in, baos);
+			content = baos.toByteArray();
+			}
+		final List<String> expect = new ArrayList<>();
+		try(FourLinesFastqReader r1=new FourLinesFastqReader(new ByteArrayInputStream(content))) {
+			while(r1.hasNext()) expect.add(asString(r1.next()));
+			}
+		
+		final File fastq = recompress(content, compression);
+		final List<String> got = new ArrayList<>();
+		try(NioFastqReader r2 = useStream?
+				new NioFastqReader(Files.newInputStream(fastq.toPath()),nThreads):
+				new NioFastqReader(fastq,nThreads)) {
+			while(r2.hasNext()) got.add(asString(r2.next()));
+			}
+		Assert.assertEquals(got, expect);
+		}
+	}
@@ -0,0 +1,114 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.CloseableIterator;
+
+public class ParallelSortingCollectionTest
+	extends TestUtils
+	{
+	private static class KeyAndIndex
+		{
+		final int key;
+		final int index;
+		KeyAndIndex(final int key,final int index) {
+			this.key = key;
+			this.index = index;
+			}
+		}
+
+	private static class KeyAndIndexCodec extends AbstractDataCodec<KeyAndIndex>
+		{
+		@Override
+		public KeyAndIndex decode(final DataInputStream dis) throws IOException {
+			final int key;
+			try {
+				key = dis.readInt();
+				}
+			catch(final IOException err) {
+				return null;
+				}
+			return new KeyAndIndex(key, dis.readInt());
+			}
+		@Override
+		public void encode(final DataOutputStream dos, final KeyAndIndex o) throws IOException {
+			dos.writeInt(o.key);
+			dos.writeInt(o.index);
+			}
+		@Override
+		public KeyAndIndexCodec clone() {
+			return new KeyAndIndexCodec();
+			}
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(new Object[] {0,1,1000,10_001}).
+			product(1,3).
+			product(Boolean.TRUE,Boolean.FALSE).
+			product(Boolean.TRUE,Boolean.FALSE).
+			build();
+		}
+
+	@Test(dataProvider="src1")
+	public void testSameAsStableSort(final Integer count,final Integer nThreads,final Boolean compress,final Boolean normalizedKey) throws IOException
+		{
+		final Path tmpDir1 = deleteOnExit(Files.createTempDirectory("tmp."));
+		final Path tmpDir2 = deleteOnExit(Files.createTempDirectory("tmp."));
+		final Comparator<KeyAndIndex> cmp = (A,B)->Integer.compare(A.key, B.key);
+		final ParallelSortingCollection<KeyAndIndex> sorter = new ParallelSortingCollection<>(
+				KeyAndIndex.class,
+				new KeyAndIndexCodec(),
+				cmp,
+				/* key = key/8 : many ties resolved by the comparator */
+				normalizedKey?(O->(long)(O.key/8)):null,
+				100,
+				Arrays.asList(tmpDir1,tmpDir2),
+				nThreads,
+				compress
+				);
+		final Random rand = new Random(count);
+		final List<KeyAndIndex> expect = new ArrayList<>(count);
+		for(int i=0;i< count;i++)
+			{
+			/* many duplicate keys: the order of the index checks the sort is stable */
+			final KeyAndIndex o = new KeyAndIndex(rand.nextInt(50), i);
+			expect.add(o);
+			sorter.add(o);
+			}
+		sorter.doneAdding();
+		expect.sort(cmp);
+		int n = 0;
+		try(CloseableIterator<KeyAndIndex> iter = sorter.iterator())
+			{
+			while(iter.hasNext())
+				{
+				final KeyAndIndex o = iter.next();
+				Assert.assertTrue(n< expect.size());
+				Assert.assertEquals(o.key, expect.get(n).key);
+				Assert.assertEquals(o.index, expect.get(n).index);
+				n++;
+				}
+			}
+		Assert.assertEquals(n, count.intValue());
+		sorter.cleanup();
+		Assert.assertEquals(Files.list(tmpDir1).count(), 0L);
+		Assert.assertEquals(Files.list(tmpDir2).count(), 0L);
+		}
+	}
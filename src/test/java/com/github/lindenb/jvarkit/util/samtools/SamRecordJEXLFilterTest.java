@@ -0,0 +1,95 @@
+package com.github.lindenb.jvarkit.util.samtools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.filter.SamRecordFilter;
+
+public class SamRecordJEXLFilterTest extends TestUtils {
+	private static final String EXPRESSIONS[] = new String[] {
+		SamRecordJEXLFilter.DEFAULT_FILTER,
+		"record.getMappingQuality() < 30 || CLIPPED",
+		"record.mappingQuality ge 60 and !record.getReadNegativeStrandFlag()",
+		"record.getReadName() == 'RF01_44_622_1:0:0_2:0:0_71'",
+		"record.getContig() != null && record.getStart() % 2 == 0",
+		"record.getReadUnmappedFlag() || record.getAttribute('NM') > 1",
+		/* not supported by the compiler */
+		"record.getReadName() =~ '.*_1:.*'"
+		};
+
+	private List<SAMRecord> readAll(final String samFile) throws IOException {
+		final List<SAMRecord> L = new ArrayList<>();
+		try(SamReader sr = SamReaderFactory.makeDefault().
+				validationStringency(ValidationStringency.LENIENT).
+				open(new File(samFile))) {
+			try(SAMRecordIterator iter=sr.iterator()) {
+				while(iter.hasNext()) L.add(iter.next());
+				}
+			}
+		return L;
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(collectAllSamOrBam()).
+			product(EXPRESSIONS).
+			build();
+		}
+
+	@Test(dataProvider="src1")
+	public void testCompiledIsSameAsInterpreted(final String samFile,final String expr) throws IOException {
+		final SamRecordFilter interpreted = SamRecordJEXLFilter.create(expr, false);
+		final SamRecordFilter compiled = SamRecordJEXLFilter.create(expr, true);
+		for(final SAMRecord rec: readAll(samFile)) {
+			Assert.assertEquals(compiled.filterOut(rec), interpreted.filterOut(rec), expr+" "+rec);
+			}
+		}
+
+	@Test
+	public void testCompilation() {
+		Assert.assertFalse(SamRecordJEXLFilter.create(SamRecordJEXLFilter.DEFAULT_FILTER, true) instanceof SamRecordJEXLFilter);
+		Assert.assertTrue(SamRecordJEXLFilter.create(EXPRESSIONS[EXPRESSIONS.length-1], true) instanceof SamRecordJEXLFilter);
+		}
+
+	/** not a test: compare the time spent by the interpreter and by the compiled code. Disabled, run it by hand */
+	@Test(enabled=false)
+	public void benchmark() throws IOException {
+		final List<SAMRecord> records = new ArrayList<>();
+		for(final Object samFile: collectAllSamOrBam()) {
+			records.addAll(readAll(String.class.cast(samFile)));
+			}
+		final int nLoops = 200;
+		for(final String expr: EXPRESSIONS) {
+			final long duration[]=new long[2];
+			for(int side=0;side<2;side++) {
+				final SamRecordFilter filter = SamRecordJEXLFilter.create(expr, side==1);
+				long n=0L;
+				final long start = System.nanoTime();
+				for(int loop=0;loop< nLoops;loop++) {
+					for(final SAMRecord rec:records) {
+						if(filter.filterOut(rec)) n++;
+						}
+					}
+				duration[side] = System.nanoTime()-start;
+				Assert.assertTrue(n>=0L);
+				}
+			System.err.println("[BENCHMARK] \""+expr+"\" N="+(records.size()*(long)nLoops)+
+				" interpreted:"+(duration[0]/1_000_000)+"ms compiled:"+(duration[1]/1_000_000)+"ms"+
+				" speedup: x"+String.format("%.1f",duration[0]/(double)Math.max(1L,duration[1])));
+			}
+		}
+}
@@ -29,6 +29,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Collections;
+import java.util.function.Predicate;
 
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
@@ -112,6 +114,22 @@ public class SequenceOntologyTreeTest
 		Assert.assertFalse(t3.isChildrenOf(t2));
 
 		}
+	
+	@Test
+	public void testBitSetIndex() 
+		{
+		final SequenceOntologyTree tree = SequenceOntologyTree.getInstance();
+		final SequenceOntologyTree.Term pav = tree.getTermByAcn("SO:0001818");
+		final Predicate<SequenceOntologyTree.Term> filter = tree.createTermFilter(Collections.singleton(pav), true);
+		for(final SequenceOntologyTree.Term t: tree)
+			{
+			Assert.assertTrue(t.getId()>=0 && t.getId()<tree.getTermCount());
+			Assert.assertTrue(tree.getTermById(t.getId())==t);
+			Assert.assertEquals(t.isChildrenOf(pav), pav.getAllDescendants().contains(t));
+			Assert.assertEquals(filter.test(t), t.isChildrenOf(pav));
+			}
+		Assert.assertTrue(tree.getTermByLabel("Missense Variant")==tree.getTermByAcn("SO:0001583"));
+		}
 	 
 
 	}
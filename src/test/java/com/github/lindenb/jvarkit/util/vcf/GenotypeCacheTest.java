@@ -0,0 +1,127 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class GenotypeCacheTest extends TestUtils {
+
+private File createCache(final String vcfPath) throws IOException {
+	final File cache = createTmpFile(GenotypeCacheWriter.FILE_SUFFIX);
+	try(VcfIterator r = VCFUtils.createVcfIterator(vcfPath)) {
+		GenotypeCacheWriter.build(r, cache);
+		}
+	return cache;
+	}
+
+private void assertSame(final VariantContext ctx1,final VariantContext ctx2) {
+	Assert.assertEquals(ctx1.getContig(), ctx2.getContig());
+	Assert.assertEquals(ctx1.getStart(), ctx2.getStart());
+	Assert.assertEquals(ctx1.getEnd(), ctx2.getEnd());
+	Assert.assertEquals(ctx1.getAlleles(), ctx2.getAlleles());
+	Assert.assertEquals(ctx1.getNSamples(), ctx2.getNSamples());
+	for(int i=0;i< ctx1.getNSamples();i++) {
+		final Genotype g1 = ctx1.getGenotype(i);
+		final Genotype g2 = ctx2.getGenotype(i);
+		Assert.assertEquals(g1.getSampleName(), g2.getSampleName());
+		Assert.assertEquals(g1.getType(), g2.getType());
+		Assert.assertEquals(g1.getDP(), g2.getDP());
+		Assert.assertEquals(g1.getGQ(), g2.getGQ());
+		Assert.assertEquals(g1.isFiltered(), g2.isFiltered());
+		if(g1.isFiltered()) Assert.assertEquals(g1.getFilters(), g2.getFilters());
+		}
+	}
+
+@Test(dataProvider="all-indexed-vcf-files")
+public void testIterator(final String vcfPath) throws IOException {
+	final File cache = createCache(vcfPath);
+	try(VcfIterator r1 = VCFUtils.createVcfIterator(vcfPath);
+		VcfIterator r2 = VCFUtils.createVcfIterator(cache.getPath())) {
+		Assert.assertEquals(r1.getHeader().getSampleNamesInOrder(), r2.getHeader().getSampleNamesInOrder());
+		while(r1.hasNext()) {
+			Assert.assertTrue(r2.hasNext());
+			assertSame(r1.next(), r2.next());
+			}
+		Assert.assertFalse(r2.hasNext());
+		}
+	}
+
+@Test(dataProvider="all-indexed-vcf-files")
+public void testQuery(final String vcfPath) throws IOException {
+	final File cache = createCache(vcfPath);
+	try(VCFFileReader r1 = new VCFFileReader(new File(vcfPath), true);
+		IndexedVcfSource r2 = IndexedVcfSource.open(cache, true)) {
+		final List<VariantContext> all;
+		try(CloseableIterator<VariantContext> iter = r1.iterator()) {
+			all = iter.stream().collect(Collectors.toList());
+			}
+		for(int i=0;i< all.size();i+= 1 + all.size()/10) {
+			final VariantContext ctx = all.get(i);
+			final int start = Math.max(1, ctx.getStart() - 100);
+			final int end = ctx.getEnd() + 100;
+			try(CloseableIterator<VariantContext> iter1 = r1.query(ctx.getContig(), start, end);
+				CloseableIterator<VariantContext> iter2 = r2.query(ctx.getContig(), start, end)) {
+				while(iter1.hasNext()) {
+					Assert.assertTrue(iter2.hasNext());
+					assertSame(iter1.next(), iter2.next());
+					}
+				Assert.assertFalse(iter2.hasNext());
+				}
+			}
+		}
+	}
+
+@Test
+public void testFilteredGenotypes() throws IOException {
+	final File vcf = createTmpFile(".vcf");
+	try(PrintWriter pw = new PrintWriter(vcf)) {
+		pw.println("##fileformat=VCFv4.2");
+		pw.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+		pw.println("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">");
+		pw.println("##FORMAT=<ID=FT,Number=1,Type=String,Description=\"Genotype filter\">");
+		pw.println("##contig=<ID=chr1,length=1000>");
+		pw.println(String.join("\t","#CHROM","POS","ID","REF","ALT","QUAL","FILTER","INFO","FORMAT","S1","S2","S3"));
+		pw.println(String.join("\t","chr1","10",".","A","C",".",".",".","GT:DP","0/1:10","0/0:5","1/1:8"));
+		pw.println(String.join("\t","chr1","20",".","A","C",".",".",".","GT:DP:FT","0/1:10:LowDP","0/0:5:PASS","1/1:8:F1;F2"));
+		pw.println(String.join("\t","chr1","30",".","A","C,G",".",".",".","GT:DP:FT","1/2:10:LowDP","0/0:5:.","0/1:8:PASS"));
+		}
+	final File cache = createCache(vcf.getPath());
+	try(GenotypeCacheReader r = new GenotypeCacheReader(cache)) {
+		Assert.assertEquals(r.getNSites(), 3);
+		Assert.assertTrue(r.getSite(0).isPacked());
+		/* a site with a filtered genotype is not packed */
+		Assert.assertFalse(r.getSite(1).isPacked());
+		VariantContext ctx = r.getVariant(1);
+		Assert.assertTrue(ctx.getGenotype("S1").isFiltered());
+		Assert.assertEquals(ctx.getGenotype("S1").getFilters(), "LowDP");
+		Assert.assertFalse(ctx.getGenotype("S2").isFiltered());
+		Assert.assertTrue(ctx.getGenotype("S3").isFiltered());
+		Assert.assertEquals(ctx.getGenotype("S3").getFilters(), "F1;F2");
+		Assert.assertEquals(ctx.getGenotype("S3").getDP(), 8);
+		ctx = r.getVariant(2);
+		Assert.assertTrue(ctx.getGenotype("S1").isFiltered());
+		Assert.assertFalse(ctx.getGenotype("S2").isFiltered());
+		Assert.assertFalse(ctx.getGenotype("S3").isFiltered());
+		}
+	try(VcfIterator r1 = VCFUtils.createVcfIterator(vcf.getPath());
+		VcfIterator r2 = VCFUtils.createVcfIterator(cache.getPath())) {
+		while(r1.hasNext()) {
+			Assert.assertTrue(r2.hasNext());
+			assertSame(r1.next(), r2.next());
+			}
+		Assert.assertFalse(r2.hasNext());
+		}
+	}
+}
@@ -4,11 +4,14 @@ import java.io.File;
 import java.io.IOException;
 import java.util.function.Predicate;
 
+import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import com.github.lindenb.jvarkit.lang.JexlCompiler;
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 
@@ -36,4 +39,60 @@ public void test01(final String inputFile,final String expr)
 	r.close();
 	}
 
+	@DataProvider(name = "src2")
+	public Object[][] createData2() {
+		return new ParamCombiner().
+			initList(collectAllVcfs()).
+			product(
+					"QUAL > 0",
+					"CHROM == \"chr1\" || POS < 1000",
+					"DP > 10",
+					"AF < 0.1 || N_ALLELES > 2",
+					"vc.isSNP() && TYPE == 'SNP' && !vc.isFiltered()"
+					).
+			build();
+	}
+
+private static String eval(final Predicate<VariantContext> pred,final VariantContext ctx) {
+	try {
+		return String.valueOf(pred.test(ctx));
+		}
+	catch(final IllegalArgumentException err) {
+		return "error";
+		}
+	}
+
+@Test(dataProvider="src2")
+public void testCompiled(final String inputFile,final String expr) 
+	throws IOException
+	{
+	final Predicate<VariantContext> interpreted = JexlVariantPredicate.create(expr);
+	final Predicate<VariantContext> compiled;
+	final String previous = System.getProperty(JexlCompiler.COMPILE_PROPERTY);
+	System.setProperty(JexlCompiler.COMPILE_PROPERTY, "true");
+	try {
+		compiled = JexlVariantPredicate.create(expr);
+		}
+	finally
+		{
+		/* restore the global property for the other tests */
+		if(previous==null) {
+			System.clearProperty(JexlCompiler.COMPILE_PROPERTY);
+			}
+		else
+			{
+			System.setProperty(JexlCompiler.COMPILE_PROPERTY, previous);
+			}
+		}
+	Assert.assertFalse(compiled instanceof JexlVariantPredicate);
+	try(VCFFileReader r =new VCFFileReader(new File(inputFile),false)) {
+		try(CloseableIterator<VariantContext> iter = r.iterator()) {
+			while(iter.hasNext()) {
+				final VariantContext ctx = iter.next();
+				Assert.assertEquals(eval(compiled,ctx),eval(interpreted,ctx),expr+" "+ctx);
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,43 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.ParallelBgzfOutputStream;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+
+public class ParallelVariantContextWriterTest extends TestUtils {
+
+@Test(dataProvider="all-vcf-files")
+public void test01(final String vcfPath) throws IOException {
+	for(final String suffix: new String[]{".vcf",".vcf.gz"}) {
+		final File serialFile = createTmpFile(suffix);
+		final VcfIterator r1 = VCFUtils.createVcfIteratorFromFile(new File(vcfPath));
+		final VariantContextWriter w1 = VCFUtils.createVariantContextWriter(serialFile);
+		VCFUtils.copyHeaderAndVariantsTo(r1, w1);
+		w1.close();
+		r1.close();
+
+		final File parallelFile = createTmpFile(suffix);
+		final VcfIterator r2 = VCFUtils.createVcfIteratorFromFile(new File(vcfPath));
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(parallelFile));
+		if(suffix.endsWith(".gz")) os = new ParallelBgzfOutputStream(os, BlockCompressedOutputStream.getDefaultCompressionLevel(), 3);
+		final VariantContextWriter w2 = new ParallelVariantContextWriter(os,3,5);
+		VCFUtils.copyHeaderAndVariantsTo(r2, w2);
+		w2.close();
+		r2.close();
+
+		Assert.assertEquals(Files.readAllBytes(parallelFile.toPath()), Files.readAllBytes(serialFile.toPath()));
+		}
+	}
+}
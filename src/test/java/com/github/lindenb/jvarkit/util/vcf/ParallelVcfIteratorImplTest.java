@@ -0,0 +1,44 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+public class ParallelVcfIteratorImplTest extends TestUtils {
+
+@Test(dataProvider="all-vcf-files")
+public void test01(final String vcfPath) throws IOException {
+	final File vcfFile = new File(vcfPath);
+	for(final int blockSize: new int[]{1,7,1000}) {
+		final VcfIterator r1 = new VcfIteratorImpl(IOUtils.openFileForBufferedReading(vcfFile));
+		final VcfIterator r2 = new ParallelVcfIteratorImpl(IOUtils.toLineIterator(IOUtils.openFileForBufferedReading(vcfFile)),3,blockSize);
+		Assert.assertEquals(r1.getHeader().getSampleNamesInOrder(), r2.getHeader().getSampleNamesInOrder());
+		while(r1.hasNext()) {
+			Assert.assertTrue(r2.hasNext());
+			final VariantContext ctx1 = r1.next();
+			final VariantContext ctx2 = r2.peek();
+			Assert.assertEquals(r2.next().toStringDecodeGenotypes(), ctx2.toStringDecodeGenotypes());
+			Assert.assertEquals(ctx1.toStringDecodeGenotypes(), ctx2.toStringDecodeGenotypes());
+			}
+		Assert.assertFalse(r2.hasNext());
+		r1.close();
+		r2.close();
+		}
+	}
+
+@Test
+public void testCloseEarly() throws IOException {
+	final VcfIterator r2 = new ParallelVcfIteratorImpl(IOUtils.toLineIterator(IOUtils.openFileForBufferedReading(new File(SRC_TEST_RESOURCE+"/test_vcf01.vcf"))),2,1);
+	Assert.assertTrue(r2.hasNext());
+	r2.next();
+	r2.close();
+	Assert.assertFalse(r2.hasNext());
+	}
+}
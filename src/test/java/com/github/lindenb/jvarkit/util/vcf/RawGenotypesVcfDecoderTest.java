@@ -0,0 +1,69 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+
+public class RawGenotypesVcfDecoderTest extends TestUtils {
+
+@Test(dataProvider="all-vcf-files")
+public void testDecode(final String vcfPath) throws IOException {
+	final File vcfFile = new File(vcfPath);
+	final VcfIterator r1 = new VcfIteratorImpl(IOUtils.toLineIterator(IOUtils.openFileForBufferedReading(vcfFile)),false);
+	final VcfIterator r2 = new VcfIteratorImpl(IOUtils.toLineIterator(IOUtils.openFileForBufferedReading(vcfFile)),true);
+	while(r1.hasNext()) {
+		Assert.assertTrue(r2.hasNext());
+		final VariantContext ctx1 = r1.next();
+		final VariantContext ctx2 = r2.next();
+		Assert.assertEquals(ctx1.getNSamples(), ctx2.getNSamples());
+		Assert.assertEquals(ctx1.toStringDecodeGenotypes(), ctx2.toStringDecodeGenotypes());
+		}
+	Assert.assertFalse(r2.hasNext());
+	r1.close();
+	r2.close();
+	}
+
+/** the genotypes must be written 'as is' */
+@Test(dataProvider="all-vcf-files")
+public void testPassthrough(final String vcfPath) throws IOException {
+	final File vcfFile = new File(vcfPath);
+	final File out = createTmpFile(".vcf");
+	final VcfIterator r = new VcfIteratorImpl(IOUtils.toLineIterator(IOUtils.openFileForBufferedReading(vcfFile)),true);
+	final VariantContextWriter w = VCFUtils.createVariantContextWriter(out);
+	w.writeHeader(r.getHeader());
+	while(r.hasNext()) {
+		w.add(new VariantContextBuilder(r.next()).id("rs1").make());
+		}
+	w.close();
+	r.close();
+	
+	final List<String> L1;
+	try(BufferedReader br = IOUtils.openFileForBufferedReading(vcfFile)) {
+		L1 = br.lines().filter(S->!S.startsWith("#")).collect(Collectors.toList());
+		}
+	final List<String> L2 = Files.readAllLines(out.toPath()).stream().filter(S->!S.startsWith("#")).collect(Collectors.toList());
+	Assert.assertEquals(L1.size(), L2.size());
+	for(int i=0;i< L1.size();i++) {
+		final String[] tokens1 = L1.get(i).split("[\t]");
+		final String[] tokens2 = L2.get(i).split("[\t]");
+		Assert.assertEquals(tokens1.length, tokens2.length);
+		Assert.assertEquals(tokens2[2], "rs1");
+		for(int j=8;j< tokens1.length;j++) {
+			Assert.assertEquals(tokens1[j], tokens2[j]);
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class VCFUtilsTest extends TestUtils {
+private static final String BASES = "ACGTNacgtn*.-RYMKU";
+
+private static class TidPosRef {
+	final int tid;
+	final int pos;
+	final String ref;
+	TidPosRef(final int tid,final int pos,final String ref) {
+		this.tid = tid;
+		this.pos = pos;
+		this.ref = ref;
+		}
+	/** the comparator used by the callers when the keys are equal */
+	int compareTo(final TidPosRef o) {
+		int i = Integer.compare(this.tid, o.tid);
+		if(i!=0) return i;
+		i = Integer.compare(this.pos, o.pos);
+		if(i!=0) return i;
+		return this.ref.compareTo(o.ref);
+		}
+	long key() {
+		return VCFUtils.chromPosRefSortKey(this.tid, this.pos, this.ref);
+		}
+	@Override
+	public String toString() {
+		return "("+tid+","+pos+","+ref+")";
+		}
+	}
+
+private static String randomBases(final Random rand,final int length) {
+	final StringBuilder sb = new StringBuilder(length);
+	for(int i=0;i< length;i++) sb.append(BASES.charAt(rand.nextInt(BASES.length())));
+	return sb.toString();
+	}
+
+private static TidPosRef random(final Random rand) {
+	final int tids[] = {0,1,2,rand.nextInt(10),(1<<21)-2,(1<<21)-1,1<<21,rand.nextInt(Integer.MAX_VALUE)};
+	final int positions[] = {1,2,rand.nextInt(1000),Integer.MAX_VALUE,rand.nextInt(Integer.MAX_VALUE)};
+	return new TidPosRef(
+		tids[rand.nextInt(tids.length)],
+		positions[rand.nextInt(positions.length)],
+		randomBases(rand, 1+rand.nextInt(5))
+		);
+	}
+
+/** same tid and pos, REF sharing a prefix */
+private static TidPosRef mutate(final Random rand,final TidPosRef o) {
+	String ref = o.ref.substring(0, rand.nextInt(o.ref.length()+1)) + randomBases(rand, rand.nextInt(4));
+	if(ref.isEmpty()) ref = "A";
+	return new TidPosRef(o.tid, o.pos, ref);
+	}
+
+@Test
+public void testChromPosRefSortKey() {
+	final Random rand = new Random(0L);
+	for(int n=0;n< 1_000_000;n++) {
+		final TidPosRef a = random(rand);
+		final TidPosRef b = rand.nextBoolean()?random(rand):mutate(rand,a);
+		final int k = Long.compareUnsigned(a.key(), b.key());
+		final int c = a.compareTo(b);
+		if(k<0) Assert.assertTrue(c<0, a+" "+b);
+		if(k>0) Assert.assertTrue(c>0, a+" "+b);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.github.lindenb.jvarkit.util.vcf.predictions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class AnnPredictionParserTest extends TestUtils {
+
+	@Test
+	public void testLazyFields() throws IOException {
+		final File vcf = new File(SRC_TEST_RESOURCE,"rotavirus_rf.ann.vcf.gz");
+		try(VCFFileReader r = new VCFFileReader(vcf,false)) {
+			final AnnPredictionParser parser1 = new AnnPredictionParserFactory(r.getFileHeader()).get();
+			final AnnPredictionParser parser2 = new AnnPredictionParserFactory(r.getFileHeader()).get();
+			int n=0;
+			try(CloseableIterator<VariantContext> iter=r.iterator()) {
+				while(iter.hasNext()) {
+					final VariantContext ctx = iter.next();
+					final List<AnnPredictionParser.AnnPrediction> L = parser1.getPredictions(ctx);
+					/* memoized by identity, shared by parsers having the same settings */
+					Assert.assertSame(parser1.getPredictions(ctx), L);
+					Assert.assertSame(parser2.getPredictions(ctx), L);
+					Assert.assertEquals(L.size(), ctx.getAttributeAsList("ANN").size());
+					for(final AnnPredictionParser.AnnPrediction pred: L) {
+						final List<String> tokens = Arrays.asList(pred.getOriginalAttributeAsString().split("[\\|]"));
+						Assert.assertEquals(pred.getAllele(), tokens.get(0));
+						Assert.assertEquals(pred.getSOTermsString(), tokens.get(1));
+						Assert.assertEquals(pred.getGeneName(), tokens.size()>3?tokens.get(3):null);
+						Assert.assertEquals(pred.getSOTermsStrings(), Arrays.asList(tokens.get(1).split("[&]")));
+						Assert.assertSame(pred.getSOTerms(), pred.getSOTerms());
+						n++;
+						}
+					}
+				}
+			Assert.assertTrue(n>0);
+			}
+		}
+}